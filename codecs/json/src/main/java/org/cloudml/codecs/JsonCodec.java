@@ -43,7 +43,7 @@ public class JsonCodec implements Codec {
     
     private static final Logger journal = Logger.getLogger(JsonCodec.class.getName());
     
-    KMFBridge bridge = new KMFBridge();
+    final KMFBridge bridge = new KMFBridge();
     
     static {
         extensions.put("json", new JsonCodec());
@@ -33,23 +33,22 @@ import org.cloudml.core.*;
  * A bridge to translate CloudML POJOs into a KMF representation (which then
  * offers XMI and JSON serialization for free, with no deps) This stupid code
  * could go away if we decide to base the metamodel on KMF generated classes...
+ *
+ * Each conversion uses its own BridgeToKmf/BridgeToCloudML, which record the
+ * elements they have converted: a KMFBridge thus holds no state, and can be
+ * shared by several threads.
  */
 public class KMFBridge {
 
-    private BridgeToCloudML toPojo;
-    private BridgeToKmf toKmf;
-
     public KMFBridge() {
-        toPojo=new BridgeToCloudML();
-        toKmf=new BridgeToKmf();
     }
 
     public NamedElement toPOJO(net.cloudml.core.CloudMLModel kDeploy) {
-        return toPojo.toPOJO(kDeploy);
+        return new BridgeToCloudML().toPOJO(kDeploy);
     }
 
     public net.cloudml.core.CloudMLModel toKMF(Deployment deploy) {
-        return toKmf.toKMF(deploy);
+        return new BridgeToKmf().toKMF(deploy);
     }
 
     /**
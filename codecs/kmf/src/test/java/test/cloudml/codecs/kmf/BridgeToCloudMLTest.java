@@ -26,6 +26,7 @@ import junit.framework.TestCase;
 import org.cloudml.codecs.BridgeToCloudML;
 import org.cloudml.codecs.KMFBridge;
 import org.cloudml.core.*;
+import org.cloudml.core.samples.SensApp;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
@@ -55,6 +56,16 @@ public class BridgeToCloudMLTest extends TestCase {
         assertTrue(kmodel.getRelationships().isEmpty());
         assertTrue(kmodel.getProviders().isEmpty());
     }
+
+    @Test
+    public void successiveConversionsShouldNotShareElements() {
+        final KMFBridge bridge = new KMFBridge();
+        bridge.toKMF(SensApp.completeSensApp().build());
+        net.cloudml.core.CloudMLModel kmodel = bridge.toKMF(new Deployment());
+        assertTrue(kmodel.getComponentInstances().isEmpty());
+        assertTrue(kmodel.getComponents().isEmpty());
+        assertTrue(kmodel.getProviders().isEmpty());
+    }
     
     
     @Test
@@ -0,0 +1,633 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.codecs;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.cloudml.core.Component;
+import org.cloudml.core.ComponentInstance;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.ExecuteInstance;
+import org.cloudml.core.ExternalComponent;
+import org.cloudml.core.ExternalComponentInstance;
+import org.cloudml.core.InternalComponent;
+import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.Property;
+import org.cloudml.core.ProvidedExecutionPlatform;
+import org.cloudml.core.ProvidedExecutionPlatformInstance;
+import org.cloudml.core.ProvidedPort;
+import org.cloudml.core.ProvidedPortInstance;
+import org.cloudml.core.Provider;
+import org.cloudml.core.PuppetResource;
+import org.cloudml.core.Relationship;
+import org.cloudml.core.RelationshipInstance;
+import org.cloudml.core.RequiredExecutionPlatform;
+import org.cloudml.core.RequiredExecutionPlatformInstance;
+import org.cloudml.core.RequiredPort;
+import org.cloudml.core.RequiredPortInstance;
+import org.cloudml.core.Resource;
+import org.cloudml.core.ResourcePoolInstance;
+import org.cloudml.core.VM;
+import org.cloudml.core.VMInstance;
+import org.cloudml.core.WithProperties;
+import org.cloudml.core.WithResources;
+import org.cloudml.core.collections.ProvidedExecutionPlatformInstanceGroup;
+import org.cloudml.core.collections.ProvidedPortInstanceGroup;
+import org.cloudml.core.collections.RequiredPortInstanceGroup;
+import org.cloudml.core.credentials.FileCredentials;
+import org.cloudml.core.credentials.MemoryCredentials;
+
+/**
+ * Read a deployment model from the JSON format produced by the KMF
+ * serializer, one top-level element at a time.
+ *
+ * Only the element being read is held as a JSON tree: it is turned into the
+ * CloudML model as soon as it is parsed. Elements referring to others that
+ * have not been read yet are set aside and resolved once the whole document
+ * has been consumed.
+ */
+class JsonDeploymentReader {
+
+    /**
+     * The order in which the top-level collections depend on each other
+     */
+    private static final List<String> ORDER = Arrays.asList(
+            "properties",
+            "providers",
+            "externalComponents",
+            "internalComponents",
+            "vms",
+            "externalComponentInstances",
+            "internalComponentInstances",
+            "vmInstances",
+            "resourcePools",
+            "relationships",
+            "relationshipInstances",
+            "executesInstances");
+
+    private final JsonReader reader;
+    private final JsonParser parser;
+    private final Deployment deployment;
+    private final List<Deferred> deferred;
+
+    public JsonDeploymentReader(JsonReader reader) {
+        this.reader = reader;
+        this.parser = new JsonParser();
+        this.deployment = new Deployment();
+        this.deferred = new ArrayList<Deferred>();
+    }
+
+    public Deployment read() throws IOException {
+        reader.beginObject();
+        while (reader.hasNext()) {
+            final String key = reader.nextName();
+            if (key.equals("name")) {
+                deployment.setName(reader.nextString());
+
+            } else if (reader.peek() == JsonToken.BEGIN_ARRAY && ORDER.contains(key)) {
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    final JsonObject element = parser.parse(reader).getAsJsonObject();
+                    try {
+                        convert(key, element);
+
+                    } catch (UnresolvedReference ex) {
+                        deferred.add(new Deferred(key, element));
+                    }
+                }
+                reader.endArray();
+
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        resolveDeferred();
+        return deployment;
+    }
+
+    private void resolveDeferred() {
+        Collections.sort(deferred, new Comparator<Deferred>() {
+            @Override
+            public int compare(Deferred left, Deferred right) {
+                return ORDER.indexOf(left.collection) - ORDER.indexOf(right.collection);
+            }
+        });
+        for (Deferred each : deferred) {
+            try {
+                convert(each.collection, each.element);
+
+            } catch (UnresolvedReference ex) {
+                final String error = String.format("Unable to resolve '%s' (referred to in '%s')", ex.path, each.collection);
+                throw new IllegalArgumentException(error);
+            }
+        }
+        deferred.clear();
+    }
+
+    private void convert(String collection, JsonObject element) throws UnresolvedReference {
+        if (collection.equals("properties")) {
+            deployment.getProperties().add(property(element));
+
+        } else if (collection.equals("providers")) {
+            deployment.getProviders().add(provider(element));
+
+        } else if (collection.equals("externalComponents")) {
+            deployment.getComponents().add(externalComponent(element));
+
+        } else if (collection.equals("internalComponents")) {
+            deployment.getComponents().add(internalComponent(element));
+
+        } else if (collection.equals("vms")) {
+            deployment.getComponents().add(vm(element));
+
+        } else if (collection.equals("externalComponentInstances")) {
+            deployment.getComponentInstances().add(externalComponentInstance(element));
+
+        } else if (collection.equals("internalComponentInstances")) {
+            deployment.getComponentInstances().add(internalComponentInstance(element));
+
+        } else if (collection.equals("vmInstances")) {
+            deployment.getComponentInstances().add(vmInstance(element));
+
+        } else if (collection.equals("resourcePools")) {
+            deployment.getResourcePoolInstances().add(resourcePool(element));
+
+        } else if (collection.equals("relationships")) {
+            deployment.getRelationships().add(relationship(element));
+
+        } else if (collection.equals("relationshipInstances")) {
+            deployment.getRelationshipInstances().add(relationshipInstance(element));
+
+        } else if (collection.equals("executesInstances")) {
+            deployment.getExecuteInstances().add(executeInstance(element));
+
+        }
+    }
+
+    private Provider provider(JsonObject json) {
+        final Provider provider;
+        final String credentials = text(json, "credentials");
+        if (credentials == null || credentials.isEmpty()) {
+            final String login = text(json, "login");
+            final String password = text(json, "password");
+            if (login == null || password == null) {
+                throw new IllegalArgumentException("No credentials for provider '" + text(json, "name") + "'");
+            }
+            provider = new Provider(text(json, "name"), new MemoryCredentials(login, password));
+        } else {
+            provider = new Provider(text(json, "name"), new FileCredentials(credentials));
+        }
+        properties(json, provider);
+        return provider;
+    }
+
+    private ExternalComponent externalComponent(JsonObject json) throws UnresolvedReference {
+        final ExternalComponent component = new ExternalComponent(text(json, "name"), providerAt(text(json, "provider")));
+        properties(json, component);
+        resources(json, component);
+        if (json.has("login")) {
+            component.setLogin(text(json, "login"));
+        }
+        if (json.has("passwd")) {
+            component.setPasswd(text(json, "passwd"));
+        }
+        if (json.has("location")) {
+            component.setLocation(text(json, "location"));
+        }
+        if (region(json) != null) {
+            component.setRegion(region(json));
+        }
+        if (json.has("serviceType")) {
+            component.setServiceType(text(json, "serviceType"));
+        }
+        if (json.has("endPoint")) {
+            component.setEndPoint(text(json, "endPoint"));
+        }
+        providedPorts(json, component);
+        providedExecutionPlatforms(json, component);
+        return component;
+    }
+
+    private VM vm(JsonObject json) throws UnresolvedReference {
+        final VM vm = new VM(text(json, "name"), providerAt(text(json, "provider")));
+        properties(json, vm);
+        resources(json, vm);
+        vm.setGroupName(text(json, "groupName"));
+        vm.setImageId(text(json, "imageId"));
+        vm.setIs64os(bool(json, "is64os", false));
+        vm.setLocation(text(json, "location"));
+        vm.setMinCores(integer(json, "minCores"));
+        vm.setMaxCores(integer(json, "maxCores"));
+        vm.setMinStorage(integer(json, "minStorage"));
+        vm.setMaxStorage(integer(json, "maxStorage"));
+        vm.setMinRam(integer(json, "minRam"));
+        vm.setMaxRam(integer(json, "maxRam"));
+        vm.setOs(text(json, "os"));
+        vm.setPrivateKey(text(json, "privateKey"));
+        vm.setSecurityGroup(text(json, "securityGroup"));
+        vm.setSshKey(text(json, "sshKey"));
+        vm.setRegion(region(json));
+        vm.setLogin(text(json, "login"));
+        vm.setPasswd(text(json, "passwd"));
+        vm.setEndPoint(text(json, "endPoint"));
+        vm.setProviderSpecificTypeName(text(json, "providerSpecificTypeName"));
+        providedExecutionPlatforms(json, vm);
+        return vm;
+    }
+
+    private InternalComponent internalComponent(JsonObject json) {
+        final InternalComponent component = new InternalComponent(text(json, "name"), new RequiredExecutionPlatform("to be replaced"));
+        properties(json, component);
+        resources(json, component);
+        if (json.has("requiredExecutionPlatform")) {
+            final JsonObject platform = json.getAsJsonObject("requiredExecutionPlatform");
+            final RequiredExecutionPlatform required = new RequiredExecutionPlatform(text(platform, "name"));
+            required.getOwner().set(component);
+            properties(platform, required);
+            resources(platform, required);
+            for (JsonObject demand : array(platform, "demands")) {
+                required.getDemands().add(property(demand));
+            }
+            component.setRequiredExecutionPlatform(required);
+        }
+        providedExecutionPlatforms(json, component);
+        providedPorts(json, component);
+        for (JsonObject port : array(json, "requiredPorts")) {
+            final RequiredPort required = new RequiredPort(text(port, "name"), bool(port, "isLocal", false), !bool(port, "isMandatory", false));
+            required.getOwner().set(component);
+            properties(port, required);
+            required.setPortNumber(integer(port, "portNumber"));
+            component.getRequiredPorts().add(required);
+        }
+        return component;
+    }
+
+    private void providedPorts(JsonObject json, Component component) {
+        for (JsonObject port : array(json, "providedPorts")) {
+            final ProvidedPort provided = new ProvidedPort(text(port, "name"), bool(port, "isLocal", false));
+            provided.getOwner().set(component);
+            properties(port, provided);
+            provided.setPortNumber(integer(port, "portNumber"));
+            component.getProvidedPorts().add(provided);
+        }
+    }
+
+    private void providedExecutionPlatforms(JsonObject json, Component component) {
+        for (JsonObject platform : array(json, "providedExecutionPlatforms")) {
+            final ProvidedExecutionPlatform provided = new ProvidedExecutionPlatform(text(platform, "name"));
+            provided.getOwner().set(component);
+            properties(platform, provided);
+            resources(platform, provided);
+            for (JsonObject offer : array(platform, "offers")) {
+                provided.getOffers().add(property(offer));
+            }
+            component.getProvidedExecutionPlatforms().add(provided);
+        }
+    }
+
+    private ExternalComponentInstance<ExternalComponent> externalComponentInstance(JsonObject json) throws UnresolvedReference {
+        final Component type = componentAt(text(json, "type"));
+        final ExternalComponentInstance<ExternalComponent> instance = new ExternalComponentInstance<ExternalComponent>(text(json, "name"), type.asExternal());
+        properties(json, instance);
+        providedExecutionPlatformInstances(json, instance);
+        providedPortInstances(json, instance);
+        return instance;
+    }
+
+    private VMInstance vmInstance(JsonObject json) throws UnresolvedReference {
+        final Component type = componentAt(text(json, "type"));
+        if (!(type instanceof VM)) {
+            throw new IllegalArgumentException("'" + text(json, "type") + "' is not a VM");
+        }
+        final VMInstance instance = new VMInstance(text(json, "name"), (VM) type);
+        if (json.has("publicAddress")) {
+            instance.setPublicAddress(text(json, "publicAddress"));
+        }
+        if (json.has("status")) {
+            instance.setStatus(text(json, "status"));
+        }
+        if (json.has("id")) {
+            instance.setId(text(json, "id"));
+        }
+        properties(json, instance);
+        providedExecutionPlatformInstances(json, instance);
+        return instance;
+    }
+
+    private InternalComponentInstance internalComponentInstance(JsonObject json) throws UnresolvedReference {
+        final Component type = componentAt(text(json, "type"));
+        final InternalComponentInstance instance = new InternalComponentInstance(text(json, "name"), type.asInternal());
+        properties(json, instance);
+        if (json.has("requiredExecutionPlatformInstance")) {
+            final JsonObject platform = json.getAsJsonObject("requiredExecutionPlatformInstance");
+            final RequiredExecutionPlatformInstance required = new RequiredExecutionPlatformInstance(text(platform, "name"), instance.getType().getRequiredExecutionPlatform());
+            required.getOwner().set(instance);
+            properties(platform, required);
+            resources(platform, required);
+            instance.setRequiredExecutionPlatform(required);
+        }
+        providedExecutionPlatformInstances(json, instance);
+        providedPortInstances(json, instance);
+        final RequiredPortInstanceGroup requiredPorts = new RequiredPortInstanceGroup();
+        for (JsonObject port : array(json, "requiredPortInstances")) {
+            final RequiredPort portType = instance.getType().getRequiredPorts().firstNamed(lastNameIn(text(port, "type")));
+            final RequiredPortInstance required = new RequiredPortInstance(text(port, "name"), portType);
+            required.getOwner().set(instance);
+            properties(port, required);
+            requiredPorts.add(required);
+        }
+        instance.setRequiredPorts(requiredPorts);
+        return instance;
+    }
+
+    private void providedPortInstances(JsonObject json, ComponentInstance<? extends Component> instance) {
+        final ProvidedPortInstanceGroup providedPorts = new ProvidedPortInstanceGroup();
+        for (JsonObject port : array(json, "providedPortInstances")) {
+            final ProvidedPort portType = instance.getType().getProvidedPorts().firstNamed(lastNameIn(text(port, "type")));
+            final ProvidedPortInstance provided = new ProvidedPortInstance(text(port, "name"), portType);
+            provided.getOwner().set(instance);
+            properties(port, provided);
+            providedPorts.add(provided);
+        }
+        instance.setProvidedPorts(providedPorts);
+    }
+
+    private void providedExecutionPlatformInstances(JsonObject json, ComponentInstance<? extends Component> instance) {
+        final ProvidedExecutionPlatformInstanceGroup platforms = new ProvidedExecutionPlatformInstanceGroup();
+        for (JsonObject platform : array(json, "providedExecutionPlatformInstances")) {
+            final ProvidedExecutionPlatform platformType = instance.getType().getProvidedExecutionPlatforms().firstNamed(lastNameIn(text(platform, "type")));
+            final ProvidedExecutionPlatformInstance provided = new ProvidedExecutionPlatformInstance(text(platform, "name"), platformType);
+            provided.getOwner().set(instance);
+            properties(platform, provided);
+            resources(platform, provided);
+            platforms.add(provided);
+        }
+        instance.setProvidedExecutionPlatforms(platforms);
+    }
+
+    private ResourcePoolInstance resourcePool(JsonObject json) throws UnresolvedReference {
+        final List<VMInstance> baseInstances = new ArrayList<VMInstance>();
+        if (json.has("baseInstances")) {
+            for (JsonElement each : json.getAsJsonArray("baseInstances")) {
+                final ComponentInstance<?> instance = instanceAt(each.getAsString());
+                if (!(instance instanceof VMInstance)) {
+                    throw new IllegalArgumentException("'" + each.getAsString() + "' is not a VM instance");
+                }
+                baseInstances.add((VMInstance) instance);
+            }
+        }
+        final ResourcePoolInstance pool = new ResourcePoolInstance(integer(json, "nbReplicats"), integer(json, "maxReplicats"), integer(json, "minReplicats"), baseInstances, text(json, "type"));
+        pool.setName(text(json, "name"));
+        properties(json, pool);
+        resources(json, pool);
+        return pool;
+    }
+
+    private Relationship relationship(JsonObject json) throws UnresolvedReference {
+        final String requiredPath = text(json, "requiredPort");
+        final RequiredPort requiredPort = componentAt(requiredPath).asInternal().getRequiredPorts().firstNamed(lastNameIn(requiredPath));
+        final String providedPath = text(json, "providedPort");
+        final ProvidedPort providedPort = componentAt(providedPath).getProvidedPorts().firstNamed(lastNameIn(providedPath));
+        if (requiredPort == null) {
+            throw new IllegalArgumentException("Unknown required port '" + requiredPath + "'");
+        }
+        if (providedPort == null) {
+            throw new IllegalArgumentException("Unknown provided port '" + providedPath + "'");
+        }
+        final Relationship relationship = new Relationship(text(json, "name"), requiredPort, providedPort);
+        properties(json, relationship);
+        resources(json, relationship);
+        if (json.has("requiredPortResource")) {
+            relationship.setClientResource(resource(json.getAsJsonObject("requiredPortResource"), new Resource()));
+        }
+        if (json.has("providedPortResource")) {
+            relationship.setServerResource(resource(json.getAsJsonObject("providedPortResource"), new Resource()));
+        }
+        return relationship;
+    }
+
+    private RelationshipInstance relationshipInstance(JsonObject json) throws UnresolvedReference {
+        final String typePath = text(json, "type");
+        final Relationship type = deployment.getRelationships().firstNamed(lastNameIn(typePath));
+        if (type == null) {
+            throw new UnresolvedReference(typePath);
+        }
+        final String requiredPath = text(json, "requiredPortInstance");
+        final RequiredPortInstance requiredEnd = instanceAt(requiredPath).asInternal().getRequiredPorts().firstNamed(lastNameIn(requiredPath));
+        final String providedPath = text(json, "providedPortInstance");
+        final ProvidedPortInstance providedEnd = instanceAt(providedPath).getProvidedPorts().firstNamed(lastNameIn(providedPath));
+        final RelationshipInstance instance = new RelationshipInstance(text(json, "name"), requiredEnd, providedEnd, type);
+        properties(json, instance);
+        return instance;
+    }
+
+    private ExecuteInstance executeInstance(JsonObject json) throws UnresolvedReference {
+        final String requiredPath = text(json, "requiredExecutionPlatformInstance");
+        final RequiredExecutionPlatformInstance requiredEnd = instanceAt(requiredPath).asInternal().getRequiredExecutionPlatform();
+        final String providedPath = text(json, "providedExecutionPlatformInstance");
+        final ProvidedExecutionPlatformInstance providedEnd = instanceAt(providedPath).getProvidedExecutionPlatforms().firstNamed(lastNameIn(providedPath));
+        final ExecuteInstance execute = new ExecuteInstance(text(json, "name"), requiredEnd, providedEnd);
+        properties(json, execute);
+        resources(json, execute);
+        return execute;
+    }
+
+    private void properties(JsonObject json, WithProperties element) {
+        for (JsonObject property : array(json, "properties")) {
+            element.getProperties().add(property(property));
+        }
+    }
+
+    private Property property(JsonObject json) {
+        return new Property(text(json, "name"), text(json, "value"));
+    }
+
+    private void resources(JsonObject json, WithResources element) {
+        for (JsonObject resource : array(json, "resources")) {
+            element.getResources().add(resource(resource, new Resource()));
+        }
+        for (JsonObject resource : array(json, "puppetResources")) {
+            final PuppetResource puppet = resource(resource, new PuppetResource());
+            puppet.setMaster(text(resource, "masterEndpoint"));
+            puppet.setRepo(text(resource, "repositoryEndpoint"));
+            puppet.setConfigureHostnameCommand(text(resource, "configureHostnameCommand"));
+            puppet.setConfigurationFile(text(resource, "configurationFile"));
+            puppet.setRepositoryKey(text(resource, "repositoryKey"));
+            puppet.setUsername(text(resource, "username"));
+            puppet.setManifestEntry(text(resource, "manifestEntry"));
+            element.getResources().add(puppet);
+        }
+    }
+
+    private <T extends Resource> T resource(JsonObject json, T resource) {
+        resource.setName(text(json, "name"));
+        resource.setRetrieveCommand(text(json, "downloadCommand"));
+        resource.setInstallCommand(text(json, "installCommand"));
+        resource.setConfigureCommand(text(json, "configureCommand"));
+        resource.setStartCommand(text(json, "startCommand"));
+        resource.setStopCommand(text(json, "stopCommand"));
+        resource.setRequireCredentials(bool(json, "requireCredentials", false));
+        resource.setExecuteLocally(bool(json, "executeLocally", false));
+        final Map<String, String> uploads = new HashMap<String, String>();
+        final String upload = text(json, "uploadCommand");
+        if (upload != null) {
+            for (String each : upload.split(";")) {
+                final String[] parts = each.split(" ");
+                if (parts.length >= 2) {
+                    uploads.put(parts[0], parts[1]);
+                }
+            }
+        }
+        resource.setUploadCommand(uploads);
+        properties(json, resource);
+        return resource;
+    }
+
+    /*
+     * Resolution of the references, such as "vms[ML]" or
+     * "internalComponentInstances[sensApp1]/providedPortInstances[rest-1]"
+     */
+
+    private Provider providerAt(String path) throws UnresolvedReference {
+        final Provider provider = deployment.getProviders().firstNamed(firstNameIn(path));
+        if (provider == null) {
+            throw new UnresolvedReference(path);
+        }
+        return provider;
+    }
+
+    private Component componentAt(String path) throws UnresolvedReference {
+        final Component component = deployment.getComponents().firstNamed(firstNameIn(path));
+        if (component == null) {
+            throw new UnresolvedReference(path);
+        }
+        return component;
+    }
+
+    private ComponentInstance<?> instanceAt(String path) throws UnresolvedReference {
+        final ComponentInstance<?> instance = deployment.getComponentInstances().firstNamed(firstNameIn(path));
+        if (instance == null) {
+            throw new UnresolvedReference(path);
+        }
+        return instance;
+    }
+
+    private static String firstNameIn(String path) {
+        if (path == null) {
+            throw new IllegalArgumentException("Missing reference");
+        }
+        final int end = path.indexOf("]/");
+        return nameIn(end == -1 ? path : path.substring(0, end + 1));
+    }
+
+    private static String lastNameIn(String path) {
+        if (path == null) {
+            throw new IllegalArgumentException("Missing reference");
+        }
+        final int start = path.lastIndexOf("]/");
+        return nameIn(start == -1 ? path : path.substring(start + 2));
+    }
+
+    private static String nameIn(String segment) {
+        final int start = segment.indexOf('[');
+        if (start == -1 || !segment.endsWith("]")) {
+            throw new IllegalArgumentException("Invalid reference '" + segment + "'");
+        }
+        return segment.substring(start + 1, segment.length() - 1);
+    }
+
+    /*
+     * Access to the attributes. KMF writes integers as strings.
+     */
+
+    private static String text(JsonObject json, String key) {
+        final JsonElement value = json.get(key);
+        if (value == null || value.isJsonNull()) {
+            return null;
+        }
+        return value.getAsString();
+    }
+
+    private static String region(JsonObject json) {
+        final String region = text(json, "Region");
+        return region != null ? region : text(json, "region");
+    }
+
+    private static int integer(JsonObject json, String key) {
+        final String value = text(json, key);
+        return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    private static boolean bool(JsonObject json, String key, boolean defaultValue) {
+        final String value = text(json, key);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+
+    private static List<JsonObject> array(JsonObject json, String key) {
+        final List<JsonObject> elements = new ArrayList<JsonObject>();
+        final JsonArray array = json.getAsJsonArray(key);
+        if (array != null) {
+            for (JsonElement each : array) {
+                elements.add(each.getAsJsonObject());
+            }
+        }
+        return elements;
+    }
+
+    private static class Deferred {
+
+        private final String collection;
+        private final JsonObject element;
+
+        public Deferred(String collection, JsonObject element) {
+            this.collection = collection;
+            this.element = element;
+        }
+
+    }
+
+    private static class UnresolvedReference extends Exception {
+
+        private final String path;
+
+        public UnresolvedReference(String path) {
+            super("Unresolved reference '" + path + "'");
+            this.path = path;
+        }
+
+    }
+
+}
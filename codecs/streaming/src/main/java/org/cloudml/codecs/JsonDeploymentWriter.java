@@ -0,0 +1,673 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.codecs;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import org.cloudml.core.Component;
+import org.cloudml.core.ComponentInstance;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.ExecuteInstance;
+import org.cloudml.core.ExecutionPlatform;
+import org.cloudml.core.ExecutionPlatformInstance;
+import org.cloudml.core.ExternalComponent;
+import org.cloudml.core.ExternalComponentInstance;
+import org.cloudml.core.InternalComponent;
+import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.Port;
+import org.cloudml.core.PortInstance;
+import org.cloudml.core.Property;
+import org.cloudml.core.Provider;
+import org.cloudml.core.ProvidedExecutionPlatform;
+import org.cloudml.core.ProvidedExecutionPlatformInstance;
+import org.cloudml.core.ProvidedPort;
+import org.cloudml.core.ProvidedPortInstance;
+import org.cloudml.core.PuppetResource;
+import org.cloudml.core.DockerResource;
+import org.cloudml.core.Relationship;
+import org.cloudml.core.RelationshipInstance;
+import org.cloudml.core.RequiredExecutionPlatform;
+import org.cloudml.core.RequiredExecutionPlatformInstance;
+import org.cloudml.core.RequiredPort;
+import org.cloudml.core.RequiredPortInstance;
+import org.cloudml.core.Resource;
+import org.cloudml.core.VM;
+import org.cloudml.core.VMInstance;
+import org.cloudml.core.WithProperties;
+import org.cloudml.core.WithResources;
+import org.cloudml.core.credentials.FileCredentials;
+import org.cloudml.core.credentials.MemoryCredentials;
+import org.cloudml.core.credentials.NoCredentials;
+
+/**
+ * Write a deployment model in the JSON format produced by the KMF serializer,
+ * element by element, without building any intermediate model.
+ *
+ * The layout mimics the one of KMF: within each object, the attributes come
+ * first, then the references, and then the contained objects. References are
+ * paths such as "internalComponents[sensapp]/providedPorts[rest]".
+ */
+class JsonDeploymentWriter {
+
+    private static final String PACKAGE = "net.cloudml.core:";
+
+    private final Writer out;
+    private final Deque<boolean[]> lists = new ArrayDeque<boolean[]>();
+
+    public JsonDeploymentWriter(Writer out) {
+        this.out = out;
+    }
+
+    public void write(Deployment deployment) throws IOException {
+        begin("CloudMLModel");
+        attribute("name", deployment.getName());
+        properties(deployment);
+
+        beginList("providers", deployment.getProviders().isEmpty());
+        for (Provider provider : deployment.getProviders()) {
+            next();
+            provider(provider);
+        }
+        endList();
+
+        beginList("internalComponents", deployment.getComponents().onlyInternals().isEmpty());
+        for (InternalComponent component : deployment.getComponents().onlyInternals()) {
+            next();
+            internalComponent(component);
+        }
+        endList();
+
+        boolean empty = true;
+        for (ExternalComponent component : deployment.getComponents().onlyExternals()) {
+            if (!component.isVM()) {
+                if (empty) {
+                    beginList("externalComponents", false);
+                    empty = false;
+                }
+                next();
+                externalComponent(component);
+            }
+        }
+        if (!empty) {
+            endList();
+        }
+
+        beginList("internalComponentInstances", deployment.getComponentInstances().onlyInternals().isEmpty());
+        for (InternalComponentInstance instance : deployment.getComponentInstances().onlyInternals()) {
+            next();
+            internalComponentInstance(instance);
+        }
+        endList();
+
+        empty = true;
+        for (ExternalComponentInstance<?> instance : deployment.getComponentInstances().onlyExternals()) {
+            if (!instance.isVM()) {
+                if (empty) {
+                    beginList("externalComponentInstances", false);
+                    empty = false;
+                }
+                next();
+                externalComponentInstance(instance);
+            }
+        }
+        if (!empty) {
+            endList();
+        }
+
+        beginList("vms", deployment.getComponents().onlyVMs().isEmpty());
+        for (VM vm : deployment.getComponents().onlyVMs()) {
+            next();
+            vm(vm);
+        }
+        endList();
+
+        beginList("vmInstances", deployment.getComponentInstances().onlyVMs().isEmpty());
+        for (VMInstance instance : deployment.getComponentInstances().onlyVMs()) {
+            next();
+            vmInstance(instance);
+        }
+        endList();
+
+        beginList("relationships", deployment.getRelationships().isEmpty());
+        for (Relationship relationship : deployment.getRelationships()) {
+            next();
+            relationship(relationship);
+        }
+        endList();
+
+        beginList("relationshipInstances", deployment.getRelationshipInstances().isEmpty());
+        for (RelationshipInstance instance : deployment.getRelationshipInstances()) {
+            next();
+            begin("RelationshipInstance");
+            attribute("name", instance.getName());
+            attribute("type", "relationships[" + instance.getType().getName() + "]");
+            attribute("requiredPortInstance", pathOf(instance.getRequiredEnd(), "requiredPortInstances"));
+            attribute("providedPortInstance", pathOf(instance.getProvidedEnd(), "providedPortInstances"));
+            end();
+        }
+        endList();
+
+        beginList("executesInstances", deployment.getExecuteInstances().isEmpty());
+        for (ExecuteInstance execute : deployment.getExecuteInstances()) {
+            next();
+            begin("ExecuteInstance");
+            attribute("name", execute.getName());
+            attribute("providedExecutionPlatformInstance", pathOf(execute.getProvidedEnd()));
+            attribute("requiredExecutionPlatformInstance", pathOf(execute.getRequiredEnd()));
+            properties(execute);
+            resources(execute);
+            end();
+        }
+        endList();
+
+        end();
+        out.flush();
+    }
+
+    private void provider(Provider provider) throws IOException {
+        begin("Provider");
+        attribute("name", provider.getName());
+        if (provider.getCredentials() instanceof NoCredentials) {
+            attribute("credentials", "no given credentials");
+        } else if (provider.getCredentials() instanceof MemoryCredentials) {
+            attribute("login", provider.getCredentials().getLogin());
+            attribute("password", provider.getCredentials().getPassword());
+        } else if (provider.getCredentials() instanceof FileCredentials) {
+            attribute("credentials", ((FileCredentials) provider.getCredentials()).getPathToCredentials());
+        }
+        properties(provider);
+        end();
+    }
+
+    private void internalComponent(InternalComponent component) throws IOException {
+        begin("InternalComponent");
+        attribute("name", component.getName());
+        properties(component);
+        resources(component);
+        providedPorts(component);
+        providedExecutionPlatforms(component);
+
+        beginList("requiredPorts", component.getRequiredPorts().isEmpty());
+        for (RequiredPort port : component.getRequiredPorts()) {
+            next();
+            begin("RequiredPort");
+            attribute("name", port.getName());
+            attribute("isLocal", port.isLocal());
+            attribute("portNumber", port.getPortNumber());
+            attribute("isMandatory", port.isMandatory());
+            attribute("component", pathOf(component));
+            properties(port);
+            end();
+        }
+        endList();
+
+        final RequiredExecutionPlatform platform = component.getRequiredExecutionPlatform();
+        if (platform != null) {
+            beginContained("requiredExecutionPlatform");
+            begin("RequiredExecutionPlatform");
+            attribute("name", platform.getName());
+            attribute("owner", pathOf(component));
+            properties(platform);
+            resources(platform);
+            beginList("demands", platform.getDemands().isEmpty());
+            for (Property demand : platform.getDemands()) {
+                next();
+                property(demand);
+            }
+            endList();
+            end();
+            endContained();
+        }
+        end();
+    }
+
+    private void externalComponent(ExternalComponent component) throws IOException {
+        begin("ExternalComponent");
+        attribute("name", component.getName());
+        externalAttributes(component);
+        attribute("serviceType", component.getServiceType());
+        attribute("Region", component.getRegion());
+        attribute("provider", "providers[" + component.getProvider().getName() + "]");
+        properties(component);
+        resources(component);
+        providedPorts(component);
+        providedExecutionPlatforms(component);
+        end();
+    }
+
+    private void vm(VM vm) throws IOException {
+        begin("VM");
+        attribute("name", vm.getName());
+        externalAttributes(vm);
+        attribute("Region", vm.getRegion());
+        attribute("minRam", vm.getMinRam());
+        attribute("maxRam", vm.getMaxRam());
+        attribute("minCores", vm.getMinCores());
+        attribute("maxCores", vm.getMaxCores());
+        attribute("minStorage", vm.getMinStorage());
+        attribute("maxStorage", vm.getMaxStorage());
+        attribute("os", vm.getOs());
+        attribute("is64os", vm.getIs64os());
+        attribute("imageId", vm.getImageId());
+        attribute("securityGroup", vm.getSecurityGroup());
+        attribute("sshKey", vm.getSshKey());
+        attribute("privateKey", vm.getPrivateKey());
+        attribute("groupName", vm.getGroupName());
+        attribute("providerSpecificTypeName", vm.getProviderSpecificTypeName());
+        attribute("provider", "providers[" + vm.getProvider().getName() + "]");
+        properties(vm);
+        resources(vm);
+        providedExecutionPlatforms(vm);
+        end();
+    }
+
+    private void externalAttributes(ExternalComponent component) throws IOException {
+        attribute("endPoint", component.getEndPoint());
+        attribute("login", component.getLogin());
+        attribute("passwd", component.getPasswd());
+        attribute("location", component.getLocation());
+    }
+
+    private void providedPorts(Component component) throws IOException {
+        beginList("providedPorts", component.getProvidedPorts().isEmpty());
+        for (ProvidedPort port : component.getProvidedPorts()) {
+            next();
+            begin("ProvidedPort");
+            attribute("name", port.getName());
+            attribute("isLocal", port.isLocal());
+            attribute("portNumber", port.getPortNumber());
+            attribute("component", pathOf(component));
+            properties(port);
+            end();
+        }
+        endList();
+    }
+
+    private void providedExecutionPlatforms(Component component) throws IOException {
+        beginList("providedExecutionPlatforms", component.getProvidedExecutionPlatforms().isEmpty());
+        for (ProvidedExecutionPlatform platform : component.getProvidedExecutionPlatforms()) {
+            next();
+            begin("ProvidedExecutionPlatform");
+            attribute("name", platform.getName());
+            attribute("owner", pathOf(component));
+            properties(platform);
+            resources(platform);
+            beginList("offers", platform.getOffers().isEmpty());
+            for (Property offer : platform.getOffers()) {
+                next();
+                property(offer);
+            }
+            endList();
+            end();
+        }
+        endList();
+    }
+
+    private void internalComponentInstance(InternalComponentInstance instance) throws IOException {
+        begin("InternalComponentInstance");
+        attribute("name", instance.getName());
+        attribute("type", pathOf(instance.getType()));
+        properties(instance);
+        providedPortInstances(instance);
+        providedExecutionPlatformInstances(instance);
+
+        beginList("requiredPortInstances", instance.getRequiredPorts().isEmpty());
+        for (RequiredPortInstance port : instance.getRequiredPorts()) {
+            next();
+            portInstance("RequiredPortInstance", port, "requiredPorts");
+        }
+        endList();
+
+        final RequiredExecutionPlatformInstance platform = instance.getRequiredExecutionPlatform();
+        if (platform != null) {
+            beginContained("requiredExecutionPlatformInstance");
+            begin("RequiredExecutionPlatformInstance");
+            attribute("name", platform.getName());
+            attribute("owner", pathOf(instance));
+            attribute("type", pathOf(platform.getType(), "requiredExecutionPlatform"));
+            properties(platform);
+            resources(platform);
+            end();
+            endContained();
+        }
+        end();
+    }
+
+    private void externalComponentInstance(ExternalComponentInstance<?> instance) throws IOException {
+        begin("ExternalComponentInstance");
+        attribute("name", instance.getName());
+        attribute("type", pathOf(instance.getType()));
+        properties(instance);
+        providedPortInstances(instance);
+        providedExecutionPlatformInstances(instance);
+        end();
+    }
+
+    private void vmInstance(VMInstance instance) throws IOException {
+        begin("VMInstance");
+        attribute("name", instance.getName());
+        attribute("status", instance.getStatus() == null ? null : instance.getStatus().name());
+        attribute("publicAddress", instance.getPublicAddress());
+        if (instance.getId() != null && !instance.getId().isEmpty()) {
+            attribute("id", instance.getId());
+        }
+        attribute("type", pathOf(instance.getType()));
+        properties(instance);
+        providedExecutionPlatformInstances(instance);
+        end();
+    }
+
+    private void providedPortInstances(ComponentInstance<?> instance) throws IOException {
+        beginList("providedPortInstances", instance.getProvidedPorts().isEmpty());
+        for (ProvidedPortInstance port : instance.getProvidedPorts()) {
+            next();
+            portInstance("ProvidedPortInstance", port, "providedPorts");
+        }
+        endList();
+    }
+
+    private void portInstance(String eClass, PortInstance<? extends Port> port, String collection) throws IOException {
+        begin(eClass);
+        attribute("name", port.getName());
+        attribute("type", pathOf(port.getType().getOwner().get()) + "/" + collection + "[" + port.getType().getName() + "]");
+        properties(port);
+        end();
+    }
+
+    private void providedExecutionPlatformInstances(ComponentInstance<?> instance) throws IOException {
+        beginList("providedExecutionPlatformInstances", instance.getProvidedExecutionPlatforms().isEmpty());
+        for (ProvidedExecutionPlatformInstance platform : instance.getProvidedExecutionPlatforms()) {
+            next();
+            begin("ProvidedExecutionPlatformInstance");
+            attribute("name", platform.getName());
+            attribute("owner", pathOf(instance));
+            attribute("type", pathOf(platform.getType(), "providedExecutionPlatforms"));
+            properties(platform);
+            resources(platform);
+            end();
+        }
+        endList();
+    }
+
+    private void relationship(Relationship relationship) throws IOException {
+        begin("Relationship");
+        attribute("name", relationship.getName());
+        attribute("requiredPort", pathOf(relationship.getRequiredEnd().getOwner().get()) + "/requiredPorts[" + relationship.getRequiredEnd().getName() + "]");
+        attribute("providedPort", pathOf(relationship.getProvidedEnd().getOwner().get()) + "/providedPorts[" + relationship.getProvidedEnd().getName() + "]");
+        properties(relationship);
+        resources(relationship);
+        if (relationship.getClientResource() != null) {
+            inline("requiredPortResource");
+            resource("Resource", relationship.getClientResource());
+            end();
+        }
+        if (relationship.getServerResource() != null) {
+            inline("providedPortResource");
+            resource("Resource", relationship.getServerResource());
+            end();
+        }
+        end();
+    }
+
+    private void properties(WithProperties element) throws IOException {
+        boolean empty = true;
+        for (Property property : element.getProperties()) {
+            if (property.getValue() != null) {
+                if (empty) {
+                    beginList("properties", false);
+                    empty = false;
+                }
+                next();
+                property(property);
+            }
+        }
+        if (!empty) {
+            endList();
+        }
+    }
+
+    private void property(Property property) throws IOException {
+        begin("Property");
+        attribute("name", property.getName());
+        attribute("value", property.getValue());
+        end();
+    }
+
+    private void resources(WithResources element) throws IOException {
+        boolean empty = true;
+        for (Resource resource : element.getResources()) {
+            if (!(resource instanceof PuppetResource) && !(resource instanceof DockerResource)) {
+                if (empty) {
+                    beginList("resources", false);
+                    empty = false;
+                }
+                next();
+                resource("Resource", resource);
+                properties(resource);
+                end();
+            }
+        }
+        if (!empty) {
+            endList();
+        }
+        empty = true;
+        for (Resource resource : element.getResources()) {
+            if (resource instanceof PuppetResource) {
+                if (empty) {
+                    beginList("puppetResources", false);
+                    empty = false;
+                }
+                next();
+                final PuppetResource puppet = (PuppetResource) resource;
+                resource("PuppetResource", puppet);
+                attribute("masterEndpoint", puppet.getMaster());
+                attribute("repositoryEndpoint", puppet.getRepo());
+                attribute("configureHostnameCommand", puppet.getConfigureHostnameCommand());
+                attribute("username", puppet.getUsername());
+                attribute("repositoryKey", puppet.getRepositoryKey());
+                attribute("configurationFile", puppet.getConfigurationFile());
+                attribute("manifestEntry", puppet.getManifestEntry());
+                properties(puppet);
+                end();
+            }
+        }
+        if (!empty) {
+            endList();
+        }
+    }
+
+    /**
+     * Open the object of a resource and write the attributes common to all
+     * kinds of resources. The caller closes it.
+     */
+    private void resource(String eClass, Resource resource) throws IOException {
+        begin(eClass);
+        attribute("name", resource.getName());
+        attribute("downloadCommand", resource.getRetrieveCommand());
+        final StringBuilder uploads = new StringBuilder();
+        if (resource.getUploadCommand() != null) {
+            for (Map.Entry<String, String> upload : resource.getUploadCommand().entrySet()) {
+                uploads.append(upload.getKey()).append(" ").append(upload.getValue()).append(";");
+            }
+        }
+        if (uploads.length() > 0) {
+            attribute("uploadCommand", uploads.toString());
+        }
+        attribute("installCommand", resource.getInstallCommand());
+        attribute("configureCommand", resource.getConfigureCommand());
+        attribute("startCommand", resource.getStartCommand());
+        attribute("stopCommand", resource.getStopCommand());
+        attribute("requireCredentials", resource.getRequireCredentials());
+        attribute("executeLocally", resource.getExecuteLocally());
+    }
+
+    private static String pathOf(Component component) {
+        final String collection;
+        if (component instanceof InternalComponent) {
+            collection = "internalComponents";
+        } else if (component instanceof VM) {
+            collection = "vms";
+        } else {
+            collection = "externalComponents";
+        }
+        return collection + "[" + component.getName() + "]";
+    }
+
+    private static String pathOf(ComponentInstance<?> instance) {
+        final String collection;
+        if (instance instanceof InternalComponentInstance) {
+            collection = "internalComponentInstances";
+        } else if (instance instanceof VMInstance) {
+            collection = "vmInstances";
+        } else {
+            collection = "externalComponentInstances";
+        }
+        return collection + "[" + instance.getName() + "]";
+    }
+
+    private static String pathOf(PortInstance<? extends Port> port, String collection) {
+        return pathOf(port.getOwner().get()) + "/" + collection + "[" + port.getName() + "]";
+    }
+
+    private static String pathOf(ExecutionPlatform platform, String collection) {
+        return pathOf((Component) platform.getOwner().get()) + "/" + collection + "[" + platform.getName() + "]";
+    }
+
+    private static String pathOf(ExecutionPlatformInstance<? extends ExecutionPlatform> platform) {
+        final String collection = platform instanceof ProvidedExecutionPlatformInstance
+                ? "providedExecutionPlatformInstances"
+                : "requiredExecutionPlatformInstance";
+        return pathOf((ComponentInstance<?>) platform.getOwner().get()) + "/" + collection + "[" + platform.getName() + "]";
+    }
+
+    /*
+     * Low-level layout, following the one of the KMF JSON serializer
+     */
+
+    private void begin(String eClass) throws IOException {
+        out.write("{ \"eClass\":\"");
+        out.write(PACKAGE);
+        out.write(eClass);
+        out.write("\" ");
+    }
+
+    private void end() throws IOException {
+        out.write("}");
+    }
+
+    private void attribute(String name, String value) throws IOException {
+        if (value != null) {
+            out.write(",\n \"");
+            out.write(name);
+            out.write("\":");
+            string(value);
+        }
+    }
+
+    private void attribute(String name, int value) throws IOException {
+        attribute(name, String.valueOf(value));
+    }
+
+    private void attribute(String name, Boolean value) throws IOException {
+        if (value != null) {
+            out.write(",\n \"");
+            out.write(name);
+            out.write("\":");
+            out.write(value.toString());
+        }
+    }
+
+    private void beginList(String name, boolean empty) throws IOException {
+        lists.push(new boolean[]{true});
+        if (!empty) {
+            out.write(",\n\"");
+            out.write(name);
+            out.write("\": [\n");
+        }
+    }
+
+    private void next() throws IOException {
+        final boolean[] first = lists.peek();
+        if (!first[0]) {
+            out.write("\n,\n");
+        }
+        first[0] = false;
+    }
+
+    private void endList() throws IOException {
+        if (!lists.pop()[0]) {
+            out.write("\n]\n");
+        }
+    }
+
+    private void beginContained(String name) throws IOException {
+        out.write(",\n\"");
+        out.write(name);
+        out.write("\":\n");
+    }
+
+    private void inline(String name) throws IOException {
+        out.write(",\n\"");
+        out.write(name);
+        out.write("\":");
+    }
+
+    private void endContained() throws IOException {
+        out.write("\n");
+    }
+
+    private void string(String value) throws IOException {
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+}
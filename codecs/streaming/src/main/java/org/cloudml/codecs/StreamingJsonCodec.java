@@ -0,0 +1,97 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.codecs;
+
+import com.google.gson.stream.JsonReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.cloudml.codecs.commons.Codec;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.NamedElement;
+
+/**
+ * A JSON codec that reads and writes the same format as the KMF-based
+ * JsonCodec, but streams the model directly, without building the
+ * intermediate KMF model nor the whole JSON document in memory.
+ *
+ * It is stateless and can be shared between threads.
+ */
+public class StreamingJsonCodec implements Codec {
+
+    private static final Logger journal = Logger.getLogger(StreamingJsonCodec.class.getName());
+
+    private static final String ENCODING = "UTF-8";
+
+    public StreamingJsonCodec() {
+    }
+
+    public NamedElement load(InputStream content) {
+        if (content == null) {
+            journal.log(Level.SEVERE, "Cannot deserialize from null!");
+            throw new IllegalArgumentException("Cannot deserialize from null!");
+        }
+        try {
+            final JsonReader reader = new JsonReader(new InputStreamReader(content, ENCODING));
+            return new JsonDeploymentReader(reader).read();
+
+        } catch (IOException e) {
+            journal.log(Level.SEVERE, e.getLocalizedMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void save(NamedElement model, OutputStream content) {
+        if (model == null) {
+            journal.log(Level.SEVERE, "Cannot serialize null!");
+            throw new IllegalArgumentException("Cannot serialize null!");
+        }
+        if (!(model instanceof Deployment)) {
+            journal.log(Level.SEVERE, "Only deployment models can be serialized!");
+            throw new IllegalArgumentException("Only deployment models can be serialized!");
+        }
+        if (content == null) {
+            journal.log(Level.SEVERE, "Cannot serialize into null!");
+            throw new IllegalArgumentException("Cannot serialize into null!");
+        }
+        try {
+            final Writer writer = new BufferedWriter(new OutputStreamWriter(content, ENCODING));
+            new JsonDeploymentWriter(writer).write((Deployment) model);
+
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+
+        } catch (IOException e) {
+            journal.log(Level.SEVERE, e.getLocalizedMessage(), e);
+            throw new RuntimeException(e);
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.codecs;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.cloudml.codecs.JsonCodec;
+import org.cloudml.codecs.StreamingJsonCodec;
+import org.cloudml.codecs.commons.Codec;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.NamedElement;
+import org.cloudml.core.builders.DeploymentBuilder;
+import org.cloudml.core.samples.SensApp;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import static org.cloudml.core.builders.Commons.*;
+import static org.cloudml.core.samples.SshClientServer.*;
+
+/**
+ * Compare the time needed to save and load deployment models with the
+ * streaming JSON codec and with the KMF-based one. Besides SensApp, the
+ * models are made of independent SSH client/server pairs, each pair
+ * contributing four component instances.
+ *
+ * Run it with: mvn -Pbenchmark test-compile exec:exec (in the
+ * codecs/streaming module) or directly through the main method below. Add
+ * "-prof gc" to the JMH options to compare the allocation rates as well.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CodecBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Models {
+
+        @Param({"sensapp", "100", "1000", "10000"})
+        public String model;
+
+        public final Codec streaming = new StreamingJsonCodec();
+        public final Codec kmf = new JsonCodec();
+
+        public Deployment deployment;
+        public byte[] json;
+
+        @Setup
+        public void prepare() {
+            Logger.getLogger("").setLevel(Level.OFF);
+            if (model.equals("sensapp")) {
+                deployment = SensApp.completeSensApp().build();
+            } else {
+                deployment = pairs(Integer.parseInt(model) / 4);
+            }
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            streaming.save(deployment, buffer);
+            json = buffer.toByteArray();
+        }
+
+    }
+
+    @Benchmark
+    public byte[] saveStreaming(Models models) {
+        return save(models.streaming, models.deployment);
+    }
+
+    @Benchmark
+    public byte[] saveKmf(Models models) {
+        return save(models.kmf, models.deployment);
+    }
+
+    @Benchmark
+    public NamedElement loadStreaming(Models models) {
+        return models.streaming.load(new ByteArrayInputStream(models.json));
+    }
+
+    @Benchmark
+    public NamedElement loadKmf(Models models) {
+        return models.kmf.load(new ByteArrayInputStream(models.json));
+    }
+
+    private static byte[] save(Codec codec, Deployment deployment) {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        codec.save(deployment, buffer);
+        return buffer.toByteArray();
+    }
+
+    private static Deployment pairs(int count) {
+        final DeploymentBuilder builder = getSshTypes();
+        for (int i = 0; i < count; i++) {
+            builder.with(aVMInstance()
+                    .named("client vm " + i)
+                    .ofType(EC2_LARGE_LINUX))
+                    .with(aVMInstance()
+                    .named("server vm " + i)
+                    .ofType(EC2_XLARGE_WINDOWS_7))
+                    .with(anInternalComponentInstance()
+                    .named("client " + i)
+                    .ofType(SSH_CLIENT)
+                    .hostedBy("client vm " + i))
+                    .with(anInternalComponentInstance()
+                    .named("server " + i)
+                    .ofType(SSH_SERVER)
+                    .hostedBy("server vm " + i))
+                    .with(aRelationshipInstance()
+                    .named("ssh " + i)
+                    .ofType(SSH_CONNECTION)
+                    .from("client " + i, CLIENT_PORT)
+                    .to("server " + i, SERVER_PORT));
+        }
+        return builder.build();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
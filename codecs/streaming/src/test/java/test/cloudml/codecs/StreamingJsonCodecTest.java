@@ -0,0 +1,162 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.codecs;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import org.cloudml.codecs.StreamingJsonCodec;
+import org.cloudml.codecs.commons.Codec;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.samples.SensApp;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class StreamingJsonCodecTest {
+
+    private static final String PROPERTY = "\"net.cloudml.core:Property\"";
+
+    private final Codec codec = new StreamingJsonCodec();
+
+    @Test
+    public void savedModelsShouldLoadBackIdentically() throws UnsupportedEncodingException {
+        final Deployment model = SensApp.completeSensApp().build();
+
+        final String saved = save(model);
+        final Deployment loaded = load(saved);
+
+        assertThat(loaded.getComponents().size(), is(equalTo(model.getComponents().size())));
+        assertThat(loaded.getComponentInstances().size(), is(equalTo(model.getComponentInstances().size())));
+        assertThat(loaded.getRelationshipInstances().size(), is(equalTo(model.getRelationshipInstances().size())));
+        assertThat(loaded.getExecuteInstances().size(), is(equalTo(model.getExecuteInstances().size())));
+        assertThat(save(loaded), is(equalTo(saved)));
+    }
+
+    @Test
+    public void shouldReadAndWriteTheSensAppModelSavedByKmf() throws UnsupportedEncodingException {
+        verifyRewritingOf("/sensappTEST.json");
+    }
+
+    @Test
+    public void shouldReadAndWriteThePaasModelSavedByKmf() throws UnsupportedEncodingException {
+        verifyRewritingOf("/PaaS.json");
+    }
+
+    @Test
+    public void shouldReadAndWriteTheBeanstalkModelSavedByKmf() throws UnsupportedEncodingException {
+        verifyRewritingOf("/Beanstalk.json");
+    }
+
+    @Test
+    public void shouldResolveReferencesToElementsReadLater() throws UnsupportedEncodingException {
+        final String json = "{ \"eClass\":\"net.cloudml.core:CloudMLModel\", \"name\":\"reversed\","
+                + "\"vms\": [{ \"eClass\":\"net.cloudml.core:VM\", \"name\":\"small\", \"provider\":\"providers[aws]\"}],"
+                + "\"providers\": [{ \"eClass\":\"net.cloudml.core:Provider\", \"name\":\"aws\", \"credentials\":\"no given credentials\"}]}";
+
+        final Deployment loaded = load(json);
+
+        assertThat(loaded.getComponents().onlyVMs().firstNamed("small").getProvider(),
+                   is(sameInstance(loaded.getProviders().firstNamed("aws"))));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectUnresolvedReferences() throws UnsupportedEncodingException {
+        load("{ \"name\":\"broken\", \"vms\": [{ \"name\":\"small\", \"provider\":\"providers[aws]\"}]}");
+    }
+
+    private void verifyRewritingOf(String resource) throws UnsupportedEncodingException {
+        final InputStream original = getClass().getResourceAsStream(resource);
+        final Deployment loaded = (Deployment) codec.load(original);
+
+        final JsonElement expected = new JsonParser().parse(new InputStreamReader(getClass().getResourceAsStream(resource), "UTF-8"));
+        final JsonElement actual = new JsonParser().parse(save(loaded));
+
+        assertThat(normalized(actual), is(equalTo(normalized(expected))));
+    }
+
+    /**
+     * Properties are kept in hash maps, so their order is not preserved
+     * across a load/save cycle: we sort them by name before comparing.
+     */
+    private JsonElement normalized(JsonElement json) {
+        if (json.isJsonObject()) {
+            final JsonObject result = new JsonObject();
+            for (Map.Entry<String, JsonElement> each : json.getAsJsonObject().entrySet()) {
+                result.add(each.getKey(), normalized(each.getValue()));
+            }
+            return result;
+        }
+        if (json.isJsonArray()) {
+            final List<JsonElement> elements = new ArrayList<JsonElement>();
+            for (JsonElement each : json.getAsJsonArray()) {
+                elements.add(normalized(each));
+            }
+            Collections.sort(elements, new Comparator<JsonElement>() {
+                @Override
+                public int compare(JsonElement left, JsonElement right) {
+                    return propertyNameOf(left).compareTo(propertyNameOf(right));
+                }
+            });
+            final JsonArray result = new JsonArray();
+            for (JsonElement each : elements) {
+                result.add(each);
+            }
+            return result;
+        }
+        return json;
+    }
+
+    private String propertyNameOf(JsonElement json) {
+        if (json.isJsonObject() && PROPERTY.equals(String.valueOf(json.getAsJsonObject().get("eClass")))) {
+            return json.getAsJsonObject().get("name").getAsString();
+        }
+        return "";
+    }
+
+    private String save(Deployment model) throws UnsupportedEncodingException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        codec.save(model, buffer);
+        return buffer.toString("UTF-8");
+    }
+
+    private Deployment load(String json) throws UnsupportedEncodingException {
+        return (Deployment) codec.load(new ByteArrayInputStream(json.getBytes("UTF-8")));
+    }
+
+}
@@ -35,7 +35,7 @@ import org.cloudml.core.Deployment;
  */
 public class XmiCodec implements Codec {
 
-    KMFBridge bridge = new KMFBridge();
+    final KMFBridge bridge = new KMFBridge();
 
     static {
         extensions.put("xmi", new XmiCodec());
@@ -49,6 +49,7 @@ import java.net.URISyntaxException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -62,7 +63,6 @@ public class AzureConnector implements Connector{
 
     private ComputeManagementClient computeManagementClient;
     private HostedServiceOperations hostedServicesOperations;
-    private HashMap<String,Object> runtimeInformation;
 
     public AzureConnector(String endpoint, String provider,String login,String secretKey){
         journal.log(Level.INFO, ">> Connecting to "+provider+" ...");
@@ -99,7 +99,7 @@ public class AzureConnector implements Connector{
 
     @Override
     public HashMap<String, Object> createInstance(VMInstance a) {
-        runtimeInformation=new HashMap<String, Object>();
+        HashMap<String,Object> runtimeInformation=new HashMap<String, Object>();
         VM vm = a.getType();
         ComponentInstance.State state = ComponentInstance.State.UNRECOGNIZED;
 
@@ -203,6 +203,17 @@ public class AzureConnector implements Connector{
         return runtimeInformation;
     }
 
+    @Override
+    public List<HashMap<String,Object>> createInstances(List<VMInstance> instances){
+        List<HashMap<String,Object>> results = new ArrayList<HashMap<String, Object>>();
+        for(VMInstance a : instances){
+            HashMap<String,Object> runtimeInformation = new HashMap<String, Object>(createInstance(a));
+            runtimeInformation.put("name", a.getName());
+            results.add(runtimeInformation);
+        }
+        return results;
+    }
+
     @Override
     public void destroyVM(String id) {
 
@@ -223,6 +234,13 @@ public class AzureConnector implements Connector{
 
     }
 
+    @Override
+    public void uploadFiles(Map<String, String> files, String nodeId, String login, String key) {
+        for(Map.Entry<String, String> file : files.entrySet()){
+            uploadFile(file.getKey(), file.getValue(), nodeId, login, key);
+        }
+    }
+
     @Override
     public String createSnapshot(VMInstance a) {
         return null;
@@ -46,6 +46,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -62,7 +63,6 @@ public class CloudSigmaConnector implements Connector {
     private ComputeServiceContext computeContext;
     private ComputeService compute;
     private String provider;
-    private HashMap<String,Object> runtimeInformation;
     private CloudSigma2Api cloudSigmaApi;
 
 
@@ -129,7 +129,7 @@ public class CloudSigmaConnector implements Connector {
     public HashMap<String, Object> createInstance(VMInstance a) {
         
         VM vm = a.getType();
-        runtimeInformation=new HashMap<String, Object>();
+        HashMap<String,Object> runtimeInformation=new HashMap<String, Object>();
         ComponentInstance.State state = ComponentInstance.State.UNRECOGNIZED;
         
         // First try to find the desired template drive in MyDrives
@@ -246,6 +246,17 @@ public class CloudSigmaConnector implements Connector {
         return runtimeInformation;
     }
 
+    @Override
+    public List<HashMap<String,Object>> createInstances(List<VMInstance> instances){
+        List<HashMap<String,Object>> results = new ArrayList<HashMap<String, Object>>();
+        for(VMInstance a : instances){
+            HashMap<String,Object> runtimeInformation = new HashMap<String, Object>(createInstance(a));
+            runtimeInformation.put("name", a.getName());
+            results.add(runtimeInformation);
+        }
+        return results;
+    }
+
     @Override
     public void destroyVM(String id) {
         journal.log(Level.INFO, ">> Stopping VM: "+id);
@@ -325,6 +336,17 @@ public class CloudSigmaConnector implements Connector {
         }
     }
 
+    @Override
+    public void uploadFiles(Map<String, String> files, String nodeId, String login, String key) {
+        for(IP ip: cloudSigmaApi.listIPs().concat()){
+            if(ip.getServer().getUuid().equals(nodeId)){
+                SSHConnector sc=new SSHConnector(key, login, ip.getUuid());
+                sc.upload(files);
+                return;
+            }
+        }
+    }
+
     @Override
     public String createSnapshot(VMInstance a) {
         return null;
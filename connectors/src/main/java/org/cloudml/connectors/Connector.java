@@ -26,12 +26,23 @@ import org.cloudml.core.ComponentInstance;
 import org.cloudml.core.VMInstance;
 
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 
 public interface Connector {
 	
 	public void execCommand(String id, String command, String login, String key);
 	
 	public HashMap<String,Object> createInstance(VMInstance a);
+
+    /**
+     * Provision several VMs of the same type, as few requests as the
+     * provider allows
+     * @return the runtime information of the VMs, each with the name of its
+     * VM under "name". It may come in any order, and miss the VMs that
+     * could not be provisioned.
+     */
+    public List<HashMap<String,Object>> createInstances(List<VMInstance> instances);
 	
 	public void destroyVM(String id);
 	
@@ -41,6 +52,12 @@ public interface Connector {
 	
 	public void uploadFile(String sourcePath, String destinationPath, String nodeId, String login, String key);
 
+    /**
+     * Upload a batch of files on a node
+     * @param files the destination path of each local file
+     */
+    public void uploadFiles(Map<String, String> files, String nodeId, String login, String key);
+
     public String createSnapshot(VMInstance a);
 
     public String createImage(VMInstance a);
@@ -31,8 +31,33 @@ import org.cloudml.core.Provider;
 public class ConnectorFactory {
 
     private static final Logger journal = Logger.getLogger(ConnectorFactory.class.getName());
+    private static final long IDLE_TIMEOUT = Long.getLong("cloudml.connectors.idleTimeout", 600000L);
+    private static final ConnectorPool iaasConnectors = new ConnectorPool(IDLE_TIMEOUT);
 
-    public static Connector createIaaSConnector(Provider p){
+    /**
+     * Connectors are shared by provider and account, so that they are only
+     * initialised and authenticated once. Closing the returned connector
+     * gives it back to the pool, which closes it once it has been unused
+     * for cloudml.connectors.idleTimeout ms.
+     * @param p the provider
+     * @return a connector to the given provider
+     */
+    public static Connector createIaaSConnector(final Provider p){
+        return iaasConnectors.acquire(keyOf(p), new ConnectorPool.Factory() {
+            @Override
+            public Connector create() {
+                return newIaaSConnector(p);
+            }
+        });
+    }
+
+    private static String keyOf(Provider p){
+        String endPoint = p.getProperties().get("endPoint") != null ? p.getProperties().valueOf("endPoint") : "";
+        return p.getName().toLowerCase() + "\n" + endPoint
+                + "\n" + p.getCredentials().getLogin() + "\n" + p.getCredentials().getPassword();
+    }
+
+    private static Connector newIaaSConnector(Provider p){
         try {
             if(p.getName().toLowerCase().equals("aws-ec2") || p.getName().toLowerCase().equals("ec2"))
                 return new JCloudsConnector(p.getName(), p.getCredentials().getLogin(), p.getCredentials().getPassword());
@@ -0,0 +1,172 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.connectors;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares the connectors to the same provider (and account), so that their
+ * initialisation and authentication are done once. Connectors are counted
+ * references: each PooledConnector handed out holds one until it is closed.
+ * Connectors that nobody uses for longer than the idle timeout are closed.
+ */
+class ConnectorPool {
+
+    private static final Logger journal = Logger.getLogger(ConnectorPool.class.getName());
+
+    /**
+     * Creates the connector when there is none in the pool
+     */
+    interface Factory {
+
+        Connector create();
+
+    }
+
+    private final long idleTimeout;
+    private final Map<String, Entry> entries = new HashMap<String, Entry>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            final Thread thread = new Thread(task, "connector-evictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    ConnectorPool(long idleTimeout) {
+        this.idleTimeout = idleTimeout;
+        final long period = Math.max(1000L, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdleConnectors();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a reference to the connector registered under the given key,
+     * which is created with the given factory if needed
+     */
+    public PooledConnector acquire(String key, Factory factory) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key);
+                entries.put(key, entry);
+            }
+            entry.references++;
+        }
+        try {
+            return new PooledConnector(this, entry, entry.connector(factory));
+        } catch (RuntimeException e) {
+            discard(entry);
+            throw e;
+        }
+    }
+
+    PooledConnector share(Entry entry) {
+        synchronized (this) {
+            entry.references++;
+        }
+        return new PooledConnector(this, entry, entry.connector);
+    }
+
+    synchronized void release(Entry entry) {
+        entry.references--;
+        entry.lastUsed = System.currentTimeMillis();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    void evictIdleConnectors() {
+        final long now = System.currentTimeMillis();
+        final Map<String, Connector> evicted = new HashMap<String, Connector>();
+        synchronized (this) {
+            final Iterator<Entry> iterator = entries.values().iterator();
+            while (iterator.hasNext()) {
+                final Entry entry = iterator.next();
+                if (entry.references == 0 && now - entry.lastUsed >= idleTimeout) {
+                    iterator.remove();
+                    if (entry.connector != null) {
+                        evicted.put(entry.key, entry.connector);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, Connector> each : evicted.entrySet()) {
+            journal.log(Level.FINE, ">> Closing idle connector " + each.getKey());
+            try {
+                each.getValue().closeConnection();
+            } catch (RuntimeException e) {
+                journal.log(Level.WARNING, "Unable to close connector " + each.getKey(), e);
+            }
+        }
+    }
+
+    private synchronized void discard(Entry entry) {
+        entry.references--;
+        if (entry.connector == null && entry.references == 0) {
+            entries.remove(entry.key);
+        }
+    }
+
+    static class Entry {
+
+        private final String key;
+        private volatile Connector connector;
+        private int references;
+        private long lastUsed;
+
+        public Entry(String key) {
+            this.key = key;
+            this.references = 0;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+        private Connector connector(Factory factory) {
+            if (connector == null) {
+                synchronized (this) {
+                    if (connector == null) {
+                        connector = factory.create();
+                    }
+                }
+            }
+            return connector;
+        }
+
+    }
+
+}
@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.GregorianCalendar;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -53,7 +54,6 @@ public class FlexiantConnector implements Connector{
     private final String endpoint;
     private UserService service;
     private BindingProvider portBP;
-    private HashMap<String,Object> runtimeInformation=new HashMap<String, Object>();
 
     @SuppressWarnings("restriction")
     public FlexiantConnector(String endPoint, String login, String secretKey) throws MalformedURLException{
@@ -155,6 +155,7 @@ public class FlexiantConnector implements Connector{
     }
 
     public HashMap<String,Object> createInstance(VMInstance a){
+        HashMap<String,Object> runtimeInformation=new HashMap<String, Object>();
         ComponentInstance.State state = ComponentInstance.State.UNRECOGNIZED;
         try {
             Server template = new Server();
@@ -473,6 +474,16 @@ public class FlexiantConnector implements Connector{
         return this.endpoint;
     }
 
+    public List<HashMap<String,Object>> createInstances(List<VMInstance> instances){
+        List<HashMap<String,Object>> results = new ArrayList<HashMap<String, Object>>();
+        for(VMInstance a : instances){
+            HashMap<String,Object> runtimeInformation = new HashMap<String, Object>(createInstance(a));
+            runtimeInformation.put("name", a.getName());
+            results.add(runtimeInformation);
+        }
+        return results;
+    }
+
     public void destroyVM(String id) {
         try {
             Job job=service.deleteResource(id,true, null);
@@ -578,5 +589,12 @@ public class FlexiantConnector implements Connector{
         sc.upload(sourcePath,destinationPath);
     }
 
+    public void uploadFiles(Map<String, String> files, String VMId, String login, String key) {
+        Server temp=(Server)findObjectResourceByID(VMId, ResourceType.SERVER);
+        String ip=temp.getNics().get(0).getIpAddresses().get(0).getIpAddress();
+        SSHConnector sc=new SSHConnector(key, login, ip);
+        sc.upload(files);
+    }
+
 }
 
@@ -63,6 +63,7 @@ import org.jclouds.logging.config.NullLoggingModule;
 import org.jclouds.ssh.SshClient;
 import org.jclouds.sshj.config.SshjSshClientModule;
 
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.Module;
 import static org.jclouds.Constants.*;
@@ -76,13 +77,14 @@ import org.jclouds.ec2.features.*;
 public class JCloudsConnector implements Connector{
 
     private static final Logger journal = Logger.getLogger(JCloudsConnector.class.getName());
+    private static final long NODE_CACHE_TTL = Long.getLong("cloudml.jclouds.nodeCacheTtl", 30000L);
 
     private ComputeService compute;
     private String provider;
     private ComputeServiceContext computeContext;
     private EC2Api ec2api;
     private ElasticBlockStoreApi ebsapi;
-    private HashMap<String,Object> runtimeInformation;
+    private NodeMetadataCache nodes;
 
     public JCloudsConnector(String provider,String login,String secretKey){
         journal.log(Level.INFO, ">> Connecting to "+provider+" ...");
@@ -107,6 +109,7 @@ public class JCloudsConnector implements Connector{
         //loadBalancerCtx=builder.buildView(LoadBalancerServiceContext.class);
 
         compute=computeContext.getComputeService();
+        nodes=new NodeMetadataCache(compute, NODE_CACHE_TTL);
         this.provider = provider;
     }
 
@@ -116,20 +119,27 @@ public class JCloudsConnector implements Connector{
      * @return data about a VM
      */
     public ComputeMetadata getVMByName(String name){
-        for(ComputeMetadata n : compute.listNodes()){
-            if(n.getName() != null &&  n.getName().equals(name))
-                return n;
-        }
-        return null;
+        return nodes.named(name);
+    }
+
+    /**
+     * Retrieve information about several VMs, with at most one listing of
+     * the nodes
+     * @param names names of VMs
+     * @return data about each VM found, by name
+     */
+    public Map<String, ComputeMetadata> getVMsByName(Collection<String> names){
+        return nodes.named(names);
     }
 
 
     /**
-     * retrieve the list of VMs
+     * retrieve the list of VMs, which also refreshes the data kept about
+     * each VM
      * @return a list of information about each VM
      */
     public Set<? extends ComputeMetadata> listOfVMs(){
-        return compute.listNodes();
+        return nodes.refresh();
     }
 
     /**
@@ -138,7 +148,7 @@ public class JCloudsConnector implements Connector{
      * @return Information about a VM
      */
     public NodeMetadata getVMById(String id){
-        return compute.getNodeMetadata(id);
+        return nodes.withId(id);
     }
 
     /**
@@ -196,7 +206,7 @@ public class JCloudsConnector implements Connector{
                 ssh.disconnect();
             journal.log(Level.INFO, ">> File uploaded!");
         }*/
-        NodeMetadata n = compute.getNodeMetadata(VMId);
+        NodeMetadata n = getVMById(VMId);
         if(n != null) {
             SSHConnector sc = new SSHConnector(key, login, n.getPublicAddresses().iterator().next());
             sc.upload(sourcePath, destinationPath);
@@ -204,6 +214,16 @@ public class JCloudsConnector implements Connector{
 
     }
 
+    @Override
+    public void uploadFiles(Map<String, String> files, String VMId, String login, String key){
+        journal.log(Level.INFO, ">> Uploading "+files.size()+" file(s)");
+        NodeMetadata n = getVMById(VMId);
+        if(n != null) {
+            SSHConnector sc = new SSHConnector(key, login, n.getPublicAddresses().iterator().next());
+            sc.upload(files);
+        }
+    }
+
 
     /**
      * Execute a command on a group of vms
@@ -239,7 +259,7 @@ public class JCloudsConnector implements Connector{
      */
     public void execCommand(String id, String command, String login, String key){
 
-        NodeMetadata n = compute.getNodeMetadata(id);
+        NodeMetadata n = getVMById(id);
         if(n != null) {
             SSHConnector sc = new SSHConnector(key, login, n.getPublicAddresses().iterator().next());
             sc.execCommandSsh(command);
@@ -273,7 +293,6 @@ public class JCloudsConnector implements Connector{
         if(cm != null){
             a.setPublicAddress(getVMById(cm.getId()).getPublicAddresses().iterator().next());
             a.setId(cm.getId());
-            runtimeInformation.put("publicAddress", a.getPublicAddress());
         }
     }
 
@@ -283,7 +302,7 @@ public class JCloudsConnector implements Connector{
      * @return
      */
     public HashMap<String,Object> createInstance(VMInstance a){
-        runtimeInformation=new HashMap<String, Object>();
+        HashMap<String,Object> runtimeInformation=new HashMap<String, Object>();
         VM vm = a.getType();
         ComponentInstance.State state = ComponentInstance.State.UNRECOGNIZED;
         NodeMetadata cm= (NodeMetadata)getVMByName(a.getName());
@@ -292,60 +311,27 @@ public class JCloudsConnector implements Connector{
         if(cm != null){
             if(cm.getStatus() != NodeMetadata.Status.TERMINATED){
                 updateVMMetadata(a);
+                runtimeInformation.put("publicAddress", a.getPublicAddress());
                 state = ComponentInstance.State.RUNNING;
             }else{
                 throw new IllegalStateException("A VM NAMED "+a.getName()+" ALREADY EXIST AND IS IN TERMINATED STATE!!!");
             }
         }else{
-            Template template=null;
             NodeMetadata nodeInstance = null;
-            String groupName="cloudml-instance";
-            if(!vm.getGroupName().equals(""))
-                groupName= vm.getGroupName();
-
-            TemplateBuilder templateBuilder = compute.templateBuilder();
-
-            if(!vm.getImageId().equals("")){
-                templateBuilder.imageId(vm.getImageId());
-            }
 
             journal.log(Level.INFO, ">> Provisioning a vm ...");
+            Template template = templateFor(vm);
+            describe(a, template);
 
-            if(vm.getProviderSpecificTypeName().equals("")){
-                if (vm.getMinRam() > 0)
-                    templateBuilder.minRam(vm.getMinRam());
-                if (vm.getMinCores() > 0)
-                    templateBuilder.minCores(vm.getMinCores());
-
-            }else{
-                templateBuilder.hardwareId(vm.getProviderSpecificTypeName());
-            }
-            if (!vm.getLocation().equals(""))
-                templateBuilder.locationId(vm.getLocation());
-            if (!vm.getOs().equals(""))
-                templateBuilder.imageDescriptionMatches(vm.getOs());
-            else templateBuilder.osFamily(OsFamily.UBUNTU);
-            templateBuilder.os64Bit(vm.getIs64os());
-
-            template = templateBuilder.build();
-            journal.log(Level.INFO, ">> vm type: "+template.getHardware().getId()+" on location: "+template.getLocation().getId());
-            a.getProperties().add(new Property("ProviderSpecificInstanceType", template.getHardware().getId()));
-            a.setProviderSpecificType(template.getHardware().getId());
-            a.getProperties().add(new Property("location", template.getLocation().getId()));
-
-            if (provider.equals("aws-ec2")){
-                template.getOptions().as(EC2TemplateOptions.class).mapNewVolumeToDeviceName("/dev/sda1", vm.getMinStorage(), true);
-                template.getOptions().as(EC2TemplateOptions.class).securityGroups(vm.getSecurityGroup());
-                template.getOptions().as(EC2TemplateOptions.class).keyPair(vm.getSshKey());
+            if (isEc2()){
                 template.getOptions().as(EC2TemplateOptions.class).userMetadata("Name", a.getName());
                 template.getOptions().as(EC2TemplateOptions.class).overrideLoginUser(a.getName());
             }
 
-            template.getOptions().blockUntilRunning(true);
-
             try {
-                Set<? extends NodeMetadata> nodes = compute.createNodesInGroup(groupName, 1, template);
-                nodeInstance = nodes.iterator().next();
+                Set<? extends NodeMetadata> created = compute.createNodesInGroup(groupNameOf(vm), 1, template);
+                nodeInstance = created.iterator().next();
+                nodes.add(nodeInstance);
 
                 journal.log(Level.INFO, ">> Running vm: "+nodeInstance.getName()+" Id: "+ nodeInstance.getId() +" with public address: "+nodeInstance.getPublicAddresses() +
                         " on OS:"+nodeInstance.getOperatingSystem()+ " " + nodeInstance.getCredentials().identity+":"+nodeInstance.getCredentials().getUser()+":"+nodeInstance.getCredentials().getPrivateKey());
@@ -356,24 +342,170 @@ public class JCloudsConnector implements Connector{
                 state = ComponentInstance.State.ERROR;
 
             }
-            runtimeInformation.put("publicAddress", nodeInstance.getPublicAddresses().iterator().next());
-            //a.setPublicAddress(nodeInstance.getPublicAddresses().iterator().next());
-            a.setId(nodeInstance.getId());
-            a.setHostname(nodeInstance.getHostname());
-            a.setCore((int) nodeInstance.getHardware().getProcessors().iterator().next().getCores());
-            state = ComponentInstance.State.RUNNING;
-
+            return runtimeInformationOf(a, nodeInstance);
         }
         runtimeInformation.put("status", state);
         return runtimeInformation;
     }
 
+    /**
+     * Provision several VMs of the same type with a single request to the
+     * provider, and map the nodes created back to the VM instances. VMs that
+     * already exist are only updated, as in createInstance. On providers
+     * other than EC2, whose nodes cannot be renamed once created, the VMs are
+     * provisioned one by one.
+     * @param instances VM instances sharing the same VM type
+     * @return the runtime information of each instance, with its name
+     */
+    public List<HashMap<String,Object>> createInstances(List<VMInstance> instances){
+        List<HashMap<String,Object>> results = new ArrayList<HashMap<String, Object>>(instances.size());
+        List<Integer> missing = new ArrayList<Integer>();
+        Map<String, ComputeMetadata> existing = getVMsByName(namesOf(instances));
+        for(int i = 0; i < instances.size(); i++){
+            results.add(null);
+            if(existing.containsKey(instances.get(i).getName()))
+                results.set(i, createInstance(instances.get(i)));
+            else missing.add(i);
+        }
+        if(missing.size() < 2 || !isEc2()){
+            // Only EC2 nodes can be named once created, so the others are created one by one
+            for(int i : missing){
+                results.set(i, createInstance(instances.get(i)));
+            }
+        } else {
+            VM vm = instances.get(missing.get(0)).getType();
+            journal.log(Level.INFO, ">> Provisioning "+missing.size()+" vms ...");
+            Template template = templateFor(vm);
+
+            Set<? extends NodeMetadata> created;
+            try {
+                created = compute.createNodesInGroup(groupNameOf(vm), missing.size(), template);
+            } catch (RunNodesException e) {
+                journal.log(Level.SEVERE, e.getMessage());
+                created = e.getSuccessfulNodes();
+            }
+            Iterator<? extends NodeMetadata> nodeInstances = created.iterator();
+            for(int i : missing){
+                VMInstance a = instances.get(i);
+                describe(a, template);
+                NodeMetadata nodeInstance = nodeInstances.hasNext() ? nodeInstances.next() : null;
+                if(nodeInstance != null){
+                    nameNode(nodeInstance, a.getName());
+                    journal.log(Level.INFO, ">> Running vm: "+a.getName()+" Id: "+ nodeInstance.getId() +" with public address: "+nodeInstance.getPublicAddresses());
+                }
+                results.set(i, runtimeInformationOf(a, nodeInstance));
+            }
+            nodes.invalidate();
+        }
+        for(int i = 0; i < instances.size(); i++){
+            results.get(i).put("name", instances.get(i).getName());
+        }
+        return results;
+    }
+
+    private List<String> namesOf(List<VMInstance> instances){
+        List<String> names = new ArrayList<String>();
+        for(VMInstance a : instances){
+            names.add(a.getName());
+        }
+        return names;
+    }
+
+    private String groupNameOf(VM vm){
+        if(!vm.getGroupName().equals(""))
+            return vm.getGroupName();
+        return "cloudml-instance";
+    }
+
+    /**
+     * Build the template matching a type of VM
+     */
+    private Template templateFor(VM vm){
+        TemplateBuilder templateBuilder = compute.templateBuilder();
+
+        if(!vm.getImageId().equals("")){
+            templateBuilder.imageId(vm.getImageId());
+        }
+
+        if(vm.getProviderSpecificTypeName().equals("")){
+            if (vm.getMinRam() > 0)
+                templateBuilder.minRam(vm.getMinRam());
+            if (vm.getMinCores() > 0)
+                templateBuilder.minCores(vm.getMinCores());
+
+        }else{
+            templateBuilder.hardwareId(vm.getProviderSpecificTypeName());
+        }
+        if (!vm.getLocation().equals(""))
+            templateBuilder.locationId(vm.getLocation());
+        if (!vm.getOs().equals(""))
+            templateBuilder.imageDescriptionMatches(vm.getOs());
+        else templateBuilder.osFamily(OsFamily.UBUNTU);
+        templateBuilder.os64Bit(vm.getIs64os());
+
+        Template template = templateBuilder.build();
+        journal.log(Level.INFO, ">> vm type: "+template.getHardware().getId()+" on location: "+template.getLocation().getId());
+
+        if (isEc2()){
+            template.getOptions().as(EC2TemplateOptions.class).mapNewVolumeToDeviceName("/dev/sda1", vm.getMinStorage(), true);
+            template.getOptions().as(EC2TemplateOptions.class).securityGroups(vm.getSecurityGroup());
+            template.getOptions().as(EC2TemplateOptions.class).keyPair(vm.getSshKey());
+        }
+
+        template.getOptions().blockUntilRunning(true);
+        return template;
+    }
+
+    /**
+     * Record in the model the hardware and location chosen for a VM
+     */
+    private void describe(VMInstance a, Template template){
+        a.getProperties().add(new Property("ProviderSpecificInstanceType", template.getHardware().getId()));
+        a.setProviderSpecificType(template.getHardware().getId());
+        a.getProperties().add(new Property("location", template.getLocation().getId()));
+    }
+
+    /**
+     * Give its name to a node created as part of a group (the name of a
+     * single node is set through its template)
+     */
+    private void nameNode(NodeMetadata node, String name){
+        String[] regionAndId = node.getId().split("/");
+        ec2api.getTagApiForRegion(regionAndId[0]).get().applyToResources(
+                ImmutableMap.of("Name", name), ImmutableSet.of(regionAndId[regionAndId.length - 1]));
+    }
+
+    /**
+     * @return true if the provider is EC2, either the AWS one or another
+     * cloud offering the same API
+     */
+    private boolean isEc2(){
+        return provider.toLowerCase().equals("aws-ec2") || provider.toLowerCase().equals("ec2");
+    }
+
+    private HashMap<String,Object> runtimeInformationOf(VMInstance a, NodeMetadata nodeInstance){
+        HashMap<String,Object> runtimeInformation=new HashMap<String, Object>();
+        if(nodeInstance == null){
+            runtimeInformation.put("publicAddress", "");
+            runtimeInformation.put("status", ComponentInstance.State.ERROR);
+            return runtimeInformation;
+        }
+        runtimeInformation.put("publicAddress", nodeInstance.getPublicAddresses().iterator().next());
+        //a.setPublicAddress(nodeInstance.getPublicAddresses().iterator().next());
+        a.setId(nodeInstance.getId());
+        a.setHostname(nodeInstance.getHostname());
+        a.setCore((int) nodeInstance.getHardware().getProcessors().iterator().next().getCores());
+        runtimeInformation.put("status", ComponentInstance.State.RUNNING);
+        return runtimeInformation;
+    }
+
     /**
      * Terminate a specified VM
      * @param id id of the VM
      */
     public void destroyVM(String id){
         compute.destroyNode(id);
+        nodes.remove(id);
     }
 
 
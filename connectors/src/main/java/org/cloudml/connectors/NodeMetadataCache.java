@@ -0,0 +1,146 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.connectors;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.domain.ComputeMetadata;
+import org.jclouds.compute.domain.NodeMetadata;
+
+/**
+ * The nodes of a jclouds compute service, indexed by name and by id. The
+ * whole list is fetched in a single call, and fetched again once it is older
+ * than the time to live, or on demand.
+ */
+class NodeMetadataCache {
+
+    private final ComputeService compute;
+    private final long timeToLive;
+    private final Map<String, ComputeMetadata> byName = new HashMap<String, ComputeMetadata>();
+    private final Map<String, ComputeMetadata> byId = new HashMap<String, ComputeMetadata>();
+    private long refreshedAt;
+
+    public NodeMetadataCache(ComputeService compute, long timeToLive) {
+        this.compute = compute;
+        this.timeToLive = timeToLive;
+        this.refreshedAt = -1;
+    }
+
+    /**
+     * List the nodes again
+     * @return all the nodes
+     */
+    public synchronized Set<? extends ComputeMetadata> refresh() {
+        final Set<? extends ComputeMetadata> nodes = compute.listNodes();
+        byName.clear();
+        byId.clear();
+        for (ComputeMetadata node : nodes) {
+            index(node);
+        }
+        refreshedAt = System.currentTimeMillis();
+        return nodes;
+    }
+
+    /**
+     * @return the node with the given name, or null if there is none
+     */
+    public synchronized ComputeMetadata named(String name) {
+        refreshIfStale();
+        return byName.get(name);
+    }
+
+    /**
+     * @return the nodes with the given names, listed at most once
+     */
+    public synchronized Map<String, ComputeMetadata> named(Collection<String> names) {
+        refreshIfStale();
+        final Map<String, ComputeMetadata> selection = new HashMap<String, ComputeMetadata>();
+        for (String name : names) {
+            final ComputeMetadata node = byName.get(name);
+            if (node != null) {
+                selection.put(name, node);
+            }
+        }
+        return selection;
+    }
+
+    /**
+     * @return the details of the node with the given id, fetched from the
+     * provider if they are not yet known
+     */
+    public synchronized NodeMetadata withId(String id) {
+        if (!isStale()) {
+            final ComputeMetadata node = byId.get(id);
+            if (node instanceof NodeMetadata) {
+                return (NodeMetadata) node;
+            }
+        }
+        final NodeMetadata node = compute.getNodeMetadata(id);
+        if (node != null) {
+            index(node);
+        }
+        return node;
+    }
+
+    /**
+     * Record a node that has just been created
+     */
+    public synchronized void add(ComputeMetadata node) {
+        index(node);
+    }
+
+    /**
+     * Forget a node that has just been destroyed
+     */
+    public synchronized void remove(String id) {
+        final ComputeMetadata node = byId.remove(id);
+        if (node != null && node.getName() != null) {
+            byName.remove(node.getName());
+        }
+    }
+
+    public synchronized void invalidate() {
+        refreshedAt = -1;
+    }
+
+    private void index(ComputeMetadata node) {
+        byId.put(node.getId(), node);
+        if (node.getName() != null) {
+            byName.put(node.getName(), node);
+        }
+    }
+
+    private boolean isStale() {
+        return refreshedAt < 0 || System.currentTimeMillis() - refreshedAt > timeToLive;
+    }
+
+    private void refreshIfStale() {
+        if (isStale()) {
+            refresh();
+        }
+    }
+
+}
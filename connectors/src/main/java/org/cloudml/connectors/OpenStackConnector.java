@@ -30,6 +30,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
@@ -73,7 +74,6 @@ public class OpenStackConnector implements Connector{
     private ComputeService novaComputeService;
     private final String endpoint;
     private NovaApi serverApi;
-    private HashMap<String,Object> runtimeInformation=new HashMap<String, Object>();
 
     public OpenStackConnector(String endPoint,String provider,String login,String secretKey){
         this.endpoint=endPoint;
@@ -254,6 +254,16 @@ public class OpenStackConnector implements Connector{
 
     }
 
+    @Override
+    public void uploadFiles(Map<String, String> files, String VMId, String login, String key){
+        journal.log(Level.INFO, ">> Uploading "+files.size()+" file(s)");
+        NodeMetadata n = novaComputeService.getNodeMetadata(VMId);
+        if(n != null) {
+            SSHConnector sc = new SSHConnector(key, login, n.getPublicAddresses().iterator().next());
+            sc.upload(files);
+        }
+    }
+
 
     /**
      * Execute a command on a group of VMs
@@ -351,6 +361,7 @@ public class OpenStackConnector implements Connector{
      * @return
      */
     public HashMap<String,Object> createInstance(VMInstance a){
+        HashMap<String,Object> runtimeInformation=new HashMap<String, Object>();
         ComponentInstance.State state = ComponentInstance.State.UNRECOGNIZED;
         VM vm = a.getType();
         ComputeMetadata cm= getVMByName(a.getName());
@@ -456,6 +467,16 @@ public class OpenStackConnector implements Connector{
         return runtimeInformation;
     }
 
+    public List<HashMap<String,Object>> createInstances(List<VMInstance> instances){
+        List<HashMap<String,Object>> results = new ArrayList<HashMap<String, Object>>();
+        for(VMInstance a : instances){
+            HashMap<String,Object> runtimeInformation = new HashMap<String, Object>(createInstance(a));
+            runtimeInformation.put("name", a.getName());
+            results.add(runtimeInformation);
+        }
+        return results;
+    }
+
     /**
      * Terminate a specified VM
      * @param id id of the VM
@@ -0,0 +1,127 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.connectors;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.cloudml.core.VMInstance;
+
+/**
+ * A reference to a connector shared through the ConnectorFactory. Closing it
+ * gives the connector back to the pool instead of closing the underlying
+ * connection.
+ */
+public class PooledConnector implements Connector {
+
+    private final ConnectorPool pool;
+    private final ConnectorPool.Entry entry;
+    private final Connector delegate;
+    private boolean closed;
+
+    PooledConnector(ConnectorPool pool, ConnectorPool.Entry entry, Connector delegate) {
+        this.pool = pool;
+        this.entry = entry;
+        this.delegate = delegate;
+        this.closed = false;
+    }
+
+    /**
+     * @return the shared connector (e.g., a JCloudsConnector)
+     */
+    public Connector getDelegate() {
+        return delegate;
+    }
+
+    /**
+     * @return another reference to the same connector, which must be closed
+     * on its own
+     */
+    public PooledConnector share() {
+        return pool.share(entry);
+    }
+
+    @Override
+    public void execCommand(String id, String command, String login, String key) {
+        delegate.execCommand(id, command, login, key);
+    }
+
+    @Override
+    public HashMap<String, Object> createInstance(VMInstance a) {
+        return delegate.createInstance(a);
+    }
+
+    @Override
+    public List<HashMap<String, Object>> createInstances(List<VMInstance> instances) {
+        return delegate.createInstances(instances);
+    }
+
+    @Override
+    public void destroyVM(String id) {
+        delegate.destroyVM(id);
+    }
+
+    @Override
+    public synchronized void closeConnection() {
+        if (!closed) {
+            closed = true;
+            pool.release(entry);
+        }
+    }
+
+    @Override
+    public void updateVMMetadata(VMInstance a) {
+        delegate.updateVMMetadata(a);
+    }
+
+    @Override
+    public void uploadFile(String sourcePath, String destinationPath, String nodeId, String login, String key) {
+        delegate.uploadFile(sourcePath, destinationPath, nodeId, login, key);
+    }
+
+    @Override
+    public void uploadFiles(Map<String, String> files, String nodeId, String login, String key) {
+        delegate.uploadFiles(files, nodeId, login, key);
+    }
+
+    @Override
+    public String createSnapshot(VMInstance a) {
+        return delegate.createSnapshot(a);
+    }
+
+    @Override
+    public String createImage(VMInstance a) {
+        return delegate.createImage(a);
+    }
+
+    @Override
+    public void startVM(VMInstance a) {
+        delegate.startVM(a);
+    }
+
+    @Override
+    public void stopVM(VMInstance a) {
+        delegate.stopVM(a);
+    }
+
+}
@@ -22,7 +22,17 @@
  */
 package org.cloudml.connectors;
 import java.io.*;
-import java.util.Properties;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -31,11 +41,26 @@ import com.jcraft.jsch.*;
 public class SSHConnector {
 
     private static final Logger journal = Logger.getLogger(SSHConnector.class.getName());
+    private static final int UPLOAD_THREADS = Integer.getInteger("cloudml.ssh.uploadThreads", 4);
+    private static final int UPLOAD_ATTEMPTS = 3;
+    private static final int BULK_REQUESTS = 64;
+    private static final int BUFFER_SIZE = 64 * 1024;
 
     String keyPath="";
     String user="";
     String host="";
     String passwd="";
+    private final SSHSessionPool pool=SSHSessionPool.shared();
+
+    /**
+     * Log the output of the commands in the journal
+     */
+    public static final LineSink JOURNAL = new LineSink() {
+        @Override
+        public void line(String line, boolean error) {
+            journal.log(Level.INFO, ">> "+ line);
+        }
+    };
 
     public SSHConnector(String keyPath, String user, String host){
         this.keyPath=keyPath;
@@ -51,183 +76,300 @@ public class SSHConnector {
     }
 
 
+    /**
+     * Check that the host accepts SSH connections and still answers on them.
+     * The session probed on success is kept in the pool, for the subsequent
+     * commands, whereas sessions that no longer answer are discarded.
+     */
     public Boolean checkConnectivity(){
-        JSch jsch = new JSch();
-        Properties config = new Properties();
-        config.put("StrictHostKeyChecking", "no");
-        Session session=null;
-        Channel channel=null;
         try {
-            session = jsch.getSession(user, host, 22);
-            if(!keyPath.equals("")){
-                if(checkKeyIsFile(keyPath)){
-                    jsch.addIdentity(keyPath);
-                }else{
-                    final byte[] prvkey = keyPath.getBytes(); // Private key must be byte array
-                    final byte[] emptyPassPhrase = new byte[0]; // Empty passphrase for now, get real passphrase from MyUserInfo
-
-                    jsch.addIdentity(
-                            user,            // String userName
-                            prvkey,          // byte[] privateKey
-                            null,            // byte[] publicKey
-                            emptyPassPhrase  // byte[] passPhrase
-                    );
-                }
-            }else{
-                session.setPassword(passwd);
-            }
-
-            session.setConfig(config);
-            session.connect(0);
-            channel = session.openChannel("exec");
-            ChannelExec channelExec=((ChannelExec)channel);
+            pool.acquireAlive(user, host, keyPath, passwd).release();
         } catch (JSchException e) {
             journal.log(Level.SEVERE, "Connection not yet available or refused");
             return false;
-        } finally {
-            if(channel != null)
-                channel.disconnect();
-            if(session != null)
-                session.disconnect();
         }
         return true;
     }
 
 
     /**
-     * Execute a command through SSH on the host specified in the object instance
+     * Execute a command through SSH on the host specified in the object
+     * instance, and log its output
      * @param command
+     * @return false if the command could not be sent
      */
     public Boolean execCommandSsh(String command){
+        try {
+            execCommandSsh(command, JOURNAL);
+        } catch (JSchException e) {
+            e.printStackTrace();
+            return false;
+        } catch (IOException e) {
+            journal.log(Level.SEVERE,"File access error "+e.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Execute a command through SSH on the host specified in the object
+     * instance, and block until it completes. The output is read as it comes,
+     * without polling, and passed line by line to the given sink.
+     * @param command
+     * @param sink receives the lines of the standard output and error
+     * @return the exit status of the command
+     */
+    public int execCommandSsh(String command, LineSink sink) throws JSchException, IOException {
         journal.log(Level.INFO, ">> executing command...");
         journal.log(Level.INFO, ">> "+ command);
-        JSch jsch = new JSch();
-        Properties config = new Properties();
-        config.put("StrictHostKeyChecking", "no");
-        Session session=null;
+        SSHSessionPool.Lease lease = pool.acquire(user, host, keyPath, passwd);
         Channel channel=null;
+        boolean failed=true;
         try {
-            session = jsch.getSession(user, host, 22);
-            if(!keyPath.equals("")){
-                journal.log(Level.INFO, ">> Connection using an ssh key");
-                if(checkKeyIsFile(keyPath)){
-                    jsch.addIdentity(keyPath);
-                }else{
-                    final byte[] prvkey = keyPath.getBytes(); // Private key must be byte array
-                    final byte[] emptyPassPhrase = new byte[0]; // Empty passphrase for now, get real passphrase from MyUserInfo
-
-                    jsch.addIdentity(
-                            user,            // String userName
-                            prvkey,          // byte[] privateKey
-                            null,            // byte[] publicKey
-                            emptyPassPhrase  // byte[] passPhrase
-                    );
-                }
-            }else{
-                session.setPassword(passwd);
-            }
-            session.setConfig(config);
-            session.connect(0);
-
-            channel = session.openChannel("exec");
+            channel = lease.session().openChannel("exec");
             ChannelExec channelExec=((ChannelExec)channel);
             channelExec.setPty(true);
             channelExec.setCommand(command);
-            channelExec.setErrStream(System.err);
+            LineOutputStream errors = new LineOutputStream(sink, true);
+            channelExec.setErrStream(errors);
             channel.setInputStream(null);
-            channel.setExtOutputStream(null);
 
-            InputStream in;
-            in = channel.getInputStream();
-            InputStream extIn=channel.getExtInputStream();
+            BufferedReader output = new BufferedReader(new InputStreamReader(channel.getInputStream(), "UTF-8"));
             channel.connect();
-            byte[] tmp=new byte[8192];
-            byte[] tmp2=new byte[8192];
-            while(true){
-                while(in.available()>0 || extIn.available()>0){
-                    if(in.available()>0){
-                        int i=in.read(tmp, 0, 8192);
-                        if(i<0)break;
-                        journal.log(Level.INFO, ">> "+ new String(tmp, 0, i));
-                    }
-                    if(extIn.available()>0){
-                        int i=extIn.read(tmp2, 0, 8192);
-                        if(i<0)break;
-                        journal.log(Level.INFO, ">> "+ new String(tmp2, 0, i));
-                    }
-                }
-                if(channel.isClosed()){
-                    journal.log(Level.INFO, ">> exit-status: "+channel.getExitStatus());
-                    break;
-                }
+            String line;
+            while((line = output.readLine()) != null){
+                sink.line(line, false);
             }
+            // The exit status arrives with the closing of the channel, right after the end of the output
+            while(!channel.isClosed()){
+                Thread.sleep(10);
+            }
+            errors.close();
+            journal.log(Level.INFO, ">> exit-status: "+channel.getExitStatus());
+            failed=false;
+            return channel.getExitStatus();
 
-        } catch (JSchException e) {
-            e.printStackTrace();
-            return false;
-        } catch (IOException e) {
-            journal.log(Level.SEVERE,"File access error "+e.getMessage());
-            return false;
-        }finally{
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for "+command, e);
+        } finally{
             if(channel != null)
                 channel.disconnect();
-            if(session != null)
-                session.disconnect();
+            giveBack(lease, failed);
         }
-        return true;
     }
 
 
     public void upload(String sourcePath, String destinationPath){
-        journal.log(Level.INFO, ">> upload command..."+host+" "+ sourcePath + "->" + destinationPath);
-        JSch jsch = new JSch();
-        Properties config = new Properties();
-        config.put("StrictHostKeyChecking", "no");
-
-        try{
-            jsch.addIdentity(keyPath);
-            Session session = jsch.getSession(user, host, 22);
-            session.setConfig(config);
-            session.connect(0);
-
-            Channel channel = session.openChannel("sftp");
-            channel.connect();
-            ChannelSftp channelSftp = (ChannelSftp) channel;
-            String[] path= destinationPath.split("/");
-            String directory="";
-            for(int i = 0; i < (path.length - 1); i ++){
-                directory += path[i]+"/";
+        Map<String, String> files = new LinkedHashMap<String, String>();
+        files.put(sourcePath, destinationPath);
+        upload(files);
+    }
+
+    /**
+     * Upload several files at once, through parallel sftp channels opened
+     * on the same session. A file is skipped if the remote one has the same
+     * checksum, and a failed transfer is resumed when it is retried.
+     * @param files the destination path of each local file
+     * @return the local paths of the files that could not be uploaded
+     */
+    public List<String> upload(Map<String, String> files){
+        journal.log(Level.INFO, ">> upload command..."+host+" "+ files.size() + " file(s)");
+        final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+        if(files.isEmpty()){
+            return failures;
+        }
+        ExecutorService uploaders = Executors.newFixedThreadPool(Math.min(files.size(), UPLOAD_THREADS), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable task) {
+                final Thread thread = new Thread(task, "sftp-upload-" + host);
+                thread.setDaemon(true);
+                return thread;
             }
-            channelSftp.cd(directory);
-            File f1 = new File(sourcePath);
-            if(path[path.length-1].equals(""))
-                channelSftp.put(new FileInputStream(f1), sourcePath);
-            else channelSftp.put(new FileInputStream(f1), path[path.length - 1]);
+        });
+        for(final Map.Entry<String, String> file : files.entrySet()){
+            uploaders.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if(!uploadWithRetries(file.getKey(), file.getValue())){
+                        failures.add(file.getKey());
+                    }
+                }
+            });
+        }
+        uploaders.shutdown();
+        try {
+            uploaders.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            uploaders.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        return failures;
+    }
 
-            channelSftp.exit();
-            channel.disconnect();
-            session.disconnect();
-            // Because we are using the research platform we need to wait a bit
+    private boolean uploadWithRetries(String sourcePath, String destinationPath){
+        String[] path= destinationPath.split("/");
+        String directory="";
+        for(int i = 0; i < (path.length - 1); i ++){
+            directory += path[i]+"/";
+        }
+        String name = path[path.length-1].equals("") ? sourcePath : path[path.length - 1];
+        File source = new File(sourcePath);
+
+        for(int attempt = 0; attempt < UPLOAD_ATTEMPTS; attempt++){
+            SSHSessionPool.Lease lease=null;
+            boolean failed=false;
             try{
-                Thread.sleep(22000);
-            }catch(Exception ee){
-                ee.printStackTrace();
+                lease = pool.acquire(user, host, keyPath, passwd);
+                String remotePath = name.startsWith("/") ? name : directory + name;
+                if(attempt == 0 && checksumOf(source).equals(remoteChecksumOf(lease.session(), remotePath))){
+                    journal.log(Level.INFO, ">> "+sourcePath+" already on "+host+", upload skipped");
+                    return true;
+                }
+
+                Channel channel = lease.session().openChannel("sftp");
+                channel.connect();
+                ChannelSftp channelSftp = (ChannelSftp) channel;
+                try {
+                    channelSftp.setBulkRequests(BULK_REQUESTS);
+                    if(!directory.equals(""))
+                        channelSftp.cd(directory);
+                    channelSftp.put(sourcePath, name, null, transferMode(channelSftp, name, source, attempt));
+                } finally {
+                    channelSftp.exit();
+                    channel.disconnect();
+                }
+                return true;
+
+            } catch (JSchException e) {
+                failed=true;
+                journal.log(Level.SEVERE, e.getMessage());
+            } catch (IOException e) {
+                journal.log(Level.SEVERE,"File access error "+e.getMessage());
+                return false;
+            } catch (SftpException e) {
+                journal.log(Level.SEVERE, "Upload of "+sourcePath+" failed: "+e.getMessage());
+            } finally {
+                giveBack(lease, failed);
             }
-        } catch (JSchException e) {
-            journal.log(Level.SEVERE, e.getMessage());
-        } catch (IOException e) {
-            journal.log(Level.SEVERE,"File access error "+e.getMessage());
+        }
+        return false;
+    }
+
+    /**
+     * Resume the transfer, when retrying, if only a part of the file has
+     * been sent
+     */
+    private int transferMode(ChannelSftp channelSftp, String name, File source, int attempt){
+        if(attempt == 0){
+            return ChannelSftp.OVERWRITE;
+        }
+        try {
+            return channelSftp.stat(name).getSize() < source.length() ? ChannelSftp.RESUME : ChannelSftp.OVERWRITE;
         } catch (SftpException e) {
-            e.printStackTrace();
+            return ChannelSftp.OVERWRITE;
         }
     }
 
-    private Boolean checkKeyIsFile(String key){
-        File file = new File(key);
-        if (file.exists()){
-            return true;
+    private String checksumOf(File file) throws IOException {
+        try {
+            MessageDigest md5 = MessageDigest.getInstance("MD5");
+            InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+            try {
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while((read = in.read(buffer)) != -1){
+                    md5.update(buffer, 0, read);
+                }
+            } finally {
+                in.close();
+            }
+            StringBuilder hex = new StringBuilder();
+            for(byte b : md5.digest()){
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        return false;
+    }
+
+    /**
+     * @return the MD5 of the remote file, or an empty string if it does not
+     * exist or cannot be computed
+     */
+    private String remoteChecksumOf(Session session, String remotePath) throws JSchException, IOException {
+        ChannelExec channel = (ChannelExec) session.openChannel("exec");
+        try {
+            channel.setCommand("md5sum '" + remotePath.replace("'", "'\\''") + "' 2>/dev/null");
+            channel.setInputStream(null);
+            BufferedReader output = new BufferedReader(new InputStreamReader(channel.getInputStream(), "UTF-8"));
+            channel.connect();
+            String line = output.readLine();
+            while(output.readLine() != null){
+                // drain the output until the command completes
+            }
+            if(line == null || line.trim().isEmpty()){
+                return "";
+            }
+            return line.trim().split("\\s+")[0];
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    private void giveBack(SSHSessionPool.Lease lease, boolean failed){
+        if(lease == null)
+            return;
+        if(failed)
+            lease.invalidate();
+        else lease.release();
+    }
+
+    /**
+     * Cut what the remote side writes into lines for a sink
+     */
+    static class LineOutputStream extends OutputStream {
+
+        private final LineSink sink;
+        private final boolean error;
+        private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+        public LineOutputStream(LineSink sink, boolean error) {
+            this.sink = sink;
+            this.error = error;
+        }
+
+        @Override
+        public synchronized void write(int b) {
+            if (b == '\n') {
+                emit();
+            } else {
+                buffer.write(b);
+            }
+        }
+
+        @Override
+        public synchronized void close() {
+            if (buffer.size() > 0) {
+                emit();
+            }
+        }
+
+        private void emit() {
+            String line;
+            try {
+                line = buffer.toString("UTF-8");
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            buffer.reset();
+            sink.line(line, error);
+        }
+
     }
 
 }
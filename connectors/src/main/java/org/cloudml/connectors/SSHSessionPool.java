@@ -0,0 +1,339 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.connectors;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.jcraft.jsch.*;
+
+/**
+ * Keeps the authenticated SSH sessions alive, one pool per (host, user,
+ * credential), so that successive commands and uploads on the same machine
+ * open new channels on an existing session instead of doing a new TCP
+ * connection and handshake each time. A session carries several channels at
+ * once (up to MAX_CHANNELS), and sessions that remain unused longer than
+ * IDLE_TIMEOUT are disconnected. Sessions send a keep-alive every
+ * SERVER_ALIVE_INTERVAL, so that a host which stopped answering is detected
+ * even while the session is idle.
+ */
+class SSHSessionPool {
+
+    private static final Logger journal = Logger.getLogger(SSHSessionPool.class.getName());
+
+    private static final int SSH_PORT = 22;
+    private static final long IDLE_TIMEOUT = Long.getLong("cloudml.ssh.idleTimeout", 300000L);
+    private static final int MAX_CHANNELS = Integer.getInteger("cloudml.ssh.maxChannels", 8);
+    private static final int SERVER_ALIVE_INTERVAL = Integer.getInteger("cloudml.ssh.serverAliveInterval", 15000);
+    private static final int SERVER_ALIVE_COUNT_MAX = 3;
+    private static final int PROBE_TIMEOUT = Integer.getInteger("cloudml.ssh.probeTimeout", 10000);
+
+    private static final SSHSessionPool SHARED = new SSHSessionPool(IDLE_TIMEOUT, MAX_CHANNELS);
+
+    /**
+     * @return the pool shared by all the connectors
+     */
+    public static SSHSessionPool shared() {
+        return SHARED;
+    }
+
+    private final long idleTimeout;
+    private final int maxChannels;
+    private final Map<String, List<PooledSession>> sessions = new HashMap<String, List<PooledSession>>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            final Thread thread = new Thread(task, "ssh-session-evictor");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    SSHSessionPool(long idleTimeout, int maxChannels) {
+        this.idleTimeout = idleTimeout;
+        this.maxChannels = maxChannels;
+        final long period = Math.max(1000L, idleTimeout / 2);
+        evictor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                evictIdleSessions();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrow a connected session to the given host, opening one if none
+     * with a free channel is available. Leases must be released once the
+     * channel opened on the session is closed.
+     *
+     * @param keyPath either the path to a private key, the key itself, or
+     * an empty string to authenticate with the password
+     */
+    public Lease acquire(String user, String host, String keyPath, String passwd) throws JSchException {
+        final String key = keyOf(user, host, keyPath, passwd);
+        synchronized (this) {
+            final List<PooledSession> candidates = sessionsOf(key);
+            final Iterator<PooledSession> iterator = candidates.iterator();
+            while (iterator.hasNext()) {
+                final PooledSession candidate = iterator.next();
+                if (!isOpen(candidate.session)) {
+                    iterator.remove();
+                    continue;
+                }
+                if (candidate.leases < maxChannels) {
+                    candidate.leases++;
+                    return new Lease(key, candidate, false);
+                }
+            }
+        }
+        final PooledSession fresh = new PooledSession(open(user, host, keyPath, passwd));
+        synchronized (this) {
+            fresh.leases++;
+            sessionsOf(key).add(fresh);
+        }
+        return new Lease(key, fresh, true);
+    }
+
+    /**
+     * Borrow a session to the given host that actually answers, as a session
+     * may still look connected long after the host stopped responding. The
+     * sessions that fail the probe are invalidated and replaced.
+     *
+     * @throws JSchException if no session to the host can be opened, or if
+     * a freshly opened one does not answer either
+     */
+    public Lease acquireAlive(String user, String host, String keyPath, String passwd) throws JSchException {
+        while (true) {
+            final Lease lease = acquire(user, host, keyPath, passwd);
+            try {
+                probe(lease.session());
+                return lease;
+            } catch (JSchException e) {
+                lease.invalidate();
+                if (lease.fresh) {
+                    throw e;
+                }
+                journal.log(Level.FINE, ">> Replacing unresponsive SSH session to " + host);
+            }
+        }
+    }
+
+    /**
+     * Disconnect all the sessions, including those currently in use
+     */
+    public synchronized void clear() {
+        for (List<PooledSession> each : sessions.values()) {
+            for (PooledSession session : each) {
+                close(session.session);
+            }
+        }
+        sessions.clear();
+    }
+
+    synchronized int size() {
+        int size = 0;
+        for (List<PooledSession> each : sessions.values()) {
+            size += each.size();
+        }
+        return size;
+    }
+
+    synchronized void evictIdleSessions() {
+        final long now = System.currentTimeMillis();
+        final Iterator<List<PooledSession>> keys = sessions.values().iterator();
+        while (keys.hasNext()) {
+            final List<PooledSession> each = keys.next();
+            final Iterator<PooledSession> iterator = each.iterator();
+            while (iterator.hasNext()) {
+                final PooledSession session = iterator.next();
+                if (session.leases == 0 && now - session.lastUsed >= idleTimeout) {
+                    journal.log(Level.FINE, ">> Closing idle SSH session to " + session.session.getHost());
+                    close(session.session);
+                    iterator.remove();
+                }
+            }
+            if (each.isEmpty()) {
+                keys.remove();
+            }
+        }
+    }
+
+    private List<PooledSession> sessionsOf(String key) {
+        List<PooledSession> existing = sessions.get(key);
+        if (existing == null) {
+            existing = new ArrayList<PooledSession>();
+            sessions.put(key, existing);
+        }
+        return existing;
+    }
+
+    private synchronized void release(String key, PooledSession session, boolean broken) {
+        session.leases--;
+        session.lastUsed = System.currentTimeMillis();
+        if (broken) {
+            final List<PooledSession> existing = sessions.get(key);
+            if (existing != null) {
+                existing.remove(session);
+            }
+            if (session.leases == 0) {
+                close(session.session);
+            }
+        }
+    }
+
+    /**
+     * Open a new, authenticated session. Overridden by the tests, which run
+     * without any SSH server.
+     */
+    Session open(String user, String host, String keyPath, String passwd) throws JSchException {
+        return connect(user, host, keyPath, passwd);
+    }
+
+    /**
+     * Check that the host still answers on the given session, by opening a
+     * channel and closing it right away. Overridden by the tests.
+     */
+    void probe(Session session) throws JSchException {
+        final Channel channel = session.openChannel("exec");
+        try {
+            ((ChannelExec) channel).setCommand("true");
+            channel.connect(PROBE_TIMEOUT);
+        } finally {
+            channel.disconnect();
+        }
+    }
+
+    boolean isOpen(Session session) {
+        return session.isConnected();
+    }
+
+    void close(Session session) {
+        session.disconnect();
+    }
+
+    private static String keyOf(String user, String host, String keyPath, String passwd) {
+        return user + "@" + host + ":" + SSH_PORT + "\n" + keyPath + "\n" + (keyPath.equals("") ? passwd : "");
+    }
+
+    private static Session connect(String user, String host, String keyPath, String passwd) throws JSchException {
+        final JSch jsch = new JSch();
+        final Properties config = new Properties();
+        config.put("StrictHostKeyChecking", "no");
+        if (!keyPath.equals("")) {
+            if (new File(keyPath).exists()) {
+                jsch.addIdentity(keyPath);
+            } else {
+                final byte[] prvkey = keyPath.getBytes(); // Private key must be byte array
+                final byte[] emptyPassPhrase = new byte[0]; // Empty passphrase for now
+
+                jsch.addIdentity(
+                        user,            // String userName
+                        prvkey,          // byte[] privateKey
+                        null,            // byte[] publicKey
+                        emptyPassPhrase  // byte[] passPhrase
+                );
+            }
+        }
+        final Session session = jsch.getSession(user, host, SSH_PORT);
+        if (keyPath.equals("")) {
+            session.setPassword(passwd);
+        }
+        session.setConfig(config);
+        session.setServerAliveInterval(SERVER_ALIVE_INTERVAL);
+        session.setServerAliveCountMax(SERVER_ALIVE_COUNT_MAX);
+        session.connect(0);
+        journal.log(Level.FINE, ">> New SSH session to " + host);
+        return session;
+    }
+
+    private static class PooledSession {
+
+        private final Session session;
+        private int leases;
+        private long lastUsed;
+
+        public PooledSession(Session session) {
+            this.session = session;
+            this.leases = 0;
+            this.lastUsed = System.currentTimeMillis();
+        }
+
+    }
+
+    /**
+     * A session borrowed from the pool
+     */
+    public class Lease {
+
+        private final String key;
+        private final PooledSession pooled;
+        private final boolean fresh;
+        private boolean released;
+
+        private Lease(String key, PooledSession pooled, boolean fresh) {
+            this.key = key;
+            this.pooled = pooled;
+            this.fresh = fresh;
+            this.released = false;
+        }
+
+        public Session session() {
+            return pooled.session;
+        }
+
+        /**
+         * Give the session back to the pool, for later use
+         */
+        public void release() {
+            giveBack(false);
+        }
+
+        /**
+         * Give the session back to the pool, which will close it, for
+         * instance because it failed
+         */
+        public void invalidate() {
+            giveBack(true);
+        }
+
+        private synchronized void giveBack(boolean broken) {
+            if (!released) {
+                released = true;
+                SSHSessionPool.this.release(key, pooled, broken || !isOpen(pooled.session));
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.connectors;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.cloudml.core.VMInstance;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class ConnectorPoolTest {
+
+    private final ConnectorPool pool = new ConnectorPool(60000L);
+    private final Factory factory = new Factory();
+
+    @Test
+    public void connectorsShouldBeCreatedOncePerKey() {
+        final PooledConnector first = pool.acquire("aws-ec2:me", factory);
+        final PooledConnector second = pool.acquire("aws-ec2:me", factory);
+        final PooledConnector other = pool.acquire("openstack:me", factory);
+
+        assertThat(second.getDelegate(), is(sameInstance(first.getDelegate())));
+        assertThat(other.getDelegate(), is(not(sameInstance(first.getDelegate()))));
+        assertThat(factory.created, is(equalTo(2)));
+    }
+
+    @Test
+    public void returnedConnectorsShouldBeReused() {
+        final PooledConnector first = pool.acquire("aws-ec2:me", factory);
+        first.closeConnection();
+
+        final PooledConnector second = pool.acquire("aws-ec2:me", factory);
+
+        assertThat(second.getDelegate(), is(sameInstance(first.getDelegate())));
+        assertThat(((FakeConnector) first.getDelegate()).closed, is(equalTo(0)));
+    }
+
+    @Test
+    public void onlyConnectorsThatNobodyUsesShouldBeEvicted() {
+        final ConnectorPool eager = new ConnectorPool(0L);
+        final PooledConnector busy = eager.acquire("aws-ec2:me", factory);
+        final PooledConnector shared = eager.acquire("openstack:me", factory);
+        final PooledConnector share = shared.share();
+        final PooledConnector idle = eager.acquire("azure:me", factory);
+        shared.closeConnection();
+        idle.closeConnection();
+
+        eager.evictIdleConnectors();
+
+        assertThat(eager.size(), is(equalTo(2)));
+        assertThat(((FakeConnector) busy.getDelegate()).closed, is(equalTo(0)));
+        assertThat(((FakeConnector) share.getDelegate()).closed, is(equalTo(0)));
+        assertThat(((FakeConnector) idle.getDelegate()).closed, is(equalTo(1)));
+    }
+
+    @Test
+    public void closingAReferenceTwiceShouldReleaseItOnce() {
+        final ConnectorPool eager = new ConnectorPool(0L);
+        final PooledConnector first = eager.acquire("aws-ec2:me", factory);
+        final PooledConnector second = eager.acquire("aws-ec2:me", factory);
+        first.closeConnection();
+        first.closeConnection();
+
+        eager.evictIdleConnectors();
+
+        assertThat(eager.size(), is(equalTo(1)));
+        assertThat(((FakeConnector) second.getDelegate()).closed, is(equalTo(0)));
+    }
+
+    @Test
+    public void aFailedCreationShouldNotBeKept() {
+        try {
+            pool.acquire("aws-ec2:me", new ConnectorPool.Factory() {
+                @Override
+                public Connector create() {
+                    throw new IllegalStateException("wrong credentials");
+                }
+            });
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        assertThat(pool.size(), is(equalTo(0)));
+        assertThat(pool.acquire("aws-ec2:me", factory).getDelegate(), is(instanceOf(FakeConnector.class)));
+    }
+
+    private static class Factory implements ConnectorPool.Factory {
+
+        private int created;
+
+        @Override
+        public Connector create() {
+            created++;
+            return new FakeConnector();
+        }
+
+    }
+
+    private static class FakeConnector implements Connector {
+
+        private int closed;
+
+        @Override
+        public void execCommand(String id, String command, String login, String key) {
+        }
+
+        @Override
+        public HashMap<String, Object> createInstance(VMInstance a) {
+            return new HashMap<String, Object>();
+        }
+
+        @Override
+        public List<HashMap<String, Object>> createInstances(List<VMInstance> instances) {
+            return null;
+        }
+
+        @Override
+        public void destroyVM(String id) {
+        }
+
+        @Override
+        public void closeConnection() {
+            closed++;
+        }
+
+        @Override
+        public void updateVMMetadata(VMInstance a) {
+        }
+
+        @Override
+        public void uploadFile(String sourcePath, String destinationPath, String nodeId, String login, String key) {
+        }
+
+        @Override
+        public void uploadFiles(Map<String, String> files, String nodeId, String login, String key) {
+        }
+
+        @Override
+        public String createSnapshot(VMInstance a) {
+            return null;
+        }
+
+        @Override
+        public String createImage(VMInstance a) {
+            return null;
+        }
+
+        @Override
+        public void startVM(VMInstance a) {
+        }
+
+        @Override
+        public void stopVM(VMInstance a) {
+        }
+
+    }
+
+}
@@ -0,0 +1,98 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.connectors;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class LineOutputStreamTest {
+
+    private final Lines lines = new Lines();
+
+    @Test
+    public void linesShouldBeEmittedAsSoonAsTheyEnd() throws IOException {
+        final SSHConnector.LineOutputStream sut = new SSHConnector.LineOutputStream(lines, true);
+
+        sut.write("first\nsec".getBytes("UTF-8"));
+        assertThat(lines.received, contains("first"));
+
+        sut.write("ond\n".getBytes("UTF-8"));
+        assertThat(lines.received, contains("first", "second"));
+        assertThat(lines.errors, contains(true, true));
+    }
+
+    @Test
+    public void carriageReturnsShouldBeDropped() throws IOException {
+        final SSHConnector.LineOutputStream sut = new SSHConnector.LineOutputStream(lines, false);
+
+        sut.write("with a pty\r\n\r\n".getBytes("UTF-8"));
+
+        assertThat(lines.received, contains("with a pty", ""));
+    }
+
+    @Test
+    public void theLastLineShouldBeEmittedOnClose() throws IOException {
+        final SSHConnector.LineOutputStream sut = new SSHConnector.LineOutputStream(lines, false);
+
+        sut.write("done\nno end of line".getBytes("UTF-8"));
+        sut.close();
+        sut.close();
+
+        assertThat(lines.received, contains("done", "no end of line"));
+    }
+
+    @Test
+    public void charactersSplitAcrossWritesShouldBeDecoded() throws IOException {
+        final SSHConnector.LineOutputStream sut = new SSHConnector.LineOutputStream(lines, false);
+        final byte[] bytes = "d\u00e9j\u00e0 vu\n".getBytes("UTF-8");
+
+        for (byte b : bytes) {
+            sut.write(b);
+        }
+
+        assertThat(lines.received, contains("d\u00e9j\u00e0 vu"));
+    }
+
+    private static class Lines implements LineSink {
+
+        private final List<String> received = new ArrayList<String>();
+        private final List<Boolean> errors = new ArrayList<Boolean>();
+
+        @Override
+        public void line(String line, boolean error) {
+            received.add(line);
+            errors.add(error);
+        }
+
+    }
+
+}
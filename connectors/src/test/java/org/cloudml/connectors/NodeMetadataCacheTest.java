@@ -0,0 +1,153 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.connectors;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.jclouds.compute.ComputeService;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class NodeMetadataCacheTest {
+
+    private final FakeProvider provider = new FakeProvider(node("1", "vm 1"), node("2", "vm 2"));
+
+    @Test
+    public void nodesShouldBeListedOnceWhileFresh() {
+        final NodeMetadataCache sut = new NodeMetadataCache(provider.service(), 60000L);
+
+        assertThat(sut.named("vm 1").getId(), is(equalTo("1")));
+        assertThat(sut.named(Arrays.asList("vm 1", "vm 2", "vm 3")).keySet(), containsInAnyOrder("vm 1", "vm 2"));
+        assertThat(sut.withId("2").getName(), is(equalTo("vm 2")));
+
+        assertThat(provider.calls("listNodes"), is(equalTo(1)));
+        assertThat(provider.calls("getNodeMetadata"), is(equalTo(0)));
+    }
+
+    @Test
+    public void nodesShouldBeListedAgainOnceExpired() throws InterruptedException {
+        final NodeMetadataCache sut = new NodeMetadataCache(provider.service(), 20L);
+        sut.named("vm 1");
+        provider.nodes.add(node("3", "vm 3"));
+
+        Thread.sleep(50L);
+
+        assertThat(sut.named("vm 3").getId(), is(equalTo("3")));
+        assertThat(provider.calls("listNodes"), is(equalTo(2)));
+    }
+
+    @Test
+    public void expiredDetailsShouldBeFetchedFromTheProvider() throws InterruptedException {
+        final NodeMetadataCache sut = new NodeMetadataCache(provider.service(), 20L);
+        sut.named("vm 1");
+
+        Thread.sleep(50L);
+
+        assertThat(sut.withId("1").getName(), is(equalTo("vm 1")));
+        assertThat(provider.calls("getNodeMetadata"), is(equalTo(1)));
+        assertThat(provider.calls("listNodes"), is(equalTo(1)));
+    }
+
+    @Test
+    public void invalidatedNodesShouldBeListedAgain() {
+        final NodeMetadataCache sut = new NodeMetadataCache(provider.service(), 60000L);
+        sut.named("vm 1");
+
+        sut.invalidate();
+        sut.named("vm 1");
+
+        assertThat(provider.calls("listNodes"), is(equalTo(2)));
+    }
+
+    @Test
+    public void addedAndRemovedNodesShouldBeSeenWithoutListing() {
+        final NodeMetadataCache sut = new NodeMetadataCache(provider.service(), 60000L);
+        sut.named("vm 1");
+
+        sut.add(node("3", "vm 3"));
+        sut.remove("1");
+
+        assertThat(sut.named("vm 3").getId(), is(equalTo("3")));
+        assertThat(sut.named("vm 1"), is(nullValue()));
+        assertThat(provider.calls("listNodes"), is(equalTo(1)));
+    }
+
+    private static NodeMetadata node(String id, String name) {
+        return new NodeMetadataBuilder().ids(id).name(name).status(NodeMetadata.Status.RUNNING).build();
+    }
+
+    /**
+     * A compute service that only knows how to list its nodes and to
+     * describe one of them, and which counts the calls it receives
+     */
+    private static class FakeProvider implements InvocationHandler {
+
+        private final Set<NodeMetadata> nodes = new LinkedHashSet<NodeMetadata>();
+        private final Map<String, Integer> calls = new HashMap<String, Integer>();
+
+        public FakeProvider(NodeMetadata... nodes) {
+            this.nodes.addAll(Arrays.asList(nodes));
+        }
+
+        public ComputeService service() {
+            return (ComputeService) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ComputeService.class}, this);
+        }
+
+        public int calls(String method) {
+            return calls.containsKey(method) ? calls.get(method) : 0;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] arguments) {
+            calls.put(method.getName(), calls(method.getName()) + 1);
+            if (method.getName().equals("listNodes")) {
+                return new LinkedHashSet<NodeMetadata>(nodes);
+            }
+            if (method.getName().equals("getNodeMetadata")) {
+                for (NodeMetadata node : nodes) {
+                    if (node.getId().equals(arguments[0])) {
+                        return node;
+                    }
+                }
+                return null;
+            }
+            throw new UnsupportedOperationException(method.getName());
+        }
+
+    }
+
+}
@@ -0,0 +1,97 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.connectors;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import org.cloudml.core.Provider;
+import org.cloudml.core.VM;
+import org.cloudml.core.VMInstance;
+import org.jclouds.compute.domain.ComputeMetadata;
+import org.jclouds.compute.domain.NodeMetadata;
+import org.jclouds.compute.domain.NodeMetadataBuilder;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Provisions VMs that already exist, so that the connector never actually
+ * reaches the OpenStack endpoint.
+ */
+@RunWith(JUnit4.class)
+public class OpenStackConnectorTest {
+
+    @Test
+    public void eachVmProvisionedTogetherShouldGetItsOwnRuntimeInformation() {
+        final OpenStackConnector connector = new ExistingVmsConnector();
+        final VM type = new VM("small", new Provider("openstack-nova"));
+
+        final List<HashMap<String, Object>> results = connector.createInstances(
+                Arrays.asList(new VMInstance("vm 1", type), new VMInstance("vm 2", type)));
+
+        assertThat(results, hasSize(2));
+        assertThat(results.get(0), is(not(sameInstance(results.get(1)))));
+        assertThat(results.get(0).get("name"), is(equalTo((Object) "vm 1")));
+        assertThat(results.get(1).get("name"), is(equalTo((Object) "vm 2")));
+    }
+
+    @Test
+    public void successiveVmsShouldNotShareTheirRuntimeInformation() {
+        final OpenStackConnector connector = new ExistingVmsConnector();
+        final VM type = new VM("small", new Provider("openstack-nova"));
+
+        final HashMap<String, Object> first = connector.createInstance(new VMInstance("vm 1", type));
+        first.put("name", "vm 1");
+        final HashMap<String, Object> second = connector.createInstance(new VMInstance("vm 2", type));
+
+        assertThat(second, is(not(sameInstance(first))));
+        assertThat(second, not(hasKey("name")));
+    }
+
+    /**
+     * A connector to which every VM looks already provisioned
+     */
+    private static class ExistingVmsConnector extends OpenStackConnector {
+
+        public ExistingVmsConnector() {
+            super("http://localhost:5000/v2.0", "openstack-nova", "tenant:user", "secret");
+        }
+
+        @Override
+        public ComputeMetadata getVMByName(String name) {
+            return new NodeMetadataBuilder().ids("RegionOne/" + name).name(name).status(NodeMetadata.Status.RUNNING).build();
+        }
+
+        @Override
+        public void updateVMMetadata(VMInstance a) {
+            a.setId("RegionOne/" + a.getName());
+        }
+
+    }
+
+}
@@ -0,0 +1,191 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.connectors;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.jcraft.jsch.JSch;
+import com.jcraft.jsch.JSchException;
+import com.jcraft.jsch.Session;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Checks out and returns sessions of a pool whose sessions are never
+ * actually connected, so that no SSH server is needed.
+ */
+@RunWith(JUnit4.class)
+public class SSHSessionPoolTest {
+
+    private static final int MAX_CHANNELS = 2;
+
+    private final FakeSessionPool pool = new FakeSessionPool(60000L, MAX_CHANNELS);
+
+    @Test
+    public void sessionsShouldBeReusedOnceReleased() throws JSchException {
+        final SSHSessionPool.Lease first = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+        first.release();
+        final SSHSessionPool.Lease second = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+
+        assertThat(second.session(), is(sameInstance(first.session())));
+        assertThat(pool.opened, is(equalTo(1)));
+    }
+
+    @Test
+    public void sessionsShouldCarrySeveralChannelsAtOnce() throws JSchException {
+        final SSHSessionPool.Lease first = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+        final SSHSessionPool.Lease second = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+        final SSHSessionPool.Lease third = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+
+        assertThat(second.session(), is(sameInstance(first.session())));
+        assertThat(third.session(), is(not(sameInstance(first.session()))));
+        assertThat(pool.size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void sessionsShouldNotBeSharedAcrossHostsOrCredentials() throws JSchException {
+        final Session session = pool.acquire("ubuntu", "10.0.0.1", "", "secret").session();
+
+        assertThat(pool.acquire("ubuntu", "10.0.0.2", "", "secret").session(), is(not(sameInstance(session))));
+        assertThat(pool.acquire("root", "10.0.0.1", "", "secret").session(), is(not(sameInstance(session))));
+        assertThat(pool.acquire("ubuntu", "10.0.0.1", "", "other").session(), is(not(sameInstance(session))));
+    }
+
+    @Test
+    public void invalidatedSessionsShouldBeClosedAndReplaced() throws JSchException {
+        final SSHSessionPool.Lease lease = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+        lease.invalidate();
+
+        assertThat(pool.isOpen(lease.session()), is(false));
+        assertThat(pool.acquire("ubuntu", "10.0.0.1", "", "secret").session(), is(not(sameInstance(lease.session()))));
+    }
+
+    @Test
+    public void sessionsClosedByTheServerShouldBeReplaced() throws JSchException {
+        final SSHSessionPool.Lease lease = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+        lease.release();
+        pool.close(lease.session());
+
+        assertThat(pool.acquire("ubuntu", "10.0.0.1", "", "secret").session(), is(not(sameInstance(lease.session()))));
+        assertThat(pool.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void releasingTwiceShouldBeHarmless() throws JSchException {
+        final SSHSessionPool.Lease first = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+        final SSHSessionPool.Lease second = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+        first.release();
+        first.release();
+
+        final SSHSessionPool.Lease third = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+        final SSHSessionPool.Lease fourth = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+
+        assertThat(third.session(), is(sameInstance(second.session())));
+        assertThat(fourth.session(), is(not(sameInstance(second.session()))));
+    }
+
+    @Test
+    public void onlyIdleSessionsShouldBeEvicted() throws JSchException {
+        final SSHSessionPool eager = new FakeSessionPool(0L, MAX_CHANNELS);
+        final SSHSessionPool.Lease busy = eager.acquire("ubuntu", "10.0.0.1", "", "secret");
+        eager.acquire("ubuntu", "10.0.0.2", "", "secret").release();
+
+        eager.evictIdleSessions();
+
+        assertThat(eager.size(), is(equalTo(1)));
+        assertThat(eager.isOpen(busy.session()), is(true));
+    }
+
+    @Test
+    public void sessionsThatNoLongerAnswerShouldBeReplacedWhenProbed() throws JSchException {
+        final SSHSessionPool.Lease stale = pool.acquire("ubuntu", "10.0.0.1", "", "secret");
+        stale.release();
+        pool.unresponsive.add(stale.session());
+
+        final SSHSessionPool.Lease alive = pool.acquireAlive("ubuntu", "10.0.0.1", "", "secret");
+
+        assertThat(alive.session(), is(not(sameInstance(stale.session()))));
+        assertThat(pool.isOpen(stale.session()), is(false));
+        assertThat(pool.size(), is(equalTo(1)));
+    }
+
+    @Test
+    public void answeringSessionsShouldBeReusedWhenProbed() throws JSchException {
+        final SSHSessionPool.Lease first = pool.acquireAlive("ubuntu", "10.0.0.1", "", "secret");
+        first.release();
+
+        assertThat(pool.acquireAlive("ubuntu", "10.0.0.1", "", "secret").session(), is(sameInstance(first.session())));
+        assertThat(pool.opened, is(equalTo(1)));
+    }
+
+    @Test(expected = JSchException.class)
+    public void hostsThatDoNotAnswerAFreshSessionShouldBeReportedUnreachable() throws JSchException {
+        pool.unresponsiveHosts.add("10.0.0.1");
+
+        pool.acquireAlive("ubuntu", "10.0.0.1", "", "secret");
+    }
+
+    private static class FakeSessionPool extends SSHSessionPool {
+
+        private final Set<Session> open = new HashSet<Session>();
+        private final Set<Session> unresponsive = new HashSet<Session>();
+        private final Set<String> unresponsiveHosts = new HashSet<String>();
+        private int opened;
+
+        public FakeSessionPool(long idleTimeout, int maxChannels) {
+            super(idleTimeout, maxChannels);
+        }
+
+        @Override
+        synchronized Session open(String user, String host, String keyPath, String passwd) throws JSchException {
+            final Session session = new JSch().getSession(user, host);
+            open.add(session);
+            opened++;
+            return session;
+        }
+
+        @Override
+        synchronized void probe(Session session) throws JSchException {
+            if (unresponsive.contains(session) || unresponsiveHosts.contains(session.getHost())) {
+                throw new JSchException("no answer from " + session.getHost());
+            }
+        }
+
+        @Override
+        synchronized boolean isOpen(Session session) {
+            return open.contains(session);
+        }
+
+        @Override
+        synchronized void close(Session session) {
+            open.remove(session);
+        }
+
+    }
+
+}
@@ -62,6 +62,8 @@ public class CloudAppDeployer {
     private Coordinator coordinator;
     private boolean statusMonitorActive;
     private StatusMonitor statusMonitor; //always check if active
+    private final Map<String, String> appliedManifests = new HashMap<String, String>(); //digest of the last manifest applied on each VM
+    private final Map<String, Object> transitions = new HashMap<String, Object>(); //guards the installation and start of each component
 
     public CloudAppDeployer() {
         System.setProperty("jsse.enableSNIExtension", "false");
@@ -108,14 +110,8 @@ public class CloudAppDeployer {
             //Set env Variables
             setAllEnvVarComponent(targetModel);
 
-            // Deploying on vms
-            prepareComponents(targetModel.getComponentInstances(), targetModel.getRelationshipInstances());
-
-            //Configure the components with the relationships
-            configureWithRelationships(targetModel.getRelationshipInstances());
-
-            //configuration process at SaaS level
-            configureSaas(targetModel.getComponentInstances().onlyInternals());
+            // Deploying on vms, configuring the relationships and starting the components
+            deployComponents(targetModel.getComponentInstances().onlyInternals(), targetModel.getRelationshipInstances(), targetModel.getRelationshipInstances());
 
             //Run puppet
             configureWithPuppet(targetModel.getComponentInstances().onlyInternals());
@@ -131,9 +127,7 @@ public class CloudAppDeployer {
             //Added stuff
             setExternalServices(new ExternalComponentInstanceGroup(diff.getAddedECs()).onlyExternals());
             setAllEnvVarComponent(currentModel);
-            prepareComponents(new ComponentInstanceGroup(diff.getAddedComponents()), targetModel.getRelationshipInstances());
-            configureWithRelationships(new RelationshipInstanceGroup(diff.getAddedRelationships()));
-            configureSaas(new ComponentInstanceGroup<InternalComponentInstance>(diff.getAddedComponents()));
+            deployComponents(diff.getAddedComponents(), diff.getAddedRelationships(), targetModel.getRelationshipInstances());
             configureWithPuppet(targetModel.getComponentInstances().onlyInternals());
             generatePuppetManifestAndConfigure();
 
@@ -190,8 +184,51 @@ public class CloudAppDeployer {
 
     public void reset(){
         setCurrentModel(null);
-        alreadyDeployed=new ComponentInstanceGroup<ComponentInstance<? extends Component>>();
-        alreadyStarted=new ComponentInstanceGroup<ComponentInstance<? extends Component>>();
+        synchronized (this) {
+            alreadyDeployed=new ComponentInstanceGroup<ComponentInstance<? extends Component>>();
+            alreadyStarted=new ComponentInstanceGroup<ComponentInstance<? extends Component>>();
+        }
+    }
+
+    /*
+     * The deployment steps run concurrently (see DeploymentScheduler), hence
+     * the bookkeeping of what is already deployed and started is synchronized.
+     */
+    private synchronized boolean isDeployed(ComponentInstance<? extends Component> instance) {
+        return alreadyDeployed.contains(instance);
+    }
+
+    private synchronized void markAsDeployed(ComponentInstance<? extends Component> instance) {
+        alreadyDeployed.add(instance);
+    }
+
+    private synchronized boolean isStarted(ComponentInstance<? extends Component> instance) {
+        return alreadyStarted.contains(instance);
+    }
+
+    private synchronized void markAsStarted(ComponentInstance<? extends Component> instance) {
+        alreadyStarted.add(instance);
+    }
+
+    /**
+     * The lock to hold while installing or starting the given component, so
+     * that two steps sharing a host do not both install it: the second one
+     * waits for the first, then finds the host already deployed.
+     */
+    private synchronized Object transitionOf(ComponentInstance<? extends Component> instance) {
+        Object lock = transitions.get(instance.getName());
+        if (lock == null) {
+            lock = new Object();
+            transitions.put(instance.getName(), lock);
+        }
+        return lock;
+    }
+
+    /**
+     * @return a connector to the given IaaS provider
+     */
+    protected Connector createIaaSConnector(Provider provider) {
+        return ConnectorFactory.createIaaSConnector(provider);
     }
 
     public void deploy(Deployment targetModel, CloudMLModelComparator diff){
@@ -206,9 +243,7 @@ public class CloudAppDeployer {
         //Added stuff
         setExternalServices(new ExternalComponentInstanceGroup(diff.getAddedECs()).onlyExternals());
         setAllEnvVarComponent(targetModel);
-        prepareComponents(new ComponentInstanceGroup(diff.getAddedComponents()), targetModel.getRelationshipInstances());
-        configureWithRelationships(new RelationshipInstanceGroup(diff.getAddedRelationships()));
-        configureSaas(new ComponentInstanceGroup<InternalComponentInstance>(diff.getAddedComponents()));
+        deployComponents(diff.getAddedComponents(), diff.getAddedRelationships(), targetModel.getRelationshipInstances());
         configureWithPuppet(targetModel.getComponentInstances().onlyInternals());
         generatePuppetManifestAndConfigure();
 
@@ -268,8 +303,10 @@ public class CloudAppDeployer {
             currentModel.getRelationshipInstances().removeAll(diff.getRemovedRelationships());
             currentModel.getComponentInstances().removeAll(diff.getRemovedECs().keySet());
             currentModel.getExecuteInstances().removeAll(diff.getRemovedExecutes());
-            alreadyDeployed.removeAll(diff.getRemovedComponents());
-            alreadyStarted.removeAll(diff.getRemovedComponents());
+            synchronized (this) {
+                alreadyDeployed.removeAll(diff.getRemovedComponents());
+                alreadyStarted.removeAll(diff.getRemovedComponents());
+            }
 
             currentModel.getComponentInstances().replaceAll(diff.getAddedComponents());
             currentModel.getRelationshipInstances().replaceAll(diff.getAddedRelationships());
@@ -281,103 +318,182 @@ public class CloudAppDeployer {
     }
 
     /**
-     * Prepare the components before their start. Retrieves their resources,
-     * builds their PaaS and installs them
+     * Install the components, configure the relationships and start the
+     * components. Each of these steps is run as soon as the steps it depends
+     * on are completed: a component is installed once its host is running,
+     * a relationship is configured once both its ends are installed and a
+     * component is started once its relationships are configured.
      *
-     * @param components a list of components
-     * @throws MalformedURLException
+     * @param toDeploy         the components to deploy
+     * @param toConfigure      the relationships to configure
+     * @param allRelationships all the relationships of the model
      */
-    private void prepareComponents(ComponentInstanceGroup<ComponentInstance<? extends Component>> components, RelationshipInstanceGroup relationships) {
-        unlessNotNull("Cannot prepare for deployment null!", components);
-        for (ComponentInstance<? extends Component> x : components) {
-            if (x instanceof InternalComponentInstance) {
-                prepareAnInternalComponent((InternalComponentInstance) x, components, relationships);
+    private void deployComponents(Collection<InternalComponentInstance> toDeploy, Collection<RelationshipInstance> toConfigure, final RelationshipInstanceGroup allRelationships) {
+        unlessNotNull("Cannot prepare for deployment null!", toDeploy, toConfigure, allRelationships);
+        // the steps run concurrently: work on snapshots rather than on live views of the model
+        final List<InternalComponentInstance> components = new ArrayList<InternalComponentInstance>(toDeploy);
+        final List<RelationshipInstance> relationships = new ArrayList<RelationshipInstance>(toConfigure);
+        final DeploymentScheduler scheduler = new DeploymentScheduler();
+        final Map<String, DeploymentScheduler.Step> installs = new HashMap<String, DeploymentScheduler.Step>();
+        final Map<String, DeploymentScheduler.Step> starts = new HashMap<String, DeploymentScheduler.Step>();
+
+        for (final InternalComponentInstance instance : components) {
+            final String pool = poolOf(instance);
+            final DeploymentScheduler.Step install = scheduler.add("install " + instance.getName(), pool, new Runnable() {
+                @Override
+                public void run() {
+                    prepareAnInternalComponent(instance, allRelationships);
+                }
+            });
+            final DeploymentScheduler.Step start = scheduler.add("start " + instance.getName(), pool, new Runnable() {
+                @Override
+                public void run() {
+                    configureAndStart(instance);
+                }
+            });
+            start.after(install);
+            installs.put(instance.getName(), install);
+            starts.put(instance.getName(), start);
+        }
+
+        for (InternalComponentInstance instance : components) {
+            final ComponentInstance<? extends Component> host = instance.getHost();
+            if (host != null && host.isInternal()) {
+                installs.get(instance.getName()).after(starts.get(host.getName()));
+            }
+        }
+
+        for (final RelationshipInstance relationship : relationships) {
+            final String client = relationship.getRequiredEnd().getOwner().get().getName();
+            final String server = relationship.getProvidedEnd().getOwner().get().getName();
+            final DeploymentScheduler.Step configure = scheduler.add("configure " + relationship.getName(), poolOf(relationship.getRequiredEnd().getOwner().get()), new Runnable() {
+                @Override
+                public void run() {
+                    configureWithRelationship(relationship);
+                }
+            });
+            configure.after(installs.get(client)).after(installs.get(server));
+            if (starts.containsKey(client)) {
+                starts.get(client).after(configure);
+            }
+            if (starts.containsKey(server)) {
+                starts.get(server).preferablyAfter(configure);
+            }
+        }
+
+        for (InternalComponentInstance instance : components) {
+            for (RelationshipInstance relationship : allRelationships.whereClientIs(instance)) {
+                final String client = instance.getName();
+                final String server = relationship.getProvidedEnd().getOwner().get().getName();
+                if (relationship.getRequiredEnd().getType().isMandatory()) {
+                    installs.get(client).after(starts.get(server));
+                } else {
+                    starts.get(client).preferablyAfter(starts.get(server));
+                }
             }
         }
+
+        scheduler.execute();
+    }
+
+    /**
+     * @return the key of the worker pool used for the steps related to the
+     * given component, that is the name of the provider hosting it
+     */
+    private String poolOf(ComponentInstance<? extends Component> component) {
+        final ExternalComponentInstance destination = component.isInternal() ? component.asInternal().externalHost() : component.asExternal();
+        if (destination != null && destination.getType().asExternal().getProvider() != null) {
+            return destination.getType().asExternal().getProvider().getName();
+        }
+        return "default";
     }
 
     /**
      * Prepare a component before it starts. Retrieves its resources, builds
      * its PaaS and installs it
      *
-     * @param instance   an InternalComponentInstance
-     * @param components a list of components
+     * @param instance      an InternalComponentInstance
+     * @param relationships the relationships of the model
      * @throws MalformedURLException
      */
-    private void prepareAnInternalComponent(InternalComponentInstance instance, ComponentInstanceGroup<ComponentInstance<? extends Component>> components, RelationshipInstanceGroup relationships) {
+    private void prepareAnInternalComponent(InternalComponentInstance instance, RelationshipInstanceGroup relationships) {
         unlessNotNull("Cannot deploy null!", instance);
         Connector jc;
-        if (!alreadyDeployed.contains(instance) && (instance.getRequiredExecutionPlatform() != null)) {
-            ExternalComponentInstance host = instance.externalHost();
-            if (host.isVM()) {
-                VMInstance ownerVM = host.asVM();
-                VM n = ownerVM.getType();
-
-                jc = ConnectorFactory.createIaaSConnector(n.getProvider());
-
-                executeUploadCommands(instance, ownerVM, jc);
-
-                executeRetrieveCommand(instance, ownerVM, jc);
-
-                alreadyDeployed.add(instance);
-
-                buildPaas(instance, relationships.toList());
-
-                executeInstallCommand(instance, ownerVM, jc);
-
-                coordinator.updateStatusInternalComponent(instance.getName(), State.INSTALLED.toString(), CloudAppDeployer.class.getName());
-                //instance.setStatus(State.INSTALLED);
-                jc.closeConnection();
-            } else { // If the destination is a PaaS platform
-                ExternalComponent ownerType = (ExternalComponent) host.getType();
-                Provider p = ownerType.getProvider();
-                PaaSConnector connector = ConnectorFactory.createPaaSConnector(p);
-                int minRam=0;
-                String stack = "";
-                if(instance.getType().hasProperty("stack"))
-                    stack = instance.getType().getProperties().valueOf("stack");
-                if(instance.hasProperty("stack"))
-                    stack = instance.getProperties().valueOf("stack");
-                if(instance.getType().hasProperty("buildpack"))
-                    stack = instance.getType().getProperties().valueOf("buildpack");
-                if(instance.hasProperty("buildpack"))
-                    stack = instance.getProperties().valueOf("buildpack");
-                if(instance.getType().hasProperty("minRAM"))
-                    minRam = Integer.parseInt(instance.getType().getProperties().valueOf("minRAM"));
-                String url=connector.createEnvironmentWithWar(
-                        instance.getName(),
-                        instance.getName(),
-                        host.getName(),
-                        stack,
-                        minRam,
-                        instance.getType().getProperties().valueOf("warfile"),
-                        instance.getType().hasProperty("version") ? instance.getType().getProperties().valueOf("version") : "default-cloudml"
-                );
-                host.setPublicAddress(url);
-                if(instance.hasProperty("containerSize")){
-                    String size =instance.getProperties().valueOf("containerSize");
-                    Map<String, String> params = new HashMap<String, String>();
-                    params.put("containerSize", size);
-                    connector.configAppParameters(instance.getName(), params);
-                }
+        synchronized (transitionOf(instance)) {
+            if (!isDeployed(instance) && (instance.getRequiredExecutionPlatform() != null)) {
+                ExternalComponentInstance host = instance.externalHost();
+                if (host.isVM()) {
+                    VMInstance ownerVM = host.asVM();
+                    VM n = ownerVM.getType();
+
+                    jc = createIaaSConnector(n.getProvider());
+
+                    executeUploadCommands(instance, ownerVM, jc);
+
+                    executeRetrieveCommand(instance, ownerVM, jc);
+
+                    markAsDeployed(instance);
+
+                    buildPaas(instance, relationships.whereClientIs(instance).toList());
+
+                    executeInstallCommand(instance, ownerVM, jc);
+
+                    coordinator.updateStatusInternalComponent(instance.getName(), State.INSTALLED.toString(), CloudAppDeployer.class.getName());
+                    //instance.setStatus(State.INSTALLED);
+                    jc.closeConnection();
+                } else { // If the destination is a PaaS platform
+                    ExternalComponent ownerType = (ExternalComponent) host.getType();
+                    Provider p = ownerType.getProvider();
+                    PaaSConnector connector = ConnectorFactory.createPaaSConnector(p);
+                    int minRam=0;
+                    String stack = "";
+                    if(instance.getType().hasProperty("stack"))
+                        stack = instance.getType().getProperties().valueOf("stack");
+                    if(instance.hasProperty("stack"))
+                        stack = instance.getProperties().valueOf("stack");
+                    if(instance.getType().hasProperty("buildpack"))
+                        stack = instance.getType().getProperties().valueOf("buildpack");
+                    if(instance.hasProperty("buildpack"))
+                        stack = instance.getProperties().valueOf("buildpack");
+                    if(instance.getType().hasProperty("minRAM"))
+                        minRam = Integer.parseInt(instance.getType().getProperties().valueOf("minRAM"));
+                    String url=connector.createEnvironmentWithWar(
+                            instance.getName(),
+                            instance.getName(),
+                            host.getName(),
+                            stack,
+                            minRam,
+                            instance.getType().getProperties().valueOf("warfile"),
+                            instance.getType().hasProperty("version") ? instance.getType().getProperties().valueOf("version") : "default-cloudml"
+                    );
+                    synchronized (transitionOf(host)) {
+                        host.setPublicAddress(url);
+                    }
+                    if(instance.hasProperty("containerSize")){
+                        String size =instance.getProperties().valueOf("containerSize");
+                        Map<String, String> params = new HashMap<String, String>();
+                        params.put("containerSize", size);
+                        connector.configAppParameters(instance.getName(), params);
+                    }
 
-                /*for(RelationshipInstance ri: currentModel.getRelationshipInstances()){
-                    if(ri.isRequiredBy(instance)){
-                        if(ri.getServerComponent().isInternal()){
-                            ExternalComponentInstance ec=ri.getServerComponent().asInternal().getHost().asExternal();
-                            if(!ec.isVM()){
-                                if(ec.getType().asExternal().getServiceType() == null){
-                                    connector.setEnvVar(instance.getName(), instance.getName(), url);
+                    /*for(RelationshipInstance ri: currentModel.getRelationshipInstances()){
+                        if(ri.isRequiredBy(instance)){
+                            if(ri.getServerComponent().isInternal()){
+                                ExternalComponentInstance ec=ri.getServerComponent().asInternal().getHost().asExternal();
+                                if(!ec.isVM()){
+                                    if(ec.getType().asExternal().getServiceType() == null){
+                                        connector.setEnvVar(instance.getName(), instance.getName(), url);
+                                    }
                                 }
                             }
                         }
-                    }
-                }*/
+                    }*/
 
-                for(InternalComponentInstance ici: host.hostedComponents()){
-                    coordinator.updateStatusInternalComponent(ici.getName(), InternalComponentInstance.State.RUNNING.toString(), CloudAppDeployer.class.getName());
+                    for(InternalComponentInstance ici: host.hostedComponents()){
+                        coordinator.updateStatusInternalComponent(ici.getName(), InternalComponentInstance.State.RUNNING.toString(), CloudAppDeployer.class.getName());
+                    }
+                    coordinator.updateStatusInternalComponent(host.getName(), ComponentInstance.State.RUNNING.toString(), CloudAppDeployer.class.getName());
                 }
-                coordinator.updateStatusInternalComponent(host.getName(), ComponentInstance.State.RUNNING.toString(), CloudAppDeployer.class.getName());
             }
         }
     }
@@ -431,7 +547,8 @@ public class CloudAppDeployer {
 
     /**
      * Upload resources associated to an internal component on a specified
-     * external component
+     * external component. The files are sent in as few batches as possible:
+     * a file uploaded to several destinations goes in as many batches.
      *
      * @param x     the internal component with upload commands
      * @param owner the external component on which the resources are about to
@@ -441,11 +558,30 @@ public class CloudAppDeployer {
     private void executeUploadCommands(InternalComponentInstance x, VMInstance owner, Connector jc) {
         journal.log(Level.INFO, ">> Upload "+x.getType().getName());
         unlessNotNull("Cannot upload with an argument at null", x, owner, jc);
+        List<Map<String, String>> batches = new ArrayList<Map<String, String>>();
         for (Resource r : x.getType().getResources()) {
-            for (String path : r.getUploadCommand().keySet()) {
-                jc.uploadFile(path, r.getUploadCommand().get(path), owner.getId(), "ubuntu", owner.getType().getPrivateKey());
+            for (Map.Entry<String, String> upload : r.getUploadCommand().entrySet()) {
+                batchWithout(batches, upload.getKey()).put(upload.getKey(), upload.getValue());
             }
         }
+        for (Map<String, String> files : batches) {
+            jc.uploadFiles(files, owner.getId(), "ubuntu", owner.getType().getPrivateKey());
+        }
+    }
+
+    /**
+     * @return the first batch which does not upload the given file yet, a
+     * new one if all of them do
+     */
+    private static Map<String, String> batchWithout(List<Map<String, String>> batches, String sourcePath) {
+        for (Map<String, String> batch : batches) {
+            if (!batch.containsKey(sourcePath)) {
+                return batch;
+            }
+        }
+        final Map<String, String> batch = new LinkedHashMap<String, String>();
+        batches.add(batch);
+        return batch;
     }
 
     /**
@@ -484,12 +620,26 @@ public class CloudAppDeployer {
     }
 
 
+    /**
+     * Generate the manifest file of the given VMs and start puppet on those
+     * whose manifest has changed since it was last applied.
+     */
     private void generatePuppetManifestAndConfigure(VMInstanceGroup group){
+        PuppetManifestGenerator pmg = new PuppetManifestGenerator(currentModel);
         for(VMInstance vmi : group){
-            PuppetManifestGenerator pmg = new PuppetManifestGenerator(vmi, currentModel);
-            String path=pmg.generate();
+            PuppetManifestGenerator.Manifest manifest = pmg.manifestOf(vmi);
+            if(manifest.isEmpty()){
+                continue;
+            }
+            String digest = manifest.getDigest();
+            if(digest.equals(appliedManifests.get(vmi.getName()))){
+                journal.log(Level.INFO, ">> Manifest of "+vmi.getName()+" unchanged, puppet not run");
+                continue;
+            }
+            String path=manifest.write();
             if(path != null){
-                managePuppet(pmg.getSkeleton(), vmi, vmi.getName(), path);
+                managePuppet(manifest.getSkeleton(), vmi, vmi.getName(), path);
+                appliedManifests.put(vmi.getName(), digest);
             }
         }
     }
@@ -498,13 +648,7 @@ public class CloudAppDeployer {
      * Generate the manifest file for each VM from the manifestEntry of each puppet resource and start puppet.
      */
     private void generatePuppetManifestAndConfigure(){
-        for(VMInstance vmi : currentModel.getComponentInstances().onlyVMs()){
-            PuppetManifestGenerator pmg = new PuppetManifestGenerator(vmi, currentModel);
-            String path=pmg.generate();
-            if(path != null){
-                managePuppet(pmg.getSkeleton(), vmi, vmi.getName(), path);
-            }
-        }
+        generatePuppetManifestAndConfigure(currentModel.getComponentInstances().onlyVMs());
     }
 
 
@@ -559,20 +703,22 @@ public class CloudAppDeployer {
         VMInstance ownerVM = x.externalHost().asVM(); //need some tests but if you need to build PaaS then it means that you want to deploy on IaaS
         VM n = ownerVM.getType();
 
-        Connector jc = ConnectorFactory.createIaaSConnector(n.getProvider());
+        Connector jc = createIaaSConnector(n.getProvider());
 
         ComponentInstance host = x.getHost();
 
-        if (!alreadyStarted.contains(host)) {
-            if (host.isInternal()) {
-                startExecutes(host.asInternal());
-                for (Resource r : host.getType().getResources()) {
-                    String startCommand = CloudMLQueryUtil.cloudmlStringRecover(r.getStartCommand(), r, x);
-                    start(jc, n, ownerVM, startCommand);
-                }
-                coordinator.updateStatusInternalComponent(host.getName(), State.RUNNING.toString(), CloudAppDeployer.class.getName());
+        synchronized (transitionOf(host)) {
+            if (!isStarted(host)) {
+                if (host.isInternal()) {
+                    startExecutes(host.asInternal());
+                    for (Resource r : host.getType().getResources()) {
+                        String startCommand = CloudMLQueryUtil.cloudmlStringRecover(r.getStartCommand(), r, x);
+                        start(jc, n, ownerVM, startCommand);
+                    }
+                    coordinator.updateStatusInternalComponent(host.getName(), State.RUNNING.toString(), CloudAppDeployer.class.getName());
 
-                alreadyStarted.add(host);
+                    markAsStarted(host);
+                }
             }
         }
         jc.closeConnection();
@@ -583,36 +729,38 @@ public class CloudAppDeployer {
         VM n = ownerVM.getType();
 
         Connector jc;
-        jc = ConnectorFactory.createIaaSConnector(n.getProvider());
+        jc = createIaaSConnector(n.getProvider());
 
         ComponentInstance host = x.getHost();
 
-        if (!alreadyDeployed.contains(host)) {
-            if (host.isInternal()) {
-                buildExecutes(host.asInternal());
-                journal.log(Level.INFO, ">> Installing host: " + host.getName());
-                executeUploadCommands(host.asInternal(),ownerVM,jc);
-                executeRetrieveCommand(host.asInternal(), ownerVM, jc);
-                executeInstallCommand(host.asInternal(), ownerVM, jc);
-                coordinator.updateStatusInternalComponent(host.getName(), State.INSTALLED.toString(), CloudAppDeployer.class.getName());
-                //host.asInternal().setStatus(State.INSTALLED);
-
-                for (Resource r : host.getType().getResources()) {
-                    String configurationCommand = CloudMLQueryUtil.cloudmlStringRecover(r.getConfigureCommand(), r, x);
-                    configure(jc, n, ownerVM, configurationCommand, r.getRequireCredentials());
-                }
-                coordinator.updateStatusInternalComponent(host.getName(), State.CONFIGURED.toString(), CloudAppDeployer.class.getName());
-                //host.asInternal().setStatus(State.CONFIGURED);
+        synchronized (transitionOf(host)) {
+            if (!isDeployed(host)) {
+                if (host.isInternal()) {
+                    buildExecutes(host.asInternal());
+                    journal.log(Level.INFO, ">> Installing host: " + host.getName());
+                    executeUploadCommands(host.asInternal(),ownerVM,jc);
+                    executeRetrieveCommand(host.asInternal(), ownerVM, jc);
+                    executeInstallCommand(host.asInternal(), ownerVM, jc);
+                    coordinator.updateStatusInternalComponent(host.getName(), State.INSTALLED.toString(), CloudAppDeployer.class.getName());
+                    //host.asInternal().setStatus(State.INSTALLED);
+
+                    for (Resource r : host.getType().getResources()) {
+                        String configurationCommand = CloudMLQueryUtil.cloudmlStringRecover(r.getConfigureCommand(), r, x);
+                        configure(jc, n, ownerVM, configurationCommand, r.getRequireCredentials());
+                    }
+                    coordinator.updateStatusInternalComponent(host.getName(), State.CONFIGURED.toString(), CloudAppDeployer.class.getName());
+                    //host.asInternal().setStatus(State.CONFIGURED);
 
-                for (Resource r : host.getType().getResources()) {
-                    String startCommand = CloudMLQueryUtil.cloudmlStringRecover(r.getStartCommand(), r, x);
-                    start(jc, n, ownerVM, startCommand);
-                }
-                coordinator.updateStatusInternalComponent(host.getName(), State.RUNNING.toString(), CloudAppDeployer.class.getName());
-                //host.asInternal().setStatus(State.RUNNING);
+                    for (Resource r : host.getType().getResources()) {
+                        String startCommand = CloudMLQueryUtil.cloudmlStringRecover(r.getStartCommand(), r, x);
+                        start(jc, n, ownerVM, startCommand);
+                    }
+                    coordinator.updateStatusInternalComponent(host.getName(), State.RUNNING.toString(), CloudAppDeployer.class.getName());
+                    //host.asInternal().setStatus(State.RUNNING);
 
-                alreadyStarted.add(host);
-                alreadyDeployed.add(host);
+                    markAsStarted(host);
+                    markAsDeployed(host);
+                }
             }
         }
         jc.closeConnection();
@@ -631,7 +779,7 @@ public class CloudAppDeployer {
         VM n = ownerVM.getType();
 
         Connector jc;
-        jc = ConnectorFactory.createIaaSConnector(n.getProvider());
+        jc = createIaaSConnector(n.getProvider());
 
         buildExecutes(x);
 
@@ -643,46 +791,48 @@ public class CloudAppDeployer {
                     if (owner == null) {
                         owner = ownerVM;
                     }
-                    if (!alreadyDeployed.contains(serverComponent)) {
-                        for (Resource r : serverComponent.getType().getResources()) {
-                            executeUploadCommands(serverComponent.asInternal(),owner,jc);
-                        }
-                        for (Resource r : serverComponent.getType().getResources()) {
-                            executeRetrieveCommand(serverComponent.asInternal(),owner,jc);
-                            //executeCommand(owner, jc, CloudMLQueryUtil.cloudmlStringRecover(r.getRetrieveCommand(), r, x));
-                            //jc.execCommand(owner.getId(), r.getRetrieveCommand(), "ubuntu", n.getPrivateKey());
-                        }
-                        for (Resource r : serverComponent.getType().getResources()) {
-                            executeInstallCommand(serverComponent.asInternal(),owner,jc);
-                            //executeCommand(owner, jc, CloudMLQueryUtil.cloudmlStringRecover(r.getInstallCommand(), r, x));
-                            //jc.execCommand(owner.getId(), r.getInstallCommand(), "ubuntu", n.getPrivateKey());
-                        }
+                    synchronized (transitionOf(serverComponent)) {
+                        if (!isDeployed(serverComponent)) {
+                            for (Resource r : serverComponent.getType().getResources()) {
+                                executeUploadCommands(serverComponent.asInternal(),owner,jc);
+                            }
+                            for (Resource r : serverComponent.getType().getResources()) {
+                                executeRetrieveCommand(serverComponent.asInternal(),owner,jc);
+                                //executeCommand(owner, jc, CloudMLQueryUtil.cloudmlStringRecover(r.getRetrieveCommand(), r, x));
+                                //jc.execCommand(owner.getId(), r.getRetrieveCommand(), "ubuntu", n.getPrivateKey());
+                            }
+                            for (Resource r : serverComponent.getType().getResources()) {
+                                executeInstallCommand(serverComponent.asInternal(),owner,jc);
+                                //executeCommand(owner, jc, CloudMLQueryUtil.cloudmlStringRecover(r.getInstallCommand(), r, x));
+                                //jc.execCommand(owner.getId(), r.getInstallCommand(), "ubuntu", n.getPrivateKey());
+                            }
 
-                        if (serverComponent.isInternal()) {
-                            coordinator.updateStatusInternalComponent(serverComponent.getName(), State.INSTALLED.toString(), CloudAppDeployer.class.getName());
-                            //serverComponent.asInternal().setStatus(State.INSTALLED);
-                        }
+                            if (serverComponent.isInternal()) {
+                                coordinator.updateStatusInternalComponent(serverComponent.getName(), State.INSTALLED.toString(), CloudAppDeployer.class.getName());
+                                //serverComponent.asInternal().setStatus(State.INSTALLED);
+                            }
 
-                        for (Resource r : serverComponent.getType().getResources()) {
-                            String configurationCommand = r.getConfigureCommand();
-                            configure(jc, n, owner, configurationCommand, r.getRequireCredentials());
-                        }
-                        if (serverComponent.isInternal()) {
-                            coordinator.updateStatusInternalComponent(serverComponent.getName(), State.CONFIGURED.toString(), CloudAppDeployer.class.getName());
-                            //serverComponent.asInternal().setStatus(State.CONFIGURED);
-                        }
+                            for (Resource r : serverComponent.getType().getResources()) {
+                                String configurationCommand = r.getConfigureCommand();
+                                configure(jc, n, owner, configurationCommand, r.getRequireCredentials());
+                            }
+                            if (serverComponent.isInternal()) {
+                                coordinator.updateStatusInternalComponent(serverComponent.getName(), State.CONFIGURED.toString(), CloudAppDeployer.class.getName());
+                                //serverComponent.asInternal().setStatus(State.CONFIGURED);
+                            }
 
-                        for (Resource r : serverComponent.getType().getResources()) {
-                            String startCommand = CloudMLQueryUtil.cloudmlStringRecover(r.getStartCommand(), r, x);
-                            start(jc, n, owner, startCommand);
-                        }
-                        if (serverComponent.isInternal()) {
-                            coordinator.updateStatusInternalComponent(serverComponent.getName(), State.RUNNING.toString(), CloudAppDeployer.class.getName());
-                            //serverComponent.asInternal().setStatus(State.RUNNING);
-                        }
+                            for (Resource r : serverComponent.getType().getResources()) {
+                                String startCommand = CloudMLQueryUtil.cloudmlStringRecover(r.getStartCommand(), r, x);
+                                start(jc, n, owner, startCommand);
+                            }
+                            if (serverComponent.isInternal()) {
+                                coordinator.updateStatusInternalComponent(serverComponent.getName(), State.RUNNING.toString(), CloudAppDeployer.class.getName());
+                                //serverComponent.asInternal().setStatus(State.RUNNING);
+                            }
 
-                        alreadyStarted.add(serverComponent);
-                        alreadyDeployed.add(serverComponent);
+                            markAsStarted(serverComponent);
+                            markAsDeployed(serverComponent);
+                        }
                     }
                 }
             }
@@ -692,21 +842,20 @@ public class CloudAppDeployer {
     }
 
     /**
-     * Configure and start SaaS components
+     * Configure and start a SaaS component
      *
-     * @param components a list of components
-     * @throws MalformedURLException
+     * @param x a component
      */
-    private void configureSaas(ComponentInstanceGroup<InternalComponentInstance> components) {
-        unlessNotNull("Cannot configure null!", components);
+    private void configureAndStart(InternalComponentInstance x) {
+        unlessNotNull("Cannot configure null!", x);
         Connector jc;
-        for (InternalComponentInstance x : components) {
-            if (!alreadyStarted.contains(x)) {
+        synchronized (transitionOf(x)) {
+            if (!isStarted(x)) {
                 ExternalComponentInstance owner = x.externalHost();
                 if (owner instanceof VMInstance) { //TODO: refactor and be more generic for external component in general
                     VMInstance ownerVM = (VMInstance) owner;
                     VM n = ownerVM.getType();
-                    jc = ConnectorFactory.createIaaSConnector(n.getProvider());
+                    jc = createIaaSConnector(n.getProvider());
                     //jc=new JCloudsConnector(n.getProvider().getName(), n.getProvider().getLogin(), n.getProvider().getPasswd());
 
                     for (Resource r : x.getType().getResources()) {
@@ -723,7 +872,7 @@ public class CloudAppDeployer {
                     coordinator.updateStatusInternalComponent(x.getName(), State.RUNNING.toString(), CloudAppDeployer.class.getName());
                     //x.setStatus(State.RUNNING);
 
-                    alreadyStarted.add(x);
+                    markAsStarted(x);
                     jc.closeConnection();
                 }
             }//TODO if not InternalComponent
@@ -763,19 +912,48 @@ public class CloudAppDeployer {
     }
 
     /**
-     * Provision the VMs and upload the model with informations about the VM
+     * Provision the VMs and upload the model with informations about the VM.
+     * The external components are provisioned concurrently, on one worker
+     * pool per provider.
      * <p/>
      * Added: Also deal with PaaS platforms
      *
-     * @param ems A list of vms
+     * @param toProvision A list of vms
      */
-    private void setExternalServices(ExternalComponentInstanceGroup ems) {
-        for (ExternalComponentInstance n : ems) {
-            if (n instanceof VMInstance)
-                provisionAVM((VMInstance) n);
-            else
-                provisionAPlatform(n);
+    private void setExternalServices(ExternalComponentInstanceGroup toProvision) {
+        // the steps run concurrently: work on a snapshot rather than on a live view of the model
+        final List<ExternalComponentInstance<? extends ExternalComponent>> ems = toProvision.toList();
+        final DeploymentScheduler scheduler = new DeploymentScheduler();
+        final Map<String, List<VMInstance>> identicalVMs = new LinkedHashMap<String, List<VMInstance>>();
+        for (final ExternalComponentInstance<? extends ExternalComponent> n : ems) {
+            if (n instanceof VMInstance) {
+                final VM type = ((VMInstance) n).getType();
+                final String spec = type.getProvider().getName() + "/" + type.getName() + "/" + type.getLocation();
+                if (!identicalVMs.containsKey(spec)) {
+                    identicalVMs.put(spec, new ArrayList<VMInstance>());
+                }
+                identicalVMs.get(spec).add((VMInstance) n);
+                continue;
+            }
+            scheduler.add("provision " + n.getName(), poolOf(n), new Runnable() {
+                @Override
+                public void run() {
+                    provisionAPlatform(n);
+                }
+            });
+        }
+        for (final List<VMInstance> vms : identicalVMs.values()) {
+            scheduler.add("provision " + vms.get(0).getName() + (vms.size() > 1 ? " and " + (vms.size() - 1) + " more" : ""), poolOf(vms.get(0)), new Runnable() {
+                @Override
+                public void run() {
+                    if (vms.size() == 1)
+                        provisionAVM(vms.get(0));
+                    else
+                        provisionVMs(vms);
+                }
+            });
         }
+        scheduler.execute();
         for (ExternalComponentInstance n : ems){
             try{
             if("loadbalancer".equals(n.getType().asExternal().getServiceType().toLowerCase()))
@@ -852,21 +1030,11 @@ public class CloudAppDeployer {
             return;
         }
         Provider p = n.getType().getProvider();
-        Connector jc = ConnectorFactory.createIaaSConnector(p);
+        Connector jc = createIaaSConnector(p);
         coordinator.updateStatus(n.getName(), ComponentInstance.State.PENDING, CloudAppDeployer.class.getName());
         HashMap<String,Object> runtimeInformation = jc.createInstance(n);
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
         journal.log(Level.INFO, ">> Status: "+runtimeInformation.get("status"));
         coordinator.updateStatus(n.getName(), (ComponentInstance.State)runtimeInformation.get("status"), CloudAppDeployer.class.getName());
-        try {
-            Thread.sleep(1000);
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
         coordinator.updateIP(n.getName(),runtimeInformation.get("publicAddress").toString(),CloudAppDeployer.class.getName());
         //enable the monitoring of the new machine
         if (statusMonitorActive) {
@@ -875,6 +1043,62 @@ public class CloudAppDeployer {
         jc.closeConnection();
     }
 
+    /**
+     * Provision VMs of the same type with a single request to the provider
+     *
+     * @param vms VMInstances of the same VM type
+     */
+    private void provisionVMs(List<VMInstance> vms) {
+        if(DEBUG){
+            for (VMInstance n : vms) {
+                journal.log(Level.INFO, ">> Provision: "+n.getName());
+            }
+            return;
+        }
+        Provider p = vms.get(0).getType().getProvider();
+        Connector jc = createIaaSConnector(p);
+        for (VMInstance n : vms) {
+            coordinator.updateStatus(n.getName(), ComponentInstance.State.PENDING, CloudAppDeployer.class.getName());
+        }
+        Map<String, HashMap<String,Object>> runtimeInformation = byVMName(jc.createInstances(vms));
+        List<String> failures = new ArrayList<String>();
+        for (VMInstance n : vms) {
+            HashMap<String,Object> information = runtimeInformation.get(n.getName());
+            if (information == null) {
+                journal.log(Level.SEVERE, ">> No runtime information for "+n.getName());
+                coordinator.updateStatus(n.getName(), ComponentInstance.State.ERROR, CloudAppDeployer.class.getName());
+                failures.add(n.getName());
+                continue;
+            }
+            journal.log(Level.INFO, ">> Status of "+n.getName()+": "+information.get("status"));
+            coordinator.updateStatus(n.getName(), (ComponentInstance.State)information.get("status"), CloudAppDeployer.class.getName());
+            coordinator.updateIP(n.getName(),information.get("publicAddress").toString(),CloudAppDeployer.class.getName());
+        }
+        //enable the monitoring of the new machines
+        if (statusMonitorActive) {
+            statusMonitor.attachModule(jc);
+        }
+        jc.closeConnection();
+        if (!failures.isEmpty()) {
+            coordinator.flushUpdates();
+            throw new IllegalStateException("Unable to provision "+failures);
+        }
+    }
+
+    /**
+     * Index the runtime information returned by Connector#createInstances by
+     * the name of the VMs, as it may come in any order and miss some VMs
+     */
+    static Map<String, HashMap<String,Object>> byVMName(List<HashMap<String,Object>> runtimeInformation) {
+        Map<String, HashMap<String,Object>> byName = new HashMap<String, HashMap<String,Object>>();
+        for (HashMap<String,Object> information : runtimeInformation) {
+            if (information != null && information.get("name") != null) {
+                byName.put(information.get("name").toString(), information);
+            }
+        }
+        return byName;
+    }
+
     /**
      * Provision a platform.
      * So far (with only two examples of BeansTalk and CloudBees), the main PaaS
@@ -962,7 +1186,6 @@ public class CloudAppDeployer {
         }
     }
 
-    private Map<String, String> loadbalancerTargets = new HashMap<String, String>();  //only useful for load balancer
     /**
      * Configure components according to the relationships
      *
@@ -970,133 +1193,138 @@ public class CloudAppDeployer {
      * @throws MalformedURLException
      */
     protected void configureWithRelationships(RelationshipInstanceGroup relationships) {
-        loadbalancerTargets.clear();
-        //Configure on the basis of the relationships
-        //parameters transmitted to the configuration scripts are "ip ipDestination portDestination"
         for (RelationshipInstance bi : relationships) {
-            ComponentInstance serveri = bi.getProvidedEnd().getOwner().get();
-            ComponentInstance clienti = bi.getRequiredEnd().getOwner().get();
-            if (serveri.isExternal() && "database".equals(((ExternalComponentInstance<ExternalComponent>) serveri).getType().getServiceType())) {  //For DB
-                for (Resource res : bi.getType().getResources()) {
-                    ConfigValet valet = ConfigValet.createValet(bi, res);
-                    if (valet != null)
-                        valet.config();
-                    else if(res.hasProperty("db-binding-alias")){
-                        coordinator.updateStatus(bi.getProvidedEnd().getOwner().get().getName(), ComponentInstance.State.PENDING, CloudAppDeployer.class.getName());
-                        try{
-                            Provider p = ((ExternalComponent) bi.getProvidedEnd().getOwner().get().getType()).getProvider();
-                            PaaSConnector connector = ConnectorFactory.createPaaSConnector(p);
-                            String alias = res.getProperties().valueOf("db-binding-alias");
-                            connector.bindDbToApp(bi.getRequiredEnd().getOwner().getName(), bi.getProvidedEnd().getOwner().getName(), alias);
-                            coordinator.updateStatus(bi.getProvidedEnd().getOwner().get().getName(), ComponentInstance.State.RUNNING, CloudAppDeployer.class.getName());
-                        }catch(Exception ex){
-                            ex.printStackTrace();
-                            journal.log(Level.INFO, ">> db-binding only works for PaaS databases" );
-                        }
-                    }
-
-                }
+            configureWithRelationship(bi);
+        }
+    }
 
-                Component client = clienti.getType();
-                ComponentInstance pltfi = getDestination(clienti);
-                if(pltfi.isExternal()){
-                    ExternalComponent pltf = (ExternalComponent) pltfi.getType();
-                    if(!pltf.isVM()){
-                        if(client.hasProperty("temp-warfile")) {
-                            try {
-                                PaaSConnector connector = (PaaSConnector) ConnectorFactory.createPaaSConnector(pltf.getProvider());
-                                connector.uploadWar(client.getProperties().valueOf("temp-warfile"), "db-reconfig", clienti.getName(), pltfi.getName(), 600);
-                                coordinator.updateStatusInternalComponent(clienti.getName(), State.RUNNING.toString(), CloudAppDeployer.class.getName());
-                            } catch (NullPointerException e) {
-                                journal.log(Level.INFO, ">> no temp-warfile specified, no re-deploy");
-                            }
-                        }
-                    }else{
-                        journal.log(Level.INFO, ">> Connection IaaS to PaaS ...");
-                        RequiredPortInstance clientInternal = bi.getRequiredEnd();
-                        ProvidedPortInstance server = bi.getProvidedEnd();
-
-                        Resource clientResource = bi.getType().getClientResource();
-
-                        Connector jcClient;
-                        VMInstance ownerVMClient = (VMInstance) getDestination(clientInternal.getOwner().get());
-                        VM VMClient = ownerVMClient.getType();
-                        jcClient = ConnectorFactory.createIaaSConnector(VMClient.getProvider());
-
-                        String destinationIpAddress = getDestination(server.getOwner().get()).getPublicAddress();
-                        int destinationPortNumber = server.getType().getPortNumber();
-                        String ipAddress = getDestination(clientInternal.getOwner().get()).getPublicAddress();
-                        if(clientResource == null)
-                            return; // ignore configuration if there is no resource at all
-
-                        if(clientResource.getRetrieveCommand() != null && !clientResource.getRetrieveCommand().equals(""))
-                            jcClient.execCommand(ownerVMClient.getId(), clientResource.getRetrieveCommand() + " \"" + ipAddress + "\" \"" + destinationIpAddress + "\" " + destinationPortNumber, "ubuntu", VMClient.getPrivateKey());
-                        if(clientResource.getConfigureCommand() != null && !clientResource.getConfigureCommand().equals("")){
-                            String configurationCommand = clientResource.getConfigureCommand() + " \"" + ipAddress + "\" \"" + destinationIpAddress + "\" " + destinationPortNumber;
-                            configure(jcClient, VMClient, ownerVMClient, configurationCommand, clientResource.getRequireCredentials());
-                        }
-                        if(clientResource.getInstallCommand() != null && !clientResource.getInstallCommand().equals("")){
-                            String installationCommand = clientResource.getInstallCommand() + " \"" + ipAddress + "\" \"" + destinationIpAddress + "\" " + destinationPortNumber;
-                            configure(jcClient, VMClient, ownerVMClient, installationCommand, clientResource.getRequireCredentials());
-                        }
-                        jcClient.closeConnection();
+    /**
+     * Configure the components at both ends of a relationship
+     *
+     * @param bi a relationship instance
+     */
+    private void configureWithRelationship(RelationshipInstance bi) {
+        //Configure on the basis of the relationships
+        //parameters transmitted to the configuration scripts are "ip ipDestination portDestination"
+        ComponentInstance serveri = bi.getProvidedEnd().getOwner().get();
+        ComponentInstance clienti = bi.getRequiredEnd().getOwner().get();
+        if (serveri.isExternal() && "database".equals(((ExternalComponentInstance<ExternalComponent>) serveri).getType().getServiceType())) {  //For DB
+            for (Resource res : bi.getType().getResources()) {
+                ConfigValet valet = ConfigValet.createValet(bi, res);
+                if (valet != null)
+                    valet.config();
+                else if(res.hasProperty("db-binding-alias")){
+                    coordinator.updateStatus(bi.getProvidedEnd().getOwner().get().getName(), ComponentInstance.State.PENDING, CloudAppDeployer.class.getName());
+                    try{
+                        Provider p = ((ExternalComponent) bi.getProvidedEnd().getOwner().get().getType()).getProvider();
+                        PaaSConnector connector = ConnectorFactory.createPaaSConnector(p);
+                        String alias = res.getProperties().valueOf("db-binding-alias");
+                        connector.bindDbToApp(bi.getRequiredEnd().getOwner().getName(), bi.getProvidedEnd().getOwner().getName(), alias);
+                        coordinator.updateStatus(bi.getProvidedEnd().getOwner().get().getName(), ComponentInstance.State.RUNNING, CloudAppDeployer.class.getName());
+                    }catch(Exception ex){
+                        ex.printStackTrace();
+                        journal.log(Level.INFO, ">> db-binding only works for PaaS databases" );
                     }
                 }
 
             }
 
-            else if (serveri.isExternal() && "loadbalancer".equals(((ExternalComponentInstance<ExternalComponent>) serveri).getType().getServiceType())) {  //For Loadbalancer
-                String endpoint = serveri.getType().asExternal().getEndPoint();
-                if(endpoint==null){
-                    Map<String, String> env = System.getenv();
-                    if(env.containsKey("MODACLOUDS_LOAD_BALANCER_CONTROLLER_ENDPOINT_IP")
-                            && env.containsKey("MODACLOUDS_LOAD_BALANCER_CONTROLLER_ENDPOINT_PORT")){
-                        endpoint=env.get("MODACLOUDS_LOAD_BALANCER_CONTROLLER_ENDPOINT_IP")+":"+env.get("MODACLOUDS_LOAD_BALANCER_CONTROLLER_ENDPOINT_PORT");
+            Component client = clienti.getType();
+            ComponentInstance pltfi = getDestination(clienti);
+            if(pltfi.isExternal()){
+                ExternalComponent pltf = (ExternalComponent) pltfi.getType();
+                if(!pltf.isVM()){
+                    if(client.hasProperty("temp-warfile")) {
+                        try {
+                            PaaSConnector connector = (PaaSConnector) ConnectorFactory.createPaaSConnector(pltf.getProvider());
+                            connector.uploadWar(client.getProperties().valueOf("temp-warfile"), "db-reconfig", clienti.getName(), pltfi.getName(), 600);
+                            coordinator.updateStatusInternalComponent(clienti.getName(), State.RUNNING.toString(), CloudAppDeployer.class.getName());
+                        } catch (NullPointerException e) {
+                            journal.log(Level.INFO, ">> no temp-warfile specified, no re-deploy");
+                        }
+                    }
+                }else{
+                    journal.log(Level.INFO, ">> Connection IaaS to PaaS ...");
+                    RequiredPortInstance clientInternal = bi.getRequiredEnd();
+                    ProvidedPortInstance server = bi.getProvidedEnd();
+
+                    Resource clientResource = bi.getType().getClientResource();
+
+                    Connector jcClient;
+                    VMInstance ownerVMClient = (VMInstance) getDestination(clientInternal.getOwner().get());
+                    VM VMClient = ownerVMClient.getType();
+                    jcClient = createIaaSConnector(VMClient.getProvider());
+
+                    String destinationIpAddress = getDestination(server.getOwner().get()).getPublicAddress();
+                    int destinationPortNumber = server.getType().getPortNumber();
+                    String ipAddress = getDestination(clientInternal.getOwner().get()).getPublicAddress();
+                    if(clientResource == null)
+                        return; // ignore configuration if there is no resource at all
+
+                    if(clientResource.getRetrieveCommand() != null && !clientResource.getRetrieveCommand().equals(""))
+                        jcClient.execCommand(ownerVMClient.getId(), clientResource.getRetrieveCommand() + " \"" + ipAddress + "\" \"" + destinationIpAddress + "\" " + destinationPortNumber, "ubuntu", VMClient.getPrivateKey());
+                    if(clientResource.getConfigureCommand() != null && !clientResource.getConfigureCommand().equals("")){
+                        String configurationCommand = clientResource.getConfigureCommand() + " \"" + ipAddress + "\" \"" + destinationIpAddress + "\" " + destinationPortNumber;
+                        configure(jcClient, VMClient, ownerVMClient, configurationCommand, clientResource.getRequireCredentials());
+                    }
+                    if(clientResource.getInstallCommand() != null && !clientResource.getInstallCommand().equals("")){
+                        String installationCommand = clientResource.getInstallCommand() + " \"" + ipAddress + "\" \"" + destinationIpAddress + "\" " + destinationPortNumber;
+                        configure(jcClient, VMClient, ownerVMClient, installationCommand, clientResource.getRequireCredentials());
                     }
+                    jcClient.closeConnection();
                 }
+            }
 
-                PyHrapiConnector connector = ConnectorFactory.createLoadBalancerProvider(endpoint);
+        }
 
-                String ipAddress = null;
-                String port = null;
-                if(clienti.isExternal()){
-                    ExternalComponentInstance<ExternalComponent> exclienti = ((ExternalComponentInstance) clienti);
-                    ipAddress = exclienti.getPublicAddress();
-                    port = String.valueOf(bi.getRequiredEnd().getType().getPortNumber());
-                    //port = exserveri.getType().getProvidedPorts().toArray()[0].toString(); //TODO: always use the first provided port, should be fixed.
-                }
-                else{
-                    ipAddress = getDestination(clienti).getPublicAddress();
-                    port = String.valueOf(bi.getRequiredEnd().getType().getPortNumber());
+        else if (serveri.isExternal() && "loadbalancer".equals(((ExternalComponentInstance<ExternalComponent>) serveri).getType().getServiceType())) {  //For Loadbalancer
+            String endpoint = serveri.getType().asExternal().getEndPoint();
+            if(endpoint==null){
+                Map<String, String> env = System.getenv();
+                if(env.containsKey("MODACLOUDS_LOAD_BALANCER_CONTROLLER_ENDPOINT_IP")
+                        && env.containsKey("MODACLOUDS_LOAD_BALANCER_CONTROLLER_ENDPOINT_PORT")){
+                    endpoint=env.get("MODACLOUDS_LOAD_BALANCER_CONTROLLER_ENDPOINT_IP")+":"+env.get("MODACLOUDS_LOAD_BALANCER_CONTROLLER_ENDPOINT_PORT");
                 }
-                Map backend = connector.getBackEnd(serveri.getName()+"Back");
-                //((Map)backend.get("targets")).remove("targetOneHold");
-                ((Map)backend.get("targets")).put(clienti.getName(), ipAddress+":"+port);
-                journal.log(Level.INFO, ">>Modify backend: "+connector.addPool(serveri.getName()+"Back", backend));
-                journal.log(Level.INFO, ">>Delete Target: "+connector.deleteTarget(serveri.getName()+"Back", "targetOneHold"));
-                connector.start();
-                coordinator.updateStatus(serveri.getName(), ComponentInstance.State.RUNNING, CloudAppDeployer.class.getName());
             }
-            else if (bi.getRequiredEnd().getType().isRemote()) {
-                RequiredPortInstance client = bi.getRequiredEnd();
-                ProvidedPortInstance server = bi.getProvidedEnd();
-
-                Resource clientResource = bi.getType().getClientResource();
-                Resource serverResource = bi.getType().getServerResource();
-                this.bi=bi;
-                retrieveIPandConfigure(serverResource,clientResource,server,client);
+
+            PyHrapiConnector connector = ConnectorFactory.createLoadBalancerProvider(endpoint);
+
+            String ipAddress = null;
+            String port = null;
+            if(clienti.isExternal()){
+                ExternalComponentInstance<ExternalComponent> exclienti = ((ExternalComponentInstance) clienti);
+                ipAddress = exclienti.getPublicAddress();
+                port = String.valueOf(bi.getRequiredEnd().getType().getPortNumber());
+                //port = exserveri.getType().getProvidedPorts().toArray()[0].toString(); //TODO: always use the first provided port, should be fixed.
             }
-            if(isPaaS2PaaS(bi)) {
-                //ComponentInstance clienti2 = bi.getRequiredEnd().getOwner().get();
-                ComponentInstance s=bi.getProvidedEnd().getOwner().get().asInternal();
-                ExternalComponentInstance serveri2 = bi.getProvidedEnd().getOwner().get().asInternal().externalHost();
-                ExternalComponent pltf = clienti.asInternal().externalHost().getType();
-                PaaSConnector connector = (PaaSConnector) ConnectorFactory.createPaaSConnector(pltf.getProvider());
-                connector.setEnvVar(clienti.getName(), s.getName(), serveri2.getPublicAddress());
+            else{
+                ipAddress = getDestination(clienti).getPublicAddress();
+                port = String.valueOf(bi.getRequiredEnd().getType().getPortNumber());
             }
+            Map backend = connector.getBackEnd(serveri.getName()+"Back");
+            //((Map)backend.get("targets")).remove("targetOneHold");
+            ((Map)backend.get("targets")).put(clienti.getName(), ipAddress+":"+port);
+            journal.log(Level.INFO, ">>Modify backend: "+connector.addPool(serveri.getName()+"Back", backend));
+            journal.log(Level.INFO, ">>Delete Target: "+connector.deleteTarget(serveri.getName()+"Back", "targetOneHold"));
+            connector.start();
+            coordinator.updateStatus(serveri.getName(), ComponentInstance.State.RUNNING, CloudAppDeployer.class.getName());
+        }
+        else if (bi.getRequiredEnd().getType().isRemote()) {
+            RequiredPortInstance client = bi.getRequiredEnd();
+            ProvidedPortInstance server = bi.getProvidedEnd();
+
+            Resource clientResource = bi.getType().getClientResource();
+            Resource serverResource = bi.getType().getServerResource();
+            retrieveIPandConfigure(bi, serverResource, clientResource, server, client);
+        }
+        if(isPaaS2PaaS(bi)) {
+            //ComponentInstance clienti2 = bi.getRequiredEnd().getOwner().get();
+            ComponentInstance s=bi.getProvidedEnd().getOwner().get().asInternal();
+            ExternalComponentInstance serveri2 = bi.getProvidedEnd().getOwner().get().asInternal().externalHost();
+            ExternalComponent pltf = clienti.asInternal().externalHost().getType();
+            PaaSConnector connector = (PaaSConnector) ConnectorFactory.createPaaSConnector(pltf.getProvider());
+            connector.setEnvVar(clienti.getName(), s.getName(), serveri2.getPublicAddress());
         }
-
-
     }
 
     private Boolean isPaaS2PaaS(RelationshipInstance bi){
@@ -1111,18 +1339,16 @@ public class CloudAppDeployer {
         return false;
     }
 
-    private RelationshipInstance bi = null;
-
-    public void retrieveIPandConfigure(Resource serverResource, Resource clientResource, PortInstance<? extends Port> server, PortInstance<? extends Port> client){
+    public void retrieveIPandConfigure(RelationshipInstance bi, Resource serverResource, Resource clientResource, PortInstance<? extends Port> server, PortInstance<? extends Port> client){
         String destinationIpAddress = getDestination(server.getOwner().get()).getPublicAddress();
         int destinationPortNumber = server.getType().getPortNumber();
         String ipAddress = getDestination(client.getOwner().get()).getPublicAddress();
         if(clientResource == null && serverResource == null)
             return; // ignore configuration if there is no resource at all
-        configureWithIP(serverResource, clientResource, server, client, destinationIpAddress, ipAddress, destinationPortNumber);
+        configureWithIP(bi, serverResource, clientResource, server, client, destinationIpAddress, ipAddress, destinationPortNumber);
     }
 
-    private void configureWithIP(Resource server, Resource client,
+    private void configureWithIP(RelationshipInstance bi, Resource server, Resource client,
                                  PortInstance<? extends Port> pserver, PortInstance<? extends Port> pclient, String destinationIpAddress, String ipAddress, int destinationPortNumber) {
         if(DEBUG){
             journal.log(Level.INFO, ">> Configure with IP ");
@@ -1134,8 +1360,8 @@ public class CloudAppDeployer {
         VM VMserver = ownerVMServer.getType();
         VMInstance ownerVMClient = (VMInstance) getDestination(pclient.getOwner().get());//TODO:generalization for PaaS
         VM VMClient = ownerVMClient.getType();
-        jcServer = ConnectorFactory.createIaaSConnector(VMserver.getProvider());
-        jcClient = ConnectorFactory.createIaaSConnector(VMClient.getProvider());
+        jcServer = createIaaSConnector(VMserver.getProvider());
+        jcClient = createIaaSConnector(VMClient.getProvider());
 
         if(server != null){
             if(server.getRetrieveCommand() != null && !server.getRetrieveCommand().equals(""))
@@ -1194,7 +1420,7 @@ public class CloudAppDeployer {
         if (r != null) {
             VMInstance ownerVM = (VMInstance) getDestination(i.getOwner().get());//TODO:generalization for PaaS
             VM n = ownerVM.getType();
-            jc = ConnectorFactory.createIaaSConnector(n.getProvider());
+            jc = createIaaSConnector(n.getProvider());
             //jc=new JCloudsConnector(n.getProvider().getName(), n.getProvider().getLogin(), n.getProvider().getPasswd());
             jc.execCommand(ownerVM.getId(), r.getRetrieveCommand(), "ubuntu", n.getPrivateKey());
             if (r.getConfigureCommand() != null) {
@@ -1238,9 +1464,10 @@ public class CloudAppDeployer {
      */
     private void terminateVM(VMInstance n) {
         Provider p = n.getType().getProvider();
-        Connector jc = ConnectorFactory.createIaaSConnector(p);
+        Connector jc = createIaaSConnector(p);
         jc.destroyVM(n.getId());
         jc.closeConnection();
+        appliedManifests.remove(n.getName());
         coordinator.updateStatus(n.getName(), ComponentInstance.State.STOPPED, CloudAppDeployer.class.getName());
         //old way without using mrt
         //n.setStatusAsStopped();
@@ -1268,7 +1495,7 @@ public class CloudAppDeployer {
         VMInstance ownerVM = (VMInstance) findDestinationWhenNoRequiredExecutionPlatformSpecified(a); //TODO: to be generalized
         if (ownerVM != null) {
             VM n = ownerVM.getType();
-            Connector jc = ConnectorFactory.createIaaSConnector(n.getProvider());
+            Connector jc = createIaaSConnector(n.getProvider());
 
             for (Resource r : a.getType().getResources()) {
                 String stopCommand = r.getStopCommand();
@@ -1315,7 +1542,7 @@ public class CloudAppDeployer {
         if (r != null) {
             VMInstance ownerVM = (VMInstance) getDestination(i.getOwner().get()); //TODO: generalize to PaaS
             VM n = ownerVM.getType();
-            jc = ConnectorFactory.createIaaSConnector(n.getProvider());
+            jc = createIaaSConnector(n.getProvider());
             //jc=new JCloudsConnector(n.getProvider().getName(), n.getProvider().getLogin(), n.getProvider().getPasswd());
             //jc.execCommand(ownerVM.getId(), r.getStopCommand(), "ubuntu", n.getPrivateKey());
             executeCommand(ownerVM, jc, r.getStopCommand());
@@ -1334,7 +1561,7 @@ public class CloudAppDeployer {
         Connector jc;
         for (VMInstance vm : currentModel.getComponentInstances().onlyVMs()) {
             if (vm.getPublicAddress().equals("")) {
-                jc = ConnectorFactory.createIaaSConnector(vm.getType().getProvider());
+                jc = createIaaSConnector(vm.getType().getProvider());
                 jc.updateVMMetadata(vm);
             }
         }
@@ -1350,10 +1577,12 @@ public class CloudAppDeployer {
         if (getDestination(a) != null) {
             return getDestination(a);
         } else {
-            for (RelationshipInstance b : currentModel.getRelationshipInstances()) {
+            for (RelationshipInstance b : currentModel.getRelationshipInstances().whereClientIs(a)) {
                 if (a.getRequiredPorts().contains(b.getRequiredEnd()) && b.getRequiredEnd().getType().isLocal()) {
                     return getDestination(b.getProvidedEnd().getOwner().get());
                 }
+            }
+            for (RelationshipInstance b : currentModel.getRelationshipInstances().whereServerIs(a)) {
                 if (a.getProvidedPorts().contains(b.getProvidedEnd()) && b.getProvidedEnd().getType().isLocal()) {
                     return getDestination(b.getRequiredEnd().getOwner().get());
                 }
@@ -1456,7 +1685,7 @@ public class CloudAppDeployer {
     public void setEnvVar(VMInstance vmi, String varName, String value){
 	if (!vmi.getType().getOs().toLowerCase().contains("windows")) {
             //String command="echo export "+varName+"="+value+" >> ~/.bashrc";
-            Connector jc = ConnectorFactory.createIaaSConnector(vmi.getType().getProvider());
+            Connector jc = createIaaSConnector(vmi.getType().getProvider());
             //jc.execCommand(vmi.getId(), command, "ubuntu", vmi.getType().getPrivateKey());
             String command3="sudo sh -c 'echo export "+varName+"="+value+" >> /etc/environment'";
             jc.execCommand(vmi.getId(), command3, "ubuntu", vmi.getType().getPrivateKey());
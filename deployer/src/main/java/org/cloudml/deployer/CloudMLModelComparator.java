@@ -23,6 +23,8 @@
 package org.cloudml.deployer;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -32,10 +34,15 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cloudml.core.*;
+import org.cloudml.core.util.OwnedBy;
 
 /**
  * A class to compare two deployment models
  *
+ * Elements of the targeted model are indexed by name (or by the qualified
+ * names of their ends for relationships and executes), so that each element of
+ * the current model is only compared with the few candidates sharing its key.
+ *
  * @author Nicolas Ferry
  * @author Brice Morin
  */
@@ -119,35 +126,38 @@ public class CloudMLModelComparator {
      */
     public void compareECs() {
         journal.log(Level.INFO, ">> Comparing ExternalComponents ...");
-        Boolean match = false;
-        for (ExternalComponentInstance ni : currentDM.getComponentInstances().onlyExternals()) {
-            secondloop:
-            {
-                for (ExternalComponentInstance ni2 : targetDM.getComponentInstances().onlyExternals()) {
-                    match = ni.equals(ni2);
-                    if (match) {
-                        matchingECs.put(ni, ni2);
-                        break secondloop;
-                    }
-                }
-            }
-            if (!match) {
-                removeEC(ni);
+        final Map<String, List<ExternalComponentInstance<? extends ExternalComponent>>> targets = indexBy(targetDM.getComponentInstances().onlyExternals(), BY_NAME);
+        final Map<String, ComponentInstance<? extends Component>> hosts = hostsOf(currentDM);
+        final Map<String, List<InternalComponentInstance>> hosted = indexBy(currentDM.getComponentInstances().onlyInternals(), byHostName(hosts));
+        for (ExternalComponentInstance<? extends ExternalComponent> ni : currentDM.getComponentInstances().onlyExternals()) {
+            ExternalComponentInstance<? extends ExternalComponent> ni2 = firstEqual(ni, targets, BY_NAME);
+            if (ni2 != null) {
+                matchingECs.put(ni, ni2);
+            } else {
+                removeEC(ni, hosted, hosts);
             }
         }
         //add the rest
         addECs();
     }
 
-    private void removeEC(ExternalComponentInstance<? extends ExternalComponent> ni) {
-        removedECs.put(ni,currentDM.getComponentInstances().onlyInternals().hostedOn(ni).toList());
+    private void removeEC(ExternalComponentInstance<? extends ExternalComponent> ni, Map<String, List<InternalComponentInstance>> hosted, Map<String, ComponentInstance<? extends Component>> hosts) {
+        final List<InternalComponentInstance> components = new ArrayList<InternalComponentInstance>();
+        final List<InternalComponentInstance> candidates = hosted.get(ni.getName());
+        if (candidates != null) {
+            for (InternalComponentInstance candidate : candidates) {
+                if (hosts.get(candidate.getName()).equals(ni)) {
+                    components.add(candidate);
+                }
+            }
+        }
+        removedECs.put(ni, components);
         //create action
 
     }
 
     private void addECs() {
-        addedECs = new ArrayList<ExternalComponentInstance<? extends ExternalComponent>>(targetDM.getComponentInstances().onlyExternals());
-        addedECs.removeAll(matchingECs.values());
+        addedECs = unmatched(targetDM.getComponentInstances().onlyExternals(), matchingECs.values(), BY_NAME);
     }
 
     /**
@@ -156,19 +166,12 @@ public class CloudMLModelComparator {
      */
     public void compareRelationships() {
         journal.log(Level.INFO, ">> Comparing relationships ...");
-        Boolean match = false;
+        final Map<String, List<RelationshipInstance>> targets = indexBy(targetDM.getRelationshipInstances(), BY_ENDS);
         for (RelationshipInstance ni : currentDM.getRelationshipInstances()) {
-            secondloop:
-            {
-                for (RelationshipInstance ni2 : targetDM.getRelationshipInstances()) {
-                    match = ni.equals(ni2);
-                    if (ni.equals(ni2)) {
-                        matchingRelationships.put(ni, ni2);
-                        break secondloop;
-                    }
-                }
-            }
-            if (!match) {
+            RelationshipInstance ni2 = firstEqual(ni, targets, BY_ENDS);
+            if (ni2 != null) {
+                matchingRelationships.put(ni, ni2);
+            } else {
                 removedRelationships.add(ni);
             }
         }
@@ -177,20 +180,18 @@ public class CloudMLModelComparator {
     }
 
     private void addRelationships() {
-        addedRelationships = new ArrayList<RelationshipInstance>(targetDM.getRelationshipInstances());
-        addedRelationships.removeAll(matchingRelationships.values());
+        addedRelationships = unmatched(targetDM.getRelationshipInstances(), matchingRelationships.values(), BY_ENDS);
+        final Map<String, List<ComponentInstance<? extends Component>>> current = indexBy(currentDM.getComponentInstances(), BY_NAME);
         for (RelationshipInstance ni : addedRelationships) {
-            int i = currentDM.getComponentInstances().toList().indexOf(ni.getRequiredEnd().getOwner().get());
-            if (i >= 0) {
-                ComponentInstance a = currentDM.getComponentInstances().toList().get(i);
+            ComponentInstance a = firstEqual(ni.getRequiredEnd().getOwner().get(), current, BY_NAME);
+            if (a != null) {
                 if (a.isInternal()) {
                     int j = ((InternalComponentInstance) a).getRequiredPorts().toList().indexOf(ni.getRequiredEnd());
                     ni.setRequiredEnd(((InternalComponentInstance) a).getRequiredPorts().toList().get(j));
                 }
             }
-            i = currentDM.getComponentInstances().toList().indexOf(ni.getProvidedEnd().getOwner().get());
-            if (i >= 0) {
-                ComponentInstance a = currentDM.getComponentInstances().toList().get(i);
+            a = firstEqual(ni.getProvidedEnd().getOwner().get(), current, BY_NAME);
+            if (a != null) {
                 int j = a.getProvidedPorts().toList().indexOf(ni.getProvidedEnd());
                 List<ProvidedPortInstance> l = a.getProvidedPorts().toList();
                 ni.setProvidedEnd(l.get(j));
@@ -204,19 +205,12 @@ public class CloudMLModelComparator {
      */
     public void compareComponents() {
         journal.log(Level.INFO, ">> Comparing Internal Components ...");
-        Boolean match = false;
+        final Map<String, List<InternalComponentInstance>> targets = indexBy(targetDM.getComponentInstances().onlyInternals(), BY_NAME);
         for (InternalComponentInstance ni : currentDM.getComponentInstances().onlyInternals()) {
-            secondloop:
-            {
-                for (InternalComponentInstance ni2 : targetDM.getComponentInstances().onlyInternals()) {
-                    match = ni.equals(ni2);
-                    if (ni.equals(ni2) && ni.externalHost().equals(ni2.externalHost())) {
-                        matchingComponents.put(ni, ni2);
-                        break secondloop;
-                    }
-                }
-            }
-            if (!match) {
+            InternalComponentInstance ni2 = firstEqual(ni, targets, BY_NAME);
+            if (ni2 != null) {
+                matchingComponents.put(ni, ni2);
+            } else {
                 removedComponents.add(ni);
             }
         }
@@ -230,8 +224,7 @@ public class CloudMLModelComparator {
     }
 
     private void addComponents() {
-        addedComponents = new ArrayList<InternalComponentInstance>(targetDM.getComponentInstances().onlyInternals());
-        addedComponents.removeAll(matchingComponents.values());
+        addedComponents = unmatched(targetDM.getComponentInstances().onlyInternals(), matchingComponents.values(), BY_NAME);
     }
 
     /**
@@ -239,19 +232,12 @@ public class CloudMLModelComparator {
      */
     public void compareExecutes() {
         journal.log(Level.INFO, ">> Comparing Executes Instances ...");
-        Boolean match = false;
+        final Map<String, List<ExecuteInstance>> targets = indexBy(targetDM.getExecuteInstances(), BY_PLATFORMS);
         for (ExecuteInstance ei : currentDM.getExecuteInstances()) {
-            secondloop:
-            {
-                for (ExecuteInstance ei2 : targetDM.getExecuteInstances()) {
-                    match = ei.equals(ei2);
-                    if (ei.equals(ei2)) {
-                        matchingExecutes.put(ei, ei2);
-                        break secondloop;
-                    }
-                }
-            }
-            if (!match) {
+            ExecuteInstance ei2 = firstEqual(ei, targets, BY_PLATFORMS);
+            if (ei2 != null) {
+                matchingExecutes.put(ei, ei2);
+            } else {
                 removedExecutes.add(ei);
             }
         }
@@ -260,17 +246,15 @@ public class CloudMLModelComparator {
     }
 
     private void addExecutes(){
-        addedExecutes = new ArrayList<ExecuteInstance>(targetDM.getExecuteInstances());
-        addedExecutes.removeAll(matchingExecutes.values());
+        addedExecutes = unmatched(targetDM.getExecuteInstances(), matchingExecutes.values(), BY_PLATFORMS);
+        final Map<String, List<ComponentInstance<? extends Component>>> current = indexBy(currentDM.getComponentInstances(), BY_NAME);
         for (ExecuteInstance ei : addedExecutes) {
-            int i = currentDM.getComponentInstances().toList().indexOf(ei.getRequiredEnd().getOwner().get());
-            if (i >= 0) {
-                ComponentInstance a = currentDM.getComponentInstances().toList().get(i);
+            ComponentInstance a = firstEqual(ei.getRequiredEnd().getOwner().get(), current, BY_NAME);
+            if (a != null) {
                 ei.setRequiredEnd(((InternalComponentInstance) a).getRequiredExecutionPlatform());
             }
-            i = currentDM.getComponentInstances().toList().indexOf(ei.getProvidedEnd().getOwner().get());
-            if (i >= 0) {
-                ComponentInstance a = currentDM.getComponentInstances().toList().get(i);
+            a = firstEqual(ei.getProvidedEnd().getOwner().get(), current, BY_NAME);
+            if (a != null) {
                 int j = a.getProvidedExecutionPlatforms().toList().indexOf(ei.getProvidedEnd());
                 List<ProvidedExecutionPlatformInstance> l = a.getProvidedExecutionPlatforms().toList();
                 ei.setProvidedEnd(l.get(j));
@@ -278,6 +262,126 @@ public class CloudMLModelComparator {
         }
     }
 
+    /**
+     * Computes the key under which an element is indexed. Elements that are
+     * equal must share the same key, so that each element is only compared
+     * with the few elements of the other model that have its key.
+     */
+    private interface Key<T> {
+
+        String of(T element);
+
+    }
+
+    private static final Key<NamedElement> BY_NAME = new Key<NamedElement>() {
+        @Override
+        public String of(NamedElement element) {
+            return element.getName();
+        }
+    };
+
+    private static final Key<RelationshipInstance> BY_ENDS = new Key<RelationshipInstance>() {
+        @Override
+        public String of(RelationshipInstance relationship) {
+            return qualifiedName(relationship.getRequiredEnd()) + "->" + qualifiedName(relationship.getProvidedEnd());
+        }
+    };
+
+    private static final Key<ExecuteInstance> BY_PLATFORMS = new Key<ExecuteInstance>() {
+        @Override
+        public String of(ExecuteInstance execute) {
+            return qualifiedName(execute.getRequiredEnd()) + "->" + qualifiedName(execute.getProvidedEnd());
+        }
+    };
+
+    private static String qualifiedName(OwnedBy<?> end) {
+        return (end == null) ? null : end.getQualifiedName();
+    }
+
+    /**
+     * @return the host of each internal component, indexed by the name of the
+     * component, as found by ExecuteInstanceGroup#hostOf (i.e., the first
+     * execute instance whose subject has this name)
+     */
+    private static Map<String, ComponentInstance<? extends Component>> hostsOf(Deployment deployment) {
+        final Map<String, ComponentInstance<? extends Component>> hosts = new HashMap<String, ComponentInstance<? extends Component>>();
+        for (ExecuteInstance execute : deployment.getExecuteInstances()) {
+            final String subject = execute.getRequiredEnd().getOwner().get().getName();
+            if (!hosts.containsKey(subject)) {
+                hosts.put(subject, execute.getHost());
+            }
+        }
+        return hosts;
+    }
+
+    private static Key<InternalComponentInstance> byHostName(final Map<String, ComponentInstance<? extends Component>> hosts) {
+        return new Key<InternalComponentInstance>() {
+            @Override
+            public String of(InternalComponentInstance component) {
+                final ComponentInstance<? extends Component> host = hosts.get(component.getName());
+                return (host == null) ? null : host.getName();
+            }
+        };
+    }
+
+    private static <T> Map<String, List<T>> indexBy(Iterable<? extends T> elements, Key<? super T> key) {
+        final Map<String, List<T>> index = new HashMap<String, List<T>>();
+        for (T element : elements) {
+            final String value = key.of(element);
+            if (value == null) {
+                continue;
+            }
+            List<T> bucket = index.get(value);
+            if (bucket == null) {
+                bucket = new ArrayList<T>(1);
+                index.put(value, bucket);
+            }
+            bucket.add(element);
+        }
+        return index;
+    }
+
+    /**
+     * @return the first element of the index (in the order of the indexed
+     * model) that is equal to the given one, or null if there is none
+     */
+    private static <T> T firstEqual(T element, Map<String, List<T>> index, Key<? super T> key) {
+        final List<T> candidates = index.get(key.of(element));
+        if (candidates != null) {
+            for (T candidate : candidates) {
+                if (element.equals(candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the elements of the target model, in order, that are not equal
+     * to any of the given matched elements
+     */
+    private static <T> List<T> unmatched(Iterable<? extends T> targets, Collection<? extends T> matched, Key<? super T> key) {
+        final Map<String, List<T>> index = indexBy(matched, key);
+        final List<T> selection = new ArrayList<T>();
+        for (T target : targets) {
+            if (!containsEqual(index.get(key.of(target)), target)) {
+                selection.add(target);
+            }
+        }
+        return selection;
+    }
+
+    private static <T> boolean containsEqual(List<T> candidates, Object element) {
+        if (candidates != null) {
+            for (T candidate : candidates) {
+                if (candidate.equals(element)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
 
     /**
      * Clean all the lists resulting from the previous comparison
@@ -0,0 +1,330 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.deployer;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the steps of a deployment as a DAG: each step is started as soon as
+ * all its prerequisites have completed, on a bounded worker pool dedicated to
+ * the provider it talks to. Independent VMs, platforms and components are
+ * therefore processed concurrently and the overall duration approaches the
+ * critical path of the deployment.
+ *
+ * A step that fails does not stop the others, but all the steps depending on
+ * it are skipped. The first failure is rethrown once the plan is over.
+ */
+public class DeploymentScheduler {
+
+    private static final Logger journal = Logger.getLogger(DeploymentScheduler.class.getName());
+
+    /**
+     * System property giving the number of concurrent steps allowed per provider
+     */
+    public static final String POOL_SIZE_PROPERTY = "cloudml.deployer.poolSize";
+
+    public static final int DEFAULT_POOL_SIZE = 8;
+
+    private final List<Step> steps = new ArrayList<Step>();
+    private final Map<String, ExecutorService> pools = new HashMap<String, ExecutorService>();
+    private final int poolSize;
+
+    private int pending;
+    private RuntimeException failure;
+
+    public DeploymentScheduler() {
+        this(Integer.getInteger(POOL_SIZE_PROPERTY, DEFAULT_POOL_SIZE));
+    }
+
+    public DeploymentScheduler(int poolSize) {
+        if (poolSize < 1) {
+            throw new IllegalArgumentException("The size of a worker pool must be positive (found " + poolSize + ")");
+        }
+        this.poolSize = poolSize;
+    }
+
+    /**
+     * Register a new step
+     *
+     * @param name   a name used in the logs
+     * @param pool   the key of the worker pool (usually the provider name)
+     * @param action what the step does
+     * @return the step, to which prerequisites can be attached
+     */
+    public synchronized Step add(String name, String pool, Runnable action) {
+        final Step step = new Step(name, pool, action);
+        steps.add(step);
+        return step;
+    }
+
+    public synchronized boolean isEmpty() {
+        return steps.isEmpty();
+    }
+
+    /**
+     * Run all the registered steps, and block until they are all over
+     */
+    public void execute() {
+        final List<Step> ready = new ArrayList<Step>();
+        synchronized (this) {
+            breakCycles();
+            pending = steps.size();
+            failure = null;
+            for (Step step: steps) {
+                step.remaining = step.prerequisites.size();
+                if (step.remaining == 0) {
+                    ready.add(step);
+                }
+            }
+        }
+        journal.log(Level.INFO, ">> Scheduling " + pending + " deployment steps");
+        submitAll(ready);
+        try {
+            synchronized (this) {
+                while (pending > 0) {
+                    wait();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for the deployment steps", e);
+        } finally {
+            shutdown();
+        }
+        synchronized (this) {
+            steps.clear();
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    private void submitAll(List<Step> ready) {
+        for (final Step step: ready) {
+            poolFor(step.pool).execute(new Runnable() {
+                @Override
+                public void run() {
+                    perform(step);
+                }
+            });
+        }
+    }
+
+    private void perform(Step step) {
+        boolean succeeded = false;
+        try {
+            step.action.run();
+            succeeded = true;
+        } catch (RuntimeException e) {
+            journal.log(Level.SEVERE, ">> Step '" + step.name + "' failed: " + e.getMessage(), e);
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+        } catch (Error e) {
+            journal.log(Level.SEVERE, ">> Step '" + step.name + "' failed: " + e.getMessage(), e);
+            synchronized (this) {
+                if (failure == null) {
+                    failure = new IllegalStateException(e);
+                }
+            }
+        }
+        final List<Step> ready = new ArrayList<Step>();
+        synchronized (this) {
+            if (succeeded) {
+                for (Step dependent: step.dependents) {
+                    if (--dependent.remaining == 0) {
+                        ready.add(dependent);
+                    }
+                }
+                pending--;
+            } else {
+                pending -= skip(step) + 1;
+            }
+            notifyAll();
+        }
+        submitAll(ready);
+    }
+
+    /**
+     * Mark as skipped all the (transitive) dependents of a failed step
+     *
+     * @return the number of steps skipped
+     */
+    private int skip(Step failed) {
+        int count = 0;
+        final Deque<Step> toSkip = new ArrayDeque<Step>(failed.dependents);
+        while (!toSkip.isEmpty()) {
+            final Step step = toSkip.pop();
+            if (!step.skipped) {
+                step.skipped = true;
+                count++;
+                journal.log(Level.WARNING, ">> Step '" + step.name + "' skipped as '" + failed.name + "' failed");
+                toSkip.addAll(step.dependents);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Drop the weak dependencies that close a cycle, so that the plan always
+     * terminates. A cycle made only of strong dependencies is an error in the
+     * model (e.g., a component hosting itself).
+     */
+    private void breakCycles() {
+        final Set<Step> blocked = blockedSteps();
+        if (blocked.isEmpty()) {
+            return;
+        }
+        journal.log(Level.WARNING, ">> Cyclic dependencies between deployment steps " + blocked + ", some ordering constraints are relaxed");
+        for (Step step: blocked) {
+            for (Step weak: step.weakPrerequisites) {
+                step.prerequisites.remove(weak);
+                weak.dependents.remove(step);
+            }
+            step.weakPrerequisites.clear();
+        }
+        if (!blockedSteps().isEmpty()) {
+            throw new IllegalStateException("Cyclic dependencies between the deployment steps " + blockedSteps());
+        }
+    }
+
+    /**
+     * @return the steps that would never be started, because they belong to
+     * (or depend on) a cycle
+     */
+    private Set<Step> blockedSteps() {
+        final Map<Step, Integer> remaining = new HashMap<Step, Integer>();
+        final Deque<Step> ready = new ArrayDeque<Step>();
+        for (Step step: steps) {
+            remaining.put(step, step.prerequisites.size());
+            if (step.prerequisites.isEmpty()) {
+                ready.add(step);
+            }
+        }
+        while (!ready.isEmpty()) {
+            final Step step = ready.pop();
+            remaining.remove(step);
+            for (Step dependent: step.dependents) {
+                final int left = remaining.get(dependent) - 1;
+                remaining.put(dependent, left);
+                if (left == 0) {
+                    ready.add(dependent);
+                }
+            }
+        }
+        return new LinkedHashSet<Step>(remaining.keySet());
+    }
+
+    private synchronized ExecutorService poolFor(final String key) {
+        ExecutorService pool = pools.get(key);
+        if (pool == null) {
+            pool = Executors.newFixedThreadPool(poolSize, new ThreadFactory() {
+                private final AtomicInteger counter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "deployer-" + key + "-" + counter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            pools.put(key, pool);
+        }
+        return pool;
+    }
+
+    private synchronized void shutdown() {
+        for (ExecutorService pool: pools.values()) {
+            pool.shutdown();
+        }
+        pools.clear();
+    }
+
+    /**
+     * A single deployment step, such as provisioning a VM or installing a
+     * component
+     */
+    public class Step {
+
+        private final String name;
+        private final String pool;
+        private final Runnable action;
+        private final Set<Step> prerequisites = new LinkedHashSet<Step>();
+        private final Set<Step> weakPrerequisites = new HashSet<Step>();
+        private final Set<Step> dependents = new LinkedHashSet<Step>();
+        private int remaining;
+        private boolean skipped;
+
+        private Step(String name, String pool, Runnable action) {
+            this.name = name;
+            this.pool = pool;
+            this.action = action;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * This step will only start once the given one has completed
+         */
+        public Step after(Step prerequisite) {
+            if (prerequisite != null && prerequisite != this) {
+                synchronized (DeploymentScheduler.this) {
+                    weakPrerequisites.remove(prerequisite);
+                    prerequisites.add(prerequisite);
+                    prerequisite.dependents.add(this);
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Same as after, but the dependency is dropped if it closes a cycle
+         */
+        public Step preferablyAfter(Step prerequisite) {
+            if (prerequisite != null && prerequisite != this) {
+                synchronized (DeploymentScheduler.this) {
+                    if (prerequisites.add(prerequisite)) {
+                        weakPrerequisites.add(prerequisite);
+                        prerequisite.dependents.add(this);
+                    }
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -23,82 +23,152 @@
 package org.cloudml.deployer;
 
 import org.cloudml.core.*;
-import org.cloudml.core.collections.InternalComponentInstanceGroup;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Created by nicolasf on 15.10.14.
+ *
+ * Builds the puppet manifest of the VMs of a deployment. The components
+ * hosted by each component are indexed once, so that all the manifests are
+ * built in a single pass over the hosting tree.
  */
 public class PuppetManifestGenerator {
 
     private static final Logger journal = Logger.getLogger(PuppetManifestGenerator.class.getName());
-    private VMInstance vmi;
-    private Deployment currentModel;
-    private String manifest="";
-    private PuppetResource skeleton=null;
+    private final Map<String, List<InternalComponentInstance>> hosted;
 
 
-    public PuppetManifestGenerator(VMInstance vmi, Deployment current){
-        this.vmi=vmi;
-        this.currentModel =current;
+    public PuppetManifestGenerator(Deployment current){
+        this.hosted = new HashMap<String, List<InternalComponentInstance>>();
+        for(InternalComponentInstance ici : current.getComponentInstances().onlyInternals()){
+            ComponentInstance<? extends Component> host = ici.getHost();
+            if(host != null){
+                List<InternalComponentInstance> children = hosted.get(host.getName());
+                if(children == null){
+                    children = new ArrayList<InternalComponentInstance>();
+                    hosted.put(host.getName(), children);
+                }
+                children.add(ici);
+            }
+        }
     }
 
-    public PuppetResource getSkeleton(){
-        return this.skeleton;
+    /**
+     * @param vmi a VM instance of the deployment
+     * @return the manifest gathering the manifest entries of all the
+     * components running (directly or not) on the given VM
+     */
+    public Manifest manifestOf(VMInstance vmi){
+        Manifest manifest = new Manifest(vmi.getName());
+        visitPuppetResources(vmi, manifest);
+        return manifest;
     }
 
     private PuppetResource findPuppetResource(ComponentInstance ci){
         for(Resource r: ci.getType().getResources()){
             if(r instanceof PuppetResource){
-                if(skeleton ==  null)
-                    skeleton=(PuppetResource)r;
                 return (PuppetResource)r;
             }
         }
         return null;
     }
 
-    public String generate(){
-        String name= vmi.getName();
-        visitPuppetResources(vmi);
-        if(!manifest.equals("")){
-            if(!name.equals("")){
-                try {
-                    File file=new File(name+".pp");
-                    BufferedWriter output = new BufferedWriter(new FileWriter(file));
-                    output.write("node '" + name + "' {"+System.lineSeparator());
-                    output.write(manifest);
-                    output.write("}");
-                    output.close();
-                    journal.log(Level.INFO, ">> Manifest generated");
-                    return file.getPath();
-                } catch (IOException e) {
-                    e.printStackTrace();
+    private void visitPuppetResources(ComponentInstance ci, Manifest manifest){
+        List<InternalComponentInstance> children = hosted.get(ci.getName());
+        if(children == null){
+            children = Collections.emptyList();
+        }
+        for(InternalComponentInstance c : children){
+            PuppetResource pr=findPuppetResource(c);
+            if(pr != null)
+                manifest.append(pr);
+            visitPuppetResources(c, manifest);
+        }
+    }
+
+    /**
+     * The manifest of a single VM, along with the first puppet resource
+     * found, which holds the master and repository to use.
+     */
+    public static class Manifest {
+
+        private final String name;
+        private final StringBuilder entries = new StringBuilder();
+        private PuppetResource skeleton = null;
+
+        private Manifest(String name){
+            this.name = name;
+        }
+
+        private void append(PuppetResource pr){
+            if(skeleton == null)
+                skeleton = pr;
+            entries.append(pr.getManifestEntry()).append(System.lineSeparator());
+        }
+
+        public PuppetResource getSkeleton(){
+            return skeleton;
+        }
+
+        public boolean isEmpty(){
+            return entries.length() == 0 || name.equals("");
+        }
+
+        public String getContent(){
+            return "node '" + name + "' {" + System.lineSeparator() + entries + "}";
+        }
+
+        /**
+         * @return the SHA-1 of the content, in hexadecimal, which tells
+         * whether the manifest has changed since it was last applied
+         */
+        public String getDigest(){
+            try {
+                byte[] hash = MessageDigest.getInstance("SHA-1").digest(getContent().getBytes("UTF-8"));
+                StringBuilder hex = new StringBuilder();
+                for(byte b : hash){
+                    hex.append(String.format("%02x", b));
                 }
+                return hex.toString();
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
             }
         }
-        return null;
-    }
 
-    private void visitPuppetResources(ComponentInstance ci){
-        InternalComponentInstanceGroup icig= currentModel.getComponentInstances().onlyInternals().hostedOn(ci);
-        if(icig !=null){
-            for(ComponentInstance c : icig){
-                InternalComponentInstance ici;
-                PuppetResource pr=findPuppetResource(c);
-                if(pr != null)
-                    manifest+=pr.getManifestEntry()+System.lineSeparator();
-                visitPuppetResources(c);
+        /**
+         * Write the manifest in a '.pp' file named after the VM
+         * @return the path to the file or null if it could not be written
+         */
+        public String write(){
+            try {
+                File file=new File(name+".pp");
+                BufferedWriter output = new BufferedWriter(new FileWriter(file));
+                output.write(getContent());
+                output.close();
+                journal.log(Level.INFO, ">> Manifest generated");
+                return file.getPath();
+            } catch (IOException e) {
+                e.printStackTrace();
             }
+            return null;
         }
+
     }
 
 }
@@ -205,17 +205,37 @@ public class Scaler {
             }
         }
 
+        //provision the new VMs of the same type with one request
+        Map<VM, List<VMInstance>> identicalVMs = new LinkedHashMap<VM, List<VMInstance>>();
+        for(int i=0;i<n;i++) {
+            if(!identicalVMs.containsKey(newbies.get(i)))
+                identicalVMs.put(newbies.get(i), new ArrayList<VMInstance>());
+            identicalVMs.get(newbies.get(i)).add(cis.get(i));
+        }
+        final Map<VMInstance, HashMap<String, Object>> results = new HashMap<VMInstance, HashMap<String, Object>>();
+        for(Map.Entry<VM, List<VMInstance>> group : identicalVMs.entrySet()) {
+            Connector c2 = ConnectorFactory.createIaaSConnector(group.getKey().getProvider());
+            Map<String, HashMap<String, Object>> created = CloudAppDeployer.byVMName(c2.createInstances(group.getValue()));
+            c2.closeConnection();
+            for(VMInstance vm : group.getValue()) {
+                if(created.containsKey(vm.getName()))
+                    results.put(vm, created.get(vm.getName()));
+            }
+        }
+
         for(int i=0;i<n;i++) {
             final Map<InternalComponentInstance, InternalComponentInstance> d=duplicatedGraphs.get(i);
-            final VM vm=newbies.get(i);
             final String name=vmi.getName();
             final VMInstance ci=cis.get(i);
             ts.add(new Thread(){
                 public void run() {
                     //once this is done we can work in parallel
-                    Connector c2 = ConnectorFactory.createIaaSConnector(vm.getProvider());
-                    HashMap<String, Object> result = c2.createInstance(ci);
-                    c2.closeConnection();
+                    HashMap<String, Object> result = results.get(ci);
+                    if(result == null) {
+                        journal.log(Level.SEVERE, ">> No runtime information for "+ci.getName());
+                        coordinator.updateStatus(ci.getName(), ComponentInstance.State.ERROR, CloudAppDeployer.class.getName());
+                        return;
+                    }
                     coordinator.updateStatusInternalComponent(ci.getName(), result.get("status").toString(), CloudAppDeployer.class.getName());
                     coordinator.updateStatus(name, ComponentInstance.State.RUNNING, CloudAppDeployer.class.getName());
                     coordinator.updateIP(ci.getName(),result.get("publicAddress").toString(),CloudAppDeployer.class.getName());
@@ -0,0 +1,414 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.deployment;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.cloudml.connectors.Connector;
+import org.cloudml.core.Component;
+import org.cloudml.core.ComponentInstance;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.ProvidedExecutionPlatformInstance;
+import org.cloudml.core.Provider;
+import org.cloudml.core.VMInstance;
+import org.cloudml.core.builders.DeploymentBuilder;
+import org.cloudml.deployer.CloudAppDeployer;
+import org.cloudml.mrt.Coordinator;
+import org.cloudml.mrt.SimpleModelRepo;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.cloudml.core.builders.Commons.*;
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.junit.Assert.fail;
+
+@RunWith(JUnit4.class)
+public class CloudAppDeployerTest {
+
+    private static final String PROVIDER = "fake cloud";
+    private static final String VM = "vm";
+    private static final String CONTAINER = "container 1";
+
+    @Test
+    public void installASharedHostOnlyOnce() {
+        final FakeConnector connector = new FakeConnector();
+        final CloudAppDeployer sut = deployerUsing(connector);
+        final Deployment current = containerOnAVm().build();
+        current.getComponentInstances().onlyVMs().firstNamed(VM).setPublicAddress("10.0.0.1");
+        final Deployment target = containerOnAVm()
+                .with(anInternalComponentInstance().named("app 1").ofType("app").hostedBy(CONTAINER))
+                .with(anInternalComponentInstance().named("app 2").ofType("app").hostedBy(CONTAINER))
+                .build();
+        sameExecutionPlatforms(current, target);
+        sut.setCurrentModel(current);
+
+        sut.deploy(target);
+
+        assertThat(connector.timesRun("install container"), is(equalTo(1)));
+        assertThat(connector.timesRun("start container"), is(equalTo(1)));
+        assertThat(connector.timesRun("install app"), is(equalTo(2)));
+    }
+
+    @Test
+    public void theAddressOfAProvisionedVmIsVisibleToTheNextSteps() {
+        final Deployment target = containerOnAVm().build();
+        final AddressRecorder connector = new AddressRecorder(target);
+        final CloudAppDeployer sut = deployerUsing(connector);
+        final Coordinator coordinator = new Coordinator();
+        coordinator.setModelRepo(new SimpleModelRepo(target));
+        sut.setCoordinator(coordinator);
+
+        sut.deploy(target);
+
+        assertThat(connector.addresses(), is(not(empty())));
+        assertThat(connector.addresses(), everyItem(equalTo("10.0.0.2")));
+    }
+
+    @Test
+    public void uploadTheFilesOfAComponentInOneBatch() {
+        final FakeConnector connector = new FakeConnector();
+        final CloudAppDeployer sut = deployerUsing(connector);
+        final Deployment target = containerOnAVm()
+                .with(anInternalComponent()
+                    .named("uploaded")
+                    .with(aRequiredExecutionPlatform()
+                        .named("on container")
+                        .demanding("Servlet Container", "true"))
+                    .withResource(aResource()
+                        .named("war")
+                        .withUpload("app.war", "/opt/app.war"))
+                    .withResource(aResource()
+                        .named("settings")
+                        .withUpload("app.properties", "/opt/app.properties")
+                        .withUpload("log.properties", "/opt/log.properties")))
+                .with(anInternalComponentInstance().named("app 1").ofType("uploaded").hostedBy(CONTAINER))
+                .build();
+
+        sut.deploy(target);
+
+        assertThat(connector.uploads(), contains(hasKey("app.war")));
+        assertThat(connector.uploads().get(0).keySet(), containsInAnyOrder("app.war", "app.properties", "log.properties"));
+        assertThat(connector.uploads().get(0).get("log.properties"), is(equalTo("/opt/log.properties")));
+    }
+
+    @Test
+    public void uploadAFileToEachOfItsDestinations() {
+        final FakeConnector connector = new FakeConnector();
+        final CloudAppDeployer sut = deployerUsing(connector);
+        final Deployment target = containerOnAVm()
+                .with(anInternalComponent()
+                    .named("uploaded")
+                    .with(aRequiredExecutionPlatform()
+                        .named("on container")
+                        .demanding("Servlet Container", "true"))
+                    .withResource(aResource()
+                        .named("war")
+                        .withUpload("app.war", "/opt/app.war")
+                        .withUpload("app.properties", "/opt/app.properties"))
+                    .withResource(aResource()
+                        .named("backup")
+                        .withUpload("app.properties", "/backup/app.properties")))
+                .with(anInternalComponentInstance().named("app 1").ofType("uploaded").hostedBy(CONTAINER))
+                .build();
+
+        sut.deploy(target);
+
+        assertThat(connector.uploads(), hasSize(2));
+        assertThat(connector.uploads().get(0).keySet(), containsInAnyOrder("app.war", "app.properties"));
+        assertThat(connector.uploads().get(0).get("app.properties"), is(equalTo("/opt/app.properties")));
+        assertThat(connector.uploads().get(1).get("app.properties"), is(equalTo("/backup/app.properties")));
+    }
+
+    @Test
+    public void matchProvisionedVmsByName() {
+        final Deployment target = twoIdenticalVms().build();
+        final CloudAppDeployer sut = deployerUsing(new ShufflingConnector());
+        final Coordinator coordinator = new Coordinator();
+        coordinator.setModelRepo(new SimpleModelRepo(target));
+        sut.setCoordinator(coordinator);
+
+        sut.deploy(target);
+
+        assertThat(target.getComponentInstances().onlyVMs().firstNamed(VM).getPublicAddress(), is(equalTo("address of " + VM)));
+        assertThat(target.getComponentInstances().onlyVMs().firstNamed("vm 2").getPublicAddress(), is(equalTo("address of vm 2")));
+    }
+
+    @Test
+    public void failTheVmsMissingFromTheProvisioningResults() {
+        final Deployment target = twoIdenticalVms().build();
+        final CloudAppDeployer sut = deployerUsing(new ShufflingConnector("vm 2"));
+        final Coordinator coordinator = new Coordinator();
+        coordinator.setModelRepo(new SimpleModelRepo(target));
+        sut.setCoordinator(coordinator);
+
+        try {
+            sut.deploy(target);
+            fail("The deployment should fail");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), containsString("vm 2"));
+        }
+
+        assertThat(target.getComponentInstances().onlyVMs().firstNamed("vm 2").getStatus(), is(equalTo(ComponentInstance.State.ERROR)));
+        assertThat(target.getComponentInstances().onlyVMs().firstNamed(VM).getPublicAddress(), is(equalTo("address of " + VM)));
+    }
+
+    private static CloudAppDeployer deployerUsing(final Connector connector) {
+        final CloudAppDeployer deployer = new CloudAppDeployer() {
+            @Override
+            protected Connector createIaaSConnector(Provider provider) {
+                return connector;
+            }
+        };
+        deployer.setCoordinator(new Coordinator());
+        return deployer;
+    }
+
+    /**
+     * The builders name the execution platforms of the instances at random,
+     * whereas the comparison of two models expects them to match
+     */
+    private static void sameExecutionPlatforms(Deployment current, Deployment target) {
+        for (ComponentInstance<? extends Component> instance: current.getComponentInstances()) {
+            final ComponentInstance<? extends Component> twin = target.getComponentInstances().firstNamed(instance.getName());
+            final List<ProvidedExecutionPlatformInstance> platforms = twin.getProvidedExecutionPlatforms().toList();
+            for (int i = 0; i < platforms.size(); i++) {
+                instance.getProvidedExecutionPlatforms().toList().get(i).setName(platforms.get(i).getName());
+            }
+            if (instance.isInternal()) {
+                instance.asInternal().getRequiredExecutionPlatform().setName(twin.asInternal().getRequiredExecutionPlatform().getName());
+            }
+        }
+    }
+
+    private static DeploymentBuilder twoIdenticalVms() {
+        return aDeployment()
+                .with(aProvider().named(PROVIDER))
+                .with(aVM()
+                    .named("small")
+                    .providedBy(PROVIDER))
+                .with(aVMInstance()
+                    .named(VM)
+                    .ofType("small"))
+                .with(aVMInstance()
+                    .named("vm 2")
+                    .ofType("small"));
+    }
+
+    private static DeploymentBuilder containerOnAVm() {
+        return aDeployment()
+                .with(aProvider().named(PROVIDER))
+                .with(aVM()
+                    .named("small")
+                    .providedBy(PROVIDER)
+                    .with(aProvidedExecutionPlatform()
+                        .named("os")
+                        .offering("OS", "Ubuntu")))
+                .with(anInternalComponent()
+                    .named("container")
+                    .with(aRequiredExecutionPlatform()
+                        .named("on os")
+                        .demanding("OS", "Ubuntu"))
+                    .with(aProvidedExecutionPlatform()
+                        .named("servlets")
+                        .offering("Servlet Container", "true"))
+                    .withResource(aResource()
+                        .named("container resource")
+                        .installedBy("install container")
+                        .startedBy("start container")))
+                .with(anInternalComponent()
+                    .named("app")
+                    .with(aRequiredExecutionPlatform()
+                        .named("on container")
+                        .demanding("Servlet Container", "true"))
+                    .withResource(aResource()
+                        .named("app resource")
+                        .installedBy("install app")))
+                .with(aVMInstance()
+                    .named(VM)
+                    .ofType("small"))
+                .with(anInternalComponentInstance()
+                    .named(CONTAINER)
+                    .ofType("container")
+                    .hostedBy(VM));
+    }
+
+    /**
+     * Records the commands it is asked to run, slowly enough for concurrent
+     * steps to overlap
+     */
+    private static class FakeConnector implements Connector {
+
+        private final List<String> commands = Collections.synchronizedList(new ArrayList<String>());
+        private final List<Map<String, String>> uploads = Collections.synchronizedList(new ArrayList<Map<String, String>>());
+
+        @Override
+        public void execCommand(String id, String command, String login, String key) {
+            commands.add(command);
+            pause();
+        }
+
+        @Override
+        public HashMap<String, Object> createInstance(VMInstance a) {
+            pause();
+            final HashMap<String, Object> runtimeInformation = new HashMap<String, Object>();
+            runtimeInformation.put("status", ComponentInstance.State.RUNNING);
+            runtimeInformation.put("publicAddress", "10.0.0.2");
+            a.setId("id of " + a.getName());
+            return runtimeInformation;
+        }
+
+        @Override
+        public List<HashMap<String, Object>> createInstances(List<VMInstance> instances) {
+            final List<HashMap<String, Object>> runtimeInformation = new ArrayList<HashMap<String, Object>>();
+            for (VMInstance instance: instances) {
+                final HashMap<String, Object> information = createInstance(instance);
+                information.put("name", instance.getName());
+                runtimeInformation.add(information);
+            }
+            return runtimeInformation;
+        }
+
+        @Override
+        public void destroyVM(String id) {
+        }
+
+        @Override
+        public void closeConnection() {
+        }
+
+        @Override
+        public void updateVMMetadata(VMInstance a) {
+        }
+
+        @Override
+        public void uploadFile(String sourcePath, String destinationPath, String nodeId, String login, String key) {
+        }
+
+        @Override
+        public void uploadFiles(Map<String, String> files, String nodeId, String login, String key) {
+            uploads.add(new HashMap<String, String>(files));
+        }
+
+        @Override
+        public String createSnapshot(VMInstance a) {
+            return null;
+        }
+
+        @Override
+        public String createImage(VMInstance a) {
+            return null;
+        }
+
+        @Override
+        public void startVM(VMInstance a) {
+        }
+
+        @Override
+        public void stopVM(VMInstance a) {
+        }
+
+        public int timesRun(String command) {
+            synchronized (commands) {
+                return Collections.frequency(commands, command);
+            }
+        }
+
+        public List<Map<String, String>> uploads() {
+            synchronized (uploads) {
+                return new ArrayList<Map<String, String>>(uploads);
+            }
+        }
+
+        private static void pause() {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Gives each VM an address of its own, and returns the VMs it provisions
+     * in the reverse order, without those it is told to fail
+     */
+    private static class ShufflingConnector extends FakeConnector {
+
+        private final List<String> failing;
+
+        public ShufflingConnector(String... failing) {
+            this.failing = Arrays.asList(failing);
+        }
+
+        @Override
+        public HashMap<String, Object> createInstance(VMInstance a) {
+            final HashMap<String, Object> runtimeInformation = super.createInstance(a);
+            runtimeInformation.put("publicAddress", "address of " + a.getName());
+            return runtimeInformation;
+        }
+
+        @Override
+        public List<HashMap<String, Object>> createInstances(List<VMInstance> instances) {
+            final List<HashMap<String, Object>> runtimeInformation = new ArrayList<HashMap<String, Object>>();
+            for (HashMap<String, Object> information: super.createInstances(instances)) {
+                if (!failing.contains(information.get("name"))) {
+                    runtimeInformation.add(0, information);
+                }
+            }
+            return runtimeInformation;
+        }
+    }
+
+    /**
+     * Also records the public address that the model gives to the VM on
+     * which each command runs, starting with the very first one
+     */
+    private static class AddressRecorder extends FakeConnector {
+
+        private final Deployment model;
+        private final List<String> addresses = Collections.synchronizedList(new ArrayList<String>());
+
+        public AddressRecorder(Deployment model) {
+            this.model = model;
+        }
+
+        @Override
+        public void execCommand(String id, String command, String login, String key) {
+            addresses.add(model.getComponentInstances().onlyVMs().withID(id).getPublicAddress());
+            super.execCommand(id, command, login, key);
+        }
+
+        public List<String> addresses() {
+            synchronized (addresses) {
+                return new ArrayList<String>(addresses);
+            }
+        }
+    }
+
+}
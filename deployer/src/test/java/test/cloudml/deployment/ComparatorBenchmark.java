@@ -0,0 +1,125 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.deployment;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.cloudml.core.Deployment;
+import org.cloudml.deployer.CloudMLModelComparator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Measure the time needed to diff two synthetic deployment models, using
+ * either the indexed CloudMLModelComparator or the former nested-loop one.
+ * The target model replaces 10% of the pairs of the current one.
+ *
+ * Run it with: mvn -Pbenchmark test-compile exec:exec (in the deployer module)
+ * or directly through the main method below.
+ *
+ * The nested-loop comparator is cubic in the number of instances, so it is
+ * only measured up to 2,000 instances.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ComparatorBenchmark {
+
+    private static final int CHURN = 10;
+
+    public abstract static class Models {
+
+        public Deployment current;
+        public Deployment target;
+
+        protected void prepare(int instances) {
+            Logger.getLogger("").setLevel(Level.OFF);
+            final Deployment[] models = SyntheticDeployments.adaptation(instances, CHURN);
+            current = models[0];
+            target = models[1];
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class AllModels extends Models {
+
+        @Param({"100", "1000", "2000", "5000", "10000"})
+        public int instances;
+
+        @Setup
+        public void prepare() {
+            prepare(instances);
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class SmallModels extends Models {
+
+        @Param({"100", "1000", "2000"})
+        public int instances;
+
+        @Setup
+        public void prepare() {
+            prepare(instances);
+        }
+
+    }
+
+    @Benchmark
+    public CloudMLModelComparator indexed(AllModels models) {
+        final CloudMLModelComparator comparator = new CloudMLModelComparator(models.current, models.target);
+        comparator.compareCloudMLModel();
+        return comparator;
+    }
+
+    @Benchmark
+    public NestedLoopModelComparator nestedLoop(SmallModels models) {
+        final NestedLoopModelComparator comparator = new NestedLoopModelComparator(models.current, models.target);
+        comparator.compareCloudMLModel();
+        return comparator;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(ComparatorBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.deployment;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.cloudml.deployer.DeploymentScheduler;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+@RunWith(JUnit4.class)
+public class DeploymentSchedulerTest {
+
+    private final List<String> trace = Collections.synchronizedList(new ArrayList<String>());
+
+    private Runnable record(final String name) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                trace.add(name);
+            }
+        };
+    }
+
+    @Test
+    public void runStepsAfterTheirPrerequisites() {
+        final DeploymentScheduler sut = new DeploymentScheduler(4);
+        final DeploymentScheduler.Step vm = sut.add("vm", "ec2", record("vm"));
+        final DeploymentScheduler.Step install = sut.add("install", "ec2", record("install"));
+        final DeploymentScheduler.Step start = sut.add("start", "ec2", record("start"));
+        start.after(install);
+        install.after(vm);
+
+        sut.execute();
+
+        assertThat(trace, contains("vm", "install", "start"));
+    }
+
+    @Test
+    public void runIndependentStepsConcurrently() throws InterruptedException {
+        final DeploymentScheduler sut = new DeploymentScheduler(2);
+        final CountDownLatch bothStarted = new CountDownLatch(2);
+        final Runnable waitForTheOther = new Runnable() {
+            @Override
+            public void run() {
+                bothStarted.countDown();
+                try {
+                    if (!bothStarted.await(5, TimeUnit.SECONDS)) {
+                        throw new IllegalStateException("steps were not run concurrently");
+                    }
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
+        sut.add("vm #1", "ec2", waitForTheOther);
+        sut.add("vm #2", "ec2", waitForTheOther);
+
+        sut.execute();
+
+        assertThat(bothStarted.getCount(), is(equalTo(0L)));
+    }
+
+    @Test
+    public void skipTheDependentsOfAFailedStep() {
+        final DeploymentScheduler sut = new DeploymentScheduler(2);
+        final DeploymentScheduler.Step vm = sut.add("vm", "ec2", new Runnable() {
+            @Override
+            public void run() {
+                throw new IllegalStateException("no more quota");
+            }
+        });
+        sut.add("install", "ec2", record("install")).after(vm);
+        sut.add("other vm", "openstack", record("other vm"));
+
+        try {
+            sut.execute();
+            throw new AssertionError("the failure should be reported");
+        } catch (IllegalStateException e) {
+            assertThat(e.getMessage(), is(equalTo("no more quota")));
+        }
+
+        assertThat(trace, contains("other vm"));
+    }
+
+    @Test
+    public void relaxWeakDependenciesClosingACycle() {
+        final DeploymentScheduler sut = new DeploymentScheduler(2);
+        final DeploymentScheduler.Step install = sut.add("install", "ec2", record("install"));
+        final DeploymentScheduler.Step configure = sut.add("configure", "ec2", record("configure"));
+        configure.after(install);
+        install.preferablyAfter(configure);
+
+        sut.execute();
+
+        assertThat(trace, contains("install", "configure"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rejectStrongCycles() {
+        final DeploymentScheduler sut = new DeploymentScheduler(2);
+        final DeploymentScheduler.Step install = sut.add("install", "ec2", record("install"));
+        final DeploymentScheduler.Step configure = sut.add("configure", "ec2", record("configure"));
+        configure.after(install);
+        install.after(configure);
+
+        sut.execute();
+    }
+}
@@ -0,0 +1,166 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.deployment;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.ExecuteInstance;
+import org.cloudml.core.ExternalComponent;
+import org.cloudml.core.ExternalComponentInstance;
+import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.NamedElement;
+import org.cloudml.core.RelationshipInstance;
+import org.cloudml.core.builders.DeploymentBuilder;
+import org.cloudml.deployer.CloudMLModelComparator;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+import static org.cloudml.core.builders.Commons.*;
+import static org.cloudml.core.samples.SshClientServer.*;
+
+@RunWith(JUnit4.class)
+public class ModelComparatorTest {
+
+    @Test
+    public void identicalModelsShouldOnlyMatch() {
+        final CloudMLModelComparator comparator = compare(SyntheticDeployments.pairs(0, 10), SyntheticDeployments.pairs(0, 10));
+
+        assertThat(comparator.getMatchingECs().size(), is(equalTo(20)));
+        assertThat(comparator.getMatchingComponents().size(), is(equalTo(20)));
+        assertThat(comparator.getMatchingRelationships().size(), is(equalTo(10)));
+        assertThat(comparator.getMatchingExecutes().size(), is(equalTo(20)));
+        assertThat(comparator.getRemovedECs().isEmpty(), is(true));
+        assertThat(comparator.getAddedECs().isEmpty(), is(true));
+        assertThat(comparator.getRemovedComponents().isEmpty(), is(true));
+        assertThat(comparator.getAddedComponents().isEmpty(), is(true));
+        assertThat(comparator.getRemovedRelationships().isEmpty(), is(true));
+        assertThat(comparator.getAddedRelationships().isEmpty(), is(true));
+        assertThat(comparator.getRemovedExecutes().isEmpty(), is(true));
+        assertThat(comparator.getAddedExecutes().isEmpty(), is(true));
+    }
+
+    @Test
+    public void removedVMsShouldCarryTheComponentsTheyHost() {
+        final CloudMLModelComparator comparator = compare(SyntheticDeployments.pairs(0, 3), SyntheticDeployments.pairs(1, 3));
+
+        assertThat(names(comparator.getRemovedECs().keySet()), containsInAnyOrder("client vm 0", "server vm 0"));
+        for (ExternalComponentInstance<? extends ExternalComponent> vm: comparator.getRemovedECs().keySet()) {
+            final List<InternalComponentInstance> hosted = comparator.getRemovedECs().get(vm);
+            assertThat(hosted.size(), is(equalTo(1)));
+            assertThat(hosted.get(0).getHost(), is(sameInstance((Object) vm)));
+        }
+        assertThat(names(comparator.getRemovedComponents()), contains("client 0", "server 0"));
+        assertThat(names(comparator.getRemovedRelationships()), contains("ssh 0"));
+        assertThat(comparator.getRemovedExecutes().size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void addedRelationshipsShouldBeBoundToTheExistingComponents() {
+        final Deployment current = SyntheticDeployments.pairs(0, 2);
+        final Deployment target = SyntheticDeployments.build(anotherClientOf("server 1"));
+
+        final CloudMLModelComparator comparator = compare(current, target);
+
+        assertThat(names(comparator.getAddedRelationships()), contains("ssh x"));
+        final RelationshipInstance added = comparator.getAddedRelationships().get(0);
+        assertThat(added.getProvidedEnd().getOwner().get(), is(sameInstance((Object) current.getComponentInstances().firstNamed("server 1"))));
+        assertThat(names(comparator.getAddedComponents()), contains("client x"));
+        assertThat(names(comparator.getAddedECs()), contains("client vm x"));
+    }
+
+    @Test
+    public void shouldAgreeWithTheNestedLoopComparator() {
+        for (int churn: new int[]{0, 10, 50, 100}) {
+            final Deployment[] models = SyntheticDeployments.adaptation(200, churn);
+            final Deployment[] copies = SyntheticDeployments.adaptation(200, churn);
+
+            final CloudMLModelComparator indexed = compare(models[0], models[1]);
+            final NestedLoopModelComparator nested = new NestedLoopModelComparator(copies[0], copies[1]);
+            nested.compareCloudMLModel();
+
+            assertThat(names(indexed.getAddedECs()), is(equalTo(names(nested.getAddedECs()))));
+            assertThat(names(indexed.getRemovedECs().keySet()), containsInAnyOrder(names(nested.getRemovedECs().keySet()).toArray()));
+            assertThat(names(indexed.getMatchingECs().keySet()), containsInAnyOrder(names(nested.getMatchingECs().keySet()).toArray()));
+            assertThat(names(indexed.getAddedComponents()), is(equalTo(names(nested.getAddedComponents()))));
+            assertThat(names(indexed.getRemovedComponents()), is(equalTo(names(nested.getRemovedComponents()))));
+            assertThat(names(indexed.getMatchingComponents().keySet()), containsInAnyOrder(names(nested.getMatchingComponents().keySet()).toArray()));
+            assertThat(names(indexed.getAddedRelationships()), is(equalTo(names(nested.getAddedRelationships()))));
+            assertThat(names(indexed.getRemovedRelationships()), is(equalTo(names(nested.getRemovedRelationships()))));
+            assertThat(indexed.getMatchingRelationships().size(), is(equalTo(nested.getMatchingRelationships().size())));
+            assertThat(ends(indexed.getAddedExecutes()), is(equalTo(ends(nested.getAddedExecutes()))));
+            assertThat(ends(indexed.getRemovedExecutes()), is(equalTo(ends(nested.getRemovedExecutes()))));
+            assertThat(indexed.getMatchingExecutes().size(), is(equalTo(nested.getMatchingExecutes().size())));
+        }
+    }
+
+    private static DeploymentBuilder anotherClientOf(String server) {
+        return getSshTypes()
+                .with(aVMInstance()
+                    .named("server vm 1")
+                    .ofType(EC2_XLARGE_WINDOWS_7))
+                .with(anInternalComponentInstance()
+                    .named("server 1")
+                    .ofType(SSH_SERVER)
+                    .hostedBy("server vm 1"))
+                .with(aVMInstance()
+                    .named("client vm x")
+                    .ofType(EC2_LARGE_LINUX))
+                .with(anInternalComponentInstance()
+                    .named("client x")
+                    .ofType(SSH_CLIENT)
+                    .hostedBy("client vm x"))
+                .with(aRelationshipInstance()
+                    .named("ssh x")
+                    .ofType(SSH_CONNECTION)
+                    .from("client x", CLIENT_PORT)
+                    .to(server, SERVER_PORT));
+    }
+
+    private static CloudMLModelComparator compare(Deployment current, Deployment target) {
+        final CloudMLModelComparator comparator = new CloudMLModelComparator(current, target);
+        comparator.compareCloudMLModel();
+        return comparator;
+    }
+
+    private static List<String> names(Iterable<? extends NamedElement> elements) {
+        final List<String> names = new ArrayList<String>();
+        for (NamedElement element: elements) {
+            names.add(element.getName());
+        }
+        return names;
+    }
+
+    private static List<String> ends(Iterable<? extends ExecuteInstance> executes) {
+        final List<String> names = new ArrayList<String>();
+        for (ExecuteInstance execute: executes) {
+            names.add(execute.getRequiredEnd().getQualifiedName() + " -> " + execute.getProvidedEnd().getQualifiedName());
+        }
+        return names;
+    }
+
+}
@@ -0,0 +1,300 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.deployment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Hashtable;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.cloudml.core.*;
+
+/**
+ * The former, nested-loop version of the CloudMLModelComparator, which
+ * compares every pair of elements of the current and targeted models. It is
+ * kept as a reference to check the results of the indexed comparator and to
+ * measure its speed-up.
+ */
+public class NestedLoopModelComparator {
+
+    private static final Logger journal = Logger.getLogger(NestedLoopModelComparator.class.getName());
+
+    //Attributes related to model comparison
+    private Map<ExternalComponentInstance<? extends ExternalComponent>, ExternalComponentInstance<? extends ExternalComponent>> matchingECs = new Hashtable<ExternalComponentInstance<? extends ExternalComponent>, ExternalComponentInstance<? extends ExternalComponent>>();
+    private Map<ExternalComponentInstance<? extends ExternalComponent>,List<InternalComponentInstance>> removedECs = new Hashtable<ExternalComponentInstance<? extends ExternalComponent>,List<InternalComponentInstance>>();
+    private List<ExternalComponentInstance<? extends ExternalComponent>> addedECs = new ArrayList<ExternalComponentInstance<? extends ExternalComponent>>();
+    
+    private Map<InternalComponentInstance, InternalComponentInstance> matchingComponents = new Hashtable<InternalComponentInstance, InternalComponentInstance>();
+    private List<InternalComponentInstance> removedComponents = new ArrayList<InternalComponentInstance>();
+    private List<InternalComponentInstance> addedComponents = new ArrayList<InternalComponentInstance>();
+
+    private List<RelationshipInstance> addedRelationships = new ArrayList<RelationshipInstance>();
+    private Map<RelationshipInstance, RelationshipInstance> matchingRelationships = new Hashtable<RelationshipInstance, RelationshipInstance>();
+    private List<RelationshipInstance> removedRelationships = new ArrayList<RelationshipInstance>();
+
+    private List<ExecuteInstance> addedExecutes = new ArrayList<ExecuteInstance>();
+    private Map<ExecuteInstance, ExecuteInstance> matchingExecutes = new Hashtable<ExecuteInstance, ExecuteInstance>();
+    private List<ExecuteInstance> removedExecutes = new ArrayList<ExecuteInstance>();
+
+    //The models
+    private Deployment currentDM;
+    private Deployment targetDM;
+
+    public NestedLoopModelComparator(Deployment currentDM, Deployment targetDM) {
+        this.currentDM = currentDM;
+        this.targetDM = targetDM;
+    }
+
+    //TODO diff on attributes
+    /**
+     * Compare the targeted deployment model to the deployment model of the
+     * current system
+     */
+    public void compareCloudMLModel() {
+        compareECs();
+        journal.log(Level.INFO, ">> Removed VMs :" + removedECs.toString());
+        journal.log(Level.INFO, ">> Added VMs  :" + addedECs.toString());
+
+        compareComponents();
+        journal.log(Level.INFO, ">> Removed components: " + removedComponents.toString());
+        journal.log(Level.INFO, ">> Added components: " + addedComponents.toString());
+
+        compareRelationships();
+        journal.log(Level.INFO, ">> Removed relationships :" + removedRelationships.toString());
+        journal.log(Level.INFO, ">> Added relationships :" + addedRelationships.toString());
+        
+        compareExecutes();
+        journal.log(Level.INFO, ">> Removed executes: " + removedExecutes.toString());
+        journal.log(Level.INFO, ">> Added executes: " + addedExecutes.toString());
+    }
+
+    /**
+     * Compares the vms between the targeted and the current deployment model
+     */
+    public void compareECs() {
+        journal.log(Level.INFO, ">> Comparing ExternalComponents ...");
+        Boolean match = false;
+        for (ExternalComponentInstance ni : currentDM.getComponentInstances().onlyExternals()) {
+            secondloop:
+            {
+                for (ExternalComponentInstance ni2 : targetDM.getComponentInstances().onlyExternals()) {
+                    match = ni.equals(ni2);
+                    if (match) {
+                        matchingECs.put(ni, ni2);
+                        break secondloop;
+                    }
+                }
+            }
+            if (!match) {
+                removeEC(ni);
+            }
+        }
+        //add the rest
+        addECs();
+    }
+
+    private void removeEC(ExternalComponentInstance<? extends ExternalComponent> ni) {
+        removedECs.put(ni,currentDM.getComponentInstances().onlyInternals().hostedOn(ni).toList());
+        //create action
+
+    }
+
+    private void addECs() {
+        addedECs = new ArrayList<ExternalComponentInstance<? extends ExternalComponent>>(targetDM.getComponentInstances().onlyExternals());
+        addedECs.removeAll(matchingECs.values());
+    }
+
+    /**
+     * Compares the relationships between the targeted and the current
+     * deployment model
+     */
+    public void compareRelationships() {
+        journal.log(Level.INFO, ">> Comparing relationships ...");
+        Boolean match = false;
+        for (RelationshipInstance ni : currentDM.getRelationshipInstances()) {
+            secondloop:
+            {
+                for (RelationshipInstance ni2 : targetDM.getRelationshipInstances()) {
+                    match = ni.equals(ni2);
+                    if (ni.equals(ni2)) {
+                        matchingRelationships.put(ni, ni2);
+                        break secondloop;
+                    }
+                }
+            }
+            if (!match) {
+                removedRelationships.add(ni);
+            }
+        }
+        //add the rest
+        addRelationships();
+    }
+
+    private void addRelationships() {
+        addedRelationships = new ArrayList<RelationshipInstance>(targetDM.getRelationshipInstances());
+        addedRelationships.removeAll(matchingRelationships.values());
+        for (RelationshipInstance ni : addedRelationships) {
+            int i = currentDM.getComponentInstances().toList().indexOf(ni.getRequiredEnd().getOwner().get());
+            if (i >= 0) {
+                ComponentInstance a = currentDM.getComponentInstances().toList().get(i);
+                if (a.isInternal()) {
+                    int j = ((InternalComponentInstance) a).getRequiredPorts().toList().indexOf(ni.getRequiredEnd());
+                    ni.setRequiredEnd(((InternalComponentInstance) a).getRequiredPorts().toList().get(j));
+                }
+            }
+            i = currentDM.getComponentInstances().toList().indexOf(ni.getProvidedEnd().getOwner().get());
+            if (i >= 0) {
+                ComponentInstance a = currentDM.getComponentInstances().toList().get(i);
+                int j = a.getProvidedPorts().toList().indexOf(ni.getProvidedEnd());
+                List<ProvidedPortInstance> l = a.getProvidedPorts().toList();
+                ni.setProvidedEnd(l.get(j));
+            }
+        }
+    }
+
+    /**
+     * Compares the components between the targeted and the current deployment
+     * model
+     */
+    public void compareComponents() {
+        journal.log(Level.INFO, ">> Comparing Internal Components ...");
+        Boolean match = false;
+        for (InternalComponentInstance ni : currentDM.getComponentInstances().onlyInternals()) {
+            secondloop:
+            {
+                for (InternalComponentInstance ni2 : targetDM.getComponentInstances().onlyInternals()) {
+                    match = ni.equals(ni2);
+                    if (ni.equals(ni2) && ni.externalHost().equals(ni2.externalHost())) {
+                        matchingComponents.put(ni, ni2);
+                        break secondloop;
+                    }
+                }
+            }
+            if (!match) {
+                removedComponents.add(ni);
+            }
+        }
+        //add the rest
+        addComponents();
+    }
+
+    private void addComponents() {
+        addedComponents = new ArrayList<InternalComponentInstance>(targetDM.getComponentInstances().onlyInternals());
+        addedComponents.removeAll(matchingComponents.values());
+    }
+
+    /**
+     * Compares the executeInstances between the current and target model
+     */
+    public void compareExecutes() {
+        journal.log(Level.INFO, ">> Comparing Executes Instances ...");
+        Boolean match = false;
+        for (ExecuteInstance ei : currentDM.getExecuteInstances()) {
+            secondloop:
+            {
+                for (ExecuteInstance ei2 : targetDM.getExecuteInstances()) {
+                    match = ei.equals(ei2);
+                    if (ei.equals(ei2)) {
+                        matchingExecutes.put(ei, ei2);
+                        break secondloop;
+                    }
+                }
+            }
+            if (!match) {
+                removedExecutes.add(ei);
+            }
+        }
+        //add the rest
+        addExecutes();
+    }
+
+    private void addExecutes(){
+        addedExecutes = new ArrayList<ExecuteInstance>(targetDM.getExecuteInstances());
+        addedExecutes.removeAll(matchingExecutes.values());
+        for (ExecuteInstance ei : addedExecutes) {
+            int i = currentDM.getComponentInstances().toList().indexOf(ei.getRequiredEnd().getOwner().get());
+            if (i >= 0) {
+                ComponentInstance a = currentDM.getComponentInstances().toList().get(i);
+                ei.setRequiredEnd(((InternalComponentInstance) a).getRequiredExecutionPlatform());
+            }
+            i = currentDM.getComponentInstances().toList().indexOf(ei.getProvidedEnd().getOwner().get());
+            if (i >= 0) {
+                ComponentInstance a = currentDM.getComponentInstances().toList().get(i);
+                int j = a.getProvidedExecutionPlatforms().toList().indexOf(ei.getProvidedEnd());
+                List<ProvidedExecutionPlatformInstance> l = a.getProvidedExecutionPlatforms().toList();
+                ei.setProvidedEnd(l.get(j));
+            }
+        }
+    }
+
+
+    public List<InternalComponentInstance> getRemovedComponents() {
+        return this.removedComponents;
+    }
+
+    public List<InternalComponentInstance> getAddedComponents() {
+        return this.addedComponents;
+    }
+
+    public Map<ExternalComponentInstance<? extends ExternalComponent>,List<InternalComponentInstance>> getRemovedECs() {
+        return this.removedECs;
+    }
+
+    public List<ExternalComponentInstance<? extends ExternalComponent>> getAddedECs() {
+        return this.addedECs;
+    }
+
+    public List<RelationshipInstance> getRemovedRelationships() {
+        return this.removedRelationships;
+    }
+
+    public List<RelationshipInstance> getAddedRelationships() {
+        return this.addedRelationships;
+    }
+
+    public List<ExecuteInstance> getRemovedExecutes(){
+        return this.removedExecutes;
+    }
+
+    public List<ExecuteInstance> getAddedExecutes(){
+        return this.addedExecutes;
+    }
+
+    public Map<ExecuteInstance,ExecuteInstance> getMatchingExecutes(){
+        return this.matchingExecutes;
+    }
+
+    public Map<RelationshipInstance, RelationshipInstance> getMatchingRelationships() {
+        return this.matchingRelationships;
+    }
+
+    public Map<InternalComponentInstance, InternalComponentInstance> getMatchingComponents() {
+        return this.matchingComponents;
+    }
+
+    public Map<ExternalComponentInstance<? extends ExternalComponent>, ExternalComponentInstance<? extends ExternalComponent>> getMatchingECs() {
+        return this.matchingECs;
+    }
+}
@@ -0,0 +1,89 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.deployment;
+
+import org.cloudml.core.Deployment;
+import org.cloudml.core.PuppetResource;
+import org.cloudml.core.VMInstance;
+import org.cloudml.deployer.PuppetManifestGenerator;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.Matchers.*;
+import static org.hamcrest.MatcherAssert.*;
+
+import static org.cloudml.core.samples.SshClientServer.*;
+
+@RunWith(JUnit4.class)
+public class PuppetManifestGeneratorTest {
+
+    private PuppetResource withPuppet(Deployment deployment, String entry) {
+        final PuppetResource puppet = new PuppetResource("puppet");
+        puppet.setManifestEntry(entry);
+        deployment.getComponents().firstNamed(SSH_CLIENT).getResources().add(puppet);
+        return puppet;
+    }
+
+    private VMInstance vm(Deployment deployment, String name) {
+        return deployment.getComponentInstances().onlyVMs().firstNamed(name);
+    }
+
+    @Test
+    public void manifestsGatherTheEntriesOfTheHostedComponents() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final PuppetResource puppet = withPuppet(deployment, "include ssh");
+
+        final PuppetManifestGenerator.Manifest manifest = new PuppetManifestGenerator(deployment).manifestOf(vm(deployment, VM_OF_CLIENT_1));
+
+        assertThat(manifest.isEmpty(), is(false));
+        assertThat(manifest.getContent(), startsWith("node '" + VM_OF_CLIENT_1 + "' {"));
+        assertThat(manifest.getContent(), containsString("include ssh"));
+        assertThat(manifest.getSkeleton(), is(sameInstance(puppet)));
+    }
+
+    @Test
+    public void manifestsOfVMsWithoutPuppetAreEmpty() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        withPuppet(deployment, "include ssh");
+
+        final PuppetManifestGenerator.Manifest manifest = new PuppetManifestGenerator(deployment).manifestOf(vm(deployment, VM_OF_SERVER_1));
+
+        assertThat(manifest.isEmpty(), is(true));
+    }
+
+    @Test
+    public void digestsOnlyChangeWithTheContent() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final PuppetResource puppet = withPuppet(deployment, "include ssh");
+        final String before = new PuppetManifestGenerator(deployment).manifestOf(vm(deployment, VM_OF_CLIENT_1)).getDigest();
+
+        assertThat(new PuppetManifestGenerator(deployment).manifestOf(vm(deployment, VM_OF_CLIENT_1)).getDigest(), is(equalTo(before)));
+        assertThat(new PuppetManifestGenerator(deployment).manifestOf(vm(deployment, VM_OF_CLIENT_2)).getDigest(), is(not(equalTo(before))));
+
+        puppet.setManifestEntry("include openssh");
+
+        assertThat(new PuppetManifestGenerator(deployment).manifestOf(vm(deployment, VM_OF_CLIENT_1)).getDigest(), is(not(equalTo(before))));
+    }
+
+}
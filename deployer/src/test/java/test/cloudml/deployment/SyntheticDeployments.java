@@ -0,0 +1,107 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.deployment;
+
+import org.cloudml.core.*;
+import org.cloudml.core.builders.DeploymentBuilder;
+
+import static org.cloudml.core.builders.Commons.*;
+import static org.cloudml.core.samples.SshClientServer.*;
+
+/**
+ * Build large deployment models made of independent SSH client/server pairs,
+ * where each pair contributes four component instances (two VMs, one client
+ * and one server), one relationship and two executes.
+ */
+public class SyntheticDeployments {
+
+    public static final int INSTANCES_PER_PAIR = 4;
+
+    /**
+     * @return a deployment containing the pairs numbered from 'first'
+     * (included) to 'last' (excluded)
+     */
+    public static Deployment pairs(int first, int last) {
+        final DeploymentBuilder builder = getSshTypes();
+        for (int i = first; i < last; i++) {
+            builder.with(aVMInstance()
+                    .named("client vm " + i)
+                    .ofType(EC2_LARGE_LINUX))
+                    .with(aVMInstance()
+                    .named("server vm " + i)
+                    .ofType(EC2_XLARGE_WINDOWS_7))
+                    .with(anInternalComponentInstance()
+                    .named("client " + i)
+                    .ofType(SSH_CLIENT)
+                    .hostedBy("client vm " + i))
+                    .with(anInternalComponentInstance()
+                    .named("server " + i)
+                    .ofType(SSH_SERVER)
+                    .hostedBy("server vm " + i))
+                    .with(aRelationshipInstance()
+                    .named("ssh " + i)
+                    .ofType(SSH_CONNECTION)
+                    .from("client " + i, CLIENT_PORT)
+                    .to("server " + i, SERVER_PORT));
+        }
+        return build(builder);
+    }
+
+    /**
+     * The builders give random names to port and platform instances, which
+     * would then never match from one model to another. As the codecs do, we
+     * rather name them after their type.
+     */
+    public static Deployment build(DeploymentBuilder builder) {
+        final Deployment deployment = builder.build();
+        for (ComponentInstance<? extends Component> instance: deployment.getComponentInstances()) {
+            for (ProvidedPortInstance port: instance.getProvidedPorts()) {
+                port.setName(port.getType().getName());
+            }
+            for (ProvidedExecutionPlatformInstance platform: instance.getProvidedExecutionPlatforms()) {
+                platform.setName(platform.getType().getName());
+            }
+            if (instance.isInternal()) {
+                final InternalComponentInstance internal = instance.asInternal();
+                for (RequiredPortInstance port: internal.getRequiredPorts()) {
+                    port.setName(port.getType().getName());
+                }
+                internal.getRequiredExecutionPlatform().setName(internal.getRequiredExecutionPlatform().getType().getName());
+            }
+        }
+        return deployment;
+    }
+
+    /**
+     * @return a pair of deployments (current, target) with roughly the given
+     * number of component instances each, where the target drops the first
+     * 'churn' percent of the pairs of the current model and adds as many new
+     * ones
+     */
+    public static Deployment[] adaptation(int instances, int churn) {
+        final int pairs = Math.max(1, instances / INSTANCES_PER_PAIR);
+        final int shift = pairs * churn / 100;
+        return new Deployment[]{pairs(0, pairs), pairs(shift, pairs + shift)};
+    }
+
+}
@@ -0,0 +1,159 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.facade;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.cloudml.facade.commands.Footprint;
+
+/**
+ * Run the commands submitted to the facade on a bounded pool of threads.
+ * Commands whose footprints do not conflict run in parallel, whereas a command
+ * that conflicts with a running or an earlier pending command waits for it to
+ * complete, so that conflicting commands still run in the order they were
+ * submitted.
+ */
+class CommandScheduler {
+
+    private static final Logger journal = Logger.getLogger(CommandScheduler.class.getName());
+
+    private static final int THREADS = Integer.getInteger("cloudml.facade.threads", 4);
+
+    private final ExecutorService pool;
+    private final LinkedList<Task> pending = new LinkedList<Task>();
+    private final List<Task> running = new ArrayList<Task>();
+
+    public CommandScheduler() {
+        this(THREADS);
+    }
+
+    public CommandScheduler(int threads) {
+        this.pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    public Future<Boolean> submit(Execution execution) {
+        final Task task = new Task(execution);
+        synchronized (this) {
+            pending.add(task);
+            dispatch();
+        }
+        return task;
+    }
+
+    public synchronized void shutdown() {
+        pool.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    public void shutdownNow() {
+        final List<Task> cancelled;
+        synchronized (this) {
+            pool.shutdownNow();
+            cancelled = new ArrayList<Task>(pending);
+            pending.clear();
+        }
+        for (Task task: cancelled) {
+            task.cancel(false);
+        }
+    }
+
+    /**
+     * Start, in order, every pending command that conflicts neither with a
+     * running command nor with a command submitted before it
+     */
+    private synchronized void dispatch() {
+        final List<Task> ahead = new ArrayList<Task>();
+        final Iterator<Task> iterator = pending.iterator();
+        while (iterator.hasNext()) {
+            final Task task = iterator.next();
+            if (conflicts(task, running) || conflicts(task, ahead)) {
+                ahead.add(task);
+                continue;
+            }
+            iterator.remove();
+            if (pool.isShutdown()) {
+                task.cancel(false);
+                continue;
+            }
+            running.add(task);
+            pool.execute(task);
+        }
+    }
+
+    private synchronized void completed(Task task) {
+        if (running.remove(task)) {
+            dispatch();
+        }
+    }
+
+    private static boolean conflicts(Task task, List<Task> others) {
+        for (Task other: others) {
+            if (task.getFootprint().conflictsWith(other.getFootprint())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A submitted command, which releases its footprint once run
+     */
+    private class Task extends FutureTask<Boolean> {
+
+        private final Execution execution;
+        private final Footprint footprint;
+
+        public Task(Execution execution) {
+            super(execution, true);
+            this.execution = execution;
+            this.footprint = execution.getCommand().getFootprint();
+        }
+
+        public Footprint getFootprint() {
+            return footprint;
+        }
+
+        @Override
+        protected void done() {
+            if (!isCancelled()) {
+                journal.log(Level.INFO, String.format("Command '%s' waited %d ms and ran in %d ms",
+                        execution.getCommand(), execution.getQueueTime(), execution.getRunTime()));
+            }
+            completed(this);
+        }
+
+    }
+
+}
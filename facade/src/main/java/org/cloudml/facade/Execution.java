@@ -22,6 +22,7 @@
  */
 package org.cloudml.facade;
 
+import java.util.concurrent.TimeUnit;
 import org.cloudml.facade.commands.CloudMlCommand;
 import org.cloudml.facade.commands.CommandHandler;
 import org.cloudml.mrt.Coordinator;
@@ -37,6 +38,9 @@ public class Execution implements Runnable {
     private final CommandHandler handler;
     private boolean completed;
     private final long timeout;
+    private final long submittedAt;
+    private volatile long startedAt = -1L;
+    private volatile long finishedAt = -1L;
 
     public Execution(CloudMlCommand command, CommandHandler handler) {
         this(command, handler, NO_TIMEOUT);
@@ -47,6 +51,11 @@ public class Execution implements Runnable {
         this.handler = handler;
         this.completed = false;
         this.timeout = timeout;
+        this.submittedAt = System.nanoTime();
+    }
+
+    public CloudMlCommand getCommand() {
+        return command;
     }
 
 
@@ -67,9 +76,47 @@ public class Execution implements Runnable {
         return timeout;
     }
 
+    /**
+     * @return the time, in milliseconds, the command waited before it started,
+     * or has been waiting so far
+     */
+    public long getQueueTime() {
+        final long start = (startedAt < 0) ? System.nanoTime() : startedAt;
+        return TimeUnit.NANOSECONDS.toMillis(start - submittedAt);
+    }
+
+    /**
+     * @return the time, in milliseconds, the command took to run, or has been
+     * running so far. Zero if it has not started yet.
+     */
+    public long getRunTime() {
+        if (startedAt < 0) {
+            return 0L;
+        }
+        final long end = (finishedAt < 0) ? System.nanoTime() : finishedAt;
+        return TimeUnit.NANOSECONDS.toMillis(end - startedAt);
+    }
+
+    /**
+     * The commands that modify the model do it in place, so the coordinator is
+     * told when they start and stop, as its change log does not describe what
+     * they change
+     */
     @Override
     public void run() {
-        command.execute(handler);
+        startedAt = System.nanoTime();
+        final Coordinator coordinator = command.getFootprint().isWriting() ? handler.getCoordinator() : null;
+        if (coordinator != null) {
+            coordinator.beginWritingInPlace();
+        }
+        try {
+            command.execute(handler);
+        } finally {
+            if (coordinator != null) {
+                coordinator.endWritingInPlace();
+            }
+            finishedAt = System.nanoTime();
+        }
         markAsCompleted();
     }
 
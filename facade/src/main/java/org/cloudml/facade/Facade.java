@@ -69,7 +69,7 @@ class Facade implements CloudML, CommandHandler {
     private static final Logger journal = Logger.getLogger(Facade.class.getName());
 
     private final List<EventHandler> handlers = Collections.synchronizedList(new ArrayList<EventHandler>());
-    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final CommandScheduler executor = new CommandScheduler();
     private Deployment deploy;
     private boolean stopOnTimeout = false;
     private final CloudAppDeployer deployer;
@@ -111,7 +111,7 @@ class Facade implements CloudML, CommandHandler {
     @Override
     public Execution fireAndWait(CloudMlCommand command) {
         final Execution execution = new Execution(command, this);
-        final Future<Boolean> done = executor.submit(execution, true);
+        final Future<Boolean> done = executor.submit(execution);
         try {
             if (execution.getTimeout() > -1) {
                 dispatch(new Message(command, Category.INFORMATION, "Will wait (max) for " + execution.getTimeout() + " ms..."));
@@ -392,7 +392,7 @@ class Facade implements CloudML, CommandHandler {
     public void handle(Upload command) {
         if (isDeploymentLoaded()) {
             ExternalComponentInstance ownerVM = null;
-            for (ExternalComponentInstance ni: deploy.getComponentInstances().onlyExternals()) {
+            for (ExternalComponentInstance ni: deploy.getComponentInstances().onlyExternals().toList()) {
                 if (ni.getName().equals(command.getArtifactId())) {
                     ownerVM = ni;
                 }
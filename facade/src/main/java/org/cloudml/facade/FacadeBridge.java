@@ -26,11 +26,14 @@ package org.cloudml.facade;
 
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.cloudml.core.Deployment;
 import org.cloudml.facade.commands.CloudMlCommand;
 import org.cloudml.facade.commands.CommandFactory;
+import org.cloudml.mrt.ModelDelta;
 import org.cloudml.mrt.ModelRepo;
 
 /**
@@ -39,9 +42,23 @@ import org.cloudml.mrt.ModelRepo;
  */
 public class FacadeBridge implements ModelRepo {
     
+    private static final String JSON_STRING_PREFIX = "json-string:";
+    private static final String JSON_DELTA_PREFIX = "json-delta:";
+    private static final int KNOWN_UPLOADS = 4;
+
     CloudML facade = null;
     CommandFactory factory = null;
     String longContent = null;
+    /**
+     * The last models uploaded by the peers, by digest, against which they
+     * can send deltas
+     */
+    private final Map<String, String> uploads = new LinkedHashMap<String, String>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > KNOWN_UPLOADS;
+        }
+    };
     
     public FacadeBridge(){
         facade = Factory.getInstance().getCloudML();
@@ -62,7 +79,7 @@ public class FacadeBridge implements ModelRepo {
                 return "###Waiting for Deployment Content";
             }
             String param = params.iterator().next();
-            command = factory.loadDeployment(param);
+            command = factory.loadDeployment(expand(param));
         }
         else if("Deploy".equals(name)){
             command = factory.deploy();
@@ -129,6 +146,42 @@ public class FacadeBridge implements ModelRepo {
         return null;
     }
 
+    /**
+     * Rebuild the whole model uploaded as a delta, formatted as
+     * "json-delta:[base digest]:[model digest]:[delta]", and remember the
+     * models uploaded so that later deltas can refer to them. A model that
+     * does not match the digest announced by the peer is rejected, so that
+     * the peer sends the whole model instead.
+     *
+     * Only the upload itself scales with the size of the change: the model
+     * rebuilt is then loaded as a whole, as the facade merges it into the
+     * current deployment by comparing both models entirely.
+     */
+    private String expand(String param) {
+        final String content = param.trim();
+        if (content.startsWith(JSON_DELTA_PREFIX)) {
+            final String[] parts = content.substring(JSON_DELTA_PREFIX.length()).split(":", 3);
+            if (parts.length < 3) {
+                throw new IllegalArgumentException("Invalid model delta");
+            }
+            final String base = uploads.get(parts[0]);
+            if (base == null) {
+                throw new IllegalStateException("Unknown base model " + parts[0] + ", the whole model is needed");
+            }
+            final String model = ModelDelta.parse(parts[2]).applyTo(base);
+            if (!ModelDelta.digestOf(model).equals(parts[1])) {
+                throw new IllegalStateException("The model rebuilt from the delta does not match " + parts[1] + ", the whole model is needed");
+            }
+            uploads.put(parts[1], model);
+            return JSON_STRING_PREFIX + model;
+        }
+        if (content.startsWith(JSON_STRING_PREFIX)) {
+            final String model = content.substring(JSON_STRING_PREFIX.length()).trim();
+            uploads.put(ModelDelta.digestOf(model), model);
+        }
+        return param;
+    }
+
 
     
 }
@@ -23,10 +23,12 @@
 package org.cloudml.facade;
 
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.nio.file.Files;
@@ -48,6 +50,9 @@ import org.cloudml.facade.events.EventHandler;
 import org.cloudml.facade.events.Message;
 import org.cloudml.facade.util.WSClient;
 import org.cloudml.mrt.Coordinator;
+import org.cloudml.mrt.ModelDelta;
+import org.cloudml.mrt.cmd.gen.Ack;
+import org.cloudml.mrt.cmd.gen.CloudMLCmds;
 
 /**
  * Created by nicolasf on 17.02.15.
@@ -55,8 +60,14 @@ import org.cloudml.mrt.Coordinator;
 public class RemoteFacade extends Facade{
 
     private static final Logger journal = Logger.getLogger(RemoteFacade.class.getName());
+    private static final long REPLY_TIMEOUT = Long.getLong("cloudml.remote.replyTimeout", 60000L);
     private WSClient wsClient;
     private Thread t;
+    private String uploadedModel = null;
+    private String uploadedDigest = null;
+    private String syncedModel = null;
+    private long syncedVersion = 0;
+    private Deployment syncedDeployment = null;
 
     public RemoteFacade(String serverURI){
         super();
@@ -79,19 +90,76 @@ public class RemoteFacade extends Facade{
         wsClient.close();
     }
 
+    /**
+     * Send the given request to the server. If the server speaks the compact
+     * protocol, wait until it has processed the request, so that the next one
+     * is not sent before.
+     *
+     * @return false if the server reported a failure or did not reply in time
+     */
+    private boolean submit(CloudMlCommand command, String request) {
+        final String reply = exchange(command, request);
+        if (reply == null) {
+            return false;
+        }
+        final String failure = failureIn(reply);
+        if (failure != null) {
+            dispatch(new Message(command, Message.Category.ERROR, "The CloudML server " + failure));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the reply of the server to the given request, an empty string
+     * if the server does not speak the compact protocol, or null if it did not
+     * reply in time
+     */
+    private String exchange(CloudMlCommand command, String request) {
+        try {
+            final String reply = wsClient.request(request, REPLY_TIMEOUT);
+            if (!wsClient.isCompact()) {
+                return "";
+            }
+            if (reply == null) {
+                dispatch(new Message(command, Message.Category.ERROR, "No reply from the CloudML server within " + REPLY_TIMEOUT + " ms"));
+            }
+            return reply;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * @return the status of the failure the given reply reports, or null if
+     * the request succeeded
+     */
+    private static String failureIn(String reply) {
+        if (reply.startsWith("!ack")) {
+            final Object ack = CloudMLCmds.INSTANCE.load(reply);
+            if (ack instanceof Ack && ((Ack) ack).status != null && ((Ack) ack).status.startsWith("failed")) {
+                return ((Ack) ack).status;
+            }
+        }
+        return null;
+    }
+
     @Override
     public void handle(StartComponent command) {
-        wsClient.send("!extended { name: StartComponent, params: ["+command.getComponentId()+"] }");
+        submit(command, "!extended { name: StartComponent, params: ["+command.getComponentId()+"] }");
     }
 
     @Override
     public void handle(StopComponent command) {
-        wsClient.send("!extended { name: StopComponent, params: ["+command.getComponentId()+"] }");
+        submit(command, "!extended { name: StopComponent, params: ["+command.getComponentId()+"] }");
     }
 
     @Override
     public void handle(LoadDeployment command) {
-        wsClient.send("!extended { name : LoadDeployment }");
+        if (!submit(command, "!extended { name : LoadDeployment }")) {
+            return;
+        }
         final File f = new File(command.getPathToModel());
         try {
             String json=new String(Files.readAllBytes(f.toPath()));
@@ -121,8 +189,10 @@ public class RemoteFacade extends Facade{
             JsonCodec jsonCodec=new JsonCodec();
             ByteArrayOutputStream baos=new ByteArrayOutputStream();
             jsonCodec.save(temp,baos);
-            wsClient.send("!additional json-string:" + baos.toString());
-            Thread.sleep(3000);
+            upload(command, baos.toString().trim());
+            if (!wsClient.isCompact()) {
+                Thread.sleep(3000); // the server does not acknowledge, give it time to load the model
+            }
         } catch (IOException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
@@ -130,6 +200,72 @@ public class RemoteFacade extends Facade{
         }
     }
 
+    /**
+     * Upload the given model as a delta against the last model uploaded, if
+     * the server still knows it, or as a whole otherwise
+     */
+    private void upload(LoadDeployment command, String model) {
+        final String digest = ModelDelta.digestOf(model);
+        synchronized (this) {
+            if (wsClient.isCompact() && uploadedModel != null) {
+                final ModelDelta delta = ModelDelta.between(uploadedModel, model);
+                final String reply = exchange(command, "!additional json-delta:" + uploadedDigest + ":" + digest + ":" + delta);
+                if (reply == null) {
+                    return;
+                }
+                if (failureIn(reply) == null) {
+                    uploadedModel = model;
+                    uploadedDigest = digest;
+                    return;
+                }
+                journal.log(Level.INFO, "The server no longer knows the last model uploaded, sending the whole model");
+                if (!submit(command, "!extended { name : LoadDeployment }")) {
+                    return;
+                }
+            }
+            if (submit(command, "!additional json-string:" + model)) {
+                uploadedModel = model;
+                uploadedDigest = digest;
+            }
+        }
+    }
+
+    /**
+     * Bring the local copy of the model up to date with the given snapshot,
+     * which is either the whole model or a delta against the local copy
+     */
+    private synchronized void sync(org.cloudml.mrt.cmd.gen.Snapshot snapshot) {
+        if (snapshot.content == null || snapshot.version == null) {
+            return;
+        }
+        final String content = snapshot.content.toString();
+        if (snapshot.base == null) {
+            syncedModel = content;
+        } else if (syncedModel != null && snapshot.base.longValue() == syncedVersion) {
+            syncedModel = ModelDelta.parse(content).applyTo(syncedModel);
+        } else {
+            journal.log(Level.WARNING, "Ignoring a delta against unknown version " + snapshot.base);
+            return;
+        }
+        syncedVersion = snapshot.version;
+        syncedDeployment = null;
+    }
+
+    /**
+     * @return the model of the server, as of the last GetDeployment command
+     */
+    @Override
+    public synchronized Deployment getDeploymentModel() {
+        if (syncedDeployment == null && syncedModel != null) {
+            try {
+                syncedDeployment = (Deployment) new JsonCodec().load(new ByteArrayInputStream(syncedModel.getBytes("UTF-8")));
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return syncedDeployment;
+    }
+
     @Override
     public void handle(StoreDeployment command) {
         dispatch(new Message(command, Message.Category.INFORMATION, "Most relevant approach getSnapshot and then load using codec. Then you can fully exploit the whole model facilities offered by CloudML"));
@@ -138,14 +274,33 @@ public class RemoteFacade extends Facade{
 
     @Override
     public void handle(Deploy command) {
-        wsClient.send("!listenToAny");
-        wsClient.send("!extended { name : Deploy }");
+        submit(command, "!listenToAny");
+        submit(command, "!extended { name : Deploy }");
     }
 
+    /**
+     * Fetch the model of the server, only as the changes made since the last
+     * version fetched when the server speaks the compact protocol
+     */
     @Override
     public void handle(GetDeployment command) {
-        wsClient.send("!getSnapshot\n" +
-                "  path : /");
+        if (!wsClient.isCompact()) {
+            submit(command, "!getSnapshot\n" +
+                    "  path : /");
+            return;
+        }
+        final long since;
+        synchronized (this) {
+            since = syncedVersion;
+        }
+        final String reply = exchange(command, "!getSnapshot { path : /, since : " + since + " }");
+        if (reply == null || reply.indexOf('\n') < 0 || failureIn(reply) != null) {
+            return;
+        }
+        final Object snapshot = CloudMLCmds.INSTANCE.load(reply.substring(reply.indexOf('\n') + 1));
+        if (snapshot instanceof org.cloudml.mrt.cmd.gen.Snapshot) {
+            sync((org.cloudml.mrt.cmd.gen.Snapshot) snapshot);
+        }
     }
 
     @Override
@@ -160,13 +315,13 @@ public class RemoteFacade extends Facade{
 
     @Override
     public void handle(ViewComponent command) {
-        wsClient.send("!getSnapshot\n" +
+        submit(command, "!getSnapshot\n" +
                 "  path : /component[name='"+command.getComponentId()+"']");
     }
 
     @Override
     public void handle(ViewComponentInstance command) {
-        wsClient.send("!getSnapshot\n" +
+        submit(command, "!getSnapshot\n" +
                 "  path : /componentInstances[name='"+command.getComponentId()+"']");
     }
 
@@ -177,22 +332,22 @@ public class RemoteFacade extends Facade{
 
     @Override
     public void handle(Snapshot command) {
-        wsClient.send("!extended { name: Snapshot, params: ["+command.getVmId()+"] }");
+        submit(command, "!extended { name: Snapshot, params: ["+command.getVmId()+"] }");
     }
 
     @Override
     public void handle(ScaleOut command) {
-        wsClient.send("!extended { name: ScaleOut, params: ["+command.getVmId()+"] }");
+        submit(command, "!extended { name: ScaleOut, params: ["+command.getVmId()+"] }");
     }
 
     @Override
     public void handle(Image command) {
-        wsClient.send("!extended { name: Image, params: ["+command.getVmId()+"] }");
+        submit(command, "!extended { name: Image, params: ["+command.getVmId()+"] }");
     }
 
     @Override
     public void handle(Reset command) {
-        wsClient.send("!extended { name : Reset }");
+        submit(command, "!extended { name : Reset }");
     }
 
     @Override
@@ -207,16 +362,16 @@ public class RemoteFacade extends Facade{
 
     @Override
     public void handle(Burst command) {
-        wsClient.send("!extended { name: Burst, params: ["+command.getEcId()+","+command.getProviderID()+"] }");
+        submit(command, "!extended { name: Burst, params: ["+command.getEcId()+","+command.getProviderID()+"] }");
     }
 
     @Override
     public void handle(offlineMigration command) {
-        wsClient.send("!extended { name: OfflineDataMigration, params: ["+command.getSource()+","+command.getDestination()+","+command.getNbThread()+"] }");
+        submit(command, "!extended { name: OfflineDataMigration, params: ["+command.getSource()+","+command.getDestination()+","+command.getNbThread()+"] }");
     }
 
     @Override
     public void handle(onlineMigration command) {
-        wsClient.send("!extended { name: OnlineDataMigration, params: ["+command.getSource()+","+command.getDestination()+","+command.getNbThread()+","+command.getVdpSize()+"] }");
+        submit(command, "!extended { name: OnlineDataMigration, params: ["+command.getSource()+","+command.getDestination()+","+command.getNbThread()+","+command.getVdpSize()+"] }");
     }
 }
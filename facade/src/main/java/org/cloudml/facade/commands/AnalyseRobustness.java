@@ -56,6 +56,11 @@ public class AnalyseRobustness extends CloudMlCommand {
         target.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.readingWholeDeployment();
+    }
+
     @Override
     public String toString() {
         return String.format("analyse robustness");
@@ -49,6 +49,11 @@ public class Burst extends CloudMlCommand {
         handler.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.reshaping(ecId);
+    }
+
     @Override
     public String toString() {
         return String.format("Burst %s to %s", ecId, providerID);
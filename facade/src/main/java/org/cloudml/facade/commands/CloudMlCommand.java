@@ -38,6 +38,15 @@ public abstract class CloudMlCommand {
 
     public abstract void execute(CommandHandler target);
 
+    /**
+     * @return the parts of the deployment model this command accesses. By
+     * default, a command may modify the whole model and never runs along
+     * with any other command that accesses it.
+     */
+    public Footprint getFootprint() {
+        return Footprint.wholeDeployment();
+    }
+
     /*
      * The equality of commands is computed on the associated string. Two
      * commands that serialize the same are equals.
@@ -42,6 +42,11 @@ public class DebugMode extends CloudMlCommand {
         target.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.nothing();
+    }
+
     @Override
     public String toString() {
         return String.format("DebugMode");
@@ -0,0 +1,143 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.facade.commands;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The parts of the deployment model that a command reads and writes. The
+ * facade runs together the commands whose footprints do not conflict, and
+ * queues the others in the order they were issued.
+ *
+ * Parts are identified by the ID of the component instance they relate to,
+ * or denote the whole deployment. Besides, the commands that access the
+ * model all read its topology (that is, which instances it holds and how
+ * they are connected), which the commands adding or removing instances
+ * write.
+ */
+public final class Footprint {
+
+    private static final String EVERYTHING = "*";
+    private static final String TOPOLOGY = "+";
+
+    private static final Footprint NOTHING = new Footprint(Collections.<String>emptySet(), Collections.<String>emptySet());
+    private static final Footprint WHOLE_DEPLOYMENT = writing(EVERYTHING);
+    private static final Footprint WHOLE_DEPLOYMENT_READ = reading(EVERYTHING);
+
+    /**
+     * The footprint of commands that do not access the deployment model
+     */
+    public static Footprint nothing() {
+        return NOTHING;
+    }
+
+    /**
+     * The footprint of commands that read any part of the deployment model,
+     * such as listings and views. They run along with each other, but not
+     * with the commands that modify the model.
+     */
+    public static Footprint readingWholeDeployment() {
+        return WHOLE_DEPLOYMENT_READ;
+    }
+
+    /**
+     * The footprint of commands that may modify any part of the deployment
+     * model, or replace it altogether. This is the default.
+     */
+    public static Footprint wholeDeployment() {
+        return WHOLE_DEPLOYMENT;
+    }
+
+    public static Footprint reading(String... instanceIds) {
+        return reading(Arrays.asList(instanceIds));
+    }
+
+    public static Footprint reading(Collection<String> instanceIds) {
+        final Set<String> reads = new HashSet<String>(instanceIds);
+        reads.add(TOPOLOGY);
+        return new Footprint(reads, Collections.<String>emptySet());
+    }
+
+    public static Footprint writing(String... instanceIds) {
+        return writing(Arrays.asList(instanceIds));
+    }
+
+    public static Footprint writing(Collection<String> instanceIds) {
+        return new Footprint(Collections.singleton(TOPOLOGY), new HashSet<String>(instanceIds));
+    }
+
+    /**
+     * The footprint of commands that modify the given instances and add or
+     * remove instances in the deployment, such as scaling out a VM
+     */
+    public static Footprint reshaping(String... instanceIds) {
+        final Set<String> writes = new HashSet<String>(Arrays.asList(instanceIds));
+        writes.add(TOPOLOGY);
+        return new Footprint(Collections.<String>emptySet(), writes);
+    }
+
+    private final Set<String> reads;
+    private final Set<String> writes;
+
+    private Footprint(Set<String> reads, Set<String> writes) {
+        this.reads = Collections.unmodifiableSet(reads);
+        this.writes = Collections.unmodifiableSet(writes);
+    }
+
+    /**
+     * @return true if the two commands cannot safely run at the same time,
+     * that is if one writes a part of the model the other one accesses
+     */
+    public boolean conflictsWith(Footprint other) {
+        return overlap(writes, other.writes)
+                || overlap(writes, other.reads)
+                || overlap(reads, other.writes);
+    }
+
+    /**
+     * @return true if the command may modify the deployment model
+     */
+    public boolean isWriting() {
+        return !writes.isEmpty();
+    }
+
+    private static boolean overlap(Set<String> left, Set<String> right) {
+        if (left.isEmpty() || right.isEmpty()) {
+            return false;
+        }
+        if (left.contains(EVERYTHING) || right.contains(EVERYTHING)) {
+            return true;
+        }
+        return !Collections.disjoint(left, right);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("reads %s, writes %s", reads, writes);
+    }
+
+}
@@ -33,6 +33,11 @@ public class GetDeployment extends CloudMlCommand  {
         handler.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.readingWholeDeployment();
+    }
+
     @Override
     public String toString() {
         return "Get deployment model";
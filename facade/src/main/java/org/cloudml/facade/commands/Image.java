@@ -42,6 +42,11 @@ public class Image extends CloudMlCommand {
         return vmId;
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.reading(vmId);
+    }
+
     @Override
     public String toString() {
         return String.format("create image from %s", vmId);
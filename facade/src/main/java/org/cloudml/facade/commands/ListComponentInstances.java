@@ -32,6 +32,11 @@ public class ListComponentInstances extends CloudMlCommand {
         handler.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.readingWholeDeployment();
+    }
+
     @Override
     public String toString() {
         return "list instances";
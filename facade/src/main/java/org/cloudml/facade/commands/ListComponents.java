@@ -35,6 +35,11 @@ public class ListComponents extends CloudMlCommand {
         handler.handle(this); 
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.readingWholeDeployment();
+    }
+
     @Override
     public String toString() {
         return "list types";
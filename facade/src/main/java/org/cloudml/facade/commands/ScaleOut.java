@@ -48,6 +48,11 @@ public class ScaleOut extends CloudMlCommand {
         return vmId;
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.reshaping(vmId);
+    }
+
     @Override
     public String toString() {
         return String.format("snapshot %s", vmId);
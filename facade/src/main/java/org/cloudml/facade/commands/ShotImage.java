@@ -42,6 +42,11 @@ public class ShotImage extends CloudMlCommand {
         return pathToSnapshot;
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.readingWholeDeployment();
+    }
+
     @Override
     public String toString() {
         return String.format("shot to %s", pathToSnapshot);
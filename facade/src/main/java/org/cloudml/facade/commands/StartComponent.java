@@ -48,6 +48,11 @@ public class StartComponent extends CloudMlCommand {
         target.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.writing(componentId);
+    }
+
     @Override
     public String toString() {
         return String.format("start %s", componentId);
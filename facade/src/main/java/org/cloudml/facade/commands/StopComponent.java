@@ -52,6 +52,11 @@ public class StopComponent extends CloudMlCommand {
         target.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.writing(componentId);
+    }
+
     @Override
     public String toString() {
         return String.format("stop %s", componentId);
@@ -52,6 +52,11 @@ public class StoreDeployment extends CloudMlCommand {
         return destination;
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.readingWholeDeployment();
+    }
+
     @Override
     public String toString() {
         return String.format("store deployment to %s", destination);
@@ -69,6 +69,11 @@ public class ValidateCommand extends CloudMlCommand {
         target.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.readingWholeDeployment();
+    }
+
     @Override
     public String toString() {
         final String warnings = (mustReportWarnings() ? "" : " no warnings");
@@ -51,6 +51,11 @@ public class ViewComponentInstance extends CloudMlCommand {
         handler.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.readingWholeDeployment();
+    }
+
     @Override
     public String toString() {
         return String.format("view instance %s", instanceId);
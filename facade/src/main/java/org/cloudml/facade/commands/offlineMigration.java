@@ -57,6 +57,11 @@ public class offlineMigration extends CloudMlCommand {
         target.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.nothing();
+    }
+
     @Override
     public String toString() {
         return "offlineMigration from"+source+" to "+destination;
@@ -63,6 +63,11 @@ public class onlineMigration extends CloudMlCommand {
         target.handle(this);
     }
 
+    @Override
+    public Footprint getFootprint() {
+        return Footprint.nothing();
+    }
+
     @Override
     public String toString() {
         return "onlineMigration from"+source+" to "+destination;
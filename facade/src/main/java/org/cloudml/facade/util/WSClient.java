@@ -24,11 +24,20 @@ package org.cloudml.facade.util;
 
 import org.cloudml.facade.RemoteFacade;
 import org.cloudml.facade.events.Message;
+import org.cloudml.mrt.CompactFrame;
 import org.java_websocket.client.WebSocketClient;
 import org.java_websocket.drafts.Draft_17;
 import org.java_websocket.handshake.ServerHandshake;
 
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -40,15 +49,19 @@ public class WSClient extends WebSocketClient {
     private Boolean connected=false;
     private static final Logger journal = Logger.getLogger(WSClient.class.getName());
     private final RemoteFacade facade;
+    private volatile boolean compact = false;
+    private final AtomicInteger lastCorrelationId = new AtomicInteger(CompactFrame.UNCORRELATED);
+    private final ConcurrentMap<Integer, BlockingQueue<String>> pendingReplies = new ConcurrentHashMap<Integer, BlockingQueue<String>>();
 
     public WSClient(URI serverURI, RemoteFacade facade) throws InterruptedException {
-        super(serverURI,new Draft_17());
+        super(serverURI, new Draft_17(), Collections.singletonMap(CompactFrame.PROTOCOL_HEADER, CompactFrame.PROTOCOL), 0);
         this.facade=facade;
     }
 
     @Override
     public void onOpen(ServerHandshake serverHandshake) {
-        journal.log(Level.INFO, ">> Connected to the CloudML server");
+        compact = CompactFrame.PROTOCOL.equals(serverHandshake.getFieldValue(CompactFrame.PROTOCOL_HEADER));
+        journal.log(Level.INFO, ">> Connected to the CloudML server" + (compact ? " (compact protocol)" : ""));
         connected=true;
     }
 
@@ -58,6 +71,51 @@ public class WSClient extends WebSocketClient {
         facade.dispatch(new Message(Message.Category.INFORMATION, s));
     }
 
+    @Override
+    public void onMessage(ByteBuffer bytes) {
+        final CompactFrame frame = CompactFrame.read(bytes);
+        if (frame.isCorrelated()) {
+            final BlockingQueue<String> reply = pendingReplies.remove(frame.getCorrelationId());
+            if (reply != null) {
+                reply.offer(frame.getText());
+            }
+        }
+        onMessage(frame.getText());
+    }
+
+    /**
+     * @return true if the server accepted the compact sub-protocol, so that
+     * requests get a correlated reply
+     */
+    public boolean isCompact() {
+        return compact;
+    }
+
+    /**
+     * Send the given command and wait for the server to reply to it.
+     *
+     * @return the reply of the server, or null if the server does not speak
+     * the compact sub-protocol or did not reply in time
+     */
+    public String request(String command, long timeout) throws InterruptedException {
+        if (!compact) {
+            send(command);
+            return null;
+        }
+        int correlationId = lastCorrelationId.incrementAndGet();
+        while (correlationId == CompactFrame.UNCORRELATED) {
+            correlationId = lastCorrelationId.incrementAndGet();
+        }
+        final BlockingQueue<String> reply = new ArrayBlockingQueue<String>(1);
+        pendingReplies.put(correlationId, reply);
+        try {
+            send(new CompactFrame(correlationId, command).toBytes());
+            return reply.poll(timeout, TimeUnit.MILLISECONDS);
+        } finally {
+            pendingReplies.remove(correlationId);
+        }
+    }
+
     @Override
     public void onClose(int i, String s, boolean b) {
         journal.log(Level.INFO, ">> Disconnected from the CloudML server "+s);
@@ -0,0 +1,104 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.facade.commands;
+
+import java.util.Arrays;
+import org.cloudml.facade.commands.Deploy;
+import org.cloudml.facade.commands.Footprint;
+import org.cloudml.facade.commands.ListComponentInstances;
+import org.cloudml.facade.commands.ScaleOut;
+import org.cloudml.facade.commands.Snapshot;
+import org.cloudml.facade.commands.StartComponent;
+import org.cloudml.facade.commands.ViewComponentInstance;
+import org.cloudml.facade.commands.offlineMigration;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+/**
+ * Test which commands may run along with each other
+ */
+@RunWith(JUnit4.class)
+public class FootprintTest {
+
+    @Test
+    public void deploymentShouldConflictWithCommandsOnInstances() {
+        final Footprint deploy = new Deploy().getFootprint();
+
+        assertThat(deploy.conflictsWith(new ScaleOut("vm1").getFootprint()), is(true));
+        assertThat(deploy.conflictsWith(new Snapshot("vm1").getFootprint()), is(true));
+        assertThat(deploy.conflictsWith(deploy), is(true));
+    }
+
+    @Test
+    public void listingsShouldOnlyConflictWithCommandsModifyingTheModel() {
+        final Footprint listing = new ListComponentInstances().getFootprint();
+
+        assertThat(listing.conflictsWith(new Deploy().getFootprint()), is(true));
+        assertThat(new Deploy().getFootprint().conflictsWith(listing), is(true));
+        assertThat(listing.conflictsWith(new ScaleOut("vm1").getFootprint()), is(true));
+        assertThat(listing.conflictsWith(new StartComponent(Arrays.asList("vm1")).getFootprint()), is(true));
+        assertThat(listing.conflictsWith(new Snapshot("vm1").getFootprint()), is(false));
+        assertThat(listing.conflictsWith(new ViewComponentInstance("vm1").getFootprint()), is(false));
+    }
+
+    @Test
+    public void commandsNotAccessingTheModelShouldNotConflictWithAnything() {
+        final Footprint migration = new offlineMigration("source", "destination", 1).getFootprint();
+
+        assertThat(migration.conflictsWith(new Deploy().getFootprint()), is(false));
+        assertThat(new Deploy().getFootprint().conflictsWith(migration), is(false));
+    }
+
+    @Test
+    public void onlyCommandsModifyingTheModelShouldBeWriting() {
+        assertThat(new Deploy().getFootprint().isWriting(), is(true));
+        assertThat(new ScaleOut("vm1").getFootprint().isWriting(), is(true));
+        assertThat(new StartComponent(Arrays.asList("vm1")).getFootprint().isWriting(), is(true));
+        assertThat(new ListComponentInstances().getFootprint().isWriting(), is(false));
+        assertThat(new Snapshot("vm1").getFootprint().isWriting(), is(false));
+        assertThat(new offlineMigration("source", "destination", 1).getFootprint().isWriting(), is(false));
+    }
+
+    @Test
+    public void commandsOnDistinctInstancesShouldNotConflict() {
+        final Footprint start = new StartComponent(Arrays.asList("vm1", "vm2")).getFootprint();
+
+        assertThat(start.conflictsWith(new Snapshot("vm3").getFootprint()), is(false));
+        assertThat(start.conflictsWith(new Snapshot("vm2").getFootprint()), is(true));
+        assertThat(new Snapshot("vm2").getFootprint().conflictsWith(new Snapshot("vm2").getFootprint()), is(false));
+    }
+
+    @Test
+    public void scalingOutShouldConflictWithAllTheCommandsOnInstances() {
+        final Footprint scaleOut = new ScaleOut("vm1").getFootprint();
+
+        assertThat(scaleOut.conflictsWith(new ScaleOut("vm2").getFootprint()), is(true));
+        assertThat(scaleOut.conflictsWith(new StartComponent(Arrays.asList("vm2")).getFootprint()), is(true));
+        assertThat(new Snapshot("vm2").getFootprint().conflictsWith(scaleOut), is(true));
+    }
+
+}
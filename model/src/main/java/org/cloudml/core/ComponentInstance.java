@@ -214,7 +214,11 @@ public abstract class ComponentInstance<T extends Component> extends WithResourc
         if (type == null) {
             throw new IllegalArgumentException("'null' is not a valid type for a component instance");
         }
+        final boolean changed = this.type != null && this.type != type;
         this.type = type;
+        if (changed) {
+            keyChanged(); // instances are indexed by the name of their type
+        }
     }
 
     public ProvidedExecutionPlatformInstanceGroup getProvidedExecutionPlatforms() {
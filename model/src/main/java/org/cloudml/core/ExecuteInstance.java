@@ -129,7 +129,11 @@ public class ExecuteInstance extends WithResources implements DeploymentElement,
             final String error = String.format("'null' is not a valid required end for '%s'", getQualifiedName());
             throw new IllegalArgumentException(error);
         }
+        final boolean changed = this.requiredEnd != null && this.requiredEnd != end;
         this.requiredEnd = end;
+        if (changed) {
+            keyChanged(); // executes are indexed by the owner of their ends
+        }
     }
 
     public ProvidedExecutionPlatformInstance getProvidedEnd() {
@@ -141,7 +145,11 @@ public class ExecuteInstance extends WithResources implements DeploymentElement,
             final String error = String.format("'null' is not a valid provided end for '%s'", getQualifiedName());
             throw new IllegalArgumentException(error);
         }
+        final boolean changed = this.providedEnd != null && this.providedEnd != end;
         this.providedEnd = end;
+        if (changed) {
+            keyChanged();
+        }
     }
     
     @Override
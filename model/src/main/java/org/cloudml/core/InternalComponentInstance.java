@@ -23,6 +23,8 @@
 package org.cloudml.core;
 
 import java.util.Collection;
+import org.cloudml.core.collections.ComponentInstanceGroup;
+import org.cloudml.core.collections.ExecuteInstanceGroup;
 import org.cloudml.core.collections.RequiredPortInstanceGroup;
 import org.cloudml.core.visitors.Visitor;
 
@@ -57,6 +59,7 @@ public class InternalComponentInstance extends ComponentInstance<InternalCompone
     private RequiredPortInstanceGroup requiredPortInstances;
     private RequiredExecutionPlatformInstance requiredExecutionPlatformInstance;
     protected State status;
+    private volatile ExternalHost externalHost;
 
     public InternalComponentInstance(InternalComponent type) {
         this(NamedElement.DEFAULT_NAME, type);
@@ -101,6 +104,17 @@ public class InternalComponentInstance extends ComponentInstance<InternalCompone
         return getDeployment().getExecuteInstances().hostOf(this);
     }
 
+    /**
+     * @return the components this one is connected to through its required
+     * ports
+     */
+    public ComponentInstanceGroup<ComponentInstance<? extends Component>> serverComponents() {
+        if (getOwner().isUndefined()) {
+            return new ComponentInstanceGroup<ComponentInstance<? extends Component>>();
+        }
+        return getDeployment().getRelationshipInstances().serversOf(this);
+    }
+
     public boolean isHostedBy(ComponentInstance<? extends Component> host) {
         if (getOwner().isUndefined()) {
             return false;
@@ -115,6 +129,21 @@ public class InternalComponentInstance extends ComponentInstance<InternalCompone
      * return the linux VM.
      */
     public ExternalComponentInstance<? extends ExternalComponent> externalHost() {
+        if (getOwner().isUndefined()) {
+            return findExternalHost(); // no executes to cache against
+        }
+        final ExecuteInstanceGroup executes = getDeployment().getExecuteInstances();
+        final ExternalHost cached = this.externalHost;
+        if (cached != null && cached.isStillValidIn(executes)) {
+            return cached.host;
+        }
+        final ExternalHost fresh = new ExternalHost(executes);
+        fresh.host = findExternalHost();
+        this.externalHost = fresh;
+        return fresh.host;
+    }
+
+    private ExternalComponentInstance<? extends ExternalComponent> findExternalHost() {
         final ComponentInstance<? extends Component> directHost = getHost();
         if(directHost != null){
             if (directHost.isInternal()) {
@@ -126,6 +155,29 @@ public class InternalComponentInstance extends ComponentInstance<InternalCompone
         }
     }
 
+    /**
+     * The external host found last time, valid as long as no execute has
+     * been added to, removed from or rewired within the executes of the
+     * deployment since
+     */
+    private static class ExternalHost {
+
+        private final ExecuteInstanceGroup executes;
+        private final long hostingChanges;
+        private ExternalComponentInstance<? extends ExternalComponent> host;
+
+        public ExternalHost(ExecuteInstanceGroup executes) {
+            this.executes = executes;
+            this.hostingChanges = executes.hostingChanges();
+        }
+
+        public boolean isStillValidIn(ExecuteInstanceGroup executes) {
+            return this.executes == executes
+                    && hostingChanges == executes.hostingChanges();
+        }
+
+    }
+
     public State getStatus() {
         return this.status;
     }
@@ -22,13 +22,30 @@
  */
 package org.cloudml.core;
 
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import org.cloudml.core.validation.CanBeValidated;
 import org.cloudml.core.validation.Report;
 
 public abstract class NamedElement implements CanBeValidated {
 
     public static final String DEFAULT_NAME = "no name";
-    
+
+    /**
+     * Notified when a key under which groups may index this element (its
+     * name, the type of a component instance, the ends of a relationship,
+     * etc.) has changed
+     */
+    public interface KeyObserver {
+
+        void keyChanged(NamedElement element);
+
+    }
+
+    private final KeyObservers keyObservers = new KeyObservers();
+
     private String name;
 
     public NamedElement() {
@@ -59,7 +76,87 @@ public abstract class NamedElement implements CanBeValidated {
 
     public void setName(String name) {
         rejectInvalidName(name);
+        final boolean changed = !name.equals(this.name);
         this.name = name;
+        if (changed) {
+            keyChanged();
+        }
+    }
+
+    /**
+     * Notify the given observer whenever a key of this element changes. The
+     * observer is only weakly referenced, so that short-lived groups (e.g.,
+     * selections) do not have to unregister.
+     */
+    public final void addKeyObserver(KeyObserver observer) {
+        keyObservers.add(observer);
+    }
+
+    public final void removeKeyObserver(KeyObserver observer) {
+        keyObservers.remove(observer);
+    }
+
+    /**
+     * To be called once a key of this element has changed, so that the groups
+     * that index it rebuild their indexes
+     */
+    protected final void keyChanged() {
+        for (KeyObserver observer: keyObservers.all()) {
+            observer.keyChanged(this);
+        }
+    }
+
+    /**
+     * The observers of an element, held by weak references. There are
+     * usually very few of them (the groups that contain the element).
+     */
+    private static class KeyObservers {
+
+        private List<WeakReference<KeyObserver>> references;
+
+        public synchronized void add(KeyObserver observer) {
+            if (references == null) {
+                references = new ArrayList<WeakReference<KeyObserver>>(2);
+            }
+            final Iterator<WeakReference<KeyObserver>> iterator = references.iterator();
+            while (iterator.hasNext()) {
+                final KeyObserver each = iterator.next().get();
+                if (each == observer) {
+                    return;
+                }
+                if (each == null) {
+                    iterator.remove();
+                }
+            }
+            references.add(new WeakReference<KeyObserver>(observer));
+        }
+
+        public synchronized void remove(KeyObserver observer) {
+            if (references == null) {
+                return;
+            }
+            final Iterator<WeakReference<KeyObserver>> iterator = references.iterator();
+            while (iterator.hasNext()) {
+                final KeyObserver each = iterator.next().get();
+                if (each == null || each == observer) {
+                    iterator.remove();
+                }
+            }
+        }
+
+        public synchronized List<KeyObserver> all() {
+            final List<KeyObserver> observers = new ArrayList<KeyObserver>();
+            if (references != null) {
+                for (WeakReference<KeyObserver> reference: references) {
+                    final KeyObserver observer = reference.get();
+                    if (observer != null) {
+                        observers.add(observer);
+                    }
+                }
+            }
+            return observers;
+        }
+
     }
 
     @Override
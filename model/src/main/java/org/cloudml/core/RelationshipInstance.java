@@ -94,7 +94,11 @@ public class RelationshipInstance extends WithResources implements DeploymentEle
             final String error = String.format("'null' is not a valid required port end for relationship '%s'", getQualifiedName());
             throw new IllegalArgumentException(error);
         }
+        final boolean changed = this.requiredEnd != null && this.requiredEnd != port;
         this.requiredEnd = port;
+        if (changed) {
+            keyChanged(); // relationships are indexed by their ends
+        }
     }
 
     public final void setProvidedEnd(ProvidedPortInstance port) {
@@ -102,7 +106,11 @@ public class RelationshipInstance extends WithResources implements DeploymentEle
             final String error = String.format("'null' is not a valid provided port end for relationship '%s'", getQualifiedName());
             throw new IllegalArgumentException(error);
         }
+        final boolean changed = this.providedEnd != null && this.providedEnd != port;
         this.providedEnd = port;
+        if (changed) {
+            keyChanged();
+        }
     }
 
     public RequiredPortInstance getRequiredEnd() {
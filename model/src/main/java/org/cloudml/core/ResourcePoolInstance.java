@@ -64,7 +64,7 @@ public class ResourcePoolInstance extends WithResources implements DeploymentEle
     public void remove(VMInstance vmi, Deployment target){
         if(nbOfReplicats > minReplicats){
             if(baseInstances.contains(vmi)){
-                target.getComponentInstances().onlyVMs().remove(vmi);
+                target.getComponentInstances().remove(vmi);
                 nbOfReplicats--;
             }else{
                 throw new IllegalArgumentException("This VM is not part of the Pool");
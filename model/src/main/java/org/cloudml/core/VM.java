@@ -170,7 +170,7 @@ public class VM extends ExternalComponent implements Visitable, CanBeValidated {
     }
 
     public void setMaxRam(int maxRam) {
-        this.minRam = maxRam;
+        this.maxRam = maxRam;
     }
 
     public void setMinCores(int minCores) {
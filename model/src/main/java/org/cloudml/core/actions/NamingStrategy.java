@@ -23,13 +23,14 @@
 package org.cloudml.core.actions;
 
 
-import java.util.ArrayList;
 import java.util.Collection;
-import java.util.List;
+import java.util.HashSet;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 import org.cloudml.core.*;
+import org.cloudml.core.collections.NamedElementGroup;
 
 public class NamingStrategy {
 
@@ -52,7 +53,10 @@ public class NamingStrategy {
     }
 
     private int minimumUnusedId(Collection<? extends NamedElement> names) {
-        final List<Integer> usedIds = extractUsedIds(names);
+        if (names instanceof NamedElementGroup) {
+            return ((NamedElementGroup<?>) names).smallestUnusedNumber();
+        }
+        final Set<Integer> usedIds = extractUsedIds(names);
         int id = minimumId;
         while (usedIds.contains(id)) {
             id++;
@@ -60,8 +64,8 @@ public class NamingStrategy {
         return id;
     }
 
-    private List<Integer> extractUsedIds(Collection<? extends NamedElement> names) throws NumberFormatException {
-        final ArrayList<Integer> usedIds = new ArrayList<Integer>();
+    private Set<Integer> extractUsedIds(Collection<? extends NamedElement> names) throws NumberFormatException {
+        final Set<Integer> usedIds = new HashSet<Integer>();
         for (NamedElement element : names) {
             Matcher matcher = pattern.matcher(element.getName());
             if (matcher.find()) {
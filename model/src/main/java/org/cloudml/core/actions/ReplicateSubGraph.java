@@ -28,8 +28,10 @@ import org.cloudml.core.collections.InternalComponentInstanceGroup;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -90,7 +92,12 @@ public class ReplicateSubGraph extends AbstractAction<Map<InternalComponentInsta
     private HashMap<String,RelationshipInstance> manageDependencies(Deployment target){
         HashMap<String,RelationshipInstance> createdInstances=new HashMap<String,RelationshipInstance>();
         HashMap<String,RelationshipInstanceBuilder> rib=new HashMap<String,RelationshipInstanceBuilder>();
-        for(RelationshipInstance ri: target.getRelationshipInstances()){
+        final Set<RelationshipInstance> adjacent=new LinkedHashSet<RelationshipInstance>();
+        for(InternalComponentInstance replicated: mapping.keySet()){
+            adjacent.addAll(target.getRelationshipInstances().whereClientIs(replicated));
+            adjacent.addAll(target.getRelationshipInstances().whereServerIs(replicated));
+        }
+        for(RelationshipInstance ri: adjacent){
             final String name = getLibrary().createUniqueRelationshipInstanceName(target, ri.getType());
             RelationshipInstance relationship=null;
             if(mapping.containsKey(ri.getClientComponent())){
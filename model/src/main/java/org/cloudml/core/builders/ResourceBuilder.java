@@ -69,6 +69,7 @@ public class ResourceBuilder extends WithPropertyBuilder<Resource, ResourceBuild
     }
 
     public ResourceBuilder withUpload(String from, String to) {
+        uploads.put(from, to);
         return next();
     }
 
@@ -81,7 +82,7 @@ public class ResourceBuilder extends WithPropertyBuilder<Resource, ResourceBuild
         resource.setConfigureCommand(configure);
         resource.setInstallCommand(install);
         resource.setRetrieveCommand(retrieve);
-        resource.setUploadCommand(uploads);
+        resource.setUploadCommand(new HashMap<String, String>(uploads));
         return resource;
     }
 
@@ -22,77 +22,209 @@
  */
 package org.cloudml.core.collections;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import org.cloudml.core.Component;
 import org.cloudml.core.ComponentInstance;
+import org.cloudml.core.ExecuteInstance;
 import org.cloudml.core.ExternalComponent;
 import org.cloudml.core.ExternalComponentInstance;
 import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.NamedElement;
 
+/**
+ * A group of component instances. The selections returned by onlyInternals,
+ * onlyExternals, onlyVMs and ofType are live, read-only views, built on first
+ * request and then updated as instances are added to or removed from the
+ * group. Their iterators are fail-fast: copy them (e.g., using toList) before
+ * changing the group while iterating over them, and before handing them over
+ * to other threads, which may otherwise see them change under their feet.
+ */
 public class ComponentInstanceGroup<T extends ComponentInstance<? extends Component>> extends WithResourceGroup<T> {
 
+    private final Key<T> byTypeName = new Key<T>() {
+        @Override
+        public String of(T instance) {
+            return instance.getType().getName();
+        }
+
+        @Override
+        public List<? extends NamedElement> dependencies(T instance) {
+            return Collections.singletonList(instance.getType());
+        }
+    };
+
+    private InternalComponentInstanceGroup internals;
+    private ExternalComponentInstanceGroup externals;
+    private VMInstanceGroup vms;
+    private Map<String, ComponentInstanceGroup<T>> types;
+    private long typesIndexedAt;
+
     public ComponentInstanceGroup() {
+        indexBy(byTypeName);
     }
 
     public ComponentInstanceGroup(Collection<T> content) {
         super(content);
+        indexBy(byTypeName);
     }
 
-    
-    public InternalComponentInstanceGroup onlyInternals() {
-       final InternalComponentInstanceGroup internalInstances = new InternalComponentInstanceGroup();
-        for (final T instance: this) {
-            if (instance.isInternal()) {
-                internalInstances.add(instance.asInternal());
+    /**
+     * @return a live, read-only view of the internal component instances of
+     * this group (see above). Use toList to get a snapshot.
+     */
+    public synchronized InternalComponentInstanceGroup onlyInternals() {
+        if (internals == null) {
+            final InternalComponentInstanceGroup view = new InternalComponentInstanceGroup();
+            for (final T instance: this) {
+                if (instance.isInternal()) {
+                    view.include(instance.asInternal());
+                }
             }
+            view.makeReadOnly();
+            internals = view;
         }
-        return internalInstances;
+        return internals;
     }
-    
-    
-    public ExternalComponentInstanceGroup onlyExternals() {
-        final ExternalComponentInstanceGroup externalInstances = new ExternalComponentInstanceGroup();
-        for (final T instance: this) {
-            if (instance.isExternal()) {
-                externalInstances.add(instance.asExternal());
+
+    /**
+     * @return a live, read-only view of the external component instances of
+     * this group, including the VMs
+     */
+    public synchronized ExternalComponentInstanceGroup onlyExternals() {
+        if (externals == null) {
+            final ExternalComponentInstanceGroup view = new ExternalComponentInstanceGroup();
+            for (final T instance: this) {
+                if (instance.isExternal()) {
+                    view.include(instance.asExternal());
+                }
             }
+            view.makeReadOnly();
+            externals = view;
         }
-        return externalInstances;
+        return externals;
     }
-    
-    public VMInstanceGroup onlyVMs() {
-        final VMInstanceGroup selection = new VMInstanceGroup();
-        for (final T instance: this) {
-            if (instance.isExternal()) {
-                final ExternalComponentInstance<? extends ExternalComponent> external = instance.asExternal();
-                if (external.isVM()) {
-                    selection.add(external.asVM());
+
+    /**
+     * @return a live, read-only view of the VM instances of this group
+     */
+    public synchronized VMInstanceGroup onlyVMs() {
+        if (vms == null) {
+            final VMInstanceGroup view = new VMInstanceGroup();
+            for (final T instance: this) {
+                if (isVM(instance)) {
+                    view.include(instance.asExternal().asVM());
                 }
             }
+            view.makeReadOnly();
+            vms = view;
         }
-        return selection;
+        return vms;
     }
-    
-    public ComponentInstanceGroup<T> ofType(String typeName) {
-        final ComponentInstanceGroup<T> selected = new ComponentInstanceGroup<T>();
-        for (T instance: this) {
-            if (instance.getType().isNamed(typeName)) {
-                selected.add(instance);
+
+    /**
+     * @return a live, read-only view of the instances of this group whose
+     * type has the given name
+     */
+    public synchronized ComponentInstanceGroup<T> ofType(String typeName) {
+        if (types == null || typesIndexedAt != keyChanges()) {
+            types = new HashMap<String, ComponentInstanceGroup<T>>();
+            typesIndexedAt = keyChanges();
+        }
+        ComponentInstanceGroup<T> view = types.get(typeName);
+        if (view == null) {
+            view = new ComponentInstanceGroup<T>();
+            for (T instance: allWith(byTypeName, typeName)) {
+                view.include(instance);
             }
+            view.makeReadOnly();
+            types.put(typeName, view);
         }
-        return selected;
+        return view;
     }
-    
-    
+
+    /**
+     * @return the instances of this group that host the given component,
+     * as found by the executes of the component's deployment
+     */
     public ComponentInstanceGroup<T> hosting(InternalComponentInstance component) {
         final ComponentInstanceGroup<T> selected = new ComponentInstanceGroup<T>();
-        for (T instance: this) {
-            if (instance.isHosting(component)) {
-                selected.add(instance);
+        if (component.getOwner().isUndefined()) {
+            for (T instance: this) {
+                if (instance.isHosting(component)) {
+                    selected.add(instance);
+                }
+            }
+            return selected;
+        }
+        final List<ComponentInstance<? extends Component>> hosts = new ArrayList<ComponentInstance<? extends Component>>();
+        for (ExecuteInstance execution: component.getDeployment().getExecuteInstances().allWithSubject(component)) {
+            if (component.equals(execution.getSubject()) && !hosts.contains(execution.getHost())) {
+                hosts.add(execution.getHost());
+            }
+        }
+        for (ComponentInstance<? extends Component> host: hosts) {
+            for (T instance: allNamed(host.getName())) {
+                if (host.equals(instance) && instance.isHosting(component) && !selected.contains(instance)) {
+                    selected.add(instance);
+                }
             }
         }
         return selected;
     }
-    
-   
+
+    @Override
+    protected void added(T instance) {
+        if (internals != null && instance.isInternal()) {
+            internals.include(instance.asInternal());
+        }
+        if (externals != null && instance.isExternal()) {
+            externals.include(instance.asExternal());
+        }
+        if (vms != null && isVM(instance)) {
+            vms.include(instance.asExternal().asVM());
+        }
+        if (types != null) {
+            if (typesIndexedAt != keyChanges()) {
+                types = null;
+            } else {
+                final ComponentInstanceGroup<T> view = types.get(instance.getType().getName());
+                if (view != null) {
+                    view.include(instance);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void removed(T instance) {
+        if (internals != null && instance.isInternal()) {
+            internals.exclude(instance.asInternal());
+        }
+        if (externals != null && instance.isExternal()) {
+            externals.exclude(instance.asExternal());
+        }
+        if (vms != null && isVM(instance)) {
+            vms.exclude(instance.asExternal().asVM());
+        }
+        if (types != null) {
+            if (typesIndexedAt != keyChanges()) {
+                types = null;
+            } else {
+                final ComponentInstanceGroup<T> view = types.get(instance.getType().getName());
+                if (view != null) {
+                    view.exclude(instance);
+                }
+            }
+        }
+    }
+
+    private static boolean isVM(ComponentInstance<? extends Component> instance) {
+        return instance.isExternal() && instance.asExternal().isVM();
+    }
+
 }
@@ -23,20 +23,103 @@
 
 package org.cloudml.core.collections;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 import org.cloudml.core.Component;
 import org.cloudml.core.ComponentInstance;
 import org.cloudml.core.ExecuteInstance;
+import org.cloudml.core.ExecutionPlatform;
+import org.cloudml.core.ExecutionPlatformInstance;
 import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.NamedElement;
 
 
+/**
+ * A group of executes, indexed both by the name of their subject (the hosted
+ * component) and by the name of their host, so that hostOf, withSubject and
+ * componentsHostedBy do not have to scan the whole group. As for names, the
+ * indexes are rebuilt when the ends of an execute change.
+ */
 public class ExecuteInstanceGroup extends WithResourceGroup<ExecuteInstance> {
 
+    private final AtomicLong hostingChanges = new AtomicLong();
+
+    private final Key<ExecuteInstance> bySubjectName = new Key<ExecuteInstance>() {
+        @Override
+        public String of(ExecuteInstance execution) {
+            return execution.getRequiredEnd().getOwner().getName();
+        }
+
+        @Override
+        public List<? extends NamedElement> dependencies(ExecuteInstance execution) {
+            return ownerOf(execution.getRequiredEnd());
+        }
+    };
+
+    private final Key<ExecuteInstance> byHostName = new Key<ExecuteInstance>() {
+        @Override
+        public String of(ExecuteInstance execution) {
+            return execution.getProvidedEnd().getOwner().getName();
+        }
+
+        @Override
+        public List<? extends NamedElement> dependencies(ExecuteInstance execution) {
+            return ownerOf(execution.getProvidedEnd());
+        }
+    };
+
+    public ExecuteInstanceGroup() {
+        indexBy(bySubjectName);
+        indexBy(byHostName);
+    }
+
+    public ExecuteInstanceGroup(Collection<ExecuteInstance> content) {
+        super(content);
+        indexBy(bySubjectName);
+        indexBy(byHostName);
+    }
+
+    private static List<? extends NamedElement> ownerOf(ExecutionPlatformInstance<? extends ExecutionPlatform> end) {
+        if (end.getOwner().isUndefined()) {
+            return Collections.<NamedElement>emptyList();
+        }
+        return Collections.singletonList(end.getOwner().get());
+    }
+
+    /**
+     * @return how many times an execute has entered, left, or been rewired
+     * within this group so far. It tells whether what was derived from the
+     * hosting relationships (e.g., the external host of a component) is
+     * still valid.
+     */
+    public long hostingChanges() {
+        return hostingChanges.get() + keyChanges();
+    }
+
+    @Override
+    protected boolean equalElementsShareTheirName() {
+        return false; // executions are compared by their ends
+    }
+
+    @Override
+    protected void added(ExecuteInstance execution) {
+        hostingChanges.incrementAndGet();
+    }
+
+    @Override
+    protected void removed(ExecuteInstance execution) {
+        hostingChanges.incrementAndGet();
+    }
+
     /**
      * @return the first ExecuteInstance object whose subject is the given component, null otherwise
      * @param component the component whose ExecuteInstance binding with its host is needed.
      */
     public ExecuteInstance withSubject(InternalComponentInstance component) {
-     for (ExecuteInstance execution: this) {
+        for (ExecuteInstance execution: allWith(bySubjectName, component.getName())) {
             if (execution.hasSubject(component)) { 
                 return execution;
             }
@@ -44,8 +127,22 @@ public class ExecuteInstanceGroup extends WithResourceGroup<ExecuteInstance> {
         return null;
     }
     
+    /**
+     * @return all the executes whose subject is the given component, in the
+     * order of the group
+     */
+    public List<ExecuteInstance> allWithSubject(InternalComponentInstance component) {
+        final List<ExecuteInstance> selection = new ArrayList<ExecuteInstance>();
+        for (ExecuteInstance execution: allWith(bySubjectName, component.getName())) {
+            if (execution.hasSubject(component)) {
+                selection.add(execution);
+            }
+        }
+        return selection;
+    }
+
     public ExecuteInstance between(String demanderName, String demandName, String providerName, String providedName) {
-        for (ExecuteInstance instance: this) {
+        for (ExecuteInstance instance: allWith(bySubjectName, demanderName)) {
             if (instance.isBetween(demanderName, demandName, providerName, providedName)) {
                 return instance;
             }
@@ -54,17 +151,16 @@ public class ExecuteInstanceGroup extends WithResourceGroup<ExecuteInstance> {
     }
     
     public ComponentInstance<? extends Component> hostOf(InternalComponentInstance component) {
-        for (ExecuteInstance execution: this) {
-            if (execution.hasSubject(component)) { 
-                return execution.getHost();
-            }
+        final ExecuteInstance execution = withSubject(component);
+        if (execution == null) {
+            return null;
         }
-        return null;
+        return execution.getHost();
     }
     
     public InternalComponentInstanceGroup componentsHostedBy(ComponentInstance<? extends Component> host) {
         final InternalComponentInstanceGroup selection = new InternalComponentInstanceGroup();
-        for (ExecuteInstance execution: this) {
+        for (ExecuteInstance execution: allWith(byHostName, host.getName())) {
             if (execution.isHostedBy(host)) {
                 selection.add(execution.getSubject());
             } 
@@ -24,52 +24,291 @@ package org.cloudml.core.collections;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
 import org.cloudml.core.NamedElement;
 
+/**
+ * A collection of named elements, which keeps the order of insertion but also
+ * indexes the elements by name (and possibly by other keys, see 'indexBy'), so
+ * that firstNamed, contains and remove do not have to scan the whole group.
+ *
+ * Names (and other keys) may change once the elements are in the group: the
+ * group observes its elements (see NamedElement#addKeyObserver), and rebuilds
+ * its indexes lazily, on the next lookup following such a change.
+ *
+ * All the operations of a group are synchronized on the group itself, but as
+ * for Collections#synchronizedCollection, iterating over a group that other
+ * threads may change requires either to iterate over a copy (see toList) or
+ * to hold the lock of the group for the whole iteration.
+ */
 public abstract class NamedElementGroup<T extends NamedElement> implements Collection<T> {
 
-    private final ArrayList<T> content;
+    /**
+     * A key under which the elements of a group can be indexed
+     */
+    protected static abstract class Key<T> {
+
+        public abstract String of(T element);
+
+        /**
+         * @return the elements, other than the given one, whose names are
+         * part of its key (e.g., the type of a component instance), so that
+         * the group also observes them
+         */
+        public List<? extends NamedElement> dependencies(T element) {
+            return Collections.emptyList();
+        }
+
+    }
+
+    /**
+     * Counts the changes of the keys of the elements of a group. Elements
+     * only hold weak references to it, which does not prevent the group from
+     * being collected.
+     */
+    private static class KeyChanges extends AtomicLong implements NamedElement.KeyObserver {
+
+        @Override
+        public void keyChanged(NamedElement element) {
+            incrementAndGet();
+        }
+
+    }
+
+    private final Key<T> byName = new Key<T>() {
+        @Override
+        public String of(T element) {
+            return element.getName();
+        }
+    };
+
+    private static class Entry<T> {
+
+        private final T element;
+        private Entry<T> previous;
+        private Entry<T> next;
+
+        public Entry(T element) {
+            this.element = element;
+        }
+
+    }
+
+    private Entry<T> first;
+    private Entry<T> last;
+    private int size;
+    private int modifications;
+
+    private final List<Key<T>> keys;
+    private final List<Map<String, List<Entry<T>>>> indexes;
+    private final KeyChanges keyChanges;
+    private long indexedAt;
+
+    private boolean readOnly;
+
+    private Numbering numbering;
 
     public NamedElementGroup() {
-        this.content = new ArrayList<T>();
+        this.keys = new ArrayList<Key<T>>();
+        this.indexes = new ArrayList<Map<String, List<Entry<T>>>>();
+        this.keyChanges = new KeyChanges();
+        this.indexedAt = keyChanges.get();
+        indexBy(byName);
     }
 
     public NamedElementGroup(Collection<T> content) {
-        this.content = new ArrayList<T>();
+        this();
         for (T element : content) {
-            this.content.add(element);
+            append(element);
+        }
+    }
+
+    /**
+     * Index the elements of this group under the given key as well. Meant to
+     * be called by the constructors of subclasses.
+     */
+    protected final synchronized void indexBy(Key<T> key) {
+        for (Entry<T> entry = first; entry != null; entry = entry.next) {
+            observe(key, entry.element);
         }
+        keys.add(key);
+        indexes.add(null);
     }
 
-    public T firstNamed(String name) {
-        for (T namedElement : content) {
-            if (namedElement.isNamed(name)) {
-                return namedElement;
+    /**
+     * @return the elements having the given value for the given key, in the
+     * order of the group
+     */
+    protected final synchronized List<T> allWith(Key<T> key, String value) {
+        final List<T> selection = new ArrayList<T>();
+        final List<Entry<T>> bucket = bucketOf(key, value);
+        if (bucket != null) {
+            for (Entry<T> entry : bucket) {
+                selection.add(entry.element);
             }
         }
-        return null;
+        return selection;
+    }
+
+    /**
+     * @return the elements having the given name, in the order of the group
+     */
+    protected final List<T> allNamed(String name) {
+        return allWith(byName, name);
+    }
+
+    /**
+     * Tells whether equal elements always have the same name, so that contains
+     * and remove only have to look at the elements with the same name. Groups
+     * of elements that are compared otherwise (e.g., relationships, which are
+     * compared by their ends) must return false.
+     */
+    protected boolean equalElementsShareTheirName() {
+        return true;
+    }
+
+    /**
+     * Called whenever an element enters the group, so that subclasses can
+     * maintain the views they derive from it
+     */
+    protected void added(T element) {
+    }
+
+    /**
+     * Called whenever an element leaves the group
+     */
+    protected void removed(T element) {
+    }
+
+    /**
+     * Turn this group into a read-only view, whose content can only be changed
+     * by the group it is derived from, through 'include' and 'exclude'.
+     */
+    final void makeReadOnly() {
+        this.readOnly = true;
+    }
+
+    final synchronized void include(T element) {
+        append(element);
+    }
+
+    final synchronized void exclude(T element) {
+        final List<Entry<T>> bucket = bucketOf(byName, element.getName());
+        if (bucket != null) {
+            for (Entry<T> entry : bucket) {
+                if (entry.element == element) {
+                    unlink(entry);
+                    return;
+                }
+            }
+        }
+    }
+
+    private void checkWritable() {
+        if (readOnly) {
+            throw new UnsupportedOperationException("This group is a read-only view");
+        }
+    }
+
+    public synchronized T firstNamed(String name) {
+        final List<Entry<T>> bucket = bucketOf(byName, name);
+        if (bucket == null) {
+            return null;
+        }
+        return bucket.get(0).element;
+    }
+
+    /**
+     * @return the smallest positive number that is not the first number
+     * appearing in the name of an element of this group (e.g., 3 if the group
+     * contains "vm (no_1)" and "vm (no_2)"). Used to build unique names.
+     */
+    public synchronized int smallestUnusedNumber() {
+        if (numbering == null || numbering.builtAt != keyChanges.get()) {
+            renumber();
+        }
+        return numbering.smallest;
+    }
+
+    /**
+     * @return how many times a key of an element of this group (a name, or
+     * any other key, see 'indexBy') has changed so far. Whatever is derived
+     * from these keys is stale once this number has changed.
+     */
+    public final long keyChanges() {
+        return keyChanges.get();
     }
 
     @Override
-    public final boolean isEmpty() {
-        return content.isEmpty();
+    public final synchronized boolean isEmpty() {
+        return size == 0;
     }
 
     @Override
     public final Iterator<T> iterator() {
-        return content.iterator();
+        return new Iterator<T>() {
+
+            private Entry<T> next = first;
+            private Entry<T> current = null;
+            private int expectedModifications = modifications;
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                checkForComodification();
+                if (next == null) {
+                    throw new NoSuchElementException();
+                }
+                current = next;
+                next = next.next;
+                return current.element;
+            }
+
+            @Override
+            public void remove() {
+                if (current == null) {
+                    throw new IllegalStateException();
+                }
+                checkWritable();
+                synchronized (NamedElementGroup.this) {
+                    checkForComodification();
+                    unlink(current);
+                    current = null;
+                    expectedModifications = modifications;
+                }
+            }
+
+            private void checkForComodification() {
+                if (modifications != expectedModifications) {
+                    throw new ConcurrentModificationException();
+                }
+            }
+
+        };
     }
 
-    public boolean replace(T o){
+    public synchronized boolean replace(T o){
+        checkWritable();
         if (o == null) {
             return false;
         }
         if (o instanceof NamedElement) {
-            final NamedElement namedElement = (NamedElement) o;
-            content.remove(o);
-            content.add(o);
+            final Entry<T> entry = find(o);
+            if (entry != null) {
+                unlink(entry);
+            }
+            append(o);
             return true;
         }
         return false;
@@ -77,50 +316,57 @@ public abstract class NamedElementGroup<T extends NamedElement> implements Colle
 
 
     @Override
-    public boolean add(T e) {
-        content.add(e);
+    public synchronized boolean add(T e) {
+        checkWritable();
+        append(e);
         return true;
     }
 
     @Override
-    public final int size() {
-        return this.content.size();
+    public final synchronized int size() {
+        return this.size;
     }
 
     @Override
-    public final boolean contains(Object o) {
+    public final synchronized boolean contains(Object o) {
         if (o == null) {
             return false;
         }
         if (o instanceof NamedElement) {
-            T element = (T) o;
-            return content.contains(element);
+            return find(o) != null;
         }
         return false;
     }
 
     @Override
     public final Object[] toArray() {
-        return this.content.toArray();
+        return toList().toArray();
     }
 
     @Override
     public final <T> T[] toArray(T[] a) {
-        return this.content.toArray(a);
+        return toList().toArray(a);
     }
 
-    public final List<T> toList() {
-        return new ArrayList<T>(this.content);
+    public final synchronized List<T> toList() {
+        final ArrayList<T> list = new ArrayList<T>(size);
+        for (Entry<T> entry = first; entry != null; entry = entry.next) {
+            list.add(entry.element);
+        }
+        return list;
     }
 
     @Override
-    public boolean remove(Object o) {
+    public synchronized boolean remove(Object o) {
+        checkWritable();
         if (o == null) {
             return false;
         }
         if (o instanceof NamedElement) {
-            final NamedElement namedElement = (NamedElement) o;
-            content.remove(namedElement);
+            final Entry<T> entry = find(o);
+            if (entry != null) {
+                unlink(entry);
+            }
             return true;
         }
         return false;
@@ -136,7 +382,12 @@ public abstract class NamedElementGroup<T extends NamedElement> implements Colle
 
     @Override
     public final boolean containsAll(Collection<?> c) {
-        return this.content.containsAll(c);
+        for (Object element : c) {
+            if (!contains(element)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
@@ -160,7 +411,7 @@ public abstract class NamedElementGroup<T extends NamedElement> implements Colle
     @Override
     public final boolean retainAll(Collection<?> c) {
         boolean overall = true;
-        for (T element : this) {
+        for (T element : toList()) {
             if (!c.contains(element)) {
                 overall &= remove(element);
             }
@@ -169,15 +420,266 @@ public abstract class NamedElementGroup<T extends NamedElement> implements Colle
     }
 
     @Override
-    public void clear() {
-        this.content.clear();
+    public synchronized void clear() {
+        checkWritable();
+        final Entry<T> cleared = first;
+        first = null;
+        last = null;
+        size = 0;
+        modifications++;
+        for (int i = 0; i < indexes.size(); i++) {
+            indexes.set(i, null);
+        }
+        numbering = null;
+        for (Entry<T> entry = cleared; entry != null; entry = entry.next) {
+            unobserve(entry.element);
+            removed(entry.element);
+        }
     }
 
     public Collection<String> onlyNames() {
         final ArrayList<String> names = new ArrayList<String>();
-        for (T element: this) {
+        for (T element: toList()) {
             names.add(element.getName());
         }
         return names;
     }
+
+    /**
+     * @return the first entry whose element is equal to the given object (in
+     * the sense of o.equals(element), as in List#indexOf), or null
+     */
+    private Entry<T> find(Object o) {
+        if (equalElementsShareTheirName()) {
+            final List<Entry<T>> bucket = bucketOf(byName, ((NamedElement) o).getName());
+            if (bucket != null) {
+                for (Entry<T> entry : bucket) {
+                    if (o.equals(entry.element)) {
+                        return entry;
+                    }
+                }
+            }
+            return null;
+        }
+        for (Entry<T> entry = first; entry != null; entry = entry.next) {
+            if (o.equals(entry.element)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private List<Entry<T>> bucketOf(Key<T> key, String value) {
+        return indexOf(key).get(value);
+    }
+
+    private void append(T element) {
+        final Entry<T> entry = new Entry<T>(element);
+        if (last == null) {
+            first = entry;
+        } else {
+            last.next = entry;
+            entry.previous = last;
+        }
+        last = entry;
+        size++;
+        modifications++;
+        for (Key<T> key: keys) {
+            observe(key, element);
+        }
+        if (indexedAt == keyChanges.get()) {
+            for (int i = 0; i < keys.size(); i++) {
+                if (indexes.get(i) != null) {
+                    insert(indexes.get(i), keys.get(i), entry);
+                }
+            }
+        }
+        if (numbering != null) {
+            numbering.add(element.getName());
+        }
+        added(element);
+    }
+
+    private void unlink(Entry<T> entry) {
+        if (entry.previous == null) {
+            first = entry.next;
+        } else {
+            entry.previous.next = entry.next;
+        }
+        if (entry.next == null) {
+            last = entry.previous;
+        } else {
+            entry.next.previous = entry.previous;
+        }
+        size--;
+        modifications++;
+        if (indexedAt == keyChanges.get()) {
+            for (int i = 0; i < keys.size(); i++) {
+                final Map<String, List<Entry<T>>> index = indexes.get(i);
+                if (index == null) {
+                    continue;
+                }
+                final String value = keys.get(i).of(entry.element);
+                final List<Entry<T>> bucket = index.get(value);
+                bucket.remove(entry);
+                if (bucket.isEmpty()) {
+                    index.remove(value);
+                }
+            }
+        }
+        if (numbering != null) {
+            numbering.remove(entry.element.getName());
+        }
+        if (!holds(entry.element)) {
+            unobserve(entry.element);
+        }
+        removed(entry.element);
+    }
+
+    /**
+     * @return true if the given element (and not just an equal one) is still
+     * in the group
+     */
+    private boolean holds(T element) {
+        final List<Entry<T>> bucket = bucketOf(byName, element.getName());
+        if (bucket != null) {
+            for (Entry<T> entry : bucket) {
+                if (entry.element == element) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void observe(Key<T> key, T element) {
+        element.addKeyObserver(keyChanges);
+        for (NamedElement dependency: key.dependencies(element)) {
+            dependency.addKeyObserver(keyChanges);
+        }
+    }
+
+    private void unobserve(T element) {
+        element.removeKeyObserver(keyChanges);
+        for (Key<T> key: keys) {
+            for (NamedElement dependency: key.dependencies(element)) {
+                dependency.removeKeyObserver(keyChanges);
+            }
+        }
+    }
+
+    private void insert(Map<String, List<Entry<T>>> index, Key<T> key, Entry<T> entry) {
+        final String value = key.of(entry.element);
+        List<Entry<T>> bucket = index.get(value);
+        if (bucket == null) {
+            bucket = new ArrayList<Entry<T>>(1);
+            index.put(value, bucket);
+        }
+        bucket.add(entry);
+    }
+
+    /**
+     * @return the index of the given key, built on its first lookup. All the
+     * indexes are dropped when some names (or other keys) have changed since
+     * they were built; keys that change while an index is built trigger
+     * another rebuild, on the next lookup.
+     */
+    private Map<String, List<Entry<T>>> indexOf(Key<T> key) {
+        final long changes = keyChanges.get();
+        if (indexedAt != changes) {
+            for (int i = 0; i < indexes.size(); i++) {
+                indexes.set(i, null);
+            }
+            indexedAt = changes;
+        }
+        final int position = keys.indexOf(key);
+        Map<String, List<Entry<T>>> index = indexes.get(position);
+        if (index == null) {
+            index = new HashMap<String, List<Entry<T>>>();
+            for (Entry<T> entry = first; entry != null; entry = entry.next) {
+                insert(index, key, entry);
+                observe(key, entry.element);
+            }
+            indexes.set(position, index);
+        }
+        return index;
+    }
+
+    private void renumber() {
+        numbering = new Numbering(keyChanges.get());
+        for (Entry<T> entry = first; entry != null; entry = entry.next) {
+            numbering.add(entry.element.getName());
+        }
+    }
+
+    /**
+     * How many elements use each number in their name, and the smallest
+     * positive number that none of them uses. Once built, it follows the
+     * additions and removals, and it is rebuilt if some names have changed.
+     */
+    private static class Numbering {
+
+        private final long builtAt;
+        private final Map<Integer, Integer> counts;
+        private int smallest;
+
+        public Numbering(long builtAt) {
+            this.builtAt = builtAt;
+            this.counts = new HashMap<Integer, Integer>();
+            this.smallest = 1;
+        }
+
+        public void add(String name) {
+            final int number = numberIn(name);
+            if (number < 1) {
+                return;
+            }
+            final Integer count = counts.get(number);
+            counts.put(number, count == null ? 1 : count + 1);
+            while (counts.containsKey(smallest)) {
+                smallest++;
+            }
+        }
+
+        public void remove(String name) {
+            final int number = numberIn(name);
+            final Integer count = counts.get(number);
+            if (count == null) {
+                return;
+            }
+            if (count > 1) {
+                counts.put(number, count - 1);
+            } else {
+                counts.remove(number);
+                smallest = Math.min(smallest, number);
+            }
+        }
+
+        /**
+         * @return the value of the first sequence of digits in the given
+         * name, or -1 if there is none, or if it is too large
+         */
+        private static int numberIn(String name) {
+            int start = 0;
+            while (start < name.length() && !isDigit(name.charAt(start))) {
+                start++;
+            }
+            if (start == name.length()) {
+                return -1;
+            }
+            long value = 0;
+            for (int i = start; i < name.length() && isDigit(name.charAt(i)); i++) {
+                value = value * 10 + (name.charAt(i) - '0');
+                if (value > Integer.MAX_VALUE) {
+                    return -1;
+                }
+            }
+            return (int) value;
+        }
+
+        private static boolean isDigit(char c) {
+            return c >= '0' && c <= '9';
+        }
+
+    }
 }
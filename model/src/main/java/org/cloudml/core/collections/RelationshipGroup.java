@@ -29,6 +29,9 @@ import org.cloudml.core.Relationship;
 
 public class RelationshipGroup extends NamedElementGroup<Relationship> {
 
-    
-    
+    @Override
+    protected boolean equalElementsShareTheirName() {
+        return false; // relationships are compared by their ends
+    }
+
 }
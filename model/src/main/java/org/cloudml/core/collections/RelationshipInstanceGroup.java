@@ -24,32 +24,154 @@
  */
 package org.cloudml.core.collections;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 import org.cloudml.core.Component;
 import org.cloudml.core.ComponentInstance;
+import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.NamedElement;
 import org.cloudml.core.Port;
 import org.cloudml.core.PortInstance;
 import org.cloudml.core.RelationshipInstance;
 
+/**
+ * A group of relationship instances, indexed by the names of their client and
+ * server components and by their ends, so that the relationships touching a
+ * given component or port are found in time proportional to their number. As
+ * for names, the indexes are rebuilt when the ends of a relationship change.
+ */
 public class RelationshipInstanceGroup extends NamedElementGroup<RelationshipInstance> {
 
+    private final Key<RelationshipInstance> byClientName = new Key<RelationshipInstance>() {
+        @Override
+        public String of(RelationshipInstance relationship) {
+            return relationship.getRequiredEnd().getOwner().getName();
+        }
+
+        @Override
+        public List<? extends NamedElement> dependencies(RelationshipInstance relationship) {
+            return ownerOf(relationship.getRequiredEnd());
+        }
+    };
+
+    private final Key<RelationshipInstance> byServerName = new Key<RelationshipInstance>() {
+        @Override
+        public String of(RelationshipInstance relationship) {
+            return relationship.getProvidedEnd().getOwner().getName();
+        }
+
+        @Override
+        public List<? extends NamedElement> dependencies(RelationshipInstance relationship) {
+            return ownerOf(relationship.getProvidedEnd());
+        }
+    };
+
+    private final Key<RelationshipInstance> byRequiredEnd = new Key<RelationshipInstance>() {
+        @Override
+        public String of(RelationshipInstance relationship) {
+            return keyOf(relationship.getRequiredEnd());
+        }
+
+        @Override
+        public List<? extends NamedElement> dependencies(RelationshipInstance relationship) {
+            return portAndOwnerOf(relationship.getRequiredEnd());
+        }
+    };
+
+    private final Key<RelationshipInstance> byProvidedEnd = new Key<RelationshipInstance>() {
+        @Override
+        public String of(RelationshipInstance relationship) {
+            return keyOf(relationship.getProvidedEnd());
+        }
+
+        @Override
+        public List<? extends NamedElement> dependencies(RelationshipInstance relationship) {
+            return portAndOwnerOf(relationship.getProvidedEnd());
+        }
+    };
+
     public RelationshipInstanceGroup() {
+        indexAll();
     }
 
     public RelationshipInstanceGroup(Collection<RelationshipInstance> content) {
         super(content);
+        indexAll();
+    }
+
+    private void indexAll() {
+        indexBy(byClientName);
+        indexBy(byServerName);
+        indexBy(byRequiredEnd);
+        indexBy(byProvidedEnd);
+    }
+
+    private static String keyOf(PortInstance<? extends Port> port) {
+        return port.getOwner().getName() + "/" + port.getName();
+    }
+
+    private static List<NamedElement> ownerOf(PortInstance<? extends Port> port) {
+        final List<NamedElement> owner = new ArrayList<NamedElement>(2);
+        if (port.getOwner().isDefined()) {
+            owner.add(port.getOwner().get());
+        }
+        return owner;
+    }
+
+    private static List<NamedElement> portAndOwnerOf(PortInstance<? extends Port> port) {
+        final List<NamedElement> portAndOwner = ownerOf(port);
+        portAndOwner.add(port);
+        return portAndOwner;
+    }
+
+    @Override
+    protected boolean equalElementsShareTheirName() {
+        return false; // relationships are compared by their ends
     }
 
     public RelationshipInstanceGroup whereEitherEndIs(PortInstance<? extends Port> port) {
         final RelationshipInstanceGroup selection = new RelationshipInstanceGroup();
-        for (RelationshipInstance instance: this) {
+        for (RelationshipInstance instance: allWith(byRequiredEnd, keyOf(port))) {
             if (instance.eitherEndIs(port)) { 
                 selection.add(instance);
             }
         }
+        for (RelationshipInstance instance: allWith(byProvidedEnd, keyOf(port))) {
+            if (instance.eitherEndIs(port) && !selection.contains(instance)) {
+                selection.add(instance);
+            }
+        }
+        return selection;
+    }
+
+    /**
+     * @return the relationships whose client (i.e., the owner of the
+     * required end) is the given component
+     */
+    public RelationshipInstanceGroup whereClientIs(ComponentInstance<? extends Component> client) {
+        final RelationshipInstanceGroup selection = new RelationshipInstanceGroup();
+        for (RelationshipInstance instance: allWith(byClientName, client.getName())) {
+            if (instance.isRequiredBy(client)) {
+                selection.add(instance);
+            }
+        }
+        return selection;
+    }
+
+    /**
+     * @return the relationships whose server (i.e., the owner of the
+     * provided end) is the given component
+     */
+    public RelationshipInstanceGroup whereServerIs(ComponentInstance<? extends Component> server) {
+        final RelationshipInstanceGroup selection = new RelationshipInstanceGroup();
+        for (RelationshipInstance instance: allWith(byServerName, server.getName())) {
+            if (instance.isProvidedBy(server)) {
+                selection.add(instance);
+            }
+        }
         return selection;
     }
-    
     
     public RelationshipInstanceGroup ofType(String name) {
         final RelationshipInstanceGroup selection = new RelationshipInstanceGroup();
@@ -63,11 +185,21 @@ public class RelationshipInstanceGroup extends NamedElementGroup<RelationshipIns
     
     public InternalComponentInstanceGroup clientsOf(ComponentInstance<? extends Component> server) {
         final InternalComponentInstanceGroup selection = new InternalComponentInstanceGroup();
-        for (RelationshipInstance relationship: this) {
+        for (RelationshipInstance relationship: allWith(byServerName, server.getName())) {
             if (relationship.isProvidedBy(server)) {
                 selection.add(relationship.getClientComponent());
             }
         }
         return selection;
     }
+
+    public ComponentInstanceGroup<ComponentInstance<? extends Component>> serversOf(InternalComponentInstance client) {
+        final ComponentInstanceGroup<ComponentInstance<? extends Component>> selection = new ComponentInstanceGroup<ComponentInstance<? extends Component>>();
+        for (RelationshipInstance relationship: allWith(byClientName, client.getName())) {
+            if (relationship.isRequiredBy(client)) {
+                selection.add(relationship.getServerComponent());
+            }
+        }
+        return selection;
+    }
 }
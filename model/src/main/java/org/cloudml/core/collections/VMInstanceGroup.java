@@ -41,7 +41,7 @@ public class VMInstanceGroup extends NamedElementGroup<VMInstance> {
         super(content);  
     }    
 
-    public VMInstance withID(String id){
+    public synchronized VMInstance withID(String id){
         for(VMInstance i : this){
             if(i.getId().equals(id)){
                 return i;
@@ -103,4 +103,50 @@ public class NamingStrategyTest extends TestCase {
 
         verifyInstanceName(name, NODE_KIND, 2);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReuseIdOfRemovedInstance() {
+        Deployment model = prepareTypes(NODE_TYPE_NAME)
+                .with(aVMInstance()
+                .named("node instance no_1")
+                .ofType(NODE_TYPE_NAME))
+                .with(aVMInstance()
+                .named("node instance no_2")
+                .ofType(NODE_TYPE_NAME))
+                .build();
+        VM type = model.getComponents().onlyVMs().firstNamed(NODE_TYPE_NAME);
+        verifyInstanceName(naming.createUniqueComponentInstanceName(model, type), NODE_KIND, 3);
+
+        model.getComponentInstances().remove(model.getComponentInstances().firstNamed("node instance no_1"));
+
+        verifyInstanceName(naming.createUniqueComponentInstanceName(model, type), NODE_KIND, 1);
+    }
+
+    @Test
+    public void testFollowRenamedInstances() {
+        Deployment model = prepareTypes(NODE_TYPE_NAME)
+                .with(aVMInstance()
+                .named("node instance no_1")
+                .ofType(NODE_TYPE_NAME))
+                .build();
+        VM type = model.getComponents().onlyVMs().firstNamed(NODE_TYPE_NAME);
+        verifyInstanceName(naming.createUniqueComponentInstanceName(model, type), NODE_KIND, 2);
+
+        model.getComponentInstances().firstNamed("node instance no_1").setName("node instance no_2");
+
+        verifyInstanceName(naming.createUniqueComponentInstanceName(model, type), NODE_KIND, 1);
+    }
+
+    @Test
+    public void testSuccessiveNamesAreUnique() {
+        Deployment model = prepareTypes(NODE_TYPE_NAME)
+                .build();
+        VM type = model.getComponents().onlyVMs().firstNamed(NODE_TYPE_NAME);
+
+        for (int i = 1; i <= 50; i++) {
+            final String name = naming.createUniqueComponentInstanceName(model, type);
+            assertThat("unique name", name, is(equalTo(NODE_TYPE_NAME + "(no_" + i + ")")));
+            model.getComponentInstances().add(type.instantiates(name));
+        }
+    }
+}
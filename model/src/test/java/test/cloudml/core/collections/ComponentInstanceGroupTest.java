@@ -0,0 +1,103 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+/*
+ */
+package test.cloudml.core.collections;
+
+import org.cloudml.core.Component;
+import org.cloudml.core.ComponentInstance;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.VMInstance;
+import org.cloudml.core.collections.ComponentInstanceGroup;
+import org.cloudml.core.collections.InternalComponentInstanceGroup;
+import org.cloudml.core.collections.VMInstanceGroup;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import static org.cloudml.core.samples.SshClientServer.*;
+
+@RunWith(JUnit4.class)
+public class ComponentInstanceGroupTest {
+
+    @Test
+    public void viewsShouldBeReusedAcrossCalls() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final ComponentInstanceGroup<ComponentInstance<? extends Component>> sut = deployment.getComponentInstances();
+
+        assertThat(sut.onlyInternals(), is(sameInstance(sut.onlyInternals())));
+        assertThat(sut.onlyExternals(), is(sameInstance(sut.onlyExternals())));
+        assertThat(sut.onlyVMs(), is(sameInstance(sut.onlyVMs())));
+        assertThat(sut.ofType(SSH_CLIENT), is(sameInstance(sut.ofType(SSH_CLIENT))));
+    }
+
+    @Test
+    public void viewsShouldFollowAdditionsAndRemovals() {
+        final Deployment deployment = getOneClientConnectedToOneServer().build();
+        final InternalComponentInstanceGroup internals = deployment.getComponentInstances().onlyInternals();
+        final VMInstanceGroup vms = deployment.getComponentInstances().onlyVMs();
+        final ComponentInstanceGroup<?> clients = deployment.getComponentInstances().ofType(SSH_CLIENT);
+
+        final VMInstance vm = new VMInstance("another vm", deployment.getComponents().onlyVMs().firstNamed(EC2_LARGE_LINUX));
+        deployment.getComponentInstances().add(vm);
+        final InternalComponentInstance client = deployment.getComponentInstances().onlyInternals().firstNamed(CLIENT_1);
+        deployment.getComponentInstances().remove(client);
+
+        assertThat(internals.onlyNames(), contains(SERVER_1));
+        assertThat(vms.onlyNames(), contains(VM_OF_CLIENT_1, VM_OF_SERVER_1, "another vm"));
+        assertThat(clients.isEmpty(), is(true));
+        assertThat(deployment.getComponentInstances().onlyExternals().size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void typedViewsShouldFollowTheRenamingOfTypes() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+
+        deployment.getComponents().firstNamed(SSH_SERVER).setName("another server type");
+
+        assertThat(deployment.getComponentInstances().ofType(SSH_SERVER).isEmpty(), is(true));
+        assertThat(deployment.getComponentInstances().ofType("another server type").onlyNames(), contains(SERVER_1, SERVER_2));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void viewsShouldBeReadOnly() {
+        final Deployment deployment = getOneClientConnectedToOneServer().build();
+
+        final InternalComponentInstanceGroup internals = deployment.getComponentInstances().onlyInternals();
+        internals.remove(internals.firstNamed(CLIENT_1));
+    }
+
+    @Test
+    public void hostingShouldSelectTheHostOfTheComponent() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final InternalComponentInstance client = deployment.getComponentInstances().onlyInternals().firstNamed(CLIENT_2);
+
+        assertThat(deployment.getComponentInstances().hosting(client).onlyNames(), contains(VM_OF_CLIENT_2));
+        assertThat(deployment.getComponentInstances().onlyInternals().hosting(client).isEmpty(), is(true));
+    }
+
+}
@@ -0,0 +1,126 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.core.collections;
+
+import org.cloudml.core.Deployment;
+import org.cloudml.core.ExecuteInstance;
+import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.VMInstance;
+import org.cloudml.core.collections.ExecuteInstanceGroup;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import static org.cloudml.core.samples.SshClientServer.*;
+
+@RunWith(JUnit4.class)
+public class ExecuteInstanceGroupTest {
+
+    @Test
+    public void hostsShouldBeFoundInBothDirections() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final ExecuteInstanceGroup sut = deployment.getExecuteInstances();
+        final InternalComponentInstance client = client(deployment, CLIENT_1);
+        final VMInstance vm = vm(deployment, VM_OF_CLIENT_1);
+
+        assertThat(sut.hostOf(client), is(equalTo((Object) vm)));
+        assertThat(sut.componentsHostedBy(vm).onlyNames(), contains(CLIENT_1));
+    }
+
+    @Test
+    public void hostsShouldFollowRemovals() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final ExecuteInstanceGroup sut = deployment.getExecuteInstances();
+        final InternalComponentInstance client = client(deployment, CLIENT_1);
+        final VMInstance vm = vm(deployment, VM_OF_CLIENT_1);
+
+        sut.remove(sut.withSubject(client));
+
+        assertThat(sut.hostOf(client), is(nullValue()));
+        assertThat(sut.componentsHostedBy(vm).isEmpty(), is(true));
+        assertThat(client.externalHost(), is(nullValue()));
+    }
+
+    @Test
+    public void hostsShouldFollowTheRenamingOfComponents() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final ExecuteInstanceGroup sut = deployment.getExecuteInstances();
+        final InternalComponentInstance client = client(deployment, CLIENT_1);
+        final VMInstance vm = vm(deployment, VM_OF_CLIENT_1);
+
+        client.setName("renamed client");
+        vm.setName("renamed vm");
+
+        assertThat(sut.hostOf(client), is(equalTo((Object) vm)));
+        assertThat(sut.componentsHostedBy(vm).onlyNames(), contains("renamed client"));
+    }
+
+    @Test
+    public void externalHostsShouldFollowTheRewiringOfExecutes() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final InternalComponentInstance client = client(deployment, CLIENT_1);
+        final VMInstance otherVm = vm(deployment, VM_OF_CLIENT_2);
+        assertThat(client.externalHost(), is(equalTo((Object) vm(deployment, VM_OF_CLIENT_1))));
+
+        final ExecuteInstance execution = deployment.getExecuteInstances().withSubject(client);
+        execution.setProvidedEnd(otherVm.getProvidedExecutionPlatforms().toList().get(0));
+
+        assertThat(client.externalHost(), is(equalTo((Object) otherVm)));
+        assertThat(deployment.getExecuteInstances().componentsHostedBy(otherVm).onlyNames(), containsInAnyOrder(CLIENT_1, CLIENT_2));
+    }
+
+    @Test
+    public void externalHostsShouldFollowTheRemovalOfAComponentFromItsDeployment() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final InternalComponentInstance client = client(deployment, CLIENT_1);
+        assertThat(client.externalHost(), is(not(nullValue())));
+
+        client.getOwner().discard();
+
+        assertThat(client.externalHost(), is(nullValue()));
+    }
+
+    @Test
+    public void changesInAnotherDeploymentShouldNotAffectTheHostingChanges() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final Deployment another = getTwoClientsConnectedToTwoServers().build();
+        final long before = deployment.getExecuteInstances().hostingChanges();
+
+        another.getExecuteInstances().remove(another.getExecuteInstances().withSubject(client(another, CLIENT_1)));
+        client(another, CLIENT_2).setName("renamed client");
+
+        assertThat(deployment.getExecuteInstances().hostingChanges(), is(equalTo(before)));
+    }
+
+    private InternalComponentInstance client(Deployment deployment, String name) {
+        return deployment.getComponentInstances().onlyInternals().firstNamed(name);
+    }
+
+    private VMInstance vm(Deployment deployment, String name) {
+        return deployment.getComponentInstances().onlyVMs().firstNamed(name);
+    }
+
+}
@@ -0,0 +1,193 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+/*
+ */
+package test.cloudml.core.collections;
+
+import java.util.Iterator;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.Provider;
+import org.cloudml.core.RelationshipInstance;
+import org.cloudml.core.collections.ProviderGroup;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import static org.cloudml.core.samples.SshClientServer.*;
+
+@RunWith(JUnit4.class)
+public class NamedElementGroupTest {
+
+    @Test
+    public void shouldKeepTheOrderOfInsertion() {
+        final ProviderGroup sut = providers("a", "b", "c", "d");
+
+        sut.remove(sut.firstNamed("b"));
+        sut.add(new Provider("e"));
+        sut.replace(sut.firstNamed("a"));
+
+        assertThat(sut.onlyNames(), contains("c", "d", "e", "a"));
+        assertThat(sut.size(), is(equalTo(4)));
+    }
+
+    @Test
+    public void firstNamedShouldReturnTheFirstOfTheHomonyms() {
+        final Provider first = new Provider("a");
+        final ProviderGroup sut = providers("b");
+        sut.add(first);
+        sut.add(new Provider("a"));
+
+        assertThat(sut.firstNamed("a"), is(sameInstance(first)));
+        assertThat(sut.firstNamed("z"), is(nullValue()));
+    }
+
+    @Test
+    public void lookupsShouldFollowRenamings() {
+        final ProviderGroup sut = providers("a", "b");
+        final Provider b = sut.firstNamed("b");
+
+        b.setName("c");
+
+        assertThat(sut.firstNamed("b"), is(nullValue()));
+        assertThat(sut.firstNamed("c"), is(sameInstance(b)));
+        assertThat(sut.contains(new Provider("c")), is(true));
+
+        sut.remove(new Provider("c"));
+
+        assertThat(sut.onlyNames(), contains("a"));
+    }
+
+    @Test
+    public void containsShouldRelyOnEquality() {
+        final ProviderGroup sut = providers("a", "b");
+
+        assertThat(sut.contains(new Provider("b")), is(true));
+        assertThat(sut.contains(new Provider("c")), is(false));
+        assertThat(sut.contains(null), is(false));
+    }
+
+    @Test
+    public void iteratorsShouldSupportRemoval() {
+        final ProviderGroup sut = providers("a", "b", "c");
+
+        final Iterator<Provider> iterator = sut.iterator();
+        iterator.next();
+        iterator.next();
+        iterator.remove();
+
+        assertThat(sut.onlyNames(), contains("a", "c"));
+        assertThat(sut.firstNamed("b"), is(nullValue()));
+    }
+
+    @Test
+    public void retainAllShouldOnlyKeepTheGivenElements() {
+        final ProviderGroup sut = providers("a", "b", "c");
+
+        sut.retainAll(providers("a", "c"));
+
+        assertThat(sut.onlyNames(), contains("a", "c"));
+    }
+
+    @Test
+    public void ofTypeShouldSelectInstancesByTypeName() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+
+        assertThat(deployment.getComponentInstances().ofType(SSH_CLIENT).onlyNames(), contains(CLIENT_1, CLIENT_2));
+
+        deployment.getComponents().firstNamed(SSH_CLIENT).setName("another client type");
+
+        assertThat(deployment.getComponentInstances().ofType(SSH_CLIENT).isEmpty(), is(true));
+        assertThat(deployment.getComponentInstances().ofType("another client type").size(), is(equalTo(2)));
+    }
+
+    @Test
+    public void relationshipsShouldBeFoundByTheirEnds() {
+        final Deployment deployment = getOneClientConnectedToOneServer().build();
+        final RelationshipInstance relationship = deployment.getRelationshipInstances().firstNamed("ssh");
+        final RelationshipInstance homologous = new RelationshipInstance("another name", relationship.getRequiredEnd(), relationship.getProvidedEnd(), relationship.getType());
+
+        assertThat(deployment.getRelationshipInstances().contains(homologous), is(true));
+    }
+
+    @Test
+    public void renamingShouldOnlyInvalidateTheGroupsOfTheElement() {
+        final ProviderGroup sut = providers("a", "b");
+        final ProviderGroup others = providers("c");
+        final long before = sut.keyChanges();
+
+        others.firstNamed("c").setName("d");
+
+        assertThat(sut.keyChanges(), is(equalTo(before)));
+        assertThat(others.firstNamed("d"), is(not(nullValue())));
+    }
+
+    @Test
+    public void renamingShouldUpdateEveryGroupOfTheElement() {
+        final ProviderGroup sut = providers("a", "b");
+        final ProviderGroup others = providers("c");
+        final Provider b = sut.firstNamed("b");
+        others.add(b);
+
+        b.setName("e");
+
+        assertThat(sut.firstNamed("e"), is(sameInstance(b)));
+        assertThat(others.firstNamed("e"), is(sameInstance(b)));
+        assertThat(others.firstNamed("b"), is(nullValue()));
+    }
+
+    @Test
+    public void removedElementsShouldNoLongerInvalidateTheGroup() {
+        final ProviderGroup sut = providers("a", "b");
+        final Provider b = sut.firstNamed("b");
+        sut.remove(b);
+        final long before = sut.keyChanges();
+
+        b.setName("c");
+
+        assertThat(sut.keyChanges(), is(equalTo(before)));
+    }
+
+    @Test
+    public void homonymsLeftInTheGroupShouldStillBeObserved() {
+        final ProviderGroup sut = providers("a");
+        final Provider a = sut.firstNamed("a");
+        sut.add(a);
+        sut.remove(a);
+
+        a.setName("b");
+
+        assertThat(sut.firstNamed("b"), is(sameInstance(a)));
+    }
+
+    private static ProviderGroup providers(String... names) {
+        final ProviderGroup providers = new ProviderGroup();
+        for (String name: names) {
+            providers.add(new Provider(name));
+        }
+        return providers;
+    }
+
+}
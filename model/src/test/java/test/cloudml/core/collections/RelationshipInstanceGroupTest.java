@@ -0,0 +1,114 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.core.collections;
+
+import org.cloudml.core.ComponentInstance;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.ProvidedPortInstance;
+import org.cloudml.core.RelationshipInstance;
+import org.cloudml.core.RequiredPortInstance;
+import org.cloudml.core.collections.RelationshipInstanceGroup;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import static org.cloudml.core.samples.SshClientServer.*;
+
+@RunWith(JUnit4.class)
+public class RelationshipInstanceGroupTest {
+
+    @Test
+    public void relationshipsShouldBeFoundFromEitherComponent() {
+        final Deployment deployment = getTwoClientsConnectedToOneServer().build();
+        final RelationshipInstanceGroup sut = deployment.getRelationshipInstances();
+        final InternalComponentInstance client = component(deployment, CLIENT_1);
+        final InternalComponentInstance server = component(deployment, SERVER_1);
+
+        assertThat(sut.whereClientIs(client).onlyNames(), contains("ssh"));
+        assertThat(sut.whereServerIs(server).onlyNames(), contains("ssh", "ssh 2"));
+        assertThat(sut.clientsOf(server).onlyNames(), contains(CLIENT_1, CLIENT_2));
+        assertThat(sut.serversOf(client).onlyNames(), contains(SERVER_1));
+        assertThat(client.serverComponents().onlyNames(), contains(SERVER_1));
+    }
+
+    @Test
+    public void relationshipsShouldBeFoundFromEitherPort() {
+        final Deployment deployment = getTwoClientsConnectedToOneServer().build();
+        final RelationshipInstanceGroup sut = deployment.getRelationshipInstances();
+        final RequiredPortInstance clientPort = component(deployment, CLIENT_2).getRequiredPorts().toList().get(0);
+        final ProvidedPortInstance serverPort = component(deployment, SERVER_1).getProvidedPorts().toList().get(0);
+
+        assertThat(sut.whereEitherEndIs(clientPort).onlyNames(), contains("ssh 2"));
+        assertThat(sut.whereEitherEndIs(serverPort).onlyNames(), contains("ssh", "ssh 2"));
+    }
+
+    @Test
+    public void indexesShouldFollowRemovalsAndRenamings() {
+        final Deployment deployment = getTwoClientsConnectedToOneServer().build();
+        final RelationshipInstanceGroup sut = deployment.getRelationshipInstances();
+        final InternalComponentInstance server = component(deployment, SERVER_1);
+
+        sut.remove(sut.firstNamed("ssh"));
+        component(deployment, CLIENT_2).setName("renamed client");
+
+        assertThat(sut.clientsOf(server).onlyNames(), contains("renamed client"));
+        assertThat(sut.whereClientIs(component(deployment, CLIENT_1)).isEmpty(), is(true));
+    }
+
+    @Test
+    public void indexesShouldFollowTheRewiringOfRelationships() {
+        final Deployment deployment = getTwoClientsConnectedToTwoServers().build();
+        final RelationshipInstanceGroup sut = deployment.getRelationshipInstances();
+        final InternalComponentInstance server1 = component(deployment, SERVER_1);
+        final InternalComponentInstance server2 = component(deployment, SERVER_2);
+
+        final RelationshipInstance relationship = sut.firstNamed("ssh 2");
+        relationship.setProvidedEnd(server1.getProvidedPorts().toList().get(0));
+
+        assertThat(sut.clientsOf(server1).onlyNames(), contains(CLIENT_1, CLIENT_2));
+        assertThat(sut.clientsOf(server2).isEmpty(), is(true));
+    }
+
+    @Test
+    public void selectionsShouldBeQueriedLikeTheGroupTheyComeFrom() {
+        final Deployment deployment = getTwoClientsConnectedToOneServer().build();
+        final RelationshipInstanceGroup sut = deployment.getRelationshipInstances().whereServerIs(component(deployment, SERVER_1));
+        final InternalComponentInstance client = component(deployment, CLIENT_2);
+
+        client.setName("renamed client");
+
+        assertThat(sut.whereClientIs(client).onlyNames(), contains("ssh 2"));
+        assertThat(sut.serversOf(client).onlyNames(), contains(SERVER_1));
+        assertThat(sut.firstNamed("ssh").getName(), is(equalTo("ssh")));
+    }
+
+    private InternalComponentInstance component(Deployment deployment, String name) {
+        final ComponentInstance<?> instance = deployment.getComponentInstances().firstNamed(name);
+        return instance.asInternal();
+    }
+
+}
@@ -30,6 +30,9 @@ import org.cloudml.mrt.Coordinator;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -44,6 +47,7 @@ import java.util.logging.Logger;
 public class StatusMonitor {
     private static final Logger journal = Logger.getLogger(StatusMonitor.class.getName());
     private Collection<Module> modules;
+    private final Map<Module.Type, PooledConnector> connectors = new EnumMap<Module.Type, PooledConnector>(Module.Type.class);
     private int refreshRate;
     private boolean active;
     private Thread thread;
@@ -91,6 +95,11 @@ public class StatusMonitor {
      */
     public void attachModule(Object connector) {
         Module module = null;
+        PooledConnector pooled = null;
+        if (connector instanceof PooledConnector) {
+            pooled = (PooledConnector) connector;
+            connector = pooled.getDelegate();
+        }
         if (connector instanceof FlexiantConnector) {
             module = new FlexiantModule((FlexiantConnector) connector, coord);
         } else if (connector instanceof OpenStackConnector) {
@@ -116,6 +125,10 @@ public class StatusMonitor {
                 }
                 if (!contains) {
                     modules.add(module);
+                    if (pooled != null) {
+                        // keep our own reference, so that the connector stays open until the module is detached
+                        connectors.put(module.getType(), pooled.share());
+                    }
                 }
             }
             journal.log(Level.INFO, ">> Module attached: " + module.getType());
@@ -129,12 +142,22 @@ public class StatusMonitor {
      */
     public void detachModule(Module.Type type) {
         synchronized (modules) {
-            for (Module i : modules) {
+            final Iterator<Module> iterator = modules.iterator();
+            while (iterator.hasNext()) {
+                final Module i = iterator.next();
                 if (i.getType() == type) {
-                    modules.remove(i);
+                    iterator.remove();
                     journal.log(Level.INFO, "Module detached: " + i.getType());
                 }
             }
+            releaseConnector(type);
+        }
+    }
+
+    private void releaseConnector(Module.Type type) {
+        final PooledConnector connector = connectors.remove(type);
+        if (connector != null) {
+            connector.closeConnection();
         }
     }
 
@@ -181,6 +204,9 @@ public class StatusMonitor {
         this.active = false;
         thread.interrupt();
         synchronized (modules) {
+            for (Module.Type type : new ArrayList<Module.Type>(connectors.keySet())) {
+                releaseConnector(type);
+            }
             modules = new ArrayList<Module>();
         }
         journal.log(Level.INFO, ">> Monitoring stopped and history deleted");
@@ -29,9 +29,7 @@ import it.polimi.modaclouds.qos_models.monitoring_ontology.InternalComponent;
 import org.cloudml.core.*;
 import org.cloudml.core.Provider;
 import org.cloudml.core.collections.ComponentInstanceGroup;
-import org.cloudml.core.collections.InternalComponentInstanceGroup;
 import org.cloudml.core.collections.ProviderGroup;
-import org.cloudml.core.collections.VMInstanceGroup;
 import java.util.List;
 
 /**
@@ -86,7 +84,7 @@ public class Filter {
         //go top down to remove the synched ones
 
         //prepare the VMs list
-        VMInstanceGroup VMs = instances.onlyVMs();
+        List<VMInstance> VMs = instances.onlyVMs().toList();
         for (VMInstance i : VMs) {
             String location = i.getType().getLocation();
             if(!location.isEmpty()) {
@@ -97,7 +95,7 @@ public class Filter {
         }
 
         //prepare the InternalComponents list
-        InternalComponentInstanceGroup internalComponents = instances.onlyInternals();
+        List<InternalComponentInstance> internalComponents = instances.onlyInternals().toList();
         for (InternalComponentInstance i : internalComponents) {
             model.add(fromCloudmlToModaMP(i));
             instances.remove(i);
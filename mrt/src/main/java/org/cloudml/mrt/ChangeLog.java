@@ -0,0 +1,113 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.mrt;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.cloudml.mrt.cmd.abstracts.Change;
+
+/**
+ * The most recent changes committed on the model, in a ring buffer.
+ *
+ * Each appended change gets the next sequence number, starting from 1. Only
+ * the last 'retention' changes are kept, so a peer resuming from an older
+ * cursor must fall back on a snapshot of the model.
+ *
+ * @author huis
+ */
+public class ChangeLog {
+
+    public static final int DEFAULT_RETENTION = 10000;
+
+    private final Change[] slots;
+    private long last = 0;
+
+    public ChangeLog() {
+        this(Integer.getInteger("cloudml.changeLog.retention", DEFAULT_RETENTION));
+    }
+
+    public ChangeLog(int retention) {
+        if (retention < 1) {
+            throw new IllegalArgumentException("Retention must be positive (found " + retention + ")");
+        }
+        this.slots = new Change[retention];
+    }
+
+    /**
+     * Append the given changes, in order, and give them their sequence
+     * numbers
+     *
+     * @return the sequence number of the last change in the log
+     */
+    public synchronized long append(List<? extends Change> changes) {
+        for (Change change : changes) {
+            last++;
+            change.sequence = last;
+            slots[slotOf(last)] = change;
+        }
+        return last;
+    }
+
+    /**
+     * @return the changes committed after the given cursor, or null if some
+     * of them have already been evicted
+     */
+    public synchronized List<Change> since(long cursor) {
+        if (cursor < getFirstSequence() - 1) {
+            return null;
+        }
+        final List<Change> changes = new ArrayList<Change>();
+        for (long sequence = Math.max(cursor, 0) + 1; sequence <= last; sequence++) {
+            changes.add(slots[slotOf(sequence)]);
+        }
+        return changes;
+    }
+
+    /**
+     * @return the sequence number of the oldest change retained
+     */
+    public synchronized long getFirstSequence() {
+        return Math.max(1, last - slots.length + 1);
+    }
+
+    /**
+     * @return the sequence number of the last change appended, or 0 if none
+     * was
+     */
+    public synchronized long getLastSequence() {
+        return last;
+    }
+
+    public synchronized int size() {
+        return (int) Math.min(last, slots.length);
+    }
+
+    public int getRetention() {
+        return slots.length;
+    }
+
+    private int slotOf(long sequence) {
+        return (int) (sequence % slots.length);
+    }
+
+}
@@ -0,0 +1,125 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.mrt;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * A binary websocket frame of the compact sub-protocol: a 4-byte correlation
+ * ID followed by the deflated UTF-8 text of the message. The text is the same
+ * as in plain text frames, so that both protocols share the same commands.
+ *
+ * A request carrying a non-zero correlation ID is answered by exactly one
+ * frame with the same ID, which contains the return of the command or an
+ * acknowledgement. Notifications pushed to listeners carry the ID 0.
+ */
+public final class CompactFrame {
+
+    /**
+     * The name of the sub-protocol, as negotiated in the handshake through
+     * the Sec-WebSocket-Protocol header
+     */
+    public static final String PROTOCOL = "cloudml.deflate";
+
+    public static final String PROTOCOL_HEADER = "Sec-WebSocket-Protocol";
+
+    public static final int UNCORRELATED = 0;
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final int correlationId;
+    private final String text;
+
+    public CompactFrame(int correlationId, String text) {
+        this.correlationId = correlationId;
+        this.text = text;
+    }
+
+    public int getCorrelationId() {
+        return correlationId;
+    }
+
+    public boolean isCorrelated() {
+        return correlationId != UNCORRELATED;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public byte[] toBytes() {
+        try {
+            final ByteArrayOutputStream buffer = new ByteArrayOutputStream(BUFFER_SIZE);
+            buffer.write(ByteBuffer.allocate(4).putInt(correlationId).array());
+            final OutputStream deflater = new DeflaterOutputStream(buffer);
+            deflater.write(text.getBytes("UTF-8"));
+            deflater.close();
+            return buffer.toByteArray();
+        } catch (IOException ex) {
+            throw new IllegalStateException("Unable to encode frame " + correlationId, ex);
+        }
+    }
+
+    public static CompactFrame read(ByteBuffer bytes) {
+        final int correlationId = bytes.getInt();
+        final byte[] deflated = new byte[bytes.remaining()];
+        bytes.get(deflated);
+        try {
+            final InputStream inflater = new InflaterInputStream(new ByteArrayInputStream(deflated));
+            final ByteArrayOutputStream text = new ByteArrayOutputStream(Math.max(BUFFER_SIZE, deflated.length * 4));
+            final byte[] chunk = new byte[BUFFER_SIZE];
+            int length;
+            while ((length = inflater.read(chunk)) != -1) {
+                text.write(chunk, 0, length);
+            }
+            inflater.close();
+            return new CompactFrame(correlationId, text.toString("UTF-8"));
+        } catch (IOException ex) {
+            throw new IllegalArgumentException("Invalid frame " + correlationId, ex);
+        }
+    }
+
+    /**
+     * @return true if the given value of the Sec-WebSocket-Protocol header
+     * lists the compact sub-protocol
+     */
+    public static boolean isOffered(String protocols) {
+        if (protocols == null) {
+            return false;
+        }
+        for (String protocol : protocols.split(",")) {
+            if (PROTOCOL.equals(protocol.trim())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -29,22 +29,29 @@ import java.io.ByteArrayOutputStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cloudml.codecs.JsonCodec;
 import org.cloudml.core.*;
-import org.cloudml.mrt.cmd.CmdWrapper;
+import org.cloudml.core.util.OwnedBy;
 import org.cloudml.mrt.cmd.abstracts.Change;
 import org.cloudml.mrt.cmd.abstracts.Instruction;
 import org.cloudml.mrt.cmd.abstracts.Listener;
 import org.cloudml.mrt.cmd.gen.Ack;
+import org.cloudml.mrt.cmd.gen.Added;
 import org.cloudml.mrt.cmd.gen.CloudMLCmds;
 import org.cloudml.mrt.cmd.gen.Extended;
+import org.cloudml.mrt.cmd.gen.GetSnapshot;
+import org.cloudml.mrt.cmd.gen.Removed;
 import org.cloudml.mrt.cmd.gen.Snapshot;
-import org.cloudml.mrt.sample.SystemOutPeerStub;
-import org.yaml.snakeyaml.Yaml;
+import org.cloudml.mrt.cmd.gen.Updated;
 
 /**
  * @author Hui Song & Nicolas Ferry
@@ -58,12 +65,46 @@ public class Coordinator {
 
     CommandReception reception = null;
     CommandExecutor executor = null;
-    List<Change> changeList = new ArrayList<Change>();
+    ChangeLog changeLog = new ChangeLog();
     NodificationCentre notificationCentre = new NodificationCentre();
+    StatusUpdates statusUpdates = new StatusUpdates(this);
 
 
     Instruction lastInstruction = null;
 
+    private static final int HISTORY = Integer.getInteger("cloudml.mrt.snapshotHistory", 16);
+
+    /**
+     * Optimistic encodings a reader tries, while writers keep changing the
+     * model, before it encodes the model under the lock of the executor
+     */
+    private static final int OPTIMISTIC_ENCODINGS = 3;
+
+    private volatile ModelSnapshot snapshot = null;
+    private long lastVersion = 0;
+    /**
+     * The number of writes to the model, guarded by the executor, and the
+     * number of writes the published snapshot includes
+     */
+    private volatile long writes = 0;
+    private volatile long publishedAt = -1;
+    private final Object publishing = new Object();
+    /**
+     * The number of modifications made to the model in place, rather than
+     * through commands, and the number of those still going on, both changed
+     * under the executor. The change log does not tell what they changed.
+     */
+    private long inPlaceWrites = 0;
+    private volatile int writingInPlace = 0;
+    /**
+     * The last published versions, against which peers may ask for deltas
+     */
+    private final Map<Long, ModelSnapshot> history = Collections.synchronizedMap(new LinkedHashMap<Long, ModelSnapshot>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, ModelSnapshot> eldest) {
+            return size() > HISTORY;
+        }
+    });
 
 
     public Coordinator() {
@@ -71,95 +112,318 @@ public class Coordinator {
         executor = new CommandExecutor(repo);
     }
 
+    /**
+     * Report the new status of an internal component. The model is updated
+     * asynchronously, along with the other pending updates.
+     */
     public void updateStatusInternalComponent(String name, String newState, String identity) {
-        //A PeerStub identifies who launches the modifications
-        PeerStub committer = new SystemOutPeerStub(identity);
-
-        //A wrapper hides the complexity of invoking the coordinator
-        CmdWrapper wrapper = new CmdWrapper(this, committer);
-
-        //Update the value of status
-        try {
-            Thread.sleep(1500);
-            journal.log(Level.INFO, ">> Updating the model..");
-            wrapper.eSet("/componentInstances[name='" + name + "']", wrapper.makePair("status", "" + newState + ""));
-            journal.log(Level.INFO, ">> Status of: " + name + " changed in: " + newState + "");
-
-        } catch (org.apache.commons.jxpath.JXPathNotFoundException e) {
-            journal.log(Level.INFO, "Machine: " + name + " not in this model");
-        } catch (InterruptedException e) {
-            e.printStackTrace();
-        }
+        journal.log(Level.INFO, ">> Prepare to update status of: "+name);
+        statusUpdates.status(name, newState, identity);
     }
 
+    /**
+     * Report the new status of an external component. The model is updated
+     * asynchronously, along with the other pending updates.
+     */
     public void updateStatus(String name, ComponentInstance.State newState, String identity) {
-        //A PeerStub identifies who launches the modifications
-        PeerStub committer = new SystemOutPeerStub(identity);
-
-        //A wrapper hides the complexity of invoking the coordinator
-        CmdWrapper wrapper = new CmdWrapper(this, committer);
-
         journal.log(Level.INFO, ">> Prepare to update status of: "+name);
-        //Update the value of status
-        try {
-            Thread.sleep(1500);
-            Object res = wrapper.eGet("/componentInstances[name='" + name + "']/status");
-            ComponentInstance res2=(ComponentInstance)wrapper.eGet("/componentInstances[name='" + name + "']");
-            if (res !=null) {
-                if (!res.toString().equals(newState.toString())) {
-                    journal.log(Level.INFO, ">> Updating the model..");
-                    wrapper.eSet("/componentInstances[name='" + name + "']", wrapper.makePair("status", "" + newState + ""));
-                    journal.log(Level.INFO, ">> Status of: " + name + " changed in: " + newState + "");
-                    if(res2 instanceof VMInstance)
-                        ((VMInstance)res2).setStatus(newState);
-                }
-            }else{
-                if(res2 instanceof ExternalComponentInstance)
-                    ((ExternalComponentInstance)res2).setStatus(ComponentInstance.State.PENDING);
-                journal.log(Level.INFO, ">> No former status, updating the model..");
-                wrapper.eSet("/componentInstances[name='" + name + "']", wrapper.makePair("status", "" + newState + ""));
-                journal.log(Level.INFO, ">> Status of: " + name + " changed in: " + newState + "");
-                if(res2 instanceof VMInstance)
-                    ((VMInstance)res2).setStatus(newState);
-            }
-        } catch (org.apache.commons.jxpath.JXPathNotFoundException e) {
-            journal.log(Level.INFO, "Machine: " + name + " not in this model");
-        } catch (InterruptedException e) {
-            journal.log(Level.SEVERE, ">> Could not update status!");
-            journal.log(Level.SEVERE, e.getLocalizedMessage(), e);
-            e.printStackTrace();
-        }
+        statusUpdates.status(name, newState, identity);
     }
 
     public void ack(String status, String identity){
+        statusUpdates.flush();
         Ack change=new Ack(identity);
         change.fromPeer=identity;
         change.status=status;
-        changeList.add(change);
+        commit(Collections.<Change>singletonList(change));
     }
 
+    /**
+     * Report the new public address of an external component. Unlike its
+     * status, the address is applied right away (along with the other
+     * pending updates), as the deployer reads it back as soon as the
+     * component is provisioned.
+     */
     public void updateIP(String name, String ip, String identity){
-        PeerStub committer = new SystemOutPeerStub(identity);
-        CmdWrapper wrapper = new CmdWrapper(this, committer);
-        try {
-            Thread.sleep(1500);
-            Object res = wrapper.eGet("/componentInstances[name='" + name + "']/publicAddress");
-            if (res !=null) {
-                journal.log(Level.INFO, ">> Updating the model..");
-                wrapper.eSet("/componentInstances[name='" + name + "']", wrapper.makePair("publicAddress", "" + ip + ""));
-                journal.log(Level.INFO, ">> IP of: " + name + " changed in: " + ip + "");
+        if (ip == null) {
+            journal.log(Level.INFO, ">> No IP reported for: "+name);
+            return;
+        }
+        journal.log(Level.INFO, ">> Updating IP of: "+name);
+        statusUpdates.publicAddress(name, ip, identity);
+        statusUpdates.flush();
+    }
+
+    /**
+     * Apply the pending status and address updates right away
+     */
+    public void flushUpdates() {
+        statusUpdates.flush();
+    }
+
+    public void setModelRepo(ModelRepo repo) {
+        synchronized (executor) {
+            this.executor.setModelRepo(repo);
+            writes++;
+            inPlaceWrites++;
+        }
+    }
+
+    /**
+     * The version of the model that includes all the writes committed so
+     * far. It is only encoded when first read after a change, so that
+     * successive commands (or batches of status updates) share a single
+     * encoding, and the encoding does not hold the executor: writers keep
+     * going while a reader waits for it.
+     *
+     * While the model is modified in place, each read encodes it again, as
+     * nothing tells when it changes: such versions are neither kept as the
+     * current one nor recorded in the history.
+     */
+    public ModelSnapshot getSnapshot() {
+        if (publishedAt == writes && writingInPlace == 0) {
+            final ModelSnapshot current = snapshot;
+            if (isOf(current, executor.repo.getRoot())) {
+                return current;
             }
+        }
+        return publish();
+    }
 
-        } catch (org.apache.commons.jxpath.JXPathNotFoundException e) {
-            journal.log(Level.INFO, "Machine: " + name + " not in this model");
-        } catch (InterruptedException e) {
-            e.printStackTrace();
+    /**
+     * Publish a new version of the model, for those who modify it in place
+     * without going through a command. It is encoded on the next read.
+     */
+    public void publishSnapshot() {
+        synchronized (executor) {
+            writes++;
+            inPlaceWrites++;
         }
+    }
 
+    /**
+     * Tell that the model is about to be modified in place, for instance by a
+     * command of the facade running in the background, until the matching
+     * call to {@link #endWritingInPlace()}. Meanwhile, deltas are computed by
+     * comparing whole versions of the model, as the change log does not
+     * describe these modifications.
+     */
+    public void beginWritingInPlace() {
+        synchronized (executor) {
+            writes++;
+            inPlaceWrites++;
+            writingInPlace++;
+        }
     }
 
-    public void setModelRepo(ModelRepo repo) {
-        this.executor.setModelRepo(repo);
+    /**
+     * Tell that the model is no longer modified in place, and publish the
+     * modifications made since {@link #beginWritingInPlace()}
+     */
+    public void endWritingInPlace() {
+        synchronized (executor) {
+            writes++;
+            inPlaceWrites++;
+            writingInPlace--;
+        }
+    }
+
+    /**
+     * Encode the current model and make it the snapshot seen by the readers.
+     * A new version is only created if the model actually changed.
+     *
+     * The model is encoded without holding the executor, and the result is
+     * only published if no write happened in the meantime. Otherwise (or if
+     * the encoding failed because of a concurrent write) it is encoded again,
+     * and eventually under the lock of the executor. A single reader encodes
+     * at a time, and the others wait for its result.
+     */
+    private ModelSnapshot publish() {
+        if (Thread.holdsLock(executor)) {
+            if (writingInPlace > 0) {
+                return provisional(executor.repo.getRoot(), changeLog.getLastSequence());
+            }
+            return publish(writes, executor.repo.getRoot(), changeLog.getLastSequence(), epoch());
+        }
+        synchronized (publishing) {
+            for (int attempt = 0; ; attempt++) {
+                final long stamp;
+                final Object root;
+                final long sequence;
+                final long epoch;
+                synchronized (executor) {
+                    stamp = writes;
+                    root = executor.repo.getRoot();
+                    sequence = changeLog.getLastSequence();
+                    epoch = epoch();
+                    if (writingInPlace > 0) {
+                        return provisional(root, sequence);
+                    }
+                    if (publishedAt == stamp && isOf(snapshot, root)) {
+                        return snapshot;
+                    }
+                    if (root == null || attempt == OPTIMISTIC_ENCODINGS) {
+                        return publish(stamp, root, sequence, epoch);
+                    }
+                }
+                final String json;
+                try {
+                    json = codec(root);
+                } catch (RuntimeException e) {
+                    journal.log(Level.FINE, ">> Model changed while being encoded, encoding it again", e);
+                    continue;
+                }
+                synchronized (executor) {
+                    if (writes == stamp) {
+                        return publish(stamp, root, sequence, epoch, json);
+                    }
+                }
+            }
+        }
+    }
+
+    private ModelSnapshot publish(long stamp, Object root, long sequence, long epoch) {
+        if (root == null) {
+            snapshot = null;
+            publishedAt = stamp;
+            return null;
+        }
+        return publish(stamp, root, sequence, epoch, codec(root));
+    }
+
+    /**
+     * Must be called while holding the executor
+     */
+    private ModelSnapshot publish(long stamp, Object root, long sequence, long epoch, String json) {
+        final ModelSnapshot current = snapshot;
+        if (current == null || !current.isOf(root) || !current.getJson().equals(json)) {
+            final ModelSnapshot published = new ModelSnapshot(++lastVersion, sequence, epoch, json, root);
+            history.put(published.getVersion(), published);
+            snapshot = published;
+        }
+        publishedAt = stamp;
+        return snapshot;
+    }
+
+    /**
+     * Encode the model while it is being modified in place. The result gets
+     * a version of its own, which is not recorded in the history, so that no
+     * delta is ever computed against it.
+     *
+     * Must be called while holding the executor
+     */
+    private ModelSnapshot provisional(Object root, long sequence) {
+        if (root == null) {
+            return null;
+        }
+        return new ModelSnapshot(++lastVersion, sequence, -1, codec(root), root);
+    }
+
+    /**
+     * Must be called while holding the executor
+     */
+    private long epoch() {
+        return (writingInPlace > 0) ? -1 : inPlaceWrites;
+    }
+
+    private static boolean isOf(ModelSnapshot snapshot, Object root) {
+        return (snapshot == null) ? root == null : snapshot.isOf(root);
+    }
+
+    /**
+     * The current model, as a delta against the given version if it is still
+     * in the history and the change log still holds the changes made since,
+     * or as a whole otherwise
+     */
+    private Snapshot sync(long since, ModelSnapshot current) {
+        final Snapshot sync = new Snapshot();
+        sync.version = current.getVersion();
+        sync.sequence = current.getSequence();
+        final ModelSnapshot base = history.get(since);
+        final ModelDelta delta = (base != null) ? deltaBetween(base, current) : null;
+        if (delta != null) {
+            sync.base = since;
+            sync.content = delta.toString();
+        } else {
+            sync.content = current.getJson();
+        }
+        return sync;
+    }
+
+    /**
+     * Only compare the elements of the model the change log reports as
+     * changed between both versions. Versions separated by modifications made
+     * in place, which the change log does not describe, are compared as a
+     * whole.
+     *
+     * @return the delta between both versions, or null if some of the changes
+     * made in between have already been evicted from the change log
+     */
+    private ModelDelta deltaBetween(ModelSnapshot base, ModelSnapshot current) {
+        if (base.getEpoch() < 0 || base.getEpoch() != current.getEpoch() || !base.isOfSameModelAs(current)) {
+            return ModelDelta.between(base.getIndex(), current.getIndex(), null);
+        }
+        final List<Change> changes = changeLog.since(base.getSequence());
+        if (changes == null) {
+            journal.log(Level.INFO, ">> Changes since version " + base.getVersion() + " evicted, sending the whole model");
+            return null;
+        }
+        return ModelDelta.between(base.getIndex(), current.getIndex(), namesChangedBy(changes));
+    }
+
+    /**
+     * @return the names of the top-level elements of the model that the given
+     * changes modified, or null if they may have modified others, as the
+     * renaming of an element changes the references to it
+     */
+    private static Set<String> namesChangedBy(List<Change> changes) {
+        final Set<String> names = new LinkedHashSet<String>();
+        for (Change change : changes) {
+            final String name;
+            if (change instanceof Updated) {
+                final Updated updated = (Updated) change;
+                if ("name".equals(updated.property) || updated.parent instanceof Deployment) {
+                    return null;
+                }
+                name = topLevelNameOf(updated.parent);
+            } else if (change instanceof Added) {
+                final Added added = (Added) change;
+                name = (added.parent instanceof Deployment) ? nameOf(added.addedValue) : topLevelNameOf(added.parent);
+            } else if (change instanceof Removed) {
+                final Removed removed = (Removed) change;
+                name = (removed.parent instanceof Deployment) ? nameOf(removed.removedValue) : topLevelNameOf(removed.parent);
+            } else {
+                continue; // created objects are reported once added, other changes leave the model alone
+            }
+            if (name == null) {
+                return null;
+            }
+            names.add(name);
+        }
+        return names;
+    }
+
+    /**
+     * @return the name of the element of the deployment that contains the
+     * given one, or null if it cannot be told
+     */
+    private static String topLevelNameOf(Object element) {
+        Object current = element;
+        while (current instanceof OwnedBy) {
+            final OwnedBy.OptionalOwner<?> owner = ((OwnedBy<?>) current).getOwner();
+            if (!owner.isDefined()) {
+                return null;
+            }
+            if (owner.get() instanceof Deployment) {
+                return nameOf(current);
+            }
+            current = owner.get();
+        }
+        return null;
+    }
+
+    private static String nameOf(Object element) {
+        return (element instanceof NamedElement) ? ((NamedElement) element).getName() : null;
     }
 
     public Coordinator(String initModel) {
@@ -185,13 +449,20 @@ public class Coordinator {
         if (reception != null)
             reception.start();
         notificationCentre.coordinator = this;
-        notificationCentre.startListening();
     }
 
     public void removeListener(PeerStub from){
         notificationCentre.removeListener(from);
     }
 
+    /**
+     * @return the delivery metrics of each listener (including how many
+     * changes were dropped because it could not keep up), by listener ID
+     */
+    public Map<String, NodificationCentre.Metrics> getNotificationMetrics() {
+        return notificationCentre.getMetrics();
+    }
+
     public void setReception(CommandReception reception) {
         this.reception = reception;
     }
@@ -200,21 +471,86 @@ public class Coordinator {
         //Do something before, such as record every instruction
         this.lastInstruction = inst;
         inst.fromPeer = from.getID();
-        return executor.execute(inst, changeList);
+        final List<Change> changes = new ArrayList<Change>();
+        if (inst instanceof GetSnapshot) {
+            final ModelSnapshot current = getSnapshot();
+            if (current == null) {
+                return null;
+            }
+            final GetSnapshot query = (GetSnapshot) inst;
+            if (query.since != null && query.path != null && "/".equals(query.path.literal)) {
+                return sync(query.since, current);
+            }
+            return inst.execute(current.getModel(), changes);
+        }
+        synchronized (executor) {
+            final Object result = executor.execute(inst, changes);
+            commit(changes);
+            if (!changes.isEmpty() || inst instanceof Extended) {
+                writes++;
+            }
+            if (inst instanceof Extended) {
+                inPlaceWrites++;
+            }
+            return result;
+        }
         //Do something after, such as...
     }
 
+    /**
+     * Record the given changes and push them to the listeners, so that they
+     * get notified in the order the changes were committed
+     */
+    private void commit(List<Change> changes) {
+        synchronized (changeLog) {
+            changeLog.append(changes);
+            notificationCentre.publish(changes);
+        }
+    }
+
     public Object process(Listener listener, PeerStub from) {
         listener.id = listener.id + from.getID();
         if (listener.cancel) {
             notificationCentre.removeListener(listener);
         } else {
             listener.root = executor.repo.getRoot();
-            notificationCentre.addListener(listener, from);
+            final ModelSnapshot current = (listener.since != null) ? getSnapshot() : null;
+            synchronized (changeLog) {
+                if (listener.since != null) {
+                    resume(listener, from, current);
+                }
+                notificationCentre.addListener(listener, from);
+            }
         }
         return null;
     }
 
+    /**
+     * Send the peer the changes it missed since its cursor or, if they are no
+     * longer in the change log, a snapshot of the whole model followed by the
+     * changes committed after it was published
+     */
+    private void resume(Listener listener, PeerStub peer, ModelSnapshot current) {
+        List<Change> missed = changeLog.since(listener.since);
+        if (missed == null) {
+            journal.log(Level.INFO, ">> Changes since " + listener.since + " evicted, sending a snapshot to " + peer.getID());
+            Snapshot snapshot = new Snapshot();
+            snapshot.content = current.getJson();
+            snapshot.version = current.getVersion();
+            snapshot.sequence = current.getSequence();
+            peer.sendMessage(snapshot);
+            missed = changeLog.since(current.getSequence());
+            if (missed == null) {
+                return;
+            }
+        }
+        for (Change change : missed) {
+            if (listener.careFor(change)) {
+                peer.sendMessage(NodificationCentre.reprOf(change));
+            }
+        }
+    }
+
     public String process(String cmdLiteral, PeerStub from) {
 
         if (cmdLiteral.startsWith(ADDITIONAL_PREFIX)) {
@@ -224,10 +560,8 @@ public class Coordinator {
         }
 
 
-        Yaml yaml = CloudMLCmds.INSTANCE.getYaml();
-
         String ret = "";
-        for (Object cmd : yaml.loadAll(cmdLiteral)) {
+        for (Object cmd : CloudMLCmds.INSTANCE.loadAll(cmdLiteral)) {
             Object obj = null;
             if (cmd instanceof Instruction)
                 obj = process((Instruction) cmd, from);
@@ -241,6 +575,10 @@ public class Coordinator {
     }
 
     public String codec(Object object) {
+        final ModelSnapshot current = snapshot;
+        if (current != null && current.isModel(object)) {
+            return current.getJson();
+        }
         if (object instanceof Deployment) {
             try {
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -251,10 +589,12 @@ public class Coordinator {
                 Logger.getLogger(Coordinator.class.getName()).log(Level.SEVERE, null, ex);
                 return null;
             }
+        } else if (object instanceof Snapshot) {
+            return CloudMLCmds.INSTANCE.dump(object);
         } else {
             Snapshot snapshot = new Snapshot();
             snapshot.content = object;
-            return CloudMLCmds.INSTANCE.getYaml().dump(snapshot);
+            return CloudMLCmds.INSTANCE.dump(snapshot);
         }
 
     }
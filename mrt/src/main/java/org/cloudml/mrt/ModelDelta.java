@@ -0,0 +1,301 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.mrt;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The difference between two JSON encodings of a deployment model, so that
+ * peers that already share a version of the model only exchange what
+ * changed since.
+ *
+ * The top-level collections of the model (providers, vmInstances, etc.) are
+ * compared element by element, using the name of the elements as key. The
+ * delta holds the elements added or changed in full, and only the names of
+ * the removed ones. Other top-level values are replaced as a whole when they
+ * differ.
+ *
+ * When the names of the only elements that may have changed are known, from
+ * the change log of the coordinator for instance, the other elements are not
+ * compared, so that the cost of a delta depends on the size of the change
+ * rather than on the size of the model.
+ */
+public final class ModelDelta {
+
+    private static final String NAME = "name";
+    private static final String SET = "set";
+    private static final String UNSET = "unset";
+    private static final String UPSERT = "upsert";
+    private static final String REMOVE = "remove";
+
+    private final JsonObject content;
+
+    private ModelDelta(JsonObject content) {
+        this.content = content;
+    }
+
+    /**
+     * @return the changes that turn the base model into the target one
+     */
+    public static ModelDelta between(String baseJson, String targetJson) {
+        return between(new Index(baseJson), new Index(targetJson), null);
+    }
+
+    /**
+     * @return the changes that turn the base model into the target one,
+     * knowing that, in their top-level collections, only the elements with
+     * the given names may differ. All the elements are compared if no names
+     * are given. The other top-level values are always compared.
+     */
+    static ModelDelta between(Index base, Index target, Collection<String> names) {
+        final JsonObject set = new JsonObject();
+        final JsonArray unset = new JsonArray();
+        final JsonObject upsert = new JsonObject();
+        final JsonObject remove = new JsonObject();
+
+        for (Map.Entry<String, JsonElement> entry : base.model.entrySet()) {
+            if (!target.model.has(entry.getKey())) {
+                unset.add(new JsonPrimitive(entry.getKey()));
+            }
+        }
+        for (Map.Entry<String, JsonElement> entry : target.model.entrySet()) {
+            final String key = entry.getKey();
+            final Map<String, JsonElement> previous = base.collections.get(key);
+            final Map<String, JsonElement> current = target.collections.get(key);
+            if (previous == null || current == null) {
+                if (!entry.getValue().equals(base.model.get(key))) {
+                    set.add(key, entry.getValue());
+                }
+                continue;
+            }
+            final JsonArray changed = new JsonArray();
+            final JsonArray removed = new JsonArray();
+            for (String name : (names != null) ? names : namesIn(current, previous)) {
+                final JsonElement element = current.get(name);
+                if (element == null) {
+                    if (previous.containsKey(name)) {
+                        removed.add(new JsonPrimitive(name));
+                    }
+                } else if (!element.equals(previous.get(name))) {
+                    changed.add(element);
+                }
+            }
+            if (changed.size() > 0) {
+                upsert.add(key, changed);
+            }
+            if (removed.size() > 0) {
+                remove.add(key, removed);
+            }
+        }
+
+        final JsonObject delta = new JsonObject();
+        addIfNotEmpty(delta, SET, set);
+        if (unset.size() > 0) {
+            delta.add(UNSET, unset);
+        }
+        addIfNotEmpty(delta, UPSERT, upsert);
+        addIfNotEmpty(delta, REMOVE, remove);
+        return new ModelDelta(delta);
+    }
+
+    public static ModelDelta parse(String json) {
+        return new ModelDelta(new JsonParser().parse(json).getAsJsonObject());
+    }
+
+    public boolean isEmpty() {
+        return content.entrySet().isEmpty();
+    }
+
+    /**
+     * @return the JSON encoding of the target model, given the one of the
+     * base model this delta was computed against
+     */
+    public String applyTo(String baseJson) {
+        final JsonObject model = new JsonParser().parse(baseJson).getAsJsonObject();
+        if (content.has(UNSET)) {
+            for (JsonElement key : content.getAsJsonArray(UNSET)) {
+                model.remove(key.getAsString());
+            }
+        }
+        if (content.has(SET)) {
+            for (Map.Entry<String, JsonElement> entry : content.getAsJsonObject(SET).entrySet()) {
+                model.add(entry.getKey(), entry.getValue());
+            }
+        }
+        if (content.has(REMOVE)) {
+            for (Map.Entry<String, JsonElement> entry : content.getAsJsonObject(REMOVE).entrySet()) {
+                final Set<String> removed = new HashSet<String>();
+                for (JsonElement name : entry.getValue().getAsJsonArray()) {
+                    removed.add(name.getAsString());
+                }
+                final JsonArray remaining = new JsonArray();
+                for (JsonElement element : collection(model, entry.getKey())) {
+                    if (!removed.contains(nameOf(element))) {
+                        remaining.add(element);
+                    }
+                }
+                model.add(entry.getKey(), remaining);
+            }
+        }
+        if (content.has(UPSERT)) {
+            for (Map.Entry<String, JsonElement> entry : content.getAsJsonObject(UPSERT).entrySet()) {
+                final Map<String, JsonElement> upserted = new LinkedHashMap<String, JsonElement>();
+                for (JsonElement element : entry.getValue().getAsJsonArray()) {
+                    upserted.put(nameOf(element), element);
+                }
+                final JsonArray result = new JsonArray();
+                for (JsonElement element : collection(model, entry.getKey())) {
+                    final JsonElement replacement = upserted.remove(nameOf(element));
+                    result.add(replacement != null ? replacement : element);
+                }
+                for (JsonElement added : upserted.values()) {
+                    result.add(added);
+                }
+                model.add(entry.getKey(), result);
+            }
+        }
+        return model.toString();
+    }
+
+    @Override
+    public String toString() {
+        return content.toString();
+    }
+
+    /**
+     * @return a short fingerprint of the given JSON encoding of a model, by
+     * which peers refer to the version a delta applies to. It is computed on
+     * the compact form of the JSON, so that encodings that only differ in
+     * their layout share the same digest.
+     */
+    public static String digestOf(String json) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1").digest(canonical(json).getBytes("UTF-8"));
+            final StringBuilder hexa = new StringBuilder(2 * digest.length);
+            for (byte each : digest) {
+                hexa.append(String.format("%02x", each));
+            }
+            return hexa.toString();
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String canonical(String json) {
+        try {
+            return new JsonParser().parse(json).toString();
+        } catch (JsonParseException e) {
+            return json;
+        }
+    }
+
+    private static JsonArray collection(JsonObject model, String key) {
+        final JsonElement elements = model.get(key);
+        if (elements == null || !elements.isJsonArray()) {
+            return new JsonArray();
+        }
+        return elements.getAsJsonArray();
+    }
+
+    private static String nameOf(JsonElement element) {
+        if (!element.isJsonObject()) {
+            return null;
+        }
+        final JsonElement name = element.getAsJsonObject().get(NAME);
+        if (name == null || !name.isJsonPrimitive()) {
+            return null;
+        }
+        return name.getAsString();
+    }
+
+    /**
+     * @return the elements of the given value by name, in order, or null if
+     * it is not an array of uniquely named elements, which can be compared
+     * element by element
+     */
+    private static Map<String, JsonElement> byName(JsonElement value) {
+        if (!value.isJsonArray()) {
+            return null;
+        }
+        final Map<String, JsonElement> elements = new LinkedHashMap<String, JsonElement>();
+        for (JsonElement element : value.getAsJsonArray()) {
+            final String name = nameOf(element);
+            if (name == null || elements.put(name, element) != null) {
+                return null;
+            }
+        }
+        return elements;
+    }
+
+    private static Set<String> namesIn(Map<String, JsonElement> current, Map<String, JsonElement> previous) {
+        final Set<String> names = new LinkedHashSet<String>(current.keySet());
+        names.addAll(previous.keySet());
+        return names;
+    }
+
+    private static void addIfNotEmpty(JsonObject delta, String key, JsonObject part) {
+        if (!part.entrySet().isEmpty()) {
+            delta.add(key, part);
+        }
+    }
+
+    /**
+     * The JSON encoding of a model, parsed once, with its top-level
+     * collections indexed by the names of their elements. It must not be
+     * modified, as deltas share its elements.
+     */
+    static final class Index {
+
+        private final JsonObject model;
+        private final Map<String, Map<String, JsonElement>> collections = new HashMap<String, Map<String, JsonElement>>();
+
+        Index(String json) {
+            this.model = new JsonParser().parse(json).getAsJsonObject();
+            for (Map.Entry<String, JsonElement> entry : model.entrySet()) {
+                final Map<String, JsonElement> elements = byName(entry.getValue());
+                if (elements != null) {
+                    collections.put(entry.getKey(), elements);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,151 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.mrt;
+
+import java.io.ByteArrayInputStream;
+import java.io.UnsupportedEncodingException;
+import org.cloudml.codecs.JsonCodec;
+import org.cloudml.core.Deployment;
+
+/**
+ * An immutable version of the model, as published by the coordinator once a
+ * command has been committed. Readers share the same version and never see
+ * the changes made afterwards, nor take any lock to read it.
+ *
+ * The version is kept in its JSON form, and only decoded into a Deployment
+ * the first time a reader needs to navigate it. This decoded model belongs to
+ * the snapshot and must not be modified.
+ */
+public final class ModelSnapshot {
+
+    private final long version;
+    private final long sequence;
+    private final long epoch;
+    private final String json;
+    private final Object origin;
+    private volatile Deployment model;
+    private volatile ModelDelta.Index index;
+
+    ModelSnapshot(long version, long sequence, long epoch, String json, Object origin) {
+        this.version = version;
+        this.sequence = sequence;
+        this.epoch = epoch;
+        this.json = json;
+        this.origin = origin;
+    }
+
+    /**
+     * @return the number of this version, which grows with every publication
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the sequence number of the last change included in this version
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the number of modifications made in place, rather than through
+     * commands, before this version was published, or -1 if some were still
+     * going on. Between two versions of the same epoch, the change log tells
+     * everything that changed.
+     */
+    long getEpoch() {
+        return epoch;
+    }
+
+    public String getJson() {
+        return json;
+    }
+
+    /**
+     * @return the model as it was when this version was published
+     */
+    public Deployment getModel() {
+        Deployment result = model;
+        if (result == null) {
+            synchronized (this) {
+                result = model;
+                if (result == null) {
+                    result = decode();
+                    model = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the JSON encoding of this version, parsed and indexed the first
+     * time a delta is computed against or towards it
+     */
+    ModelDelta.Index getIndex() {
+        ModelDelta.Index result = index;
+        if (result == null) {
+            synchronized (this) {
+                result = index;
+                if (result == null) {
+                    result = new ModelDelta.Index(json);
+                    index = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    boolean isModel(Object candidate) {
+        return candidate != null && candidate == model;
+    }
+
+    /**
+     * @return true if this version was taken from the given root model
+     */
+    boolean isOf(Object root) {
+        return origin == root;
+    }
+
+    /**
+     * @return true if both versions were taken from the same root model
+     */
+    boolean isOfSameModelAs(ModelSnapshot other) {
+        return origin == other.origin;
+    }
+
+    private Deployment decode() {
+        final Deployment decoded;
+        try {
+            decoded = (Deployment) new JsonCodec().load(new ByteArrayInputStream(json.getBytes("UTF-8")));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+        if (decoded == null) {
+            throw new IllegalStateException("Version " + version + " of the model cannot be decoded");
+        }
+        return decoded;
+    }
+
+}
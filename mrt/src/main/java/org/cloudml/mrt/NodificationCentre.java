@@ -20,52 +20,120 @@
  * Public License along with CloudML. If not, see
  * <http://www.gnu.org/licenses/>.
  */
-
 package org.cloudml.mrt;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.cloudml.mrt.cmd.abstracts.Change;
 import org.cloudml.mrt.cmd.abstracts.Listener;
+import org.cloudml.mrt.cmd.gen.Ack;
 
 /**
+ * Push the changes committed by the coordinator to the listeners registered by
+ * the peers.
+ *
+ * Each listener has its own bounded queue, drained by a pool of delivery
+ * threads, a few changes per turn, so that a slow peer neither delays the
+ * others nor the coordinator. Publishing never blocks, since the coordinator
+ * holds its locks meanwhile: when the queue of a listener is full, the
+ * changes are dropped for this listener, and counted in its metrics, until
+ * the queue is empty again. The peer then receives an acknowledgement with
+ * the status {@link #RESYNC}, carrying the sequence of the last change it
+ * was sent, from which it can resume to catch up.
  *
  * @author huis
  */
 public class NodificationCentre {
+
+    private static final Logger journal = Logger.getLogger(NodificationCentre.class.getName());
+
+    private static final int QUEUE_CAPACITY = Integer.getInteger("cloudml.notification.queueCapacity", 1024);
+    private static final int DELIVERIES_PER_TURN = Integer.getInteger("cloudml.notification.deliveriesPerTurn", 64);
+
+    /**
+     * The status of the acknowledgement telling a peer that the changes
+     * following its sequence were dropped
+     */
+    public static final String RESYNC = "resync";
+
     Coordinator coordinator;
-    Map<Listener, PeerStub> listeners = new HashMap<Listener, PeerStub>();
-    long lastCheck = 0;
-    
+    private final Map<Listener, Subscription> subscriptions = new ConcurrentHashMap<Listener, Subscription>();
+    private final ExecutorService deliveries = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger counter = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable task) {
+            final Thread thread = new Thread(task, "notification-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
     public void addListener(Listener listener, PeerStub peer){
-        listeners.put(listener, peer);
-        System.out.printf("----------Listener added: %s", listener);
+        final Subscription previous = subscriptions.put(listener, new Subscription(listener, peer));
+        if (previous != null) {
+            previous.cancel();
+        }
+        journal.log(Level.INFO, ">> Listener added: " + listener);
     }
-    
-    public void checkAndNotify(){
-        int start = Math.abs(Collections.binarySearch(coordinator.changeList, Change.fakeChangeForSearch(lastCheck))+1);
-        for(int i = start; i < coordinator.changeList.size(); i ++){
-            Change chng = coordinator.changeList.get(i);
-            for(Map.Entry<Listener,PeerStub> entry : listeners.entrySet()){
-                if(entry.getKey().careFor(chng))
-                    entry.getValue().sendMessage(chng.obtainRepr());
-            }
-            
+
+    /**
+     * Hand the given changes, just committed, to every listener. The
+     * coordinator calls it in commit order.
+     */
+    void publish(List<Change> changes) {
+        if (changes.isEmpty()) {
+            return;
+        }
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.offer(changes);
         }
-        lastCheck = System.currentTimeMillis();
     }
 
     void removeListener(Listener listener) {
-        listeners.remove(listener);
+        final Subscription subscription = subscriptions.remove(listener);
+        if (subscription != null) {
+            subscription.cancel();
+        }
     }
 
     void removeListener(PeerStub from){
-        listeners.values().removeAll(Collections.singleton(from));
+        final Iterator<Subscription> iterator = subscriptions.values().iterator();
+        while (iterator.hasNext()) {
+            final Subscription subscription = iterator.next();
+            if (subscription.peer.equals(from)) {
+                iterator.remove();
+                subscription.cancel();
+            }
+        }
     }
-    
+
+    /**
+     * @return the delivery metrics of each listener, indexed by listener ID
+     */
+    public Map<String, Metrics> getMetrics() {
+        final Map<String, Metrics> metrics = new HashMap<String, Metrics>();
+        for (Subscription subscription : subscriptions.values()) {
+            metrics.put(subscription.listener.getID(), subscription.metrics());
+        }
+        return Collections.unmodifiableMap(metrics);
+    }
+
     public static class ListeningTarget{
         PeerStub peer;
         String id;
@@ -80,23 +148,220 @@ public class NodificationCentre {
             
         }
     }
-    
-    public void startListening(){
-        new Thread(){
-            @Override
-            public void run(){
-                while(true){
-                    try {
-                        sleep(500);
-                        checkAndNotify();
-                    } catch (InterruptedException ex) {
-                        Logger.getLogger(NodificationCentre.class.getName()).log(Level.SEVERE, null, ex);
-                    } catch (Exception ex){
-                        ex.printStackTrace();
-                        Logger.getLogger(NodificationCentre.class.getName()).log(Level.SEVERE, null, ex);
+
+    /**
+     * A snapshot of the delivery metrics of one listener. Latencies are
+     * measured from the publication of a change to its delivery to the peer.
+     */
+    public static class Metrics {
+
+        private final int queueDepth;
+        private final int maxQueueDepth;
+        private final long delivered;
+        private final long dropped;
+        private final long averageLatency;
+        private final long maxLatency;
+
+        Metrics(int queueDepth, int maxQueueDepth, long delivered, long dropped, long averageLatency, long maxLatency) {
+            this.queueDepth = queueDepth;
+            this.maxQueueDepth = maxQueueDepth;
+            this.delivered = delivered;
+            this.dropped = dropped;
+            this.averageLatency = averageLatency;
+            this.maxLatency = maxLatency;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public int getMaxQueueDepth() {
+            return maxQueueDepth;
+        }
+
+        public long getDelivered() {
+            return delivered;
+        }
+
+        public long getDropped() {
+            return dropped;
+        }
+
+        /**
+         * @return the average delivery latency, in microseconds
+         */
+        public long getAverageLatency() {
+            return averageLatency;
+        }
+
+        /**
+         * @return the maximum delivery latency, in microseconds
+         */
+        public long getMaxLatency() {
+            return maxLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("depth: %d (max %d), delivered: %d, dropped: %d, latency: %d us (max %d us)",
+                    queueDepth, maxQueueDepth, delivered, dropped, averageLatency, maxLatency);
+        }
+
+    }
+
+    private static class Pending {
+
+        private final Change change;
+        private final long publishedAt = System.nanoTime();
+
+        public Pending(Change change) {
+            this.change = change;
+        }
+
+    }
+
+    private class Subscription implements Runnable {
+
+        private final Listener listener;
+        private final PeerStub peer;
+        private final BlockingQueue<Pending> queue = new ArrayBlockingQueue<Pending>(QUEUE_CAPACITY);
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+        private volatile boolean cancelled = false;
+        /**
+         * Whether changes are being dropped, until the peer is told to resync
+         * from the last change queued
+         */
+        private volatile boolean overflowing = false;
+        private long lastQueued = 0;
+
+        private final AtomicInteger maxQueueDepth = new AtomicInteger();
+        private final AtomicLong delivered = new AtomicLong();
+        private final AtomicLong dropped = new AtomicLong();
+        private final AtomicLong totalLatency = new AtomicLong();
+        private final AtomicLong maxLatency = new AtomicLong();
+
+        public Subscription(Listener listener, PeerStub peer) {
+            this.listener = listener;
+            this.peer = peer;
+        }
+
+        /**
+         * Queue the given changes, without ever waiting for some room. Only
+         * called by the coordinator, in commit order.
+         */
+        public void offer(List<Change> changes) {
+            for (Change change : changes) {
+                if (cancelled) {
+                    return;
+                }
+                if (overflowing) {
+                    dropped.incrementAndGet();
+                    continue;
+                }
+                if (!queue.offer(new Pending(change))) {
+                    dropped.incrementAndGet();
+                    overflowing = true;
+                    journal.log(Level.WARNING, ">> Queue of listener " + listener.getID() + " is full, dropping changes from " + change.sequence);
+                    continue;
+                }
+                if (change.sequence != null) {
+                    lastQueued = change.sequence;
+                }
+                updateMax(maxQueueDepth, queue.size());
+            }
+            schedule();
+        }
+
+        public void cancel() {
+            cancelled = true;
+            queue.clear();
+            journal.log(Level.INFO, ">> Listener removed: " + listener.getID() + " (" + metrics() + ")");
+        }
+
+        public Metrics metrics() {
+            final long count = delivered.get();
+            return new Metrics(queue.size(), maxQueueDepth.get(), count, dropped.get(),
+                    count == 0 ? 0 : totalLatency.get() / count / 1000, maxLatency.get() / 1000);
+        }
+
+        private void schedule() {
+            if (!cancelled && (!queue.isEmpty() || overflowing) && scheduled.compareAndSet(false, true)) {
+                deliveries.execute(this);
+            }
+        }
+
+        /**
+         * Deliver a few changes and, if some remain, schedule the next turn,
+         * so that the delivery threads are shared fairly among listeners.
+         * Once the changes queued before an overflow are delivered, tell the
+         * peer to resync.
+         */
+        @Override
+        public void run() {
+            try {
+                final List<Pending> turn = new ArrayList<Pending>(DELIVERIES_PER_TURN);
+                queue.drainTo(turn, DELIVERIES_PER_TURN);
+                for (Pending pending : turn) {
+                    if (cancelled) {
+                        return;
                     }
+                    deliver(pending);
+                }
+                if (overflowing && queue.isEmpty() && !cancelled) {
+                    resync();
+                }
+            } finally {
+                scheduled.set(false);
+                schedule();
+            }
+        }
+
+        private void resync() {
+            final Ack resync = new Ack();
+            resync.status = RESYNC;
+            resync.sequence = lastQueued;
+            try {
+                peer.sendMessage(resync);
+            } catch (Exception ex) {
+                journal.log(Level.SEVERE, ">> Unable to notify " + listener.getID(), ex);
+            }
+            journal.log(Level.WARNING, ">> Queue of listener " + listener.getID() + " has room again, resync from " + lastQueued + " (" + metrics() + ")");
+            overflowing = false;
+        }
+
+        private void deliver(Pending pending) {
+            try {
+                if (listener.careFor(pending.change)) {
+                    peer.sendMessage(reprOf(pending.change));
                 }
+            } catch (Exception ex) {
+                journal.log(Level.SEVERE, ">> Unable to notify " + listener.getID(), ex);
             }
-        }.start();
+            final long latency = System.nanoTime() - pending.publishedAt;
+            delivered.incrementAndGet();
+            totalLatency.addAndGet(latency);
+            updateMax(maxLatency, latency);
+        }
+
+    }
+
+    static Change reprOf(Change change) {
+        final Change repr = change.obtainRepr();
+        repr.sequence = change.sequence;
+        return repr;
+    }
+
+    private static void updateMax(AtomicInteger max, int value) {
+        int current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
+    }
+
+    private static void updateMax(AtomicLong max, long value) {
+        long current = max.get();
+        while (value > current && !max.compareAndSet(current, value)) {
+            current = max.get();
+        }
     }
 }
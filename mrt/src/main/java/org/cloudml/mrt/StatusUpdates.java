@@ -0,0 +1,256 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.mrt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.cloudml.core.ComponentInstance;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.ExternalComponentInstance;
+import org.cloudml.core.InternalComponentInstance;
+import org.cloudml.core.VMInstance;
+import org.cloudml.mrt.cmd.abstracts.Modification;
+import org.cloudml.mrt.cmd.abstracts.Property;
+import org.cloudml.mrt.cmd.abstracts.XPath;
+import org.cloudml.mrt.cmd.gen.Commit;
+import org.cloudml.mrt.cmd.gen.Set;
+import org.cloudml.mrt.sample.SystemOutPeerStub;
+
+/**
+ * Coalesce the status and address updates reported by the deployer and the
+ * monitors, and apply them in batches.
+ *
+ * Updates are queued without blocking the caller. A background thread waits
+ * for 'cloudml.statusUpdates.linger' ms after the first pending update, then
+ * applies all the pending ones as a single commit per committer, hence a
+ * single notification. Only the last value reported for a property of a
+ * component is applied. Callers that need an update to be visible right away
+ * flush the pending ones themselves.
+ *
+ * @author huis
+ */
+class StatusUpdates implements Runnable {
+
+    private static final Logger journal = Logger.getLogger(StatusUpdates.class.getName());
+
+    private static final long LINGER = Long.getLong("cloudml.statusUpdates.linger", 50L);
+
+    private final Coordinator coordinator;
+    private final Object applying = new Object();
+    private final ScheduledExecutorService worker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable task) {
+            final Thread thread = new Thread(task, "status-updates");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private Map<String, Update> pending = new LinkedHashMap<String, Update>();
+    private boolean scheduled = false;
+
+    public StatusUpdates(Coordinator coordinator) {
+        this.coordinator = coordinator;
+    }
+
+    public void status(String name, String status, String identity) {
+        updateOf(name, identity).status = status;
+        schedule();
+    }
+
+    public void status(String name, ComponentInstance.State status, String identity) {
+        final Update update = updateOf(name, identity);
+        update.status = status.toString();
+        update.vmStatus = status;
+        schedule();
+    }
+
+    public void publicAddress(String name, String address, String identity) {
+        updateOf(name, identity).publicAddress = address;
+        schedule();
+    }
+
+    /**
+     * Apply all the pending updates now, in the calling thread
+     */
+    public void flush() {
+        synchronized (applying) {
+            apply(takePending());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            flush();
+        } catch (Exception ex) {
+            journal.log(Level.SEVERE, ">> Could not update the model!", ex);
+        }
+    }
+
+    private synchronized Update updateOf(String name, String identity) {
+        final String key = identity + "/" + name;
+        Update update = pending.get(key);
+        if (update == null) {
+            update = new Update(name, identity);
+            pending.put(key, update);
+        }
+        return update;
+    }
+
+    private synchronized void schedule() {
+        if (!scheduled) {
+            scheduled = true;
+            worker.schedule(this, LINGER, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private synchronized List<Update> takePending() {
+        final List<Update> updates = new ArrayList<Update>(pending.values());
+        pending = new LinkedHashMap<String, Update>();
+        scheduled = false;
+        return updates;
+    }
+
+    private void apply(List<Update> updates) {
+        if (updates.isEmpty()) {
+            return;
+        }
+        final Deployment root = (Deployment) coordinator.executor.repo.getRoot();
+        if (root == null) {
+            journal.log(Level.INFO, ">> No model loaded, " + updates.size() + " update(s) ignored");
+            return;
+        }
+        final Map<String, List<Update>> byCommitter = new LinkedHashMap<String, List<Update>>();
+        for (Update update : updates) {
+            List<Update> batch = byCommitter.get(update.identity);
+            if (batch == null) {
+                batch = new ArrayList<Update>();
+                byCommitter.put(update.identity, batch);
+            }
+            batch.add(update);
+        }
+        for (Map.Entry<String, List<Update>> entry : byCommitter.entrySet()) {
+            commit(root, entry.getKey(), entry.getValue());
+        }
+    }
+
+    private void commit(Deployment root, String identity, List<Update> updates) {
+        final List<Modification> modifications = new ArrayList<Modification>();
+        final List<Update> applied = new ArrayList<Update>();
+        for (Update update : updates) {
+            final ComponentInstance<?> instance = root.getComponentInstances().firstNamed(update.name);
+            if (instance == null) {
+                journal.log(Level.INFO, "Machine: " + update.name + " not in this model");
+                continue;
+            }
+            final Set set = update.asSet(instance);
+            if (set != null) {
+                modifications.add(set);
+                applied.add(update);
+            }
+        }
+        if (modifications.isEmpty()) {
+            return;
+        }
+        journal.log(Level.INFO, ">> Updating the model (" + modifications.size() + " component(s))..");
+        final Commit commit = new Commit();
+        commit.modifications = modifications;
+        synchronized (coordinator.executor) {
+            coordinator.process(commit, new SystemOutPeerStub(identity));
+            for (Update update : applied) {
+                final ComponentInstance<?> instance = root.getComponentInstances().firstNamed(update.name);
+                if (update.vmStatus != null && instance instanceof VMInstance) {
+                    ((VMInstance) instance).setStatus(update.vmStatus);
+                }
+            }
+        }
+        for (Update update : applied) {
+            journal.log(Level.INFO, ">> " + update + " applied");
+        }
+    }
+
+    private static class Update {
+
+        private final String name;
+        private final String identity;
+        private String status;
+        private ComponentInstance.State vmStatus;
+        private String publicAddress;
+
+        public Update(String name, String identity) {
+            this.name = name;
+            this.identity = identity;
+        }
+
+        /**
+         * @return the modification needed to bring the given component up to
+         * date, or null if it already is
+         */
+        public Set asSet(ComponentInstance<?> instance) {
+            final Map<Property, Object> keyValues = new HashMap<Property, Object>();
+            if (status != null && !status.equals(String.valueOf(statusOf(instance)))) {
+                keyValues.put(new Property("status"), status);
+            }
+            if (publicAddress != null && instance instanceof ExternalComponentInstance) {
+                final String current = ((ExternalComponentInstance<?>) instance).getPublicAddress();
+                if (current != null && !publicAddress.equals(current)) { // as before, only replace an existing address
+                    keyValues.put(new Property("publicAddress"), publicAddress);
+                }
+            }
+            if (keyValues.isEmpty()) {
+                return null;
+            }
+            final Set set = new Set();
+            set.parent = new XPath("/componentInstances[name='" + name + "']");
+            set.keyValues = keyValues;
+            return set;
+        }
+
+        private static Object statusOf(ComponentInstance<?> instance) {
+            if (instance instanceof ExternalComponentInstance) {
+                return ((ExternalComponentInstance<?>) instance).getStatus();
+            }
+            if (instance instanceof InternalComponentInstance) {
+                return ((InternalComponentInstance) instance).getStatus();
+            }
+            return null;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Update of %s (status: %s, public address: %s)", name, status, publicAddress);
+        }
+
+    }
+
+}
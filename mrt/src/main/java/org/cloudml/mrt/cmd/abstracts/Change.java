@@ -22,28 +22,21 @@
  */
 package org.cloudml.mrt.cmd.abstracts;
 
-public class Change implements Comparable<Change>{
+public class Change {
     
     public String fromPeer = "";
     
-    Long timeStamp;
-    public Change(){
-        timeStamp = System.currentTimeMillis();
-    }
+    /**
+     * Position of this change in the change log of the coordinator, which
+     * peers use as a cursor to resume from
+     */
+    public Long sequence = null;
 
-    @Override
-    public int compareTo(Change o) {
-       //return Long.compare(timeStamp, ((Change)o).timeStamp);
-        return timeStamp.compareTo(((Change)o).timeStamp);
+    public Change(){
     }
     
     public Change obtainRepr(){
     	return this;
     }
     
-    static final Change fakeChange = new Change();
-    public static Change fakeChangeForSearch(long timeStamp){
-        fakeChange.timeStamp = timeStamp;
-        return fakeChange;
-    }
 }
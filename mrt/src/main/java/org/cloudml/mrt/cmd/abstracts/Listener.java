@@ -38,6 +38,12 @@ public class Listener {
     public boolean cancel = false;
     public Object root = null;
     
+    /**
+     * Sequence of the last change this peer has received, if it resumes a
+     * former session
+     */
+    public Long since = null;
+    
     public String getID(){
         return id;
     }
@@ -22,24 +22,98 @@
  */
 package org.cloudml.mrt.cmd.abstracts;
 
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.commons.jxpath.CompiledExpression;
 import org.apache.commons.jxpath.JXPathContext;
+import org.apache.commons.jxpath.JXPathNotFoundException;
+import org.cloudml.core.Deployment;
+import org.cloudml.core.NamedElement;
+import org.cloudml.core.collections.NamedElementGroup;
 
+/**
+ * A path in the model. The compiled form of each literal is cached, and the
+ * paths that select an element of the deployment by name (e.g.,
+ * "/componentInstances[name='x']/status") are resolved through the name
+ * indexes of the deployment rather than through JXPath.
+ */
 public class XPath {
+
+    private static final int CACHE_SIZE = Integer.getInteger("cloudml.xpath.cacheSize", 1024);
+
+    private static final Map<String, CompiledExpression> compiled = Collections.synchronizedMap(new LinkedHashMap<String, CompiledExpression>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CompiledExpression> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    });
+
+    private static final Pattern NAMED_ELEMENT = Pattern.compile("^/?(\\w+)\\[name='([^']*)'\\](?:/([^/].*))?$");
+
 	public String literal;
 	public XPath(String literal){
 		this.literal = literal;
 	}
     
     public Object query(Object context){
-        JXPathContext jpathcontext = JXPathContext.newContext(context);
-        return jpathcontext.getValue(literal);
+        if (context instanceof Deployment) {
+            final Matcher matcher = NAMED_ELEMENT.matcher(literal);
+            if (matcher.matches()) {
+                final NamedElementGroup<?> group = groupOf((Deployment) context, matcher.group(1));
+                if (group != null) {
+                    return query(group, matcher.group(2), matcher.group(3));
+                }
+            }
+        }
+        return compile(literal).getValue(JXPathContext.newContext(context));
     }
     
     public Iterator iterate(Object context){
-    	JXPathContext jpathcontext = JXPathContext.newContext(context);
-    	return jpathcontext.iterate(literal);
+    	return compile(literal).iterate(JXPathContext.newContext(context));
+    }
+
+    private Object query(NamedElementGroup<?> group, String name, String remainder) {
+        final NamedElement element = group.firstNamed(name);
+        if (element == null) {
+            throw new JXPathNotFoundException("No value for xpath: " + literal);
+        }
+        if (remainder == null) {
+            return element;
+        }
+        return compile(remainder).getValue(JXPathContext.newContext(element));
+    }
+
+    private static NamedElementGroup<?> groupOf(Deployment deployment, String collection) {
+        if ("componentInstances".equals(collection)) {
+            return deployment.getComponentInstances();
+        } else if ("components".equals(collection)) {
+            return deployment.getComponents();
+        } else if ("relationshipInstances".equals(collection)) {
+            return deployment.getRelationshipInstances();
+        } else if ("relationships".equals(collection)) {
+            return deployment.getRelationships();
+        } else if ("executeInstances".equals(collection)) {
+            return deployment.getExecuteInstances();
+        } else if ("providers".equals(collection)) {
+            return deployment.getProviders();
+        } else if ("clouds".equals(collection)) {
+            return deployment.getClouds();
+        }
+        return null;
+    }
+
+    private static CompiledExpression compile(String literal) {
+        CompiledExpression expression = compiled.get(literal);
+        if (expression == null) {
+            expression = JXPathContext.compile(literal);
+            compiled.put(literal, expression);
+        }
+        return expression;
     }
     
 }
@@ -25,6 +25,7 @@ package org.cloudml.mrt.cmd.gen;
 import com.google.common.base.Objects;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import org.cloudml.mrt.cmd.abstracts.Property;
 import org.cloudml.mrt.cmd.abstracts.XPath;
@@ -36,78 +37,89 @@ import org.eclipse.xtext.xbase.lib.StringExtensions;
 import org.yaml.snakeyaml.TypeDescription;
 import org.yaml.snakeyaml.Yaml;
 import org.yaml.snakeyaml.constructor.Constructor;
+import org.yaml.snakeyaml.nodes.Tag;
 import org.yaml.snakeyaml.representer.Representer;
 
 @SuppressWarnings("all")
 public class CloudMLCmds {
-  public CloudMLCmds() {
-    yamlConstructor = new Constructor();
-    yamlRepresenter = new Representer();
-    yamlConstructor.addTypeDescription(new TypeDescription(GetSnapshot.class, "!getSnapshot"));
-    yamlRepresenter.addClassTag(GetSnapshot.class, new org.yaml.snakeyaml.nodes.Tag("!getSnapshot"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Terminate.class, "!terminate"));
-    yamlRepresenter.addClassTag(Terminate.class, new org.yaml.snakeyaml.nodes.Tag("!terminate"));
-    yamlConstructor.addTypeDescription(new TypeDescription(ListenToAdded.class, "!listenToAdded"));
-    yamlRepresenter.addClassTag(ListenToAdded.class, new org.yaml.snakeyaml.nodes.Tag("!listenToAdded"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Added.class, "!added"));
-    yamlRepresenter.addClassTag(Added.class, new org.yaml.snakeyaml.nodes.Tag("!added"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Remove.class, "!remove"));
-    yamlRepresenter.addClassTag(Remove.class, new org.yaml.snakeyaml.nodes.Tag("!remove"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Snapshot.class, "!snapshot"));
-    yamlRepresenter.addClassTag(Snapshot.class, new org.yaml.snakeyaml.nodes.Tag("!snapshot"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Ack.class, "!ack"));
-    yamlRepresenter.addClassTag(Ack.class, new org.yaml.snakeyaml.nodes.Tag("!ack"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Set.class, "!set"));
-    yamlRepresenter.addClassTag(Set.class, new org.yaml.snakeyaml.nodes.Tag("!set"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Extended.class, "!extended"));
-    yamlRepresenter.addClassTag(Extended.class, new org.yaml.snakeyaml.nodes.Tag("!extended"));
-    yamlConstructor.addTypeDescription(new TypeDescription(CreateAndAdd.class, "!createAndAdd"));
-    yamlRepresenter.addClassTag(CreateAndAdd.class, new org.yaml.snakeyaml.nodes.Tag("!createAndAdd"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Add.class, "!add"));
-    yamlRepresenter.addClassTag(Add.class, new org.yaml.snakeyaml.nodes.Tag("!add"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Create.class, "!create"));
-    yamlRepresenter.addClassTag(Create.class, new org.yaml.snakeyaml.nodes.Tag("!create"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Provision.class, "!provision"));
-    yamlRepresenter.addClassTag(Provision.class, new org.yaml.snakeyaml.nodes.Tag("!provision"));
-    yamlConstructor.addTypeDescription(new TypeDescription(ListenToFlush.class, "!listenToFlush"));
-    yamlRepresenter.addClassTag(ListenToFlush.class, new org.yaml.snakeyaml.nodes.Tag("!listenToFlush"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Flush.class, "!flush"));
-    yamlRepresenter.addClassTag(Flush.class, new org.yaml.snakeyaml.nodes.Tag("!flush"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Created.class, "!created"));
-    yamlRepresenter.addClassTag(Created.class, new org.yaml.snakeyaml.nodes.Tag("!created"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Updated.class, "!updated"));
-    yamlRepresenter.addClassTag(Updated.class, new org.yaml.snakeyaml.nodes.Tag("!updated"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Commit.class, "!commit"));
-    yamlRepresenter.addClassTag(Commit.class, new org.yaml.snakeyaml.nodes.Tag("!commit"));
-    yamlConstructor.addTypeDescription(new TypeDescription(RequestFlush.class, "!requestFlush"));
-    yamlRepresenter.addClassTag(RequestFlush.class, new org.yaml.snakeyaml.nodes.Tag("!requestFlush"));
-    yamlConstructor.addTypeDescription(new TypeDescription(Removed.class, "!removed"));
-    yamlRepresenter.addClassTag(Removed.class, new org.yaml.snakeyaml.nodes.Tag("!removed"));
-    yamlConstructor.addTypeDescription(new TypeDescription(ListenToAny.class, "!listenToAny"));
-    yamlRepresenter.addClassTag(ListenToAny.class, new org.yaml.snakeyaml.nodes.Tag("!listenToAny"));
-    yamlConstructor.addTypeDescription(new TypeDescription(org.cloudml.mrt.cmd.abstracts.XPath.class, "!xpath"));
-    yamlRepresenter.addClassTag(org.cloudml.mrt.cmd.abstracts.XPath.class, new org.yaml.snakeyaml.nodes.Tag("!xpath"));
-    yamlConstructor.addTypeDescription(new TypeDescription(org.cloudml.core.credentials.FileCredentials.class, "!FileCredential"));
-    yamlRepresenter.addClassTag(org.cloudml.core.credentials.FileCredentials.class, new org.yaml.snakeyaml.nodes.Tag("!FileCredential"));
-    
-    yaml = new Yaml(yamlConstructor, yamlRepresenter);
-    
+  /**
+   * The tag of every command and value class exchanged on the wire, resolved
+   * once and shared by the YAML parsers of all threads
+   */
+  private final static Map<Class<?>,Tag> TAGS = new LinkedHashMap<Class<?>,Tag>();
+  
+  static {
+    TAGS.put(GetSnapshot.class, new Tag("!getSnapshot"));
+    TAGS.put(Terminate.class, new Tag("!terminate"));
+    TAGS.put(ListenToAdded.class, new Tag("!listenToAdded"));
+    TAGS.put(Added.class, new Tag("!added"));
+    TAGS.put(Remove.class, new Tag("!remove"));
+    TAGS.put(Snapshot.class, new Tag("!snapshot"));
+    TAGS.put(Ack.class, new Tag("!ack"));
+    TAGS.put(Set.class, new Tag("!set"));
+    TAGS.put(Extended.class, new Tag("!extended"));
+    TAGS.put(CreateAndAdd.class, new Tag("!createAndAdd"));
+    TAGS.put(Add.class, new Tag("!add"));
+    TAGS.put(Create.class, new Tag("!create"));
+    TAGS.put(Provision.class, new Tag("!provision"));
+    TAGS.put(ListenToFlush.class, new Tag("!listenToFlush"));
+    TAGS.put(Flush.class, new Tag("!flush"));
+    TAGS.put(Created.class, new Tag("!created"));
+    TAGS.put(Updated.class, new Tag("!updated"));
+    TAGS.put(Commit.class, new Tag("!commit"));
+    TAGS.put(RequestFlush.class, new Tag("!requestFlush"));
+    TAGS.put(Removed.class, new Tag("!removed"));
+    TAGS.put(ListenToAny.class, new Tag("!listenToAny"));
+    TAGS.put(org.cloudml.mrt.cmd.abstracts.XPath.class, new Tag("!xpath"));
+    TAGS.put(org.cloudml.core.credentials.FileCredentials.class, new Tag("!FileCredential"));
   }
   
   public final static CloudMLCmds INSTANCE = new CloudMLCmds();
   
-  private Constructor yamlConstructor;
+  /**
+   * SnakeYAML parsers are not thread-safe, so that each thread that encodes
+   * or decodes commands gets its own one, built once
+   */
+  private final ThreadLocal<Yaml> yaml = new ThreadLocal<Yaml>() {
+    @Override
+    protected Yaml initialValue() {
+      return newYaml();
+    }
+  };
+  
+  public static Map<Object,String> tempObjects = java.util.Collections.synchronizedMap(new java.util.HashMap<Object,String>());
+  
+  public CloudMLCmds() {
+  }
   
-  private Representer yamlRepresenter;
+  /**
+   * @return the YAML parser of the calling thread. It must not be handed over
+   * to other threads.
+   */
+  public Yaml getYaml() {
+    return this.yaml.get();
+  }
   
-  private Yaml yaml;
+  public Object load(final String literal) {
+    return getYaml().load(literal);
+  }
   
-  private TypeDescription nouse;
+  public Iterable<Object> loadAll(final String literal) {
+    return getYaml().loadAll(literal);
+  }
   
-  public static Map<Object,String> tempObjects = new java.util.HashMap<Object,String>();
+  public String dump(final Object object) {
+    return getYaml().dump(object);
+  }
   
-  public Yaml getYaml() {
-    return this.yaml;
+  private static Yaml newYaml() {
+    final Constructor yamlConstructor = new Constructor();
+    final Representer yamlRepresenter = new Representer();
+    for (final Map.Entry<Class<?>,Tag> binding : TAGS.entrySet()) {
+      yamlConstructor.addTypeDescription(new TypeDescription(binding.getKey(), binding.getValue()));
+      yamlRepresenter.addClassTag(binding.getKey(), binding.getValue());
+    }
+    return new Yaml(yamlConstructor, yamlRepresenter);
   }
   
   public static Object convert(final String type, final Object v, final Object context) {
@@ -46,6 +46,7 @@ import org.eclipse.xtext.xbase.lib.Procedures.Procedure2;
  *   path : /nodeInstances
  *   codec : plain-text   #This is optional
  *   map: name            #optional
+ *   since: 12            #optional, with path / only: the delta since this version
  */
 @SuppressWarnings("all")
 public class GetSnapshot extends Instruction {
@@ -57,6 +58,8 @@ public class GetSnapshot extends Instruction {
   
   public Map<String,XPath> multimaps;
   
+  public Long since;
+  
   public GetSnapshot() {
   }
   
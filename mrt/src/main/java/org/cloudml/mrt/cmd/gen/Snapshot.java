@@ -39,6 +39,17 @@ public class Snapshot extends Change {
   
   public Object content;
   
+  /**
+   * The version of the model this snapshot describes
+   */
+  public Long version;
+  
+  /**
+   * If not null, the content is a delta against this version of the model,
+   * rather than the whole model
+   */
+  public Long base;
+  
   Object content_repr = null;
   
   @Override
@@ -48,6 +59,8 @@ public class Snapshot extends Change {
     	toRepr.content = this.content_repr;
     else
     	toRepr.content = this.content;
+    toRepr.version = this.version;
+    toRepr.base = this.base;
     toRepr.fromPeer = this.fromPeer;
     return toRepr;
     
@@ -25,7 +25,6 @@ package org.cloudml.mrt.sample;
 
 import org.cloudml.mrt.PeerStub;
 import org.cloudml.mrt.cmd.gen.CloudMLCmds;
-import org.yaml.snakeyaml.Yaml;
 
 /**
  *
@@ -46,8 +45,7 @@ public class SystemOutPeerStub extends PeerStub{
 
     @Override
     public void sendMessage(Object message) {
-        Yaml yaml = CloudMLCmds.INSTANCE.getYaml();
-        System.out.println(String.format(">>%s",yaml.dump(message)));
+        System.out.println(String.format(">>%s",CloudMLCmds.INSTANCE.dump(message)));
     }
     
 }
@@ -0,0 +1,100 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.mrt;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.cloudml.mrt.ChangeLog;
+import org.cloudml.mrt.cmd.abstracts.Change;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class ChangeLogTest {
+
+    @Test
+    public void appendShouldNumberTheChangesFromOne() {
+        final ChangeLog sut = new ChangeLog(4);
+        final List<Change> changes = changes(3);
+
+        final long last = sut.append(changes);
+
+        assertThat(last, is(equalTo(3L)));
+        assertThat(changes.get(0).sequence, is(equalTo(1L)));
+        assertThat(changes.get(2).sequence, is(equalTo(3L)));
+        assertThat(sut.getFirstSequence(), is(equalTo(1L)));
+        assertThat(sut.size(), is(equalTo(3)));
+    }
+
+    @Test
+    public void sinceShouldReturnTheChangesAfterTheCursorInOrder() {
+        final ChangeLog sut = new ChangeLog(4);
+        final List<Change> changes = changes(3);
+        sut.append(changes);
+
+        assertThat(sut.since(0), contains(changes.get(0), changes.get(1), changes.get(2)));
+        assertThat(sut.since(2), contains(changes.get(2)));
+        assertThat(sut.since(3), is(empty()));
+    }
+
+    @Test
+    public void theLogShouldOnlyRetainTheLastChangesOnceItWraps() {
+        final ChangeLog sut = new ChangeLog(4);
+        final List<Change> changes = changes(10);
+        sut.append(changes.subList(0, 3));
+        sut.append(changes.subList(3, 10));
+
+        assertThat(sut.getLastSequence(), is(equalTo(10L)));
+        assertThat(sut.getFirstSequence(), is(equalTo(7L)));
+        assertThat(sut.size(), is(equalTo(4)));
+        assertThat(sut.since(6), contains(changes.get(6), changes.get(7), changes.get(8), changes.get(9)));
+        assertThat(sut.since(8), contains(changes.get(8), changes.get(9)));
+    }
+
+    @Test
+    public void sinceShouldReturnNullOnceSomeMissedChangesAreEvicted() {
+        final ChangeLog sut = new ChangeLog(4);
+        sut.append(changes(10));
+
+        assertThat(sut.since(5), is(nullValue()));
+        assertThat(sut.since(0), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void theRetentionShouldBePositive() {
+        new ChangeLog(0);
+    }
+
+    private static List<Change> changes(int count) {
+        final List<Change> changes = new ArrayList<Change>();
+        for (int i = 0; i < count; i++) {
+            changes.add(new Change());
+        }
+        return changes;
+    }
+
+}
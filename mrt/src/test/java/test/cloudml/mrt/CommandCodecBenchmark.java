@@ -0,0 +1,125 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.mrt;
+
+import java.util.concurrent.TimeUnit;
+import org.cloudml.mrt.cmd.gen.CloudMLCmds;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.yaml.snakeyaml.Yaml;
+
+/**
+ * Measure how many commands per second the mrt wire codec decodes and
+ * encodes, for a typical mix of !set, !getSnapshot and !listenToAny
+ * messages. The concurrent variants compare the per-thread parsers with a
+ * single parser shared under a lock, as websocket and REST threads would
+ * otherwise have to do.
+ *
+ * Run it with: mvn -Pbenchmark test-compile exec:exec (in the mrt module) or
+ * directly through the main method below.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommandCodecBenchmark {
+
+    private static final String[] MIX = {
+        "!set { parent : \"/componentInstances[name='sensapp-sl1']\", keyValues : { status : RUNNING } }",
+        "!getSnapshot { path : \"/componentInstances[name='sensapp-sl1']/status\" }",
+        "!set { parent : \"/componentInstances[name='sensapp-sl1']\", keyValues : { cpu : 80, cpu-timestamp : 12343480 } }",
+        "!getSnapshot { path : \"/componentInstances[name='sensapp-sl1']\" , multimaps : { status : status, cpu : properties/cpu } }",
+        "!listenToAny "
+    };
+
+    @State(Scope.Thread)
+    public static class Messages {
+
+        private int next = 0;
+
+        public String next() {
+            final String message = MIX[next];
+            next = (next + 1) % MIX.length;
+            return message;
+        }
+
+    }
+
+    @State(Scope.Benchmark)
+    public static class SharedParser {
+
+        public Yaml yaml;
+
+        @Setup
+        public void prepare() {
+            yaml = new CloudMLCmds().getYaml();
+        }
+
+        public synchronized Object load(String message) {
+            return yaml.load(message);
+        }
+
+    }
+
+    @Benchmark
+    public Object decode(Messages messages) {
+        return CloudMLCmds.INSTANCE.load(messages.next());
+    }
+
+    @Benchmark
+    public String roundTrip(Messages messages) {
+        return CloudMLCmds.INSTANCE.dump(CloudMLCmds.INSTANCE.load(messages.next()));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object decodeConcurrently(Messages messages) {
+        return CloudMLCmds.INSTANCE.load(messages.next());
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object decodeConcurrentlyWithSharedParser(Messages messages, SharedParser parser) {
+        return parser.load(messages.next());
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(CommandCodecBenchmark.class.getSimpleName())
+                .build()).run();
+    }
+
+}
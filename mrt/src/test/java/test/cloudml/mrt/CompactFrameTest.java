@@ -0,0 +1,122 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.mrt;
+
+import java.nio.ByteBuffer;
+import org.cloudml.mrt.CompactFrame;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class CompactFrameTest {
+
+    @Test
+    public void framesShouldSurviveARoundTrip() {
+        final String text = "!set { parent : \"/componentInstances[name='server']\", keyValues : { status : RUNNING } }";
+        final CompactFrame sent = new CompactFrame(42, text);
+
+        final CompactFrame received = CompactFrame.read(ByteBuffer.wrap(sent.toBytes()));
+
+        assertThat(received.getCorrelationId(), is(equalTo(42)));
+        assertThat(received.getText(), is(equalTo(text)));
+    }
+
+    @Test
+    public void framesShouldKeepNonAsciiAndEmptyTexts() {
+        final String text = "name: \"d\u00e9ploiement \u2192 \u00e9t\u00e9\"";
+
+        assertThat(roundTrip(new CompactFrame(1, text)).getText(), is(equalTo(text)));
+        assertThat(roundTrip(new CompactFrame(2, "")).getText(), is(equalTo("")));
+    }
+
+    @Test
+    public void framesShouldKeepTextsLargerThanTheirBuffer() {
+        final StringBuilder model = new StringBuilder();
+        for (int i = 0; model.length() < 100000; i++) {
+            model.append("{\"name\":\"vm ").append(i).append("\",\"status\":\"RUNNING\"},");
+        }
+        final CompactFrame sent = new CompactFrame(7, model.toString());
+
+        final byte[] bytes = sent.toBytes();
+
+        assertThat(bytes.length, is(lessThan(model.length() / 4)));
+        assertThat(CompactFrame.read(ByteBuffer.wrap(bytes)).getText(), is(equalTo(model.toString())));
+    }
+
+    @Test
+    public void theCorrelationIdShouldLeadTheFrameInBigEndianOrder() {
+        final byte[] bytes = new CompactFrame(0x01020304, "!ack").toBytes();
+
+        assertThat(bytes[0], is(equalTo((byte) 0x01)));
+        assertThat(bytes[3], is(equalTo((byte) 0x04)));
+        assertThat(ByteBuffer.wrap(bytes).getInt(), is(equalTo(0x01020304)));
+    }
+
+    @Test
+    public void correlationIdsShouldBeKeptWhateverTheirValue() {
+        for (int id : new int[]{CompactFrame.UNCORRELATED, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE}) {
+            assertThat(roundTrip(new CompactFrame(id, "!ack")).getCorrelationId(), is(equalTo(id)));
+        }
+    }
+
+    @Test
+    public void onlyFramesWithANonZeroIdShouldBeCorrelated() {
+        assertThat(roundTrip(new CompactFrame(CompactFrame.UNCORRELATED, "!updated")).isCorrelated(), is(false));
+        assertThat(roundTrip(new CompactFrame(5, "!ack")).isCorrelated(), is(true));
+    }
+
+    @Test
+    public void framesShouldBeReadFromTheCurrentPositionOfTheBuffer() {
+        final byte[] frame = new CompactFrame(9, "!getSnapshot").toBytes();
+        final ByteBuffer buffer = ByteBuffer.allocate(frame.length + 3);
+        buffer.put(new byte[3]).put(frame).flip();
+        buffer.position(3);
+
+        final CompactFrame received = CompactFrame.read(buffer);
+
+        assertThat(received.getCorrelationId(), is(equalTo(9)));
+        assertThat(received.getText(), is(equalTo("!getSnapshot")));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void corruptedFramesShouldBeRejected() {
+        CompactFrame.read(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 42, 42, 42, 42}));
+    }
+
+    @Test
+    public void theProtocolShouldBeFoundAmongTheOfferedOnes() {
+        assertThat(CompactFrame.isOffered(CompactFrame.PROTOCOL), is(true));
+        assertThat(CompactFrame.isOffered("chat, " + CompactFrame.PROTOCOL), is(true));
+        assertThat(CompactFrame.isOffered("chat"), is(false));
+        assertThat(CompactFrame.isOffered(null), is(false));
+    }
+
+    private CompactFrame roundTrip(CompactFrame frame) {
+        return CompactFrame.read(ByteBuffer.wrap(frame.toBytes()));
+    }
+
+}
@@ -0,0 +1,113 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.mrt;
+
+import com.google.gson.JsonParser;
+import org.cloudml.mrt.ModelDelta;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class ModelDeltaTest {
+
+    private static final String BASE = "{\"name\":\"app\",\"providers\":[{\"name\":\"ec2\"}],"
+            + "\"vmInstances\":[{\"name\":\"vm 1\",\"status\":\"STOPPED\"},{\"name\":\"vm 2\",\"status\":\"STOPPED\"},{\"name\":\"vm 3\",\"status\":\"STOPPED\"}]}";
+
+    @Test
+    public void deltasShouldTurnTheBaseModelIntoTheTargetOne() {
+        final String target = "{\"name\":\"app\",\"providers\":[{\"name\":\"ec2\"}],"
+                + "\"vmInstances\":[{\"name\":\"vm 1\",\"status\":\"RUNNING\"},{\"name\":\"vm 3\",\"status\":\"STOPPED\"},{\"name\":\"vm 4\",\"status\":\"STOPPED\"}]}";
+
+        final ModelDelta delta = ModelDelta.between(BASE, target);
+
+        assertThat(sameJson(ModelDelta.parse(delta.toString()).applyTo(BASE), target), is(true));
+    }
+
+    @Test
+    public void deltasShouldOnlyHoldTheChangedElements() {
+        final String target = BASE.replace("{\"name\":\"vm 2\",\"status\":\"STOPPED\"}", "{\"name\":\"vm 2\",\"status\":\"RUNNING\"}");
+
+        final String delta = ModelDelta.between(BASE, target).toString();
+
+        assertThat(delta, containsString("vm 2"));
+        assertThat(delta, not(containsString("vm 1")));
+        assertThat(delta, not(containsString("vm 3")));
+        assertThat(delta, not(containsString("ec2")));
+    }
+
+    @Test
+    public void removedElementsShouldOnlyBeNamed() {
+        final String target = BASE.replace(",{\"name\":\"vm 3\",\"status\":\"STOPPED\"}", "");
+
+        final ModelDelta delta = ModelDelta.between(BASE, target);
+
+        assertThat(delta.toString(), not(containsString("STOPPED")));
+        assertThat(sameJson(delta.applyTo(BASE), target), is(true));
+    }
+
+    @Test
+    public void otherTopLevelValuesShouldBeReplacedOrRemovedAsAWhole() {
+        final String target = "{\"name\":\"renamed\",\"vmInstances\":[{\"name\":\"vm 1\",\"status\":\"STOPPED\"},{\"name\":\"vm 2\",\"status\":\"STOPPED\"},{\"name\":\"vm 3\",\"status\":\"STOPPED\"}],"
+                + "\"tags\":[\"a\",\"a\"]}";
+
+        final ModelDelta delta = ModelDelta.between(BASE, target);
+
+        assertThat(sameJson(delta.applyTo(BASE), target), is(true));
+    }
+
+    @Test
+    public void identicalModelsShouldGiveAnEmptyDelta() {
+        final ModelDelta delta = ModelDelta.between(BASE, BASE);
+
+        assertThat(delta.isEmpty(), is(true));
+        assertThat(sameJson(delta.applyTo(BASE), BASE), is(true));
+    }
+
+    @Test
+    public void digestsShouldNotDependOnTheLayoutOfTheJson() {
+        final String indented = BASE.replace(",", ",\n    ").replace("{", "{ ").replace(":", " : ");
+
+        assertThat(ModelDelta.digestOf(indented), is(equalTo(ModelDelta.digestOf(BASE))));
+        assertThat(ModelDelta.digestOf(BASE.replace("vm 3", "vm 4")), is(not(equalTo(ModelDelta.digestOf(BASE)))));
+    }
+
+    @Test
+    public void modelsRebuiltFromADeltaShouldMatchTheDigestOfTheTarget() {
+        final String target = "{\n  \"name\" : \"app\",\n  \"providers\" : [ { \"name\" : \"ec2\" } ],\n"
+                + "  \"vmInstances\" : [ { \"name\" : \"vm 1\", \"status\" : \"RUNNING\" }, { \"name\" : \"vm 3\", \"status\" : \"STOPPED\" }, { \"name\" : \"vm 4\", \"status\" : \"STOPPED\" } ]\n}";
+
+        final String rebuilt = ModelDelta.parse(ModelDelta.between(BASE, target).toString()).applyTo(BASE);
+
+        assertThat(ModelDelta.digestOf(rebuilt), is(equalTo(ModelDelta.digestOf(target))));
+    }
+
+    static boolean sameJson(String left, String right) {
+        final JsonParser parser = new JsonParser();
+        return parser.parse(left).equals(parser.parse(right));
+    }
+
+}
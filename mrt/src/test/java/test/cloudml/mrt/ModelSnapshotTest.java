@@ -0,0 +1,182 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.mrt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.cloudml.core.Deployment;
+import org.cloudml.mrt.Coordinator;
+import org.cloudml.mrt.ModelSnapshot;
+import org.cloudml.mrt.SimpleModelRepo;
+import org.cloudml.mrt.cmd.abstracts.Modification;
+import org.cloudml.mrt.cmd.abstracts.Property;
+import org.cloudml.mrt.cmd.abstracts.XPath;
+import org.cloudml.mrt.cmd.gen.Commit;
+import org.cloudml.mrt.cmd.gen.Set;
+import org.cloudml.mrt.sample.SystemOutPeerStub;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.cloudml.core.builders.Commons.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class ModelSnapshotTest {
+
+    private static final int ROUNDS = 200;
+    private static final int READERS = 3;
+
+    private Coordinator coordinator;
+    private Deployment model;
+
+    @Before
+    public void setUp() {
+        model = aDeployment()
+                .with(aProvider().named("ec2"))
+                .with(aVM().named("small").providedBy("ec2"))
+                .with(aVMInstance().named("vm 1").ofType("small"))
+                .with(aVMInstance().named("vm 2").ofType("small"))
+                .build();
+        coordinator = new Coordinator();
+        coordinator.setModelRepo(new SimpleModelRepo(model));
+        setRound(0);
+    }
+
+    @Test
+    public void successiveCommitsShouldShareASingleEncoding() {
+        final long before = coordinator.getSnapshot().getVersion();
+
+        for (int round = 1; round <= 5; round++) {
+            setRound(round);
+        }
+
+        final ModelSnapshot after = coordinator.getSnapshot();
+        assertThat(after.getVersion(), is(equalTo(before + 1)));
+        assertThat(roundsIn(after), contains("5", "5"));
+        assertThat(coordinator.getSnapshot(), is(sameInstance(after)));
+    }
+
+    @Test
+    public void readsShouldBeConsistentWhileAWriterIsRunning() throws InterruptedException {
+        final AtomicBoolean writing = new AtomicBoolean(true);
+        final List<Object> inconsistencies = new ArrayList<Object>();
+        final List<Thread> readers = new ArrayList<Thread>();
+        for (int i = 0; i < READERS; i++) {
+            final Thread reader = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (writing.get()) {
+                            final List<String> rounds = roundsIn(coordinator.getSnapshot());
+                            if (!rounds.get(0).equals(rounds.get(1))) {
+                                synchronized (inconsistencies) {
+                                    inconsistencies.add(rounds);
+                                }
+                            }
+                        }
+                    } catch (RuntimeException e) {
+                        synchronized (inconsistencies) {
+                            inconsistencies.add(e);
+                        }
+                    }
+                }
+            });
+            reader.start();
+            readers.add(reader);
+        }
+
+        for (int round = 1; round <= ROUNDS; round++) {
+            setRound(round);
+        }
+        writing.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+
+        assertThat(inconsistencies, is(empty()));
+        assertThat(roundsIn(coordinator.getSnapshot()), contains(String.valueOf(ROUNDS), String.valueOf(ROUNDS)));
+    }
+
+    @Test
+    public void readsShouldSeeTheModificationsMadeInPlaceWhileTheyGoOn() {
+        coordinator.getSnapshot();
+        coordinator.beginWritingInPlace();
+
+        final ModelSnapshot before = coordinator.getSnapshot();
+        model.getComponentInstances().firstNamed("vm 1").setProperty("round", "in place");
+        final ModelSnapshot during = coordinator.getSnapshot();
+        coordinator.endWritingInPlace();
+
+        assertThat(roundsIn(before), contains("0", "0"));
+        assertThat(roundsIn(during), contains("in place", "0"));
+    }
+
+    @Test
+    public void versionsReadWhileTheModelIsModifiedInPlaceShouldNotBeKept() {
+        coordinator.beginWritingInPlace();
+        final ModelSnapshot during = coordinator.getSnapshot();
+        model.getComponentInstances().firstNamed("vm 1").setProperty("round", "in place");
+
+        assertThat(coordinator.getSnapshot(), is(not(sameInstance(during))));
+
+        coordinator.endWritingInPlace();
+        final ModelSnapshot after = coordinator.getSnapshot();
+        assertThat(after.getVersion(), is(greaterThan(during.getVersion())));
+        assertThat(roundsIn(after), contains("in place", "0"));
+        assertThat(coordinator.getSnapshot(), is(sameInstance(after)));
+    }
+
+    /**
+     * Set the round on both VMs, in a single commit
+     */
+    private void setRound(int round) {
+        final List<Modification> modifications = new ArrayList<Modification>();
+        for (String vm : new String[]{"vm 1", "vm 2"}) {
+            final Map<Property, Object> keyValues = new HashMap<Property, Object>();
+            keyValues.put(new Property("properties/round"), String.valueOf(round));
+            final Set set = new Set();
+            set.parent = new XPath("/componentInstances[name='" + vm + "']");
+            set.keyValues = keyValues;
+            modifications.add(set);
+        }
+        final Commit commit = new Commit();
+        commit.modifications = modifications;
+        coordinator.process(commit, new SystemOutPeerStub("writer"));
+    }
+
+    private static List<String> roundsIn(ModelSnapshot snapshot) {
+        final Deployment model = snapshot.getModel();
+        final List<String> rounds = new ArrayList<String>();
+        for (String vm : new String[]{"vm 1", "vm 2"}) {
+            rounds.add(String.valueOf(model.getComponentInstances().firstNamed(vm).getProperties().valueOf("round")));
+        }
+        return rounds;
+    }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.mrt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.cloudml.core.Deployment;
+import org.cloudml.mrt.ChangeLog;
+import org.cloudml.mrt.Coordinator;
+import org.cloudml.mrt.ModelDelta;
+import org.cloudml.mrt.SimpleModelRepo;
+import org.cloudml.mrt.cmd.abstracts.Modification;
+import org.cloudml.mrt.cmd.abstracts.Property;
+import org.cloudml.mrt.cmd.abstracts.XPath;
+import org.cloudml.mrt.cmd.gen.Commit;
+import org.cloudml.mrt.cmd.gen.GetSnapshot;
+import org.cloudml.mrt.cmd.gen.Set;
+import org.cloudml.mrt.cmd.gen.Snapshot;
+import org.cloudml.mrt.sample.SystemOutPeerStub;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.cloudml.core.builders.Commons.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import static test.cloudml.mrt.ModelDeltaTest.sameJson;
+
+/**
+ * Test how peers catch up with the model of the coordinator
+ */
+@RunWith(JUnit4.class)
+public class ModelSyncTest {
+
+    private static final String RETENTION = "cloudml.changeLog.retention";
+
+    private Coordinator coordinator;
+    private Deployment model;
+
+    @After
+    public void tearDown() {
+        System.clearProperty(RETENTION);
+    }
+
+    @Test
+    public void deltasShouldTurnTheVersionOfTheClientIntoTheCurrentOne() {
+        start(ChangeLog.DEFAULT_RETENTION);
+        final Snapshot first = sync(0);
+
+        set("vm 2", "cpu", "80");
+        set("vm 2", "status", "RUNNING");
+        final Snapshot second = sync(first.version);
+
+        assertThat(first.base, is(nullValue()));
+        assertThat(second.base, is(equalTo(first.version)));
+        assertThat(second.version, is(greaterThan(first.version)));
+        final String rebuilt = ModelDelta.parse(second.content.toString()).applyTo(first.content.toString());
+        assertThat(sameJson(rebuilt, coordinator.getSnapshot().getJson()), is(true));
+    }
+
+    @Test
+    public void deltasShouldOnlyCompareTheElementsReportedByTheChangeLog() {
+        start(ChangeLog.DEFAULT_RETENTION);
+        final Snapshot first = sync(0);
+
+        model.getComponentInstances().firstNamed("vm 3").setProperty("cpu", "10");
+        set("vm 2", "cpu", "80");
+        final String delta = sync(first.version).content.toString();
+
+        assertThat(delta, containsString("vm 2"));
+        assertThat(delta, not(containsString("vm 1")));
+        assertThat(delta, not(containsString("vm 3")));
+    }
+
+    @Test
+    public void modificationsMadeInPlaceShouldBeComparedAsAWhole() {
+        start(ChangeLog.DEFAULT_RETENTION);
+        final Snapshot first = sync(0);
+
+        coordinator.beginWritingInPlace();
+        model.getComponentInstances().firstNamed("vm 3").setProperty("cpu", "10");
+        coordinator.endWritingInPlace();
+        set("vm 2", "cpu", "80");
+        final Snapshot second = sync(first.version);
+
+        assertThat(second.base, is(equalTo(first.version)));
+        assertThat(second.content.toString(), allOf(containsString("vm 2"), containsString("vm 3")));
+        final String rebuilt = ModelDelta.parse(second.content.toString()).applyTo(first.content.toString());
+        assertThat(sameJson(rebuilt, coordinator.getSnapshot().getJson()), is(true));
+    }
+
+    @Test
+    public void versionsPublishedWhileTheModelIsModifiedInPlaceShouldBeComparedAsAWhole() {
+        start(ChangeLog.DEFAULT_RETENTION);
+        coordinator.beginWritingInPlace();
+        final Snapshot first = sync(0);
+
+        model.getComponentInstances().firstNamed("vm 3").setProperty("cpu", "10");
+        set("vm 2", "cpu", "80");
+        final Snapshot second = sync(first.version);
+        coordinator.endWritingInPlace();
+
+        assertThat(second.content.toString(), allOf(containsString("vm 2"), containsString("vm 3")));
+    }
+
+    @Test
+    public void clientsShouldGetTheWholeModelOnceTheChangeLogHasWrapped() {
+        start(2);
+        final Snapshot first = sync(0);
+
+        set("vm 1", "cpu", "10");
+        set("vm 2", "cpu", "20");
+        set("vm 3", "cpu", "30");
+        final Snapshot second = sync(first.version);
+
+        assertThat(second.base, is(nullValue()));
+        assertThat(second.content.toString(), is(equalTo(coordinator.getSnapshot().getJson())));
+    }
+
+    @Test
+    public void clientsShouldGetADeltaAsLongAsTheChangeLogHoldsTheirChanges() {
+        start(2);
+        final Snapshot first = sync(0);
+
+        set("vm 1", "cpu", "10");
+        set("vm 2", "cpu", "20");
+        final Snapshot second = sync(first.version);
+
+        assertThat(second.base, is(equalTo(first.version)));
+    }
+
+    @Test
+    public void clientsWithAnUnknownVersionShouldGetTheWholeModel() {
+        start(ChangeLog.DEFAULT_RETENTION);
+
+        final Snapshot sync = sync(42);
+
+        assertThat(sync.base, is(nullValue()));
+        assertThat(sync.content.toString(), is(equalTo(coordinator.getSnapshot().getJson())));
+    }
+
+    private void start(int retention) {
+        System.setProperty(RETENTION, String.valueOf(retention));
+        model = aDeployment()
+                .named("app")
+                .with(aProvider().named("ec2"))
+                .with(aVM().named("small").providedBy("ec2"))
+                .with(aVMInstance().named("vm 1").ofType("small"))
+                .with(aVMInstance().named("vm 2").ofType("small"))
+                .with(aVMInstance().named("vm 3").ofType("small"))
+                .build();
+        coordinator = new Coordinator();
+        coordinator.setModelRepo(new SimpleModelRepo(model));
+    }
+
+    private Snapshot sync(long since) {
+        final GetSnapshot query = new GetSnapshot();
+        query.path = new XPath("/");
+        query.since = since;
+        return (Snapshot) coordinator.process(query, new SystemOutPeerStub("client"));
+    }
+
+    private void set(String vm, String property, String value) {
+        final Map<Property, Object> keyValues = new HashMap<Property, Object>();
+        keyValues.put(new Property("properties/" + property), value);
+        final Set set = new Set();
+        set.parent = new XPath("/componentInstances[name='" + vm + "']");
+        set.keyValues = keyValues;
+        final List<Modification> modifications = new ArrayList<Modification>();
+        modifications.add(set);
+        final Commit commit = new Commit();
+        commit.modifications = modifications;
+        coordinator.process(commit, new SystemOutPeerStub("writer"));
+    }
+
+}
@@ -0,0 +1,188 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.mrt;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.cloudml.mrt.Coordinator;
+import org.cloudml.mrt.NodificationCentre;
+import org.cloudml.mrt.PeerStub;
+import org.cloudml.mrt.cmd.gen.Ack;
+import org.cloudml.mrt.cmd.gen.ListenToAny;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class NodificationCentreTest {
+
+    private static final int QUEUE_CAPACITY = Integer.getInteger("cloudml.notification.queueCapacity", 1024);
+    private static final int DELIVERIES_PER_TURN = Integer.getInteger("cloudml.notification.deliveriesPerTurn", 64);
+
+    private Coordinator coordinator;
+    private final CountDownLatch released = new CountDownLatch(1);
+
+    @Before
+    public void setUp() {
+        coordinator = new Coordinator();
+    }
+
+    @After
+    public void releaseSlowPeers() {
+        released.countDown();
+    }
+
+    @Test
+    public void aSlowListenerShouldDelayNeitherTheCommitsNorTheOtherListeners() throws InterruptedException {
+        final Peer slow = listen(new Peer("slow", released));
+        final Peer fast = listen(new Peer("fast", null));
+
+        final long start = System.nanoTime();
+        commit(10);
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(elapsed, is(lessThan(1000L)));
+        assertThat(fast.awaitMessages(10), is(equalTo(10)));
+        assertThat(slow.received(), is(lessThan(10)));
+    }
+
+    @Test
+    public void aFullQueueShouldDropAndCountTheChangesWithoutBlocking() throws InterruptedException {
+        final Peer slow = listen(new Peer("slow", released));
+        final int committed = QUEUE_CAPACITY + DELIVERIES_PER_TURN + 100;
+
+        final long start = System.nanoTime();
+        commit(committed);
+        final long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertThat(elapsed, is(lessThan(5000L)));
+        final NodificationCentre.Metrics metrics = coordinator.getNotificationMetrics().get("any-slow");
+        assertThat(metrics.getDropped(), is(greaterThanOrEqualTo(100L)));
+        assertThat(metrics.getMaxQueueDepth(), is(equalTo(QUEUE_CAPACITY)));
+
+        released.countDown();
+        final int expected = committed - (int) metrics.getDropped() + 1;
+        assertThat(slow.awaitMessages(expected), is(equalTo(expected)));
+    }
+
+    @Test
+    public void aPeerWhoseChangesWereDroppedShouldBeToldWhereToResyncFrom() throws InterruptedException {
+        final Peer slow = listen(new Peer("slow", released));
+        final int committed = QUEUE_CAPACITY + DELIVERIES_PER_TURN + 100;
+        commit(committed);
+        final long dropped = coordinator.getNotificationMetrics().get("any-slow").getDropped();
+
+        released.countDown();
+        final int expected = committed - (int) dropped + 1;
+        assertThat(slow.awaitMessages(expected), is(equalTo(expected)));
+
+        final Object marker = slow.messages.get(expected - 1);
+        assertThat(marker, is(instanceOf(Ack.class)));
+        assertThat(((Ack) marker).status, is(equalTo(NodificationCentre.RESYNC)));
+        assertThat(((Ack) marker).sequence, is(equalTo(((Ack) slow.messages.get(expected - 2)).sequence)));
+        assertThat(((Ack) marker).sequence, is(equalTo(committed - dropped)));
+    }
+
+    @Test
+    public void changesCommittedAfterAResyncShouldBeDeliveredAgain() throws InterruptedException {
+        final Peer slow = listen(new Peer("slow", released));
+        final int committed = QUEUE_CAPACITY + DELIVERIES_PER_TURN + 100;
+        commit(committed);
+        final long dropped = coordinator.getNotificationMetrics().get("any-slow").getDropped();
+        released.countDown();
+        slow.awaitMessages(committed - (int) dropped + 1);
+
+        commit(3);
+
+        assertThat(slow.awaitMessages(committed - (int) dropped + 4), is(equalTo(committed - (int) dropped + 4)));
+        assertThat(coordinator.getNotificationMetrics().get("any-slow").getDropped(), is(equalTo(dropped)));
+    }
+
+    private Peer listen(Peer peer) {
+        final ListenToAny listener = new ListenToAny();
+        listener.id = "any-";
+        coordinator.process(listener, peer);
+        return peer;
+    }
+
+    private void commit(int count) {
+        for (int i = 0; i < count; i++) {
+            coordinator.ack("ok", "tester");
+        }
+    }
+
+    /**
+     * A peer that counts the messages it receives, and that may block on the
+     * first one until it is released
+     */
+    private static class Peer extends PeerStub {
+
+        private final String id;
+        private final CountDownLatch release;
+        private final List<Object> messages = Collections.synchronizedList(new ArrayList<Object>());
+
+        public Peer(String id, CountDownLatch release) {
+            this.id = id;
+            this.release = release;
+        }
+
+        @Override
+        public String getID() {
+            return id;
+        }
+
+        @Override
+        public void sendMessage(Object message) {
+            if (release != null) {
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            messages.add(message);
+        }
+
+        public int received() {
+            return messages.size();
+        }
+
+        public int awaitMessages(int count) throws InterruptedException {
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (received() < count && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            return received();
+        }
+
+    }
+
+}
@@ -0,0 +1,103 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package test.cloudml.mrt;
+
+import org.apache.commons.jxpath.JXPathContext;
+import org.apache.commons.jxpath.JXPathNotFoundException;
+import org.cloudml.core.Deployment;
+import org.cloudml.mrt.cmd.abstracts.XPath;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import static org.cloudml.core.samples.SshClientServer.*;
+
+/**
+ * The paths that select an element by name are resolved through the indexes
+ * of the deployment: they must yield what JXPath alone yields.
+ */
+@RunWith(JUnit4.class)
+public class XPathTest {
+
+    private final Deployment model = getTwoClientsConnectedToTwoServers().build();
+
+    @Test
+    public void namedElementsShouldBeTheOnesJXPathFinds() {
+        assertSameAsJXPath("/componentInstances[name='" + CLIENT_2 + "']");
+        assertSameAsJXPath("componentInstances[name='" + SERVER_2 + "']");
+        assertSameAsJXPath("/components[name='" + SSH_CLIENT + "']");
+        assertSameAsJXPath("/relationshipInstances[name='" + model.getRelationshipInstances().toList().get(1).getName() + "']");
+        assertSameAsJXPath("/providers[name='" + AMAZON_EC2 + "']");
+    }
+
+    @Test
+    public void theRestOfThePathShouldBeEvaluatedFromTheNamedElement() {
+        assertSameAsJXPath("/componentInstances[name='" + CLIENT_1 + "']/name");
+        assertSameAsJXPath("/componentInstances[name='" + CLIENT_1 + "']/type/name");
+        assertSameAsJXPath("/componentInstances[name='" + SERVER_1 + "']/status");
+    }
+
+    @Test
+    public void otherPathsShouldBeLeftToJXPath() {
+        assertSameAsJXPath("/componentInstances[name=\"" + VM_OF_CLIENT_1 + "\"]");
+        assertSameAsJXPath("/componentInstances[type/name='" + SSH_SERVER + "']");
+        assertSameAsJXPath("/componentInstances[2]");
+        assertSameAsJXPath("/name");
+    }
+
+    @Test
+    public void theFirstOfTheHomonymsShouldBeSelected() {
+        model.getComponentInstances().firstNamed(CLIENT_2).setName(CLIENT_1);
+
+        assertSameAsJXPath("/componentInstances[name='" + CLIENT_1 + "']");
+    }
+
+    @Test
+    public void renamedElementsShouldBeFoundUnderTheirNewName() {
+        model.getComponentInstances().firstNamed(CLIENT_2).setName("renamed");
+
+        assertSameAsJXPath("/componentInstances[name='renamed']");
+    }
+
+    @Test(expected = JXPathNotFoundException.class)
+    public void missingElementsShouldNotBeFound() {
+        new XPath("/componentInstances[name='missing']").query(model);
+    }
+
+    @Test(expected = JXPathNotFoundException.class)
+    public void missingElementsShouldNotBeFoundByJXPathEither() {
+        JXPathContext.newContext(model).getValue("/componentInstances[name='missing']");
+    }
+
+    private void assertSameAsJXPath(String path) {
+        final Object expected = JXPathContext.newContext(model).getValue(path);
+
+        final Object actual = new XPath(path).query(model);
+
+        assertThat(path, actual, is(sameInstance(expected)));
+    }
+
+}
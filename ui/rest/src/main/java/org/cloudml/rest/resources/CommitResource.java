@@ -35,7 +35,6 @@ import org.cloudml.mrt.cmd.gen.CloudMLCmds;
 import org.cloudml.mrt.cmd.abstracts.Modification;
 import org.cloudml.mrt.cmd.gen.Commit;
 import org.cloudml.rest.RestDaemon;
-import org.yaml.snakeyaml.Yaml;
 
 /**
  *
@@ -54,9 +53,7 @@ public class CommitResource {
         try{
             Commit commit = new Commit();
             commit.modifications = new ArrayList<Modification>();
-            Yaml yaml = CloudMLCmds.INSTANCE.getYaml();
-
-            Object obj =  yaml.load(commands);
+            Object obj = CloudMLCmds.INSTANCE.load(commands);
 
             if(obj instanceof Modification){
                 commit.modifications.add((Modification) obj);
@@ -38,6 +38,7 @@ import javax.ws.rs.core.MediaType;
 import org.cloudml.codecs.JsonCodec;
 import org.cloudml.core.Deployment;
 import org.cloudml.mrt.Coordinator;
+import org.cloudml.mrt.ModelSnapshot;
 import org.cloudml.mrt.cmd.abstracts.XPath;
 import org.cloudml.mrt.cmd.gen.CloudMLCmds;
 import org.cloudml.mrt.cmd.gen.GetSnapshot;
@@ -61,6 +62,10 @@ public class QueryResource {
             GetSnapshot cmd = new GetSnapshot();
             if(path == null || path.length()==0)
                 path = "/";
+            if ("/".equals(path) && (codec == null || !"text".equals(codec.toLowerCase()))) {
+                final ModelSnapshot snapshot = coord.getSnapshot();
+                return snapshot == null ? null : snapshot.getJson();
+            }
 
             cmd.path = new XPath(path);
 
@@ -90,10 +95,10 @@ public class QueryResource {
         else if(object instanceof Collection){
             List list = new ArrayList();
             list.addAll((Collection)object);
-            return CloudMLCmds.INSTANCE.getYaml().dump(list);
+            return CloudMLCmds.INSTANCE.dump(list);
         }
         else{            
-            return CloudMLCmds.INSTANCE.getYaml().dump(object);
+            return CloudMLCmds.INSTANCE.dump(object);
         }
     }
     
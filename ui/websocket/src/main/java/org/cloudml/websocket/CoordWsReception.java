@@ -29,17 +29,26 @@
 package org.cloudml.websocket;
 
 import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.cloudml.mrt.CommandReception;
+import org.cloudml.mrt.CompactFrame;
 import org.cloudml.mrt.Coordinator;
+import org.cloudml.mrt.cmd.gen.Ack;
+import org.cloudml.mrt.cmd.gen.CloudMLCmds;
 import org.java_websocket.WebSocket;
 import org.java_websocket.drafts.Draft;
 import org.java_websocket.drafts.Draft_17;
+import org.java_websocket.exceptions.InvalidDataException;
 import org.java_websocket.handshake.ClientHandshake;
+import org.java_websocket.handshake.ServerHandshakeBuilder;
 import org.java_websocket.server.WebSocketServer;
 
 /**
@@ -50,6 +59,10 @@ public class CoordWsReception extends WebSocketServer implements CommandReceptio
 
     Coordinator coord = null;
     List<WebSocket> activeComponents = new ArrayList<WebSocket>();
+    /**
+     * The connections that negotiated the compact sub-protocol
+     */
+    Set<WebSocket> compact = Collections.newSetFromMap(new ConcurrentHashMap<WebSocket, Boolean>());
     private static final Logger journal = Logger.getLogger(CoordWsReception.class.getName());
 
     public CoordWsReception(int port){
@@ -64,28 +77,78 @@ public class CoordWsReception extends WebSocketServer implements CommandReceptio
         this.coord = coord;
     }
 
+    /**
+     * Accept the compact sub-protocol if the client offers it. Clients that
+     * do not keep exchanging plain YAML text frames.
+     */
+    @Override
+    public ServerHandshakeBuilder onWebsocketHandshakeReceivedAsServer(WebSocket ws, Draft draft, ClientHandshake request) throws InvalidDataException {
+        final ServerHandshakeBuilder response = super.onWebsocketHandshakeReceivedAsServer(ws, draft, request);
+        if (CompactFrame.isOffered(request.getFieldValue(CompactFrame.PROTOCOL_HEADER))) {
+            response.put(CompactFrame.PROTOCOL_HEADER, CompactFrame.PROTOCOL);
+            compact.add(ws);
+        }
+        return response;
+    }
+
     @Override
     public void onOpen(WebSocket ws, ClientHandshake ch) {
         System.out.printf("A component is connected from: %s\n", ws.getRemoteSocketAddress());
         activeComponents.add(ws);
-        ws.send(String.format("!connected\n  yourID : %s\n", ws.getRemoteSocketAddress()));
+        stubOf(ws).send(String.format("!connected\n  yourID : %s\n", ws.getRemoteSocketAddress()), CompactFrame.UNCORRELATED);
     }
 
     @Override
     public void onClose(WebSocket ws, int i, String string, boolean bln) {
         System.out.printf("%s left.\n", ws.getRemoteSocketAddress());
-        coord.removeListener(new WsPeerStub(ws));
+        coord.removeListener(stubOf(ws));
         activeComponents.remove(ws);
+        compact.remove(ws);
     }
 
     @Override
     public void onMessage(WebSocket ws, String string) {
         System.out.printf("%s said: %s\n", ws.getRemoteSocketAddress(), string);
-        Object ret = coord.process(string, new WsPeerStub(ws));
+        Object ret = coord.process(string, stubOf(ws));
         if(ret != null)
             ws.send(ret.toString());
     }
 
+    /**
+     * Process a request of the compact sub-protocol. A correlated request is
+     * always answered, with the return of the command or, if there is none,
+     * with an acknowledgement telling whether it was processed.
+     */
+    @Override
+    public void onMessage(WebSocket ws, ByteBuffer bytes) {
+        final CompactFrame request = CompactFrame.read(bytes);
+        final WsPeerStub peer = stubOf(ws);
+        String reply;
+        try {
+            reply = coord.process(request.getText(), peer);
+        } catch (RuntimeException ex) {
+            journal.log(Level.SEVERE, "Unable to process request " + request.getCorrelationId() + " from " + peer.getID(), ex);
+            reply = acknowledgement("failed: " + ex.getMessage());
+        }
+        if (reply == null || reply.isEmpty()) {
+            if (!request.isCorrelated()) {
+                return;
+            }
+            reply = acknowledgement("processed");
+        }
+        peer.send(reply, request.getCorrelationId());
+    }
+
+    private String acknowledgement(String status) {
+        final Ack ack = new Ack();
+        ack.status = status;
+        return CloudMLCmds.INSTANCE.dump(ack);
+    }
+
+    private WsPeerStub stubOf(WebSocket ws) {
+        return new WsPeerStub(ws, compact.contains(ws));
+    }
+
     @Override
     public void onError(WebSocket ws, Exception excptn) {
         excptn.printStackTrace();
@@ -28,10 +28,10 @@
 
 package org.cloudml.websocket;
 
+import org.cloudml.mrt.CompactFrame;
 import org.cloudml.mrt.PeerStub;
 import org.cloudml.mrt.cmd.gen.CloudMLCmds;
 import org.java_websocket.WebSocket;
-import org.yaml.snakeyaml.Yaml;
 
 /**
  *
@@ -41,9 +41,18 @@ public class WsPeerStub extends PeerStub{
 
     WebSocket webSocket = null;
     String id = null;
+    boolean compact = false;
 
     public WsPeerStub(WebSocket webSocket){
+        this(webSocket, false);
+    }
+
+    /**
+     * @param compact true if the peer negotiated the compact sub-protocol
+     */
+    public WsPeerStub(WebSocket webSocket, boolean compact){
         this.webSocket = webSocket;
+        this.compact = compact;
         id = webSocket.getRemoteSocketAddress().toString();
     }
 
@@ -54,13 +63,22 @@ public class WsPeerStub extends PeerStub{
 
     @Override
     public void sendMessage(Object message) {
-        Yaml yaml = CloudMLCmds.INSTANCE.getYaml();
         try{
-            webSocket.send(yaml.dump(message));
+            send(CloudMLCmds.INSTANCE.dump(message), CompactFrame.UNCORRELATED);
         }
         catch(Exception ex){
             ex.printStackTrace();
         }
     }
 
+    /**
+     * Send the given text in the framing negotiated by the peer
+     */
+    void send(String text, int correlationId){
+        if(compact)
+            webSocket.send(new CompactFrame(correlationId, text).toBytes());
+        else
+            webSocket.send(text);
+    }
+
 }
@@ -0,0 +1,171 @@
+/**
+ * This file is part of CloudML [ http://cloudml.org ]
+ *
+ * Copyright (C) 2012 - SINTEF ICT
+ * Contact: Franck Chauvel <franck.chauvel@sintef.no>
+ *
+ * Module: root
+ *
+ * CloudML is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 3 of
+ * the License, or (at your option) any later version.
+ *
+ * CloudML is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General
+ * Public License along with CloudML. If not, see
+ * <http://www.gnu.org/licenses/>.
+ */
+package org.cloudml.websocket;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.cloudml.core.Deployment;
+import org.cloudml.mrt.CompactFrame;
+import org.cloudml.mrt.Coordinator;
+import org.cloudml.mrt.SimpleModelRepo;
+import org.java_websocket.WebSocket;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import static org.cloudml.core.builders.Commons.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+@RunWith(JUnit4.class)
+public class CoordWsReceptionTest {
+
+    private static final String SET_STATUS = "!set { parent : \"/componentInstances[name='vm 1']\", keyValues : { status : RUNNING } }";
+    private static final String GET_NAME = "!getSnapshot { path : \"/componentInstances[name='vm 1']/name\" }";
+
+    private CoordWsReception sut;
+    private FakeWebSocket client;
+
+    @Before
+    public void setUp() {
+        final Deployment model = aDeployment()
+                .with(aProvider().named("ec2"))
+                .with(aVM().named("small").providedBy("ec2"))
+                .with(aVMInstance().named("vm 1").ofType("small"))
+                .build();
+        final Coordinator coordinator = new Coordinator();
+        coordinator.setModelRepo(new SimpleModelRepo(model));
+        sut = new CoordWsReception(0, coordinator);
+        client = new FakeWebSocket();
+        sut.compact.add(client.proxy);
+    }
+
+    @Test
+    public void correlatedRequestsShouldBeAnsweredWithTheirReturnUnderTheSameId() {
+        sut.onMessage(client.proxy, frame(17, GET_NAME));
+
+        assertThat(client.frames, hasSize(1));
+        assertThat(client.frames.get(0).getCorrelationId(), is(equalTo(17)));
+        assertThat(client.frames.get(0).getText(), containsString("###return of GetSnapshot###"));
+    }
+
+    @Test
+    public void correlatedRequestsWithoutReturnShouldBeAcknowledgedUnderTheSameId() {
+        sut.onMessage(client.proxy, frame(18, SET_STATUS));
+
+        assertThat(client.frames, hasSize(1));
+        assertThat(client.frames.get(0).getCorrelationId(), is(equalTo(18)));
+        assertThat(client.frames.get(0).getText(), allOf(startsWith("!ack"), containsString("processed")));
+    }
+
+    @Test
+    public void failedRequestsShouldBeAcknowledgedUnderTheSameId() {
+        sut.onMessage(client.proxy, frame(19, "!noSuchCommand { path : / }"));
+
+        assertThat(client.frames, hasSize(1));
+        assertThat(client.frames.get(0).getCorrelationId(), is(equalTo(19)));
+        assertThat(client.frames.get(0).getText(), allOf(startsWith("!ack"), containsString("failed")));
+    }
+
+    @Test
+    public void uncorrelatedRequestsWithoutReturnShouldNotBeAnswered() {
+        sut.onMessage(client.proxy, frame(CompactFrame.UNCORRELATED, SET_STATUS));
+
+        assertThat(client.frames, is(empty()));
+    }
+
+    @Test
+    public void interleavedRequestsShouldEachGetTheirOwnReply() {
+        sut.onMessage(client.proxy, frame(21, SET_STATUS));
+        sut.onMessage(client.proxy, frame(22, GET_NAME));
+        sut.onMessage(client.proxy, frame(CompactFrame.UNCORRELATED, SET_STATUS));
+        sut.onMessage(client.proxy, frame(23, SET_STATUS));
+
+        final List<Integer> ids = new ArrayList<Integer>();
+        for (CompactFrame reply : client.frames) {
+            ids.add(reply.getCorrelationId());
+        }
+        assertThat(ids, contains(21, 22, 23));
+    }
+
+    @Test
+    public void notificationsShouldBeSentAsUncorrelatedFrames() {
+        new WsPeerStub(client.proxy, true).sendMessage(CompactFrame.PROTOCOL);
+
+        assertThat(client.frames, hasSize(1));
+        assertThat(client.frames.get(0).isCorrelated(), is(false));
+        assertThat(client.texts, is(empty()));
+    }
+
+    @Test
+    public void plainTextPeersShouldKeepReceivingTextFrames() {
+        new WsPeerStub(client.proxy, false).sendMessage(CompactFrame.PROTOCOL);
+
+        assertThat(client.frames, is(empty()));
+        assertThat(client.texts, hasSize(1));
+    }
+
+    private static ByteBuffer frame(int correlationId, String text) {
+        return ByteBuffer.wrap(new CompactFrame(correlationId, text).toBytes());
+    }
+
+    /**
+     * Records what the server sends to a client, decoding the compact frames
+     */
+    private static class FakeWebSocket implements InvocationHandler {
+
+        private static final InetSocketAddress ADDRESS = InetSocketAddress.createUnresolved("client", 4242);
+
+        private final List<CompactFrame> frames = new ArrayList<CompactFrame>();
+        private final List<String> texts = new ArrayList<String>();
+        private final WebSocket proxy = (WebSocket) Proxy.newProxyInstance(WebSocket.class.getClassLoader(), new Class<?>[]{WebSocket.class}, this);
+
+        @Override
+        public Object invoke(Object self, Method method, Object[] arguments) {
+            final String name = method.getName();
+            if (name.equals("send") && arguments[0] instanceof byte[]) {
+                frames.add(CompactFrame.read(ByteBuffer.wrap((byte[]) arguments[0])));
+            } else if (name.equals("send") && arguments[0] instanceof String) {
+                texts.add((String) arguments[0]);
+            } else if (name.equals("getRemoteSocketAddress") || name.equals("getLocalSocketAddress")) {
+                return ADDRESS;
+            } else if (name.equals("hashCode")) {
+                return System.identityHashCode(self);
+            } else if (name.equals("equals")) {
+                return self == arguments[0];
+            } else if (name.equals("toString")) {
+                return "client";
+            } else if (method.getReturnType() == boolean.class) {
+                return false;
+            }
+            return null;
+        }
+    }
+
+}